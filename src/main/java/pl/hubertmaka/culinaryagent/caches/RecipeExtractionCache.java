@@ -0,0 +1,108 @@
+package pl.hubertmaka.culinaryagent.caches;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaResponseDto;
+import pl.hubertmaka.culinaryagent.utils.SingleFlight;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, content-addressed cache of recipe extraction results. Entries are evicted by size using Caffeine's
+ * frequency-aware (W-TinyLFU) admission policy and expire after a configurable time to live. Hit, miss and
+ * eviction statistics are published to the meter registry under the {@code recipe-extraction} cache name.
+ * Concurrent misses of the same key are coalesced, so only one extraction runs per key at a time and the number
+ * of extractions saved this way is counted by the {@code recipe.extraction.coalesced} counter.
+ */
+@Component
+public class RecipeExtractionCache {
+    /** Logger for logging information and debugging purposes. */
+    private static final Logger log = LoggerFactory.getLogger(RecipeExtractionCache.class);
+    /** The name under which the cache metrics are published. */
+    private static final String CACHE_NAME = "recipe-extraction";
+    /** The underlying cache of extraction results keyed by the content hash. */
+    private final Cache<String, RecipeSchemaResponseDto> cache;
+    /** Whether cached results are used at all. */
+    private final boolean enabled;
+    /** The extractions currently in flight, shared by concurrent requests with the same key. */
+    private final SingleFlight<String, RecipeSchemaResponseDto> inFlightExtractions;
+
+    /**
+     * Constructor for RecipeExtractionCache.
+     *
+     * @param enabled whether cached results are used at all
+     * @param maximumSize the maximum number of cached extraction results
+     * @param ttl the time after which a cached extraction result expires
+     * @param meterRegistry the registry the cache statistics are published to, injected by Spring
+     */
+    public RecipeExtractionCache(
+            @Value("${culinary-agent.extraction.cache.enabled}") boolean enabled,
+            @Value("${culinary-agent.extraction.cache.maximum-size}") long maximumSize,
+            @Value("${culinary-agent.extraction.cache.ttl}") Duration ttl,
+            MeterRegistry meterRegistry
+    ) {
+        log.info("Creating recipe extraction cache [enabled={}, maximumSize={}, ttl={}]...", enabled, maximumSize, ttl);
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+        this.inFlightExtractions = new SingleFlight<>(Counter.builder("recipe.extraction.coalesced")
+                .description("Extractions served by an identical extraction already in flight")
+                .register(meterRegistry));
+    }
+
+    /**
+     * Returns the cached extraction result for the given key, or computes and caches it using the loader.
+     * The loader runs outside of any cache lock, so long-running extractions never block other keys, and concurrent
+     * callers of the same key wait for a single run of the loader and share its result or its failure. Requests
+     * are coalesced even when caching is disabled.
+     *
+     * @param key the content hash identifying the extraction
+     * @param loader the supplier performing the extraction on a cache miss
+     * @return the cached or freshly extracted RecipeSchemaResponseDto
+     */
+    public RecipeSchemaResponseDto get(String key, Supplier<RecipeSchemaResponseDto> loader) {
+        if (!enabled) {
+            return inFlightExtractions.execute(key, loader);
+        }
+        RecipeSchemaResponseDto cached = cache.getIfPresent(key);
+        if (cached != null) {
+            log.info("Recipe extraction cache hit [key={}]", key);
+            return cached;
+        }
+        return inFlightExtractions.execute(key, () -> load(key, loader));
+    }
+
+    /**
+     * Runs the loader for a key that missed the cache and caches its result. The cache is checked once more first,
+     * without recording statistics, because an identical extraction may have completed between the lookup and the
+     * start of this one.
+     *
+     * @param key the content hash identifying the extraction
+     * @param loader the supplier performing the extraction
+     * @return the cached or freshly extracted RecipeSchemaResponseDto
+     */
+    private RecipeSchemaResponseDto load(String key, Supplier<RecipeSchemaResponseDto> loader) {
+        RecipeSchemaResponseDto cached = cache.policy().getIfPresentQuietly(key);
+        if (cached != null) {
+            return cached;
+        }
+        log.info("Recipe extraction cache miss, extracting [key={}]", key);
+        RecipeSchemaResponseDto result = loader.get();
+        if (result != null) {
+            cache.put(key, result);
+        }
+        return result;
+    }
+}
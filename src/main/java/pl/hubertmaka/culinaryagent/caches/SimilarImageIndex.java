@@ -0,0 +1,269 @@
+package pl.hubertmaka.culinaryagent.caches;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaResponseDto;
+import pl.hubertmaka.culinaryagent.utils.PerceptualHash;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * In-memory index of the recipes extracted from images, addressed by the perceptual hash of the image, so that a
+ * photo re-uploaded after being recompressed, rescaled or slightly cropped is served the recipe extracted from the
+ * original instead of calling the model again. An image matches a previous one when their hashes differ in at most
+ * the configured number of bits and they were extracted in the same scope (language, model and prompt version).
+ * <p>
+ * Lookups use multi-index hashing: the 64-bit hashes are split into four 16-bit chunks, each indexed in its own
+ * table. By the pigeonhole principle two hashes within distance {@code d} agree on at least one chunk within distance
+ * {@code d / 4}, so only the chunk values within that distance are probed instead of scanning every entry. Entries are
+ * bounded in number and expire like extraction results. Lookups are published as the {@code image.dedup.requests}
+ * counter, tagged {@code result:hit|miss}, and the number of indexed images as the {@code image.dedup.size} gauge.
+ */
+@Component
+public class SimilarImageIndex {
+    /** Logger for logging information and debugging purposes. */
+    private static final Logger log = LoggerFactory.getLogger(SimilarImageIndex.class);
+    /** The number of chunks the hashes are split into. */
+    private static final int CHUNKS = 4;
+    /** The number of bits of a chunk. */
+    private static final int CHUNK_BITS = Long.SIZE / CHUNKS;
+    /** The mask selecting the bits of a chunk. */
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+    /** Whether near-duplicate images are looked up at all. */
+    private final boolean enabled;
+    /** The maximum number of bits in which the hashes of two matching images may differ. */
+    private final int maxDistance;
+    /** The indexed extraction results keyed by the scope and perceptual hash of their image. */
+    private final Cache<ImageKey, RecipeSchemaResponseDto> entries;
+    /** The keys of the indexed images by the value of each of their chunks, one table per chunk position. */
+    private final List<Map<Integer, Set<ImageKey>>> chunkTables = new ArrayList<>(CHUNKS);
+    /** The counter of lookups that found a near-duplicate image. */
+    private final Counter hits;
+    /** The counter of lookups that found no near-duplicate image. */
+    private final Counter misses;
+
+    /**
+     * Constructor for SimilarImageIndex.
+     *
+     * @param enabled whether near-duplicate images are looked up at all
+     * @param maxDistance the maximum number of bits in which the hashes of two matching images may differ
+     * @param maximumSize the maximum number of indexed images
+     * @param ttl the time after which an indexed image expires
+     * @param meterRegistry the registry the index metrics are published to, injected by Spring
+     */
+    @Autowired
+    public SimilarImageIndex(
+            @Value("${culinary-agent.image.dedup.enabled}") boolean enabled,
+            @Value("${culinary-agent.image.dedup.max-distance}") int maxDistance,
+            @Value("${culinary-agent.image.dedup.maximum-size}") long maximumSize,
+            @Value("${culinary-agent.extraction.cache.ttl}") Duration ttl,
+            MeterRegistry meterRegistry
+    ) {
+        this(enabled, maxDistance, maximumSize, ttl, meterRegistry, Ticker.systemTicker());
+    }
+
+    /**
+     * Constructor for SimilarImageIndex measuring the expiry of the indexed images with the given ticker.
+     *
+     * @param enabled whether near-duplicate images are looked up at all
+     * @param maxDistance the maximum number of bits in which the hashes of two matching images may differ
+     * @param maximumSize the maximum number of indexed images
+     * @param ttl the time after which an indexed image expires
+     * @param meterRegistry the registry the index metrics are published to
+     * @param ticker the source of time for the expiry of the indexed images
+     */
+    SimilarImageIndex(boolean enabled, int maxDistance, long maximumSize, Duration ttl, MeterRegistry meterRegistry,
+                      Ticker ticker) {
+        log.info("Creating similar image index [enabled={}, maxDistance={}, maximumSize={}, ttl={}]...",
+                enabled, maxDistance, maximumSize, ttl);
+        if (maxDistance < 0 || maxDistance >= Long.SIZE) {
+            throw new IllegalArgumentException("The maximum distance must be between 0 and 63, was " + maxDistance);
+        }
+        this.enabled = enabled;
+        this.maxDistance = maxDistance;
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .ticker(ticker)
+                .evictionListener((ImageKey key, RecipeSchemaResponseDto value, RemovalCause cause) -> unindex(key))
+                .build();
+        for (int chunk = 0; chunk < CHUNKS; chunk++) {
+            chunkTables.add(new ConcurrentHashMap<>());
+        }
+        this.hits = Counter.builder("image.dedup.requests")
+                .description("Images looked up among the images extracted before")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("image.dedup.requests")
+                .description("Images looked up among the images extracted before")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        Gauge.builder("image.dedup.size", entries, Cache::estimatedSize)
+                .description("Images indexed by their perceptual hash")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the recipe extracted from an image similar to the given one, or extracts it using the loader and
+     * indexes the result. Images that cannot be decoded are extracted without being indexed. Near-duplicates
+     * extracted at the same time are not coalesced; identical images are already coalesced by the extraction cache.
+     *
+     * @param image the encoded image the recipe is extracted from
+     * @param scope the scope of the extraction, e.g. the hash of the language, model and prompt version
+     * @param loader the supplier performing the extraction when no similar image was extracted before
+     * @return the recipe extracted from a similar image, or the freshly extracted recipe
+     */
+    public RecipeSchemaResponseDto get(byte[] image, String scope, Supplier<RecipeSchemaResponseDto> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        OptionalLong hash = PerceptualHash.dHash(image);
+        if (hash.isEmpty()) {
+            return loader.get();
+        }
+        Optional<RecipeSchemaResponseDto> similar = find(hash.getAsLong(), scope);
+        if (similar.isPresent()) {
+            hits.increment();
+            return similar.get();
+        }
+        misses.increment();
+        RecipeSchemaResponseDto result = loader.get();
+        if (result != null) {
+            put(hash.getAsLong(), scope, result);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the indexed image closest to the given hash within the maximum distance. Candidates whose entry has
+     * already expired, but which are still in the chunk tables until their eviction is processed, are skipped.
+     *
+     * @param hash the perceptual hash of the image
+     * @param scope the scope of the extraction
+     * @return the recipe extracted from the closest image, or an empty Optional if no image is close enough
+     */
+    Optional<RecipeSchemaResponseDto> find(long hash, String scope) {
+        int radius = maxDistance / CHUNKS;
+        RecipeSchemaResponseDto closest = null;
+        int closestDistance = maxDistance + 1;
+        for (int chunk = 0; chunk < CHUNKS; chunk++) {
+            Map<Integer, Set<ImageKey>> table = chunkTables.get(chunk);
+            for (int probe : probes(chunkOf(hash, chunk), radius)) {
+                for (ImageKey candidate : table.getOrDefault(probe, Set.of())) {
+                    int distance = PerceptualHash.distance(hash, candidate.hash());
+                    if (distance >= closestDistance || !candidate.scope().equals(scope)) {
+                        continue;
+                    }
+                    RecipeSchemaResponseDto result = entries.getIfPresent(candidate);
+                    if (result != null) {
+                        closest = result;
+                        closestDistance = distance;
+                    }
+                }
+            }
+        }
+        if (closest == null) {
+            return Optional.empty();
+        }
+        log.info("Found near-duplicate of a previously extracted image [distance={}]", closestDistance);
+        return Optional.of(closest);
+    }
+
+    /**
+     * Indexes the recipe extracted from an image.
+     *
+     * @param hash the perceptual hash of the image
+     * @param scope the scope of the extraction
+     * @param result the recipe extracted from the image
+     */
+    void put(long hash, String scope, RecipeSchemaResponseDto result) {
+        ImageKey key = new ImageKey(scope, hash);
+        for (int chunk = 0; chunk < CHUNKS; chunk++) {
+            chunkTables.get(chunk).computeIfAbsent(chunkOf(hash, chunk), value -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+        entries.put(key, result);
+    }
+
+    /**
+     * Removes an evicted image from the chunk tables.
+     *
+     * @param key the key of the evicted image
+     */
+    private void unindex(ImageKey key) {
+        for (int chunk = 0; chunk < CHUNKS; chunk++) {
+            chunkTables.get(chunk).computeIfPresent(chunkOf(key.hash(), chunk), (value, keys) -> {
+                keys.remove(key);
+                return keys.isEmpty() ? null : keys;
+            });
+        }
+    }
+
+    /**
+     * Extracts a chunk of a hash.
+     *
+     * @param hash the hash
+     * @param chunk the position of the chunk, from 0 to 3
+     * @return the value of the chunk
+     */
+    private static int chunkOf(long hash, int chunk) {
+        return (int) ((hash >>> (chunk * CHUNK_BITS)) & CHUNK_MASK);
+    }
+
+    /**
+     * Lists all chunk values differing from the given one in at most the given number of bits.
+     *
+     * @param value the chunk value
+     * @param radius the maximum number of differing bits
+     * @return the chunk values to probe, each listed once
+     */
+    private static List<Integer> probes(int value, int radius) {
+        List<Integer> probes = new ArrayList<>();
+        collectProbes(value, radius, 0, probes);
+        return probes;
+    }
+
+    /**
+     * Adds the given chunk value and, recursively, the values obtained by flipping up to {@code radius} more bits
+     * at positions from {@code fromBit} upwards.
+     *
+     * @param value the chunk value
+     * @param radius the number of bits that may still be flipped
+     * @param fromBit the lowest bit that may be flipped
+     * @param probes the list collecting the chunk values
+     */
+    private static void collectProbes(int value, int radius, int fromBit, List<Integer> probes) {
+        probes.add(value);
+        if (radius == 0) {
+            return;
+        }
+        for (int bit = fromBit; bit < CHUNK_BITS; bit++) {
+            collectProbes(value ^ (1 << bit), radius - 1, bit + 1, probes);
+        }
+    }
+
+    /**
+     * Key of an indexed image.
+     *
+     * @param scope the scope of the extraction
+     * @param hash the perceptual hash of the image
+     */
+    private record ImageKey(String scope, long hash) { }
+}
@@ -0,0 +1,404 @@
+package pl.hubertmaka.culinaryagent.caches;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Persistent cache of synthesized speech. Every entry is stored in its own segment file named after the key, and an
+ * in-memory index of the segments, ordered from the least to the most recently used, is rebuilt from the cache
+ * directory on startup, so cached audio survives restarts. Least recently used segments are evicted once the total
+ * size of the cache exceeds its limit. Cached audio is replayed from a memory mapping of its segment, made on the
+ * first replay and kept with the index entry for the following ones, and emitted in fixed-size slices. Replay is not
+ * zero-copy: audio is passed on as byte arrays, so every slice is copied out of the mapping when it is requested, but
+ * a segment is never read onto the heap as a whole. Concurrent requests for audio that is still being synthesized
+ * share a single synthesis, and the synthesized chunks are written to the segment as they are, without being copied
+ * into one buffer first.
+ */
+@Component
+public class TextToSpeechAudioCache {
+    /** Logger for logging information and debugging purposes. */
+    private static final Logger log = LoggerFactory.getLogger(TextToSpeechAudioCache.class);
+    /** The extension of the segment files holding cached audio. */
+    private static final String SEGMENT_EXTENSION = ".audio";
+    /** The extension of segment files that are still being written. */
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+    /** Whether cached audio is used at all. */
+    private final boolean enabled;
+    /** The directory holding the segment files. */
+    private final Path directory;
+    /** The maximum total size of the segment files, in bytes. */
+    private final long maximumBytes;
+    /** The size of the slices cached audio is replayed in, in bytes. */
+    private final int sliceBytes;
+    /** The cached segments keyed by the cache key, in access order. Guarded by its own monitor. */
+    private final LinkedHashMap<String, Segment> index = new LinkedHashMap<>(16, 0.75f, true);
+    /** The syntheses currently in flight, shared by concurrent requests with the same key. */
+    private final ConcurrentMap<String, Flux<byte[]>> inFlight = new ConcurrentHashMap<>();
+    /** The counter of requests served from the cache. */
+    private final Counter hits;
+    /** The counter of requests that had to be synthesized. */
+    private final Counter misses;
+    /** The total size of the cached segments, in bytes. Guarded by the monitor of the index. */
+    private long totalBytes;
+
+    /**
+     * Constructor for TextToSpeechAudioCache. Creates the cache directory if needed and rebuilds the index from
+     * the segment files it contains, treating the last modification time of a segment as its last access.
+     *
+     * @param enabled whether cached audio is used at all
+     * @param directory the directory holding the segment files
+     * @param maximumSize the maximum total size of the segment files
+     * @param sliceSize the size of the slices cached audio is replayed in
+     * @param meterRegistry the registry the cache statistics are published to, injected by Spring
+     */
+    public TextToSpeechAudioCache(
+            @Value("${culinary-agent.tts.cache.enabled}") boolean enabled,
+            @Value("${culinary-agent.tts.cache.directory}") String directory,
+            @Value("${culinary-agent.tts.cache.maximum-size}") DataSize maximumSize,
+            @Value("${culinary-agent.tts.cache.slice-size}") DataSize sliceSize,
+            MeterRegistry meterRegistry
+    ) {
+        log.info("Creating text-to-speech audio cache [enabled={}, directory={}, maximumSize={}]...", enabled, directory, maximumSize);
+        this.enabled = enabled;
+        this.directory = Path.of(directory);
+        this.maximumBytes = maximumSize.toBytes();
+        this.sliceBytes = Math.toIntExact(sliceSize.toBytes());
+        this.hits = Counter.builder("tts.audio.cache.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("tts.audio.cache.requests").tag("result", "miss").register(meterRegistry);
+        Gauge.builder("tts.audio.cache.size", this, TextToSpeechAudioCache::size)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        if (enabled) {
+            loadIndex();
+        }
+    }
+
+    /**
+     * Returns the cached audio for the given key, or synthesizes it and stores it in the cache once the synthesis
+     * completes. A request arriving while the same key is being synthesized subscribes to that synthesis and
+     * receives all of its audio, including the chunks emitted before it arrived. Failed syntheses are not cached.
+     *
+     * @param key the hash identifying the audio
+     * @param synthesizer the supplier of the synthesis, called only when the audio is neither cached nor in flight
+     * @return a Flux of audio chunks
+     */
+    public Flux<byte[]> get(String key, Supplier<Flux<byte[]>> synthesizer) {
+        if (!enabled) {
+            return synthesizer.get();
+        }
+        return Flux.defer(() -> {
+            Segment segment = lookup(key);
+            if (segment == null) {
+                misses.increment();
+                return inFlight.computeIfAbsent(key, k -> record(k, synthesizer.get()));
+            }
+            hits.increment();
+            log.info("Text-to-speech audio cache hit [key={}, bytes={}]", key, segment.size);
+            return replay(key, segment)
+                    .onErrorResume(IOException.class, e -> {
+                        log.warn("Failed to replay cached audio, synthesizing it again [key={}]", key, e);
+                        remove(key);
+                        return inFlight.computeIfAbsent(key, k -> record(k, synthesizer.get()));
+                    });
+        });
+    }
+
+    /**
+     * Returns the total size of the cached segments.
+     *
+     * @return the total size of the cached segments, in bytes
+     */
+    public long size() {
+        synchronized (index) {
+            return totalBytes;
+        }
+    }
+
+    /**
+     * Wraps a synthesis so that it is shared by all concurrent subscribers and its audio is stored in the cache
+     * when it completes successfully. The chunks are kept as they were emitted, which the shared synthesis does for
+     * late subscribers anyway, and not copied into one buffer. The shared synthesis is released once it terminates.
+     *
+     * @param key the hash identifying the audio
+     * @param synthesis the Flux of audio chunks produced by the text-to-speech provider
+     * @return the shared Flux of audio chunks
+     */
+    private Flux<byte[]> record(String key, Flux<byte[]> synthesis) {
+        log.info("Text-to-speech audio cache miss, synthesizing [key={}]", key);
+        return Flux.defer(() -> {
+                    List<byte[]> recorded = new ArrayList<>();
+                    return synthesis
+                            .doOnNext(recorded::add)
+                            .concatWith(Mono.<byte[]>fromRunnable(() -> store(key, recorded))
+                                    .subscribeOn(Schedulers.boundedElastic()));
+                })
+                .doFinally(signal -> inFlight.remove(key))
+                .cache();
+    }
+
+    /**
+     * Replays a cached segment as fixed-size slices of its memory mapping and marks it as recently used on disk,
+     * so that the access order survives restarts.
+     *
+     * @param key the hash identifying the audio
+     * @param segment the cached segment
+     * @return a Flux of audio slices
+     */
+    private Flux<byte[]> replay(String key, Segment segment) {
+        return Mono.fromCallable(() -> {
+                    Path path = segmentPath(key);
+                    Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+                    return map(path, segment);
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(this::slices);
+    }
+
+    /**
+     * Returns the memory mapping of a segment, mapping its file on the first replay. The mapping is shared by all
+     * replays of the segment and released with its index entry.
+     *
+     * @param path the path of the segment file
+     * @param segment the cached segment
+     * @return the read-only mapping of the segment
+     * @throws IOException if the segment file cannot be mapped
+     */
+    private MappedByteBuffer map(Path path, Segment segment) throws IOException {
+        synchronized (segment) {
+            if (segment.mapping == null) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    segment.mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+                }
+            }
+            return segment.mapping;
+        }
+    }
+
+    /**
+     * Splits a mapped segment into slices. Each slice is copied out of the mapping only when it is requested, with
+     * absolute reads, so concurrent replays share the mapping.
+     *
+     * @param segment the memory-mapped segment
+     * @return a Flux of audio slices
+     */
+    private Flux<byte[]> slices(MappedByteBuffer segment) {
+        int size = segment.capacity();
+        int count = (size + sliceBytes - 1) / sliceBytes;
+        return Flux.range(0, count)
+                .map(i -> {
+                    int offset = i * sliceBytes;
+                    byte[] slice = new byte[Math.min(sliceBytes, size - offset)];
+                    segment.get(offset, slice);
+                    return slice;
+                });
+    }
+
+    /**
+     * Writes synthesized audio to its segment file and adds it to the index, evicting the least recently used
+     * segments if the cache grows beyond its limit. The chunks are written with one gathering write to a temporary
+     * file first and moved into place, so a crash never leaves a truncated segment behind. Failures are logged and
+     * leave the cache unchanged.
+     *
+     * @param key the hash identifying the audio
+     * @param chunks the chunks of the synthesized audio, in order
+     */
+    private void store(String key, List<byte[]> chunks) {
+        long size = chunks.stream().mapToLong(chunk -> chunk.length).sum();
+        if (size == 0 || size > maximumBytes) {
+            return;
+        }
+        Path segment = segmentPath(key);
+        Path temporary = directory.resolve(key + TEMPORARY_EXTENSION);
+        ByteBuffer[] buffers = chunks.stream().map(ByteBuffer::wrap).toArray(ByteBuffer[]::new);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long written = 0;
+            while (written < size) {
+                written += channel.write(buffers);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to store synthesized audio in the cache [key={}]", key, e);
+            return;
+        }
+        try {
+            Files.move(temporary, segment, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to store synthesized audio in the cache [key={}]", key, e);
+            return;
+        }
+        deleteAll(add(key, size));
+        log.info("Stored synthesized audio in the cache [key={}, bytes={}]", key, size);
+    }
+
+    /**
+     * Looks up a segment in the index and marks it as most recently used.
+     *
+     * @param key the hash identifying the audio
+     * @return the cached segment, or null if the audio is not cached
+     */
+    private Segment lookup(String key) {
+        synchronized (index) {
+            return index.get(key);
+        }
+    }
+
+    /**
+     * Adds a segment to the index and removes the least recently used segments until the cache fits its limit.
+     *
+     * @param key the hash identifying the audio
+     * @param size the size of the segment, in bytes
+     * @return the keys of the evicted segments, whose files still have to be deleted
+     */
+    private List<String> add(String key, long size) {
+        List<String> evicted = new ArrayList<>();
+        synchronized (index) {
+            Segment previous = index.put(key, new Segment(size));
+            totalBytes += size - (previous == null ? 0 : previous.size);
+            Iterator<Map.Entry<String, Segment>> eldest = index.entrySet().iterator();
+            while (totalBytes > maximumBytes && eldest.hasNext()) {
+                Map.Entry<String, Segment> entry = eldest.next();
+                if (entry.getKey().equals(key)) {
+                    continue;
+                }
+                totalBytes -= entry.getValue().size;
+                evicted.add(entry.getKey());
+                eldest.remove();
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Removes a segment from the index and deletes its file.
+     *
+     * @param key the hash identifying the audio
+     */
+    private void remove(String key) {
+        synchronized (index) {
+            Segment segment = index.remove(key);
+            if (segment != null) {
+                totalBytes -= segment.size;
+            }
+        }
+        deleteAll(List.of(key));
+    }
+
+    /**
+     * Deletes the segment files of the given keys.
+     *
+     * @param keys the keys of the segments to delete
+     */
+    private void deleteAll(List<String> keys) {
+        for (String key : keys) {
+            try {
+                Files.deleteIfExists(segmentPath(key));
+                log.info("Evicted cached audio [key={}]", key);
+            } catch (IOException e) {
+                log.warn("Failed to delete cached audio [key={}]", key, e);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the index from the segment files in the cache directory, oldest first, and removes temporary files
+     * left behind by an interrupted write.
+     *
+     * @throws UncheckedIOException if the cache directory cannot be created or read
+     */
+    private void loadIndex() {
+        try {
+            Files.createDirectories(directory);
+            List<Path> segments;
+            try (Stream<Path> files = Files.list(directory)) {
+                segments = files.filter(Files::isRegularFile).toList();
+            }
+            for (Path temporary : segments.stream().filter(p -> p.toString().endsWith(TEMPORARY_EXTENSION)).toList()) {
+                Files.deleteIfExists(temporary);
+            }
+            List<Path> ordered = segments.stream()
+                    .filter(p -> p.toString().endsWith(SEGMENT_EXTENSION))
+                    .sorted(Comparator.comparing(TextToSpeechAudioCache::lastModified))
+                    .toList();
+            for (Path segment : ordered) {
+                String fileName = segment.getFileName().toString();
+                deleteAll(add(fileName.substring(0, fileName.length() - SEGMENT_EXTENSION.length()), Files.size(segment)));
+            }
+            log.info("Loaded text-to-speech audio cache [segments={}, bytes={}]", index.size(), totalBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load text-to-speech audio cache from " + directory, e);
+        }
+    }
+
+    /**
+     * Resolves the segment file of a key.
+     *
+     * @param key the hash identifying the audio
+     * @return the path of the segment file
+     */
+    private Path segmentPath(String key) {
+        return directory.resolve(key + SEGMENT_EXTENSION);
+    }
+
+    /**
+     * Reads the last modification time of a file, treating unreadable files as the oldest.
+     *
+     * @param path the file to read the time of
+     * @return the last modification time of the file
+     */
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * An entry of the index: the size of a cached segment and its memory mapping, once it has been replayed.
+     */
+    private static final class Segment {
+        /** The size of the segment, in bytes. */
+        private final long size;
+        /** The read-only mapping of the segment file, or null until it is first replayed. Guarded by the segment. */
+        private MappedByteBuffer mapping;
+
+        /**
+         * Constructor for Segment.
+         *
+         * @param size the size of the segment, in bytes
+         */
+        private Segment(long size) {
+            this.size = size;
+        }
+    }
+}
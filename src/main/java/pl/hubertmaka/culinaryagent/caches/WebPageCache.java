@@ -0,0 +1,274 @@
+package pl.hubertmaka.culinaryagent.caches;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import pl.hubertmaka.culinaryagent.domain.models.CachedWebPage;
+import pl.hubertmaka.culinaryagent.utils.HashUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Persistent cache of fetched web pages. Instead of the pages themselves, every entry stores the extracted main
+ * content and structured data of a page, together with its ETag, Last-Modified date and expiry time, in its own
+ * JSON file named after the hash of the URL. An in-memory index of the entries, ordered from the least to the most
+ * recently used, is rebuilt from the cache directory on startup, and least recently used entries are evicted once
+ * the total size of the cache exceeds its limit.
+ */
+@Component
+public class WebPageCache {
+    /** Logger for logging information and debugging purposes. */
+    private static final Logger log = LoggerFactory.getLogger(WebPageCache.class);
+    /** The extension of the files holding cached pages. */
+    private static final String ENTRY_EXTENSION = ".page";
+    /** The extension of entry files that are still being written. */
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+    /** Whether cached pages are used at all. */
+    private final boolean enabled;
+    /** The directory holding the entry files. */
+    private final Path directory;
+    /** The maximum total size of the entry files, in bytes. */
+    private final long maximumBytes;
+    /** The ObjectMapper used to read and write the entry files. */
+    private final ObjectMapper objectMapper;
+    /** The sizes of the cached entries keyed by the hash of their URL, in access order. Guarded by its own monitor. */
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    /** The total size of the cached entries, in bytes. Guarded by the monitor of the index. */
+    private long totalBytes;
+
+    /**
+     * Constructor for WebPageCache. Creates the cache directory if needed and rebuilds the index from the entry
+     * files it contains, treating the last modification time of an entry as its last access.
+     *
+     * @param enabled whether cached pages are used at all
+     * @param directory the directory holding the entry files
+     * @param maximumSize the maximum total size of the entry files
+     * @param objectMapper the ObjectMapper used to read and write the entry files, injected by Spring
+     * @param meterRegistry the registry the cache size is published to, injected by Spring
+     */
+    public WebPageCache(
+            @Value("${culinary-agent.fetch.cache.enabled}") boolean enabled,
+            @Value("${culinary-agent.fetch.cache.directory}") String directory,
+            @Value("${culinary-agent.fetch.cache.maximum-size}") DataSize maximumSize,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry
+    ) {
+        log.info("Creating web page cache [enabled={}, directory={}, maximumSize={}]...", enabled, directory, maximumSize);
+        this.enabled = enabled;
+        this.directory = Path.of(directory);
+        this.maximumBytes = maximumSize.toBytes();
+        this.objectMapper = objectMapper;
+        Gauge.builder("web.page.cache.size", this, WebPageCache::size)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        if (enabled) {
+            loadIndex();
+        }
+    }
+
+    /**
+     * Returns the cached copy of the page at the given URL and marks it as recently used. Entries that cannot be
+     * read are removed.
+     *
+     * @param url the URL of the page
+     * @return the cached page, or an empty Optional if the page is not cached
+     */
+    public Optional<CachedWebPage> get(String url) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        String key = HashUtils.sha256Hex(url);
+        if (!contains(key)) {
+            return Optional.empty();
+        }
+        Path entry = entryPath(key);
+        try {
+            CachedWebPage page = objectMapper.readValue(entry.toFile(), CachedWebPage.class);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return Optional.of(page);
+        } catch (IOException e) {
+            log.warn("Failed to read cached web page, removing it [url={}]", url, e);
+            remove(key);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Stores a page in the cache, replacing any previous copy, and evicts the least recently used entries if the
+     * cache grows beyond its limit. The entry is written to a temporary file first and moved into place, so a crash
+     * never leaves a truncated entry behind. Failures are logged and leave the cache unchanged.
+     *
+     * @param page the page to store
+     */
+    public void put(CachedWebPage page) {
+        if (!enabled) {
+            return;
+        }
+        String key = HashUtils.sha256Hex(page.url());
+        Path temporary = directory.resolve(key + TEMPORARY_EXTENSION);
+        try {
+            byte[] entry = objectMapper.writeValueAsBytes(page);
+            if (entry.length > maximumBytes) {
+                return;
+            }
+            Files.write(temporary, entry);
+            Files.move(temporary, entryPath(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            deleteAll(add(key, entry.length));
+            log.info("Stored web page in the cache [url={}, bytes={}]", page.url(), entry.length);
+        } catch (IOException e) {
+            log.warn("Failed to store web page in the cache [url={}]", page.url(), e);
+        }
+    }
+
+    /**
+     * Returns the total size of the cached entries.
+     *
+     * @return the total size of the cached entries, in bytes
+     */
+    public long size() {
+        synchronized (index) {
+            return totalBytes;
+        }
+    }
+
+    /**
+     * Checks whether an entry is in the index and marks it as most recently used.
+     *
+     * @param key the hash of the URL of the page
+     * @return true if the entry is cached
+     */
+    private boolean contains(String key) {
+        synchronized (index) {
+            return index.get(key) != null;
+        }
+    }
+
+    /**
+     * Adds an entry to the index and removes the least recently used entries until the cache fits its limit.
+     *
+     * @param key the hash of the URL of the page
+     * @param size the size of the entry, in bytes
+     * @return the keys of the evicted entries, whose files still have to be deleted
+     */
+    private List<String> add(String key, long size) {
+        List<String> evicted = new ArrayList<>();
+        synchronized (index) {
+            Long previous = index.put(key, size);
+            totalBytes += size - (previous == null ? 0 : previous);
+            Iterator<Map.Entry<String, Long>> eldest = index.entrySet().iterator();
+            while (totalBytes > maximumBytes && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                if (entry.getKey().equals(key)) {
+                    continue;
+                }
+                totalBytes -= entry.getValue();
+                evicted.add(entry.getKey());
+                eldest.remove();
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Removes an entry from the index and deletes its file.
+     *
+     * @param key the hash of the URL of the page
+     */
+    private void remove(String key) {
+        synchronized (index) {
+            Long size = index.remove(key);
+            if (size != null) {
+                totalBytes -= size;
+            }
+        }
+        deleteAll(List.of(key));
+    }
+
+    /**
+     * Deletes the entry files of the given keys.
+     *
+     * @param keys the keys of the entries to delete
+     */
+    private void deleteAll(List<String> keys) {
+        for (String key : keys) {
+            try {
+                Files.deleteIfExists(entryPath(key));
+                log.info("Evicted cached web page [key={}]", key);
+            } catch (IOException e) {
+                log.warn("Failed to delete cached web page [key={}]", key, e);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the index from the entry files in the cache directory, oldest first, and removes temporary files
+     * left behind by an interrupted write.
+     *
+     * @throws UncheckedIOException if the cache directory cannot be created or read
+     */
+    private void loadIndex() {
+        try {
+            Files.createDirectories(directory);
+            List<Path> files;
+            try (Stream<Path> listing = Files.list(directory)) {
+                files = listing.filter(Files::isRegularFile).toList();
+            }
+            for (Path temporary : files.stream().filter(p -> p.toString().endsWith(TEMPORARY_EXTENSION)).toList()) {
+                Files.deleteIfExists(temporary);
+            }
+            List<Path> ordered = files.stream()
+                    .filter(p -> p.toString().endsWith(ENTRY_EXTENSION))
+                    .sorted(Comparator.comparing(WebPageCache::lastModified))
+                    .toList();
+            for (Path entry : ordered) {
+                String fileName = entry.getFileName().toString();
+                deleteAll(add(fileName.substring(0, fileName.length() - ENTRY_EXTENSION.length()), Files.size(entry)));
+            }
+            log.info("Loaded web page cache [entries={}, bytes={}]", index.size(), totalBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load web page cache from " + directory, e);
+        }
+    }
+
+    /**
+     * Resolves the entry file of a key.
+     *
+     * @param key the hash of the URL of the page
+     * @return the path of the entry file
+     */
+    private Path entryPath(String key) {
+        return directory.resolve(key + ENTRY_EXTENSION);
+    }
+
+    /**
+     * Reads the last modification time of a file, treating unreadable files as the oldest.
+     *
+     * @param path the file to read the time of
+     * @return the last modification time of the file
+     */
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
@@ -9,6 +9,7 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.Resource;
 import pl.hubertmaka.culinaryagent.mappers.impl.RecipeSchemaMapper;
+import pl.hubertmaka.culinaryagent.utils.HashUtils;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -32,6 +33,9 @@ public class AgentConfig {
     /** The prompt content for the extractor user instruction, loaded from the classpath resource. */
     @Value("classpath:prompts/extractor-user-instruction.md")
     private Resource extractorUserInstruction;
+    /** The prompt content for the conversation summarizer personality, loaded from the classpath resource. */
+    @Value("classpath:prompts/conversation-summarizer-personality.md")
+    private Resource conversationSummarizerPersonality;
 
     private String readResource(Resource resource) {
         try {
@@ -73,6 +77,45 @@ public class AgentConfig {
                 .build();
     }
 
+    /**
+     * Bean definition for the ChatClient used in recipe chat turns whose system prompt and recipe are held in a
+     * provider-side cached content. It has no default system prompt, because a request using cached content must not
+     * repeat the system instruction.
+     *
+     * @param builder the ChatClient.Builder used to build the ChatClient instance
+     * @return a configured ChatClient instance for recipe chat interactions with cached context
+     */
+    @Bean
+    public ChatClient cachedRecipeChatAgent(ChatClient.Builder builder) {
+        log.info("Creating chat client for chat agent with cached context");
+        return builder.build();
+    }
+
+    /**
+     * Bean definition for the personality of the chat agent, which is also the system instruction of its cached contexts.
+     *
+     * @return a String containing the chat agent personality loaded from the classpath resource
+     */
+    @Bean
+    public String chatAgentPersonality() {
+        log.info("Loading chat agent personality from resource...");
+        return readResource(recipeChatAgentPersonality);
+    }
+
+    /**
+     * Bean definition for the ChatClient used to fold older turns of recipe chats into a rolling summary.
+     *
+     * @param builder the ChatClient.Builder used to build the ChatClient instance
+     * @return a configured ChatClient instance for summarizing conversations
+     */
+    @Bean
+    public ChatClient conversationSummarizer(ChatClient.Builder builder) {
+        log.info("Creating chat client for conversation summarizer");
+        return builder
+                .defaultSystem(readResource(conversationSummarizerPersonality))
+                .build();
+    }
+
     /**
      * Bean definition for the agent user instruction, which provides guidance to users interacting with the agent.
      *
@@ -94,4 +137,22 @@ public class AgentConfig {
         log.info("Loading extractor user instruction from resource...");
         return readResource(extractorUserInstruction);
     }
+
+    /**
+     * Bean definition for the fingerprint of the prompts used by the recipe extractor agent. It changes whenever the
+     * extractor personality, the recipe schema format or the extractor user instruction change, so that results
+     * extracted with a previous prompt version are never served from the extraction cache.
+     *
+     * @param converter the RecipeSchemaConverter used to provide the format for the system prompt
+     * @return a String containing the SHA-256 fingerprint of the extractor prompts
+     */
+    @Bean
+    public String extractorPromptFingerprint(RecipeSchemaMapper converter) {
+        log.info("Computing extractor prompt fingerprint...");
+        return HashUtils.sha256Hex(
+                readResource(recipeExtractorAgentPersonality),
+                converter.getFormat(),
+                readResource(extractorUserInstruction)
+        );
+    }
 }
@@ -1,16 +1,33 @@
 package pl.hubertmaka.culinaryagent.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.codec.compression.Brotli;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.ReactorClientHttpRequestFactory;
 import org.springframework.web.client.RestClient;
+import pl.hubertmaka.culinaryagent.interceptors.FetchLimitsInterceptor;
+import pl.hubertmaka.culinaryagent.interceptors.HostPolitenessInterceptor;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
 
 /**
- * Configuration class for setting up the WebClient bean with a simulated user agent header.
- * This configuration ensures that all HTTP requests made using the WebClient will include a user agent string
+ * Configuration class for setting up the RestClient bean used to fetch recipe pages, with a simulated user agent header.
+ * This configuration ensures that all HTTP requests made using the RestClient will include a user agent string
  * that mimics a real browser, which can help in avoiding blocks from servers that restrict non-browser requests.
+ * Requests run on Reactor Netty with a pool of keep-alive connections per host, HTTP/2 negotiated over TLS,
+ * compressed responses, cached DNS lookups, connect and read timeouts, and a total deadline. Requests to a single
+ * host are queued, rate limited and held back after a Retry-After response before they compete for the shared
+ * slots; redirects are followed by the HTTP client, so they are scheduled under the host of the original URL. Pool
+ * metrics are published under {@code reactor.netty.connection.provider}.
  */
 @Configuration
 public class RestClientConfig {
@@ -18,17 +35,96 @@ public class RestClientConfig {
     private static final Logger log = LoggerFactory.getLogger(RestClientConfig.class);
     /** A simulated user agent string to mimic a real browser when making HTTP requests. */
     private final static String SIMULATED_USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64; rv:124.0) Gecko/20100101 Firefox/124.0";
+    /** The name of the connection pool, used as the {@code name} tag of its metrics. */
+    private static final String CONNECTION_POOL_NAME = "page-fetch";
+    /** The interval at which idle and expired connections are evicted from the pool. */
+    private static final Duration EVICTION_INTERVAL = Duration.ofSeconds(30);
+
+    /**
+     * Bean definition for the pool of connections used to fetch recipe pages. Every host gets its own pool of
+     * keep-alive connections, and requests waiting for a connection fail after the pending acquire timeout.
+     *
+     * @param maxConnectionsPerHost the maximum number of connections to a single host
+     * @param maxIdleTime the time after which an idle connection is closed
+     * @param pendingAcquireTimeout the time a request may wait for a connection
+     * @return a ConnectionProvider publishing its metrics
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider pageFetchConnectionProvider(
+            @Value("${culinary-agent.fetch.max-connections-per-host}") int maxConnectionsPerHost,
+            @Value("${culinary-agent.fetch.max-idle-time}") Duration maxIdleTime,
+            @Value("${culinary-agent.fetch.pending-acquire-timeout}") Duration pendingAcquireTimeout
+    ) {
+        log.info("Creating page fetch connection pool [maxConnectionsPerHost={}, maxIdleTime={}]", maxConnectionsPerHost, maxIdleTime);
+        return ConnectionProvider.builder(CONNECTION_POOL_NAME)
+                .maxConnections(maxConnectionsPerHost)
+                .maxIdleTime(maxIdleTime)
+                .pendingAcquireTimeout(pendingAcquireTimeout)
+                .evictInBackground(EVICTION_INTERVAL)
+                .metrics(true)
+                .build();
+    }
 
     /**
-     * Bean definition for the WebClient used in the application. This method configures the WebClient with a default user agent header.
+     * Bean definition for the RestClient used in the application. This method configures the RestClient with a default user agent header.
      *
-     * @return a configured WebClient instance with a simulated user agent header
+     * @param pageFetchConnectionProvider the pool of connections, injected by Spring
+     * @param maxConcurrentRequests the maximum number of requests in flight across all hosts
+     * @param connectTimeout the time allowed to establish a connection
+     * @param readTimeout the maximum time between two reads of a response
+     * @param pendingAcquireTimeout the time a request may wait for a connection
+     * @param deadline the total time a request may take, including the reading of its response body
+     * @param dnsCacheTtl the maximum time a resolved address is cached
+     * @param maxRequestsPerHost the maximum number of requests in flight to a single host
+     * @param hostRequestsPerSecond the number of requests per second sent to a single host
+     * @param hostBurst the number of requests that may be sent to a single host at once after it was idle
+     * @param maxRetryAfter the longest Retry-After delay honoured
+     * @param meterRegistry the registry the request gauges and timers are published to, injected by Spring
+     * @return a configured RestClient instance with a simulated user agent header
      */
     @Bean
-    public RestClient restClient() {
-        log.info("Creating RestClient bean");
+    public RestClient restClient(
+            ConnectionProvider pageFetchConnectionProvider,
+            @Value("${culinary-agent.fetch.max-connections}") int maxConcurrentRequests,
+            @Value("${culinary-agent.fetch.connect-timeout}") Duration connectTimeout,
+            @Value("${culinary-agent.fetch.read-timeout}") Duration readTimeout,
+            @Value("${culinary-agent.fetch.pending-acquire-timeout}") Duration pendingAcquireTimeout,
+            @Value("${culinary-agent.fetch.deadline}") Duration deadline,
+            @Value("${culinary-agent.fetch.dns-cache-ttl}") Duration dnsCacheTtl,
+            @Value("${culinary-agent.fetch.host.max-concurrent-requests}") int maxRequestsPerHost,
+            @Value("${culinary-agent.fetch.host.requests-per-second}") double hostRequestsPerSecond,
+            @Value("${culinary-agent.fetch.host.burst}") int hostBurst,
+            @Value("${culinary-agent.fetch.host.max-retry-after}") Duration maxRetryAfter,
+            MeterRegistry meterRegistry
+    ) {
+        log.info("Creating RestClient bean [maxConcurrentRequests={}, connectTimeout={}, readTimeout={}, deadline={}]",
+                maxConcurrentRequests, connectTimeout, readTimeout, deadline);
+        HttpClient httpClient = HttpClient.create(pageFetchConnectionProvider)
+                .protocol(HttpProtocol.H2, HttpProtocol.HTTP11)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, Math.toIntExact(connectTimeout.toMillis()))
+                .responseTimeout(readTimeout)
+                .compress(true)
+                .followRedirect(true)
+                .resolver(spec -> spec.cacheMaxTimeToLive(dnsCacheTtl).completeOncePreferredResolved(true));
+        ReactorClientHttpRequestFactory requestFactory = new ReactorClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(readTimeout);
         return RestClient.builder()
+                .requestFactory(requestFactory)
                 .defaultHeader(HttpHeaders.USER_AGENT, SIMULATED_USER_AGENT)
+                .defaultHeader(HttpHeaders.ACCEPT_ENCODING, acceptedEncodings())
+                .requestInterceptor(new HostPolitenessInterceptor(
+                        maxRequestsPerHost, hostRequestsPerSecond, hostBurst, pendingAcquireTimeout, maxRetryAfter, meterRegistry))
+                .requestInterceptor(new FetchLimitsInterceptor(maxConcurrentRequests, pendingAcquireTimeout, deadline, meterRegistry))
                 .build();
     }
+
+    /**
+     * Lists the content encodings the client decodes. Brotli is only accepted when its native decoder is on the
+     * classpath.
+     *
+     * @return the value of the Accept-Encoding header
+     */
+    private static String acceptedEncodings() {
+        return Brotli.isAvailable() ? "gzip, deflate, br" : "gzip, deflate";
+    }
 }
@@ -0,0 +1,48 @@
+package pl.hubertmaka.culinaryagent.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Configuration class for the Reactor scheduler used to run blocking calls, such as model streams, off the caller's
+ * thread. When virtual threads are enabled with {@code spring.threads.virtual.enabled}, every blocking call gets its
+ * own virtual thread; otherwise the calls run on Reactor's bounded elastic pool of platform threads.
+ */
+@Configuration
+public class SchedulerConfig {
+    /** Logger for logging information and debugging purposes. */
+    private static final Logger log = LoggerFactory.getLogger(SchedulerConfig.class);
+
+    /**
+     * Bean definition for the scheduler of blocking calls when virtual threads are enabled.
+     *
+     * @return a Scheduler starting a new virtual thread for every task
+     */
+    @Bean(destroyMethod = "dispose")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public Scheduler blockingCallScheduler() {
+        log.info("Creating virtual thread scheduler for blocking calls");
+        return Schedulers.fromExecutorService(Executors.newVirtualThreadPerTaskExecutor(), "virtual-blocking");
+    }
+
+    /**
+     * Bean definition for the scheduler of blocking calls when virtual threads are disabled. The shared bounded
+     * elastic scheduler is owned by Reactor, so it is not disposed with the application context.
+     *
+     * @return Reactor's shared bounded elastic Scheduler
+     */
+    @Bean(name = "blockingCallScheduler", destroyMethod = "")
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public Scheduler platformBlockingCallScheduler() {
+        log.info("Creating bounded elastic scheduler for blocking calls");
+        return Schedulers.boundedElastic();
+    }
+}
@@ -3,11 +3,16 @@ package pl.hubertmaka.culinaryagent.controllers;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
 import pl.hubertmaka.culinaryagent.domain.dtos.ErrorResponseDto;
+import pl.hubertmaka.culinaryagent.exceptions.CapacityExceededException;
+import pl.hubertmaka.culinaryagent.exceptions.ChatSessionNotFoundException;
+import pl.hubertmaka.culinaryagent.exceptions.JobNotFoundException;
 import pl.hubertmaka.culinaryagent.exceptions.RecipeChatException;
 import pl.hubertmaka.culinaryagent.exceptions.RecipeExtractionException;
 import pl.hubertmaka.culinaryagent.exceptions.UnsupportedRoleException;
@@ -16,6 +21,8 @@ import pl.hubertmaka.culinaryagent.exceptions.UnsupportedSchemaException;
 @ControllerAdvice
 public class ExceptionHandlerController {
     private static final Logger log = LoggerFactory.getLogger(ExceptionHandlerController.class);
+    /** The number of seconds a client is asked to wait before retrying a request rejected for capacity reasons. */
+    private static final String RETRY_AFTER_SECONDS = "5";
     /**
      * Handles errors that occur during recipe extraction (e.g. failed AI call,
      * unreadable image/URL).
@@ -60,6 +67,53 @@ public class ExceptionHandlerController {
         return buildResponse(HttpStatus.BAD_REQUEST, ex.getMessage(), request);
     }
 
+    /**
+     * Handles requests rejected because the service is at its capacity (e.g. the
+     * extraction job queue is full). The client is asked to retry later.
+     */
+    @ExceptionHandler(CapacityExceededException.class)
+    public ResponseEntity<ErrorResponseDto> handleCapacityExceededException(
+            CapacityExceededException ex, HttpServletRequest request) {
+        log.warn("Capacity exceeded [path={}]: {}", request.getRequestURI(), ex.getMessage());
+        ResponseEntity<ErrorResponseDto> response = buildResponse(HttpStatus.TOO_MANY_REQUESTS, ex.getMessage(), request);
+        return ResponseEntity.status(response.getStatusCode())
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .body(response.getBody());
+    }
+
+    /**
+     * Handles requests for extraction jobs that do not exist or whose result
+     * is no longer retained.
+     */
+    @ExceptionHandler(JobNotFoundException.class)
+    public ResponseEntity<ErrorResponseDto> handleJobNotFoundException(
+            JobNotFoundException ex, HttpServletRequest request) {
+        log.warn("Job not found [path={}]: {}", request.getRequestURI(), ex.getMessage());
+        return buildResponse(HttpStatus.NOT_FOUND, ex.getMessage(), request);
+    }
+
+    /**
+     * Handles requests for chat sessions that do not exist or have expired
+     * after being idle.
+     */
+    @ExceptionHandler(ChatSessionNotFoundException.class)
+    public ResponseEntity<ErrorResponseDto> handleChatSessionNotFoundException(
+            ChatSessionNotFoundException ex, HttpServletRequest request) {
+        log.warn("Chat session not found [path={}]: {}", request.getRequestURI(), ex.getMessage());
+        return buildResponse(HttpStatus.NOT_FOUND, ex.getMessage(), request);
+    }
+
+    /**
+     * Handles uploads larger than the maximum upload size (e.g. an image
+     * exceeding the maximum image size).
+     */
+    @ExceptionHandler(MaxUploadSizeExceededException.class)
+    public ResponseEntity<ErrorResponseDto> handleMaxUploadSizeExceededException(
+            MaxUploadSizeExceededException ex, HttpServletRequest request) {
+        log.warn("Upload too large [path={}]: {}", request.getRequestURI(), ex.getMessage());
+        return buildResponse(HttpStatus.PAYLOAD_TOO_LARGE, ex.getMessage(), request);
+    }
+
     /**
      * Catches any unhandled exception so that the API never leaks an internal
      * stack trace to the client.
@@ -1,23 +1,53 @@
 package pl.hubertmaka.culinaryagent.controllers;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import pl.hubertmaka.culinaryagent.domain.dtos.*;
+import pl.hubertmaka.culinaryagent.domain.enums.AudioFormat;
+import pl.hubertmaka.culinaryagent.domain.enums.FileExtension;
+import pl.hubertmaka.culinaryagent.domain.enums.Language;
 import pl.hubertmaka.culinaryagent.domain.enums.StreamEvent;
-import pl.hubertmaka.culinaryagent.services.RecipeChatService;
+import pl.hubertmaka.culinaryagent.domain.models.ChatSession;
+import pl.hubertmaka.culinaryagent.exceptions.UnsupportedSchemaException;
+import pl.hubertmaka.culinaryagent.services.ChatSessionService;
+import pl.hubertmaka.culinaryagent.services.ImageUploadService;
+import pl.hubertmaka.culinaryagent.services.RecipeBatchExtractorService;
+import pl.hubertmaka.culinaryagent.services.RecipeChatStreamService;
+import pl.hubertmaka.culinaryagent.services.RecipeExtractionJobService;
 import pl.hubertmaka.culinaryagent.services.RecipeExtractorService;
-import pl.hubertmaka.culinaryagent.services.TextToSpeechService;
 import reactor.core.publisher.Flux;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * REST controller for processing recipes. It provides endpoints for extracting recipe information from various
  * data formats and streaming chat responses related to recipes.
@@ -27,28 +57,56 @@ import reactor.core.publisher.Flux;
 public class RecipeProcessorController {
     /** Logger for logging information and debugging purposes. */
     private static final Logger log = LoggerFactory.getLogger(RecipeProcessorController.class);
+    /** Trailer carrying the number of prompt tokens consumed by the chat agent. */
+    private static final String INPUT_TOKENS_TRAILER = "X-Input-Tokens";
+    /** Trailer carrying the number of completion tokens generated by the chat agent. */
+    private static final String OUTPUT_TOKENS_TRAILER = "X-Output-Tokens";
+    /** Trailer carrying the total number of tokens used by the chat agent. */
+    private static final String TOTAL_TOKENS_TRAILER = "X-Total-Tokens";
+    /** Trailer carrying the identifier of the chat agent's model. */
+    private static final String MODEL_TRAILER = "X-Model";
     /** The service responsible for extracting recipe information from the provided data. */
     private final RecipeExtractorService recipeExtractorService;
-    /** The service responsible for handling chat interactions related to recipes. */
-    private final RecipeChatService recipeChatService;
-    /** The service responsible for converting text to speech for recipe-related interactions. */
-    private final TextToSpeechService textToSpeechService;
+    /** The service responsible for extracting batches of recipes. */
+    private final RecipeBatchExtractorService recipeBatchExtractorService;
+    /** The service responsible for running extractions as asynchronous jobs. */
+    private final RecipeExtractionJobService recipeExtractionJobService;
+    /** The service responsible for streaming spoken chat responses related to recipes. */
+    private final RecipeChatStreamService recipeChatStreamService;
+    /** The service responsible for receiving uploaded images. */
+    private final ImageUploadService imageUploadService;
+    /** The service responsible for keeping chat sessions. */
+    private final ChatSessionService chatSessionService;
+    /** The audio format answers are spoken in when neither the request nor its {@code Accept} header selects one. */
+    private final AudioFormat defaultAudioFormat;
 
     /**
      * Constructor for RecipeProcessorController that initializes the RecipeExtractorService.
      *
      * @param recipeExtractorService the service to be used for extracting recipe information, injected by Spring
-     * @param recipeChatService the service to be used for handling chat interactions related to recipes, injected by Spring
-     * @param textToSpeechService the service to be used for converting text to speech for recipe-related interactions, injected by Spring
+     * @param recipeBatchExtractorService the service to be used for extracting batches of recipes, injected by Spring
+     * @param recipeExtractionJobService the service to be used for running extractions as asynchronous jobs, injected by Spring
+     * @param recipeChatStreamService the service to be used for streaming spoken chat responses related to recipes, injected by Spring
+     * @param imageUploadService the service to be used for receiving uploaded images, injected by Spring
+     * @param chatSessionService the service to be used for keeping chat sessions, injected by Spring
+     * @param defaultAudioFormat the audio format answers are spoken in unless another one is negotiated
      */
     public RecipeProcessorController(
             RecipeExtractorService recipeExtractorService,
-            RecipeChatService recipeChatService,
-            TextToSpeechService textToSpeechService
+            RecipeBatchExtractorService recipeBatchExtractorService,
+            RecipeExtractionJobService recipeExtractionJobService,
+            RecipeChatStreamService recipeChatStreamService,
+            ImageUploadService imageUploadService,
+            ChatSessionService chatSessionService,
+            @Value("${culinary-agent.tts.audio-format}") AudioFormat defaultAudioFormat
     ) {
         this.recipeExtractorService = recipeExtractorService;
-        this.recipeChatService = recipeChatService;
-        this.textToSpeechService = textToSpeechService;
+        this.recipeBatchExtractorService = recipeBatchExtractorService;
+        this.recipeExtractionJobService = recipeExtractionJobService;
+        this.recipeChatStreamService = recipeChatStreamService;
+        this.imageUploadService = imageUploadService;
+        this.chatSessionService = chatSessionService;
+        this.defaultAudioFormat = defaultAudioFormat;
     }
 
     /**
@@ -65,6 +123,123 @@ public class RecipeProcessorController {
         return new ResponseEntity<>(recipeSchema, HttpStatus.OK);
     }
 
+    /**
+     * Endpoint for extracting recipe information from an image uploaded as the {@code image} part of a multipart
+     * request. The image is streamed to a temporary file instead of being sent as a base64 string, so it is not
+     * limited by the size of the JSON content. Its type is taken from the content type of the part, or from the
+     * {@code fileExtension} parameter when the part is sent as {@code application/octet-stream}.
+     *
+     * @param image the uploaded image
+     * @param language the language the recipe is extracted in
+     * @param fileExtension the type of the image, used when the part does not declare an image content type
+     * @return a ResponseEntity containing the extracted RecipeSchemaDto and an HTTP status of OK
+     * @throws IOException if the uploaded image cannot be opened
+     */
+    @PostMapping(value = "/extract/image", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<RecipeSchemaResponseDto> extractRecipeFromImagePart(
+            @RequestPart("image") MultipartFile image,
+            @RequestParam Language language,
+            @RequestParam(required = false) FileExtension fileExtension
+    ) throws IOException {
+        log.info("Received multipart image for extraction [size={}, contentType={}]", image.getSize(), image.getContentType());
+        FileExtension extension = resolveFileExtension(image.getContentType(), fileExtension);
+        try (InputStream body = image.getInputStream()) {
+            return new ResponseEntity<>(extractImage(body, extension, image.getSize(), language), HttpStatus.OK);
+        }
+    }
+
+    /**
+     * Endpoint for extracting recipe information from an image sent as the raw request body, with an
+     * {@code image/jpeg}, {@code image/png} or {@code application/octet-stream} content type. The body is streamed to
+     * a temporary file. For {@code application/octet-stream} bodies, the type of the image is taken from the
+     * {@code fileExtension} parameter.
+     *
+     * @param request the HttpServletRequest whose body is the image
+     * @param language the language the recipe is extracted in
+     * @param fileExtension the type of the image, used when the body does not declare an image content type
+     * @return a ResponseEntity containing the extracted RecipeSchemaDto and an HTTP status of OK
+     * @throws IOException if the request body cannot be opened
+     */
+    @PostMapping(
+            value = "/extract/image",
+            consumes = {MediaType.IMAGE_JPEG_VALUE, MediaType.IMAGE_PNG_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE},
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public ResponseEntity<RecipeSchemaResponseDto> extractRecipeFromImageBody(
+            HttpServletRequest request,
+            @RequestParam Language language,
+            @RequestParam(required = false) FileExtension fileExtension
+    ) throws IOException {
+        log.info("Received image body for extraction [size={}, contentType={}]", request.getContentLengthLong(), request.getContentType());
+        FileExtension extension = resolveFileExtension(request.getContentType(), fileExtension);
+        try (InputStream body = request.getInputStream()) {
+            return new ResponseEntity<>(extractImage(body, extension, request.getContentLengthLong(), language), HttpStatus.OK);
+        }
+    }
+
+    /**
+     * Endpoint for extracting a batch of recipes. The outcome of every recipe is streamed back as a line of
+     * newline-delimited JSON as soon as its extraction finishes, in completion order and tagged with the index of the
+     * recipe in the request. A failed recipe is reported as an error line and does not abort the rest of the batch.
+     *
+     * @param batchExtractionRequestDto the data transfer object containing the recipe data to be extracted
+     * @return a Flux of BatchExtractionResultDto objects, each written as a separate JSON line
+     */
+    @PostMapping(value = "/extract/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<BatchExtractionResultDto> extractRecipeBatch(@Valid @RequestBody BatchExtractionRequestDto batchExtractionRequestDto) {
+        log.info("Received batch of {} recipes for extraction", batchExtractionRequestDto.recipes().size());
+        return recipeBatchExtractorService.extract(batchExtractionRequestDto);
+    }
+
+    /**
+     * Endpoint for submitting an extraction job. The recipe data is queued for extraction and the response is returned
+     * immediately with the identifier of the job and its location, which can be polled for the result.
+     *
+     * @param recipeDataRequestDto the data transfer object containing the recipe data to be extracted
+     * @return a ResponseEntity containing the queued ExtractionJobDto and an HTTP status of ACCEPTED
+     */
+    @PostMapping(value = "/extract/jobs", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ExtractionJobDto> submitExtractionJob(@Valid @RequestBody RecipeDataRequestDto recipeDataRequestDto) {
+        log.info("Received recipe data for asynchronous extraction: {}", recipeDataRequestDto);
+        ExtractionJobDto job = recipeExtractionJobService.submit(recipeDataRequestDto);
+        URI location = ServletUriComponentsBuilder.fromCurrentRequest()
+                .path("/{jobId}")
+                .buildAndExpand(job.jobId())
+                .toUri();
+        return ResponseEntity.accepted().location(location).body(job);
+    }
+
+    /**
+     * Endpoint for polling an extraction job. It returns the status of the job, together with the extracted recipe
+     * or the error once the job has finished.
+     *
+     * @param jobId the identifier of the job
+     * @return a ResponseEntity containing the ExtractionJobDto and an HTTP status of OK
+     */
+    @GetMapping(value = "/extract/jobs/{jobId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ExtractionJobDto> getExtractionJob(@PathVariable String jobId) {
+        log.info("Received extraction job status request [jobId={}]", jobId);
+        return new ResponseEntity<>(recipeExtractionJobService.get(jobId), HttpStatus.OK);
+    }
+
+    /**
+     * Endpoint for waiting for an extraction job without polling. A single {@code job_completion} server-sent event
+     * carrying the final state of the job is sent once the job has finished, after which the stream completes.
+     *
+     * @param jobId the identifier of the job
+     * @return a Flux of ServerSentEvent containing the final ExtractionJobDto
+     */
+    @GetMapping(value = "/extract/jobs/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<ExtractionJobDto>> streamExtractionJobCompletion(@PathVariable String jobId) {
+        log.info("Received extraction job completion subscription [jobId={}]", jobId);
+        return recipeExtractionJobService.awaitCompletion(jobId)
+                .map(job -> ServerSentEvent.<ExtractionJobDto>builder()
+                        .event(StreamEvent.JOB_COMPLETION.getEvent())
+                        .data(job)
+                        .build())
+                .flux();
+    }
+
     /**
      * Endpoint for streaming chat responses related to recipe preparation. It accepts a RecipeSchemaDto and returns a
      * Flux of ServerSentEvent containing RecipeSchemaDto objects, allowing for real-time updates in the client.
@@ -75,61 +250,207 @@ public class RecipeProcessorController {
     @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public Flux<ServerSentEvent<RecipeChatResponseChunkDto>> streamChatResponse(@Valid @RequestBody RecipeChatRequestDto recipeChatRequestDto) {
         log.info("Received recipe chat response for streaming: {}", recipeChatRequestDto);
-        ChatAgentResponseDto agentResponse = recipeChatService.chat(recipeChatRequestDto);
-        return textToSpeechService.stream(agentResponse.content(), recipeChatRequestDto.voice())
-                .map(this::buildAudioChunk)
-                .concatWith(Flux.just(buildAgentMetaChunk(agentResponse)))
-                .concatWith(Flux.just(buildTTSMetaChunk(agentResponse)));
+        return recipeChatStreamService.stream(recipeChatRequestDto, resolveAudioFormat(recipeChatRequestDto.audioFormat(), null));
     }
 
     /**
-     * Builds a ServerSentEvent containing an audio chunk from the provided RecipeChatResponseChunkDto.
+     * Endpoint for streaming chat responses as raw binary audio. Unlike {@code /stream}, the audio chunks are written
+     * to a chunked audio response without base64 or JSON framing. The audio format is taken from the request, or
+     * negotiated from the {@code Accept} header. The agent's token usage and model are sent as HTTP trailers once the
+     * audio is complete.
      *
-     * @param chunk the RecipeChatResponseChunkDto containing the audio data to be included in the ServerSentEvent
-     * @return a ServerSentEvent containing the audio chunk data
+     * @param recipeChatRequestDto the data transfer object containing the chat request information, including language, schema, and conversation history
+     * @param accept the {@code Accept} header of the request, may be null
+     * @param response the HttpServletResponse used to register the metadata trailers
+     * @return a ResponseEntity containing a StreamingResponseBody that writes the audio bytes
      */
-    private ServerSentEvent<RecipeChatResponseChunkDto> buildAudioChunk(RecipeChatResponseChunkDto chunk) {
-        log.info("Received recipe chat response for audio: {}", chunk);
-        return ServerSentEvent.<RecipeChatResponseChunkDto>builder()
-            .event(StreamEvent.AUDIO.getEvent())
-            .data(chunk)
-            .build();
+    @PostMapping(value = "/stream/audio", produces = {AudioFormat.AUDIO_MPEG_VALUE, AudioFormat.AUDIO_OGG_VALUE, AudioFormat.AUDIO_L16_VALUE, AudioFormat.AUDIO_PCM_VALUE})
+    public ResponseEntity<StreamingResponseBody> streamChatAudio(
+            @Valid @RequestBody RecipeChatRequestDto recipeChatRequestDto,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            HttpServletResponse response
+    ) {
+        log.info("Received recipe chat request for binary audio streaming: {}", recipeChatRequestDto);
+        AudioFormat audioFormat = resolveAudioFormat(recipeChatRequestDto.audioFormat(), accept);
+        return buildAudioResponse(response, audioFormat, outputStream ->
+                recipeChatStreamService.streamAudio(recipeChatRequestDto, audioFormat, outputStream));
     }
 
     /**
-     * Builds a ServerSentEvent containing metadata about the agent's response from the provided ChatAgentResponseDto.
+     * Endpoint for opening a chat session. The recipe schema, voice and language are sent once, and every turn
+     * of the conversation afterwards carries only the new message.
      *
-     * @param response the ChatAgentResponseDto containing the agent's response and associated metadata
-     * @return a ServerSentEvent containing the agent's response metadata
+     * @param chatSessionRequestDto the data transfer object containing the recipe schema, voice and language of the session
+     * @return a ResponseEntity containing the identifier of the session, with its location
      */
-    private ServerSentEvent<RecipeChatResponseChunkDto> buildAgentMetaChunk(ChatAgentResponseDto response) {
-        log.info("Received recipe chat response for agent: {}", response);
-        return ServerSentEvent.<RecipeChatResponseChunkDto>builder()
-            .event(StreamEvent.AGENT_COMPLETION.getEvent())
-            .data(new RecipeChatResponseChunkDto(null, response))
-            .build();
+    @PostMapping(value = "/chat/sessions", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ChatSessionDto> createChatSession(@Valid @RequestBody ChatSessionRequestDto chatSessionRequestDto) {
+        log.info("Received chat session request [language={}, voice={}]", chatSessionRequestDto.language(), chatSessionRequestDto.voice());
+        ChatSessionDto session = chatSessionService.create(chatSessionRequestDto);
+        URI location = ServletUriComponentsBuilder.fromCurrentRequest()
+                .path("/{sessionId}")
+                .buildAndExpand(session.sessionId())
+                .toUri();
+        return ResponseEntity.created(location).body(session);
     }
 
     /**
-     * Builds a ServerSentEvent containing metadata about the text-to-speech conversion from the provided ChatAgentResponseDto.
+     * Endpoint for streaming the spoken answer to the next message of a chat session as server-sent events, in the
+     * same form as {@code /stream}.
      *
-     * @param response the ChatAgentResponseDto containing the agent's response and associated metadata
-     * @return a ServerSentEvent containing the text-to-speech conversion metadata
+     * @param sessionId the identifier of the session
+     * @param chatTurnRequestDto the data transfer object containing the new message of the user
+     * @return a Flux of ServerSentEvent containing RecipeChatResponseChunkDto objects
+     */
+    @PostMapping(value = "/chat/sessions/{sessionId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<RecipeChatResponseChunkDto>> streamChatSessionResponse(
+            @PathVariable String sessionId,
+            @Valid @RequestBody ChatTurnRequestDto chatTurnRequestDto
+    ) {
+        log.info("Received chat session turn for streaming [sessionId={}]", sessionId);
+        return recipeChatStreamService.stream(chatSessionService.get(sessionId), chatTurnRequestDto.message(),
+                resolveAudioFormat(chatTurnRequestDto.audioFormat(), null));
+    }
+
+    /**
+     * Endpoint for streaming the answer to the next message of a chat session as raw binary audio, in the same
+     * form as {@code /stream/audio}.
+     *
+     * @param sessionId the identifier of the session
+     * @param chatTurnRequestDto the data transfer object containing the new message of the user
+     * @param accept the {@code Accept} header of the request, may be null
+     * @param response the HttpServletResponse used to register the metadata trailers
+     * @return a ResponseEntity containing a StreamingResponseBody that writes the audio bytes
+     */
+    @PostMapping(
+            value = "/chat/sessions/{sessionId}/stream/audio",
+            produces = {AudioFormat.AUDIO_MPEG_VALUE, AudioFormat.AUDIO_OGG_VALUE, AudioFormat.AUDIO_L16_VALUE, AudioFormat.AUDIO_PCM_VALUE}
+    )
+    public ResponseEntity<StreamingResponseBody> streamChatSessionAudio(
+            @PathVariable String sessionId,
+            @Valid @RequestBody ChatTurnRequestDto chatTurnRequestDto,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            HttpServletResponse response
+    ) {
+        log.info("Received chat session turn for binary audio streaming [sessionId={}]", sessionId);
+        ChatSession session = chatSessionService.get(sessionId);
+        AudioFormat audioFormat = resolveAudioFormat(chatTurnRequestDto.audioFormat(), accept);
+        return buildAudioResponse(response, audioFormat, outputStream ->
+                recipeChatStreamService.streamAudio(session, chatTurnRequestDto.message(), audioFormat, outputStream));
+    }
+
+    /**
+     * Endpoint for closing a chat session before it expires.
+     *
+     * @param sessionId the identifier of the session
+     * @return an empty ResponseEntity
+     */
+    @DeleteMapping("/chat/sessions/{sessionId}")
+    public ResponseEntity<Void> deleteChatSession(@PathVariable String sessionId) {
+        log.info("Received chat session deletion [sessionId={}]", sessionId);
+        chatSessionService.delete(sessionId);
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * Builds a chunked response writing the audio of a spoken answer in the media type of its format, with the
+     * agent's token usage and model sent as HTTP trailers once the audio is complete.
+     *
+     * @param response the HttpServletResponse used to register the metadata trailers
+     * @param audioFormat the format of the audio
+     * @param audio the writer of the audio bytes, returning the agent's response
+     * @return a ResponseEntity containing a StreamingResponseBody that writes the audio bytes
+     */
+    private ResponseEntity<StreamingResponseBody> buildAudioResponse(HttpServletResponse response, AudioFormat audioFormat, AudioWriter audio) {
+        AtomicReference<ChatAgentResponseDto> agentResponse = new AtomicReference<>();
+        try {
+            response.setTrailerFields(() -> buildMetadataTrailers(agentResponse.get()));
+        } catch (IllegalStateException e) {
+            log.debug("Trailers are not supported for this response: {}", e.getMessage());
+        }
+        StreamingResponseBody body = outputStream -> agentResponse.set(audio.write(outputStream));
+        return ResponseEntity.ok()
+                .header(HttpHeaders.TRAILER, String.join(", ",
+                        INPUT_TOKENS_TRAILER, OUTPUT_TOKENS_TRAILER, TOTAL_TOKENS_TRAILER, MODEL_TRAILER))
+                .contentType(MediaType.parseMediaType(audioFormat.getMediaType()))
+                .body(body);
+    }
+
+    /**
+     * Resolves the audio format of an answer: the format named in the request, otherwise the format preferred by the
+     * {@code Accept} header, otherwise the default format.
+     *
+     * @param requested the audio format named in the request, may be null
+     * @param accept the {@code Accept} header of the request, may be null
+     * @return the audio format the answer is spoken in
+     */
+    private AudioFormat resolveAudioFormat(AudioFormat requested, String accept) {
+        if (requested != null) {
+            return requested;
+        }
+        return AudioFormat.fromAccept(accept, defaultAudioFormat).orElse(defaultAudioFormat);
+    }
+
+    /**
+     * Spools an uploaded image and extracts the recipe from it.
+     *
+     * @param body the stream of the uploaded image
+     * @param fileExtension the type of the image
+     * @param declaredSize the size of the image declared by the client, or a negative value if it is unknown
+     * @param language the language the recipe is extracted in
+     * @return the extracted recipe
+     */
+    private RecipeSchemaResponseDto extractImage(InputStream body, FileExtension fileExtension, long declaredSize, Language language) {
+        return imageUploadService.withUpload(body, fileExtension, declaredSize,
+                upload -> recipeExtractorService.extractImage(upload, language));
+    }
+
+    /**
+     * Determines the type of an uploaded image from its declared content type, falling back to the file extension
+     * given by the client.
+     *
+     * @param contentType the declared content type of the image, may be null
+     * @param fileExtension the file extension given by the client, may be null
+     * @return the type of the image
+     * @throws UnsupportedSchemaException if the type of the image cannot be determined
+     */
+    private FileExtension resolveFileExtension(String contentType, FileExtension fileExtension) {
+        return FileExtension.fromMediaType(contentType)
+                .or(() -> Optional.ofNullable(fileExtension))
+                .orElseThrow(() -> new UnsupportedSchemaException("Unsupported image type: " + contentType));
+    }
+
+    /**
+     * Builds the HTTP trailers carrying the chat agent's metadata.
+     *
+     * @param agentResponse the agent response whose metadata is sent, or null if the stream produced none
+     * @return a map of trailer names to values, empty if no metadata is available
+     */
+    private Map<String, String> buildMetadataTrailers(ChatAgentResponseDto agentResponse) {
+        Map<String, String> trailers = new HashMap<>();
+        Optional.ofNullable(agentResponse)
+                .map(ChatAgentResponseDto::metadata)
+                .ifPresent(metadata -> {
+                    trailers.put(INPUT_TOKENS_TRAILER, String.valueOf(metadata.inputTokens()));
+                    trailers.put(OUTPUT_TOKENS_TRAILER, String.valueOf(metadata.outputTokens()));
+                    trailers.put(TOTAL_TOKENS_TRAILER, String.valueOf(metadata.totalTokens()));
+                    trailers.put(MODEL_TRAILER, String.valueOf(metadata.model()));
+                });
+        return trailers;
+    }
+
+    /**
+     * Writer of the audio of a spoken answer to an output stream.
      */
-    private ServerSentEvent<RecipeChatResponseChunkDto> buildTTSMetaChunk(ChatAgentResponseDto response) {
-        log.info("Received recipe chat response for TTS: {}", response);
-        int inputTokens = response.content().length();
-        int outputTokens = 0;
-        int totalTokens = inputTokens + outputTokens;
-        return ServerSentEvent.<RecipeChatResponseChunkDto>builder()
-            .event(StreamEvent.AGENT_COMPLETION.getEvent())
-            .data(new RecipeChatResponseChunkDto(
-                null,
-                new ChatAgentResponseDto(
-                    response.content(),
-                    new MetadataDto(inputTokens, outputTokens, totalTokens, textToSpeechService.getModel())
-                )
-            ))
-            .build();
+    @FunctionalInterface
+    private interface AudioWriter {
+        /**
+         * Writes the audio bytes to the output stream as they arrive.
+         *
+         * @param outputStream the stream the audio bytes are written to
+         * @return the agent's response
+         * @throws IOException if writing to the output stream fails
+         */
+        ChatAgentResponseDto write(OutputStream outputStream) throws IOException;
     }
 }
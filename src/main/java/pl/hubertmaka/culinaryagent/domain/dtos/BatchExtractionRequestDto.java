@@ -0,0 +1,17 @@
+package pl.hubertmaka.culinaryagent.domain.dtos;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+
+/**
+ * DTO representing a request for extracting a batch of recipes.
+ *
+ * @param recipes The recipe data to be extracted; results refer to the recipes by their index in this list.
+ */
+public record BatchExtractionRequestDto(
+    @NotEmpty
+    @Size(max = 1000, message = "Batch must not exceed 1,000 recipes")
+    List<RecipeDataRequestDto> recipes
+) { }
@@ -0,0 +1,42 @@
+package pl.hubertmaka.culinaryagent.domain.dtos;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import jakarta.validation.constraints.Min;
+
+/**
+ * DTO representing the outcome of a single recipe of a batch extraction. Exactly one of the result and the error
+ * is present.
+ *
+ * @param index  The index of the recipe in the batch request.
+ * @param result The extracted recipe, if the extraction succeeded.
+ * @param error  The failure of the extraction, if it failed.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BatchExtractionResultDto(
+    @Min(value = 0, message = "Index must be non-negative")
+    int index,
+    RecipeSchemaResponseDto result,
+    ExtractionErrorDto error
+) {
+    /**
+     * Factory method to create the outcome of a successful extraction.
+     *
+     * @param index  the index of the recipe in the batch request
+     * @param result the extracted recipe
+     * @return an instance of BatchExtractionResultDto carrying the result
+     */
+    public static BatchExtractionResultDto success(int index, RecipeSchemaResponseDto result) {
+        return new BatchExtractionResultDto(index, result, null);
+    }
+
+    /**
+     * Factory method to create the outcome of a failed extraction.
+     *
+     * @param index the index of the recipe in the batch request
+     * @param error the failure of the extraction
+     * @return an instance of BatchExtractionResultDto carrying the error
+     */
+    public static BatchExtractionResultDto failure(int index, ExtractionErrorDto error) {
+        return new BatchExtractionResultDto(index, null, error);
+    }
+}
@@ -0,0 +1,13 @@
+package pl.hubertmaka.culinaryagent.domain.dtos;
+
+import jakarta.validation.constraints.NotBlank;
+
+/**
+ * DTO representing an open recipe chat session.
+ *
+ * @param sessionId The identifier of the session, sent with every turn of the conversation.
+ */
+public record ChatSessionDto(
+    @NotBlank
+    String sessionId
+) { }
@@ -0,0 +1,21 @@
+package pl.hubertmaka.culinaryagent.domain.dtos;
+
+import jakarta.validation.constraints.NotNull;
+import pl.hubertmaka.culinaryagent.domain.enums.Language;
+import pl.hubertmaka.culinaryagent.domain.enums.Voice;
+
+/**
+ * DTO representing a request to open a recipe chat session.
+ *
+ * @param schema   The recipe schema the conversation is about, sent once for the whole session.
+ * @param voice    The voice to be used for text-to-speech output.
+ * @param language The language to be used for the chat interaction.
+ */
+public record ChatSessionRequestDto(
+    @NotNull
+    RecipeSchemaDto schema,
+    @NotNull
+    Voice voice,
+    @NotNull
+    Language language
+) { }
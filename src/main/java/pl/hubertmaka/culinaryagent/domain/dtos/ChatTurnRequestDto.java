@@ -0,0 +1,18 @@
+package pl.hubertmaka.culinaryagent.domain.dtos;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
+import pl.hubertmaka.culinaryagent.domain.enums.AudioFormat;
+
+/**
+ * DTO representing the next message of the user in a recipe chat session.
+ *
+ * @param message The content of the message.
+ * @param audioFormat The format the answer is spoken in, or null to negotiate it from the {@code Accept} header.
+ */
+public record ChatTurnRequestDto(
+    @NotBlank
+    @Size(max = 10000, message = "Content must not exceed 10,000 characters")
+    String message,
+    AudioFormat audioFormat
+) { }
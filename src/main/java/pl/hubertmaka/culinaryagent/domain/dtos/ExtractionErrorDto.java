@@ -0,0 +1,57 @@
+package pl.hubertmaka.culinaryagent.domain.dtos;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
+import org.springframework.http.HttpStatus;
+import pl.hubertmaka.culinaryagent.exceptions.RecipeExtractionException;
+import pl.hubertmaka.culinaryagent.exceptions.UnsupportedSchemaException;
+
+/**
+ * DTO representing the failure of an extraction that is reported inside a response body, such as a recipe of a
+ * batch or an extraction job, rather than through the HTTP status of the response.
+ *
+ * @param status  the HTTP status code the failure would have produced for a single extraction
+ * @param error   a brief description of the error
+ * @param message a detailed message about the error
+ */
+public record ExtractionErrorDto(
+    @Min(value = 100, message = "Status code must be a non-negative integer")
+    @Max(value = 599, message = "Status code must be less than 600")
+    int status,
+    @NotBlank
+    @Size(max = 256, message = "Error description must not exceed 256 characters")
+    String error,
+    @NotBlank
+    @Size(max = 1024, message = "Error message must not exceed 1024 characters")
+    String message
+) {
+    /**
+     * Factory method to create an instance of ExtractionErrorDto from the exception thrown by an extraction, using
+     * the same status codes and messages as the single extraction endpoint.
+     *
+     * @param e the exception thrown by the extraction
+     * @return an instance of ExtractionErrorDto describing the failure
+     */
+    public static ExtractionErrorDto from(Throwable e) {
+        if (e instanceof RecipeExtractionException) {
+            return of(HttpStatus.UNPROCESSABLE_ENTITY, e.getMessage());
+        }
+        if (e instanceof UnsupportedSchemaException) {
+            return of(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        return of(HttpStatus.INTERNAL_SERVER_ERROR, "An unexpected error occurred. Please try again later.");
+    }
+
+    /**
+     * Factory method to create an instance of ExtractionErrorDto.
+     *
+     * @param status  the HTTP status describing the failure
+     * @param message a detailed message about the error
+     * @return an instance of ExtractionErrorDto with the specified status and message
+     */
+    public static ExtractionErrorDto of(HttpStatus status, String message) {
+        return new ExtractionErrorDto(status.value(), status.getReasonPhrase(), message);
+    }
+}
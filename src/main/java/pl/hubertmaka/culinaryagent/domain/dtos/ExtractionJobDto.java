@@ -0,0 +1,24 @@
+package pl.hubertmaka.culinaryagent.domain.dtos;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import pl.hubertmaka.culinaryagent.domain.enums.JobStatus;
+
+/**
+ * DTO representing the state of an asynchronous extraction job.
+ *
+ * @param jobId  The identifier of the job, used to poll for its result.
+ * @param status The current status of the job.
+ * @param result The extracted recipe, once the job has succeeded.
+ * @param error  The failure of the extraction, once the job has failed.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ExtractionJobDto(
+    @NotBlank
+    String jobId,
+    @NotNull
+    JobStatus status,
+    RecipeSchemaResponseDto result,
+    ExtractionErrorDto error
+) { }
@@ -1,6 +1,7 @@
 package pl.hubertmaka.culinaryagent.domain.dtos;
 
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import jakarta.validation.constraints.*;
 
 /**
@@ -10,6 +11,9 @@ import jakarta.validation.constraints.*;
  * @param outputTokens The number of tokens in the output.
  * @param totalTokens  The total number of tokens used (input + output).
  * @param model        The model used for processing.
+ * @param historyTokens     The estimated number of tokens the conversation history would take if sent verbatim, or null if no history was sent.
+ * @param sentHistoryTokens The estimated number of tokens of the history actually sent, with older turns folded into a summary, or null if no history was sent.
+ * @param cachedTokens      The number of input tokens served from the provider's context cache, or null if none were.
  */
 public record MetadataDto(
     @Min(value = 0, message = "Input tokens must be non-negative")
@@ -23,5 +27,26 @@ public record MetadataDto(
     Integer totalTokens,
     @NotNull
     @Size(max = 255, message = "Model name must not exceed 255 characters")
-    String model
-) { }
+    String model,
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @Min(value = 0, message = "History tokens must be non-negative")
+    Integer historyTokens,
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @Min(value = 0, message = "Sent history tokens must be non-negative")
+    Integer sentHistoryTokens,
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @Min(value = 0, message = "Cached tokens must be non-negative")
+    Integer cachedTokens
+) {
+    /**
+     * Constructor for MetadataDto of a call that sent no conversation history.
+     *
+     * @param inputTokens  The number of tokens in the input.
+     * @param outputTokens The number of tokens in the output.
+     * @param totalTokens  The total number of tokens used (input + output).
+     * @param model        The model used for processing.
+     */
+    public MetadataDto(Integer inputTokens, Integer outputTokens, Integer totalTokens, String model) {
+        this(inputTokens, outputTokens, totalTokens, model, null, null, null);
+    }
+}
@@ -1,6 +1,7 @@
 package pl.hubertmaka.culinaryagent.domain.dtos;
 
 import jakarta.validation.constraints.NotNull;
+import pl.hubertmaka.culinaryagent.domain.enums.AudioFormat;
 import pl.hubertmaka.culinaryagent.domain.enums.Language;
 import pl.hubertmaka.culinaryagent.domain.enums.Voice;
 
@@ -13,6 +14,7 @@ import java.util.List;
  * @param messages The list of messages exchanged in the chat interaction.
  * @param voice    The voice to be used for text-to-speech output.
  * @param language The language to be used for the chat interaction.
+ * @param audioFormat The format the answer is spoken in, or null to negotiate it from the {@code Accept} header.
  */
 public record RecipeChatRequestDto(
     @NotNull
@@ -22,5 +24,6 @@ public record RecipeChatRequestDto(
     @NotNull
     Voice voice,
     @NotNull
-    Language language
+    Language language,
+    AudioFormat audioFormat
 ) { }
@@ -1,16 +1,30 @@
 package pl.hubertmaka.culinaryagent.domain.dtos;
 
 import jakarta.validation.constraints.NotNull;
+import pl.hubertmaka.culinaryagent.domain.enums.ExtractionPath;
 
 /**
  * DTO representing the response containing the extracted recipe schema and associated metadata.
  *
- * @param recipeSchema The extracted recipe schema information.
- * @param metadata     Metadata about the extraction process, such as source and confidence level.
+ * @param recipeSchema   The extracted recipe schema information.
+ * @param metadata       Metadata about the extraction process, such as source and confidence level.
+ * @param extractionPath The way the recipe was extracted, from structured data or by the model.
  */
 public record RecipeSchemaResponseDto(
     @NotNull
     RecipeSchemaDto recipeSchema,
     @NotNull
-    MetadataDto metadata
-) { }
+    MetadataDto metadata,
+    @NotNull
+    ExtractionPath extractionPath
+) {
+    /**
+     * Constructs a RecipeSchemaResponseDto for a recipe extracted by the model.
+     *
+     * @param recipeSchema the extracted recipe schema information
+     * @param metadata     metadata about the extraction process
+     */
+    public RecipeSchemaResponseDto(RecipeSchemaDto recipeSchema, MetadataDto metadata) {
+        this(recipeSchema, metadata, ExtractionPath.LLM);
+    }
+}
@@ -0,0 +1,119 @@
+package pl.hubertmaka.culinaryagent.domain.enums;
+
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Enum representing the audio formats speech is synthesized in, from the highest to the lowest bandwidth.
+ */
+public enum AudioFormat {
+    MP3_44100_128("mp3_44100_128", "audio/mpeg"),
+    MP3_22050_32("mp3_22050_32", "audio/mpeg"),
+    OPUS_48000_32("opus_48000_32", "audio/ogg"),
+    PCM_16000("pcm_16000", "audio/L16;rate=16000", "audio/pcm");
+
+    /** The media type of the audio formats sent as MP3. */
+    public static final String AUDIO_MPEG_VALUE = "audio/mpeg";
+    /** The media type of the audio formats sent as Opus in an Ogg container. */
+    public static final String AUDIO_OGG_VALUE = "audio/ogg";
+    /** The media type of the audio formats sent as raw 16-bit PCM at 16 kHz, as registered by RFC 2586. */
+    public static final String AUDIO_L16_VALUE = "audio/L16;rate=16000";
+    /** The unregistered media type still accepted for raw 16-bit PCM, as sent by earlier clients. */
+    public static final String AUDIO_PCM_VALUE = "audio/pcm";
+
+    /** The identifier of the output format in the ElevenLabs API. */
+    private final String outputFormat;
+    /** The media type of the audio. */
+    private final String mediaType;
+    /** The media types accepted for the audio: its own media type first, then its aliases. */
+    private final List<MediaType> acceptedMediaTypes;
+
+    /**
+     * Constructs an AudioFormat enum with the specified ElevenLabs output format, media type and aliases.
+     *
+     * @param outputFormat the identifier of the output format in the ElevenLabs API
+     * @param mediaType the media type of the audio
+     * @param aliases other media types that select the audio in an {@code Accept} header
+     */
+    AudioFormat(String outputFormat, String mediaType, String... aliases) {
+        this.outputFormat = outputFormat;
+        this.mediaType = mediaType;
+        this.acceptedMediaTypes = Stream.concat(Stream.of(mediaType), Arrays.stream(aliases))
+                .map(MediaType::parseMediaType)
+                .toList();
+    }
+
+    /**
+     * Returns the identifier of the output format in the ElevenLabs API.
+     *
+     * @return the output format as a string
+     */
+    public String getOutputFormat() { return outputFormat; }
+
+    /**
+     * Returns the media type of the audio.
+     *
+     * @return the media type as a string
+     */
+    public String getMediaType() { return mediaType; }
+
+    /**
+     * Returns the audio format preferred by an {@code Accept} header. Media types are tried by quality and
+     * specificity; a media type shared by several formats, such as {@code audio/mpeg}, selects the given default
+     * when it has that media type and the lowest-bandwidth format of the media type otherwise. A format is also
+     * selected by its aliases, such as {@code audio/pcm}, and not by a media type asking for another sample rate.
+     *
+     * @param accept the value of the {@code Accept} header, may be null
+     * @param defaultFormat the format used when the header accepts any audio or the default's media type
+     * @return the preferred audio format, or an empty Optional if the header accepts no audio format specifically
+     */
+    public static Optional<AudioFormat> fromAccept(String accept, AudioFormat defaultFormat) {
+        if (accept == null || accept.isBlank()) {
+            return Optional.empty();
+        }
+        List<MediaType> mediaTypes;
+        try {
+            mediaTypes = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return Optional.empty();
+        }
+        MimeTypeUtils.sortBySpecificity(mediaTypes);
+        for (MediaType mediaType : mediaTypes) {
+            if (mediaType.getQualityValue() == 0 || mediaType.isWildcardType() || mediaType.isWildcardSubtype()) {
+                continue;
+            }
+            if (defaultFormat.isAcceptedBy(mediaType)) {
+                return Optional.of(defaultFormat);
+            }
+            Optional<AudioFormat> format = Arrays.stream(values())
+                    .filter(candidate -> candidate.isAcceptedBy(mediaType))
+                    .reduce((first, second) -> second);
+            if (format.isPresent()) {
+                return format;
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Checks whether a media type from an {@code Accept} header selects the audio format. The media type must match
+     * the format's media type or one of its aliases, and any parameter it shares with it, such as {@code rate},
+     * must have the same value.
+     *
+     * @param accepted the accepted media type
+     * @return true if the media type selects the audio format, false otherwise
+     */
+    private boolean isAcceptedBy(MediaType accepted) {
+        return acceptedMediaTypes.stream().anyMatch(candidate -> accepted.isCompatibleWith(candidate)
+                && candidate.getParameters().entrySet().stream().allMatch(parameter -> {
+                    String value = accepted.getParameter(parameter.getKey());
+                    return value == null || value.equalsIgnoreCase(parameter.getValue());
+                }));
+    }
+}
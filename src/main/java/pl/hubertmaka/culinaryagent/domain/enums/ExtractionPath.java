@@ -0,0 +1,11 @@
+package pl.hubertmaka.culinaryagent.domain.enums;
+
+/**
+ * Enum representing the way a recipe was extracted from its source.
+ */
+public enum ExtractionPath {
+    /** The recipe was read from schema.org structured data embedded in the page, without calling the model. */
+    STRUCTURED_DATA,
+    /** The recipe was extracted by the language model. */
+    LLM
+}
@@ -1,5 +1,8 @@
 package pl.hubertmaka.culinaryagent.domain.enums;
 
+import java.util.Locale;
+import java.util.Optional;
+
 /**
  * Enum representing supported file extensions for images.
  */
@@ -24,5 +27,23 @@ public enum FileExtension {
      * @return the file extension as a string
      */
     public String getExtension() { return extension; }
-}
 
+    /**
+     * Returns the file extension matching the given image media type, ignoring its parameters.
+     *
+     * @param mediaType the media type of an image, such as {@code image/jpeg}, may be null
+     * @return the matching file extension, or an empty Optional if the media type is not a supported image type
+     */
+    public static Optional<FileExtension> fromMediaType(String mediaType) {
+        if (mediaType == null) {
+            return Optional.empty();
+        }
+        int parameters = mediaType.indexOf(';');
+        String type = (parameters >= 0 ? mediaType.substring(0, parameters) : mediaType).strip().toLowerCase(Locale.ROOT);
+        return switch (type) {
+            case "image/jpeg", "image/jpg" -> Optional.of(JPEG);
+            case "image/png" -> Optional.of(PNG);
+            default -> Optional.empty();
+        };
+    }
+}
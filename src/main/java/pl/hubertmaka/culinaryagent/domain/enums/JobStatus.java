@@ -0,0 +1,20 @@
+package pl.hubertmaka.culinaryagent.domain.enums;
+
+/**
+ * Enum representing the lifecycle states of an asynchronous extraction job.
+ */
+public enum JobStatus {
+    QUEUED,
+    RUNNING,
+    SUCCEEDED,
+    FAILED;
+
+    /**
+     * Returns whether the job has finished, successfully or not.
+     *
+     * @return true if the job will not change its state anymore
+     */
+    public boolean isFinished() {
+        return this == SUCCEEDED || this == FAILED;
+    }
+}
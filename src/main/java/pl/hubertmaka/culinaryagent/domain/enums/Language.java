@@ -1,25 +1,31 @@
 package pl.hubertmaka.culinaryagent.domain.enums;
 
+import java.util.Locale;
+
 /**
  * Enum representing supported languages for recipe generation.
  */
 public enum Language {
-    PL("polish"),
-    EN_US("english (US)"),
-    EN_GB("english (GB)"),
-    DE("german"),
-    FR("french"),
-    SP("spanish");
+    PL("polish", "pl"),
+    EN_US("english (US)", "en-US"),
+    EN_GB("english (GB)", "en-GB"),
+    DE("german", "de"),
+    FR("french", "fr"),
+    SP("spanish", "es");
 
     /** The string representation of the language code. */
     private final String code;
+    /** The IETF BCP 47 language tag of the language. */
+    private final String languageTag;
     /**
      * Constructs a Language enum with the specified language code.
      *
      * @param code the string representation of the language code
+     * @param languageTag the IETF BCP 47 language tag of the language
      */
-    Language(String code) {
+    Language(String code, String languageTag) {
         this.code = code;
+        this.languageTag = languageTag;
     }
     /**
      * Returns the string representation of the language code.
@@ -29,4 +35,33 @@ public enum Language {
     public String getName() {
         return code;
     }
+
+    /**
+     * Returns the IETF BCP 47 language tag of the language.
+     *
+     * @return the language tag as a string
+     */
+    public String getLanguageTag() {
+        return languageTag;
+    }
+
+    /**
+     * Checks whether content declared with the given language tag (e.g. the {@code lang} attribute of a web page)
+     * is written in this language. The primary languages must be equal, and the regions too if both declare one.
+     *
+     * @param tag the language tag of the content, may be null
+     * @return true if the content is written in this language, false if it is not or the tag is missing
+     */
+    public boolean matches(String tag) {
+        if (tag == null || tag.isBlank()) {
+            return false;
+        }
+        Locale content = Locale.forLanguageTag(tag.strip().replace('_', '-'));
+        Locale expected = Locale.forLanguageTag(languageTag);
+        if (!expected.getLanguage().equals(content.getLanguage())) {
+            return false;
+        }
+        return content.getCountry().isEmpty() || expected.getCountry().isEmpty()
+                || expected.getCountry().equals(content.getCountry());
+    }
 }
@@ -5,7 +5,9 @@ package pl.hubertmaka.culinaryagent.domain.enums;
  */
 public enum StreamEvent {
     AUDIO("audio"),
+    TEXT_DELTA("text_delta"),
     AGENT_COMPLETION("agent_completion"),
+    JOB_COMPLETION("job_completion"),
     END("end");
 
     /** The string representation of the event type. */
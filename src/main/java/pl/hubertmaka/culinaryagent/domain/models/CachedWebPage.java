@@ -0,0 +1,51 @@
+package pl.hubertmaka.culinaryagent.domain.models;
+
+import java.time.Instant;
+
+/**
+ * A web page stored in the page cache, together with the validators used to revalidate it.
+ *
+ * @param url          The URL of the page.
+ * @param content      The parts of the page that recipes are extracted from.
+ * @param etag         The entity tag of the page, may be null.
+ * @param lastModified The Last-Modified date of the page as sent by the server, may be null.
+ * @param expiresAt    The time until which the page may be reused without revalidation.
+ * @param pageBytes    The size of the downloaded page, saved whenever the cached copy is reused.
+ */
+public record CachedWebPage(
+    String url,
+    WebPageContent content,
+    String etag,
+    String lastModified,
+    Instant expiresAt,
+    long pageBytes
+) {
+    /**
+     * Checks whether the page may be reused without revalidation.
+     *
+     * @param now the current time
+     * @return true if the page is still fresh
+     */
+    public boolean isFresh(Instant now) {
+        return now.isBefore(expiresAt);
+    }
+
+    /**
+     * Checks whether the page can be revalidated with a conditional request.
+     *
+     * @return true if the page has an entity tag or a Last-Modified date
+     */
+    public boolean hasValidators() {
+        return etag != null || lastModified != null;
+    }
+
+    /**
+     * Creates a copy of the page that expires at the given time, after a successful revalidation.
+     *
+     * @param expiresAt the new expiry time
+     * @return the revalidated page
+     */
+    public CachedWebPage withExpiresAt(Instant expiresAt) {
+        return new CachedWebPage(url, content, etag, lastModified, expiresAt, pageBytes);
+    }
+}
@@ -0,0 +1,147 @@
+package pl.hubertmaka.culinaryagent.domain.models;
+
+import org.springframework.ai.chat.messages.Message;
+import pl.hubertmaka.culinaryagent.domain.enums.Language;
+import pl.hubertmaka.culinaryagent.domain.enums.Voice;
+
+/**
+ * Server-side state of a recipe chat: the instruction with the language and recipe schema already substituted, and
+ * the conversation so far, kept in the compact encoding of a {@link ConversationHistory} so that no turn has to
+ * render the instruction or map the history again. Turns are appended only once the answer is complete.
+ */
+public final class ChatSession {
+    /** The number of bytes a character of the instruction and the recipe context is estimated to take. */
+    private static final long BYTES_PER_CHARACTER = 2;
+    /** The identifier of the session. */
+    private final String id;
+    /** The language of the conversation. */
+    private final Language language;
+    /** The voice the answers are spoken in. */
+    private final Voice voice;
+    /** The instruction of the chat agent, with the language and recipe schema substituted. */
+    private final Message instruction;
+    /** The compact context of the recipe the instruction was rendered with. */
+    private final RecipeContext context;
+    /** The messages exchanged so far, in order. */
+    private final ConversationHistory history = new ConversationHistory();
+    /** The estimated number of bytes of the instruction and the compact context of the recipe. */
+    private final long contextBytes;
+
+    /**
+     * Constructor for ChatSession.
+     *
+     * @param id the identifier of the session
+     * @param language the language of the conversation
+     * @param voice the voice the answers are spoken in
+     * @param instruction the instruction of the chat agent, with the language and recipe schema substituted
+     * @param context the compact context of the recipe the instruction was rendered with
+     */
+    public ChatSession(String id, Language language, Voice voice, Message instruction, RecipeContext context) {
+        this.id = id;
+        this.language = language;
+        this.voice = voice;
+        this.instruction = instruction;
+        this.context = context;
+        this.contextBytes = (length(instruction) + context.characters()) * BYTES_PER_CHARACTER;
+    }
+
+    /**
+     * Returns the identifier of the session.
+     *
+     * @return the identifier of the session
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns the language of the conversation.
+     *
+     * @return the language of the conversation
+     */
+    public Language getLanguage() {
+        return language;
+    }
+
+    /**
+     * Returns the voice the answers are spoken in.
+     *
+     * @return the voice the answers are spoken in
+     */
+    public Voice getVoice() {
+        return voice;
+    }
+
+    /**
+     * Returns the instruction of the chat agent, with the language and recipe schema substituted.
+     *
+     * @return the instruction message
+     */
+    public Message getInstruction() {
+        return instruction;
+    }
+
+    /**
+     * Returns the compact context of the recipe, holding the steps sent with each question when they do not fit the
+     * instruction.
+     *
+     * @return the recipe context
+     */
+    public RecipeContext getContext() {
+        return context;
+    }
+
+    /**
+     * Returns the messages exchanged so far, with their estimated tokens and the keys of their folded blocks kept
+     * across turns.
+     *
+     * @return the history of the session
+     */
+    public ConversationHistory history() {
+        return history;
+    }
+
+    /**
+     * Appends a completed turn to the history. The two messages are appended together, so a concurrent snapshot
+     * never ends between the message and its answer.
+     *
+     * @param message the message of the user
+     * @param answer the complete answer of the chat agent
+     */
+    public void append(Message message, Message answer) {
+        synchronized (history) {
+            history.append(message);
+            history.append(answer);
+        }
+    }
+
+    /**
+     * Returns the number of messages exchanged so far.
+     *
+     * @return the number of messages in the history
+     */
+    public int size() {
+        return history.size();
+    }
+
+    /**
+     * Returns the estimated number of bytes held by the session: the instruction and the recipe context at two bytes
+     * per character, and the history in its encoded size. Used to bound the memory taken by the sessions.
+     *
+     * @return the number of bytes held by the session
+     */
+    public long bytes() {
+        return contextBytes + history.bytes();
+    }
+
+    /**
+     * Returns the number of characters of the text of a message.
+     *
+     * @param message the message
+     * @return the length of the text of the message, or 0 if it has none
+     */
+    private static long length(Message message) {
+        String text = message.getText();
+        return text == null ? 0 : text.length();
+    }
+}
@@ -0,0 +1,223 @@
+package pl.hubertmaka.culinaryagent.domain.models;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.UserMessage;
+import pl.hubertmaka.culinaryagent.utils.HashUtils;
+import pl.hubertmaka.culinaryagent.utils.TokenEstimator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Append-only history of a conversation in a compact encoding: every message is kept as its type and its text
+ * encoded in UTF-8, instead of a Spring AI message with its metadata, and is turned back into a message only when it
+ * is read. Messages are never changed once appended, so a snapshot of the history shares the storage of the history
+ * instead of copying it.
+ * <p>
+ * The estimated tokens of every message are taken once, when it is appended, and kept as running totals, so the
+ * tokens of any range of messages are known without reading them. The keys of the blocks a history is folded in are
+ * chained, every key hashing the previous one and the messages of its block, and are kept once computed, so a
+ * growing history only hashes its newest blocks. The history is guarded by its own monitor.
+ */
+public final class ConversationHistory {
+    /** The number of messages the storage is created for. */
+    private static final int INITIAL_CAPACITY = 8;
+    /** The types of the messages, in order. */
+    private MessageType[] types = new MessageType[INITIAL_CAPACITY];
+    /** The texts of the messages encoded in UTF-8, in order. */
+    private byte[][] texts = new byte[INITIAL_CAPACITY][];
+    /** The estimated tokens of the messages before every index, so that {@code tokenSums[0]} is 0. */
+    private int[] tokenSums = new int[INITIAL_CAPACITY + 1];
+    /** The number of messages in the history. */
+    private int size;
+    /** The total number of bytes of the encoded texts. */
+    private long bytes;
+    /** The keys of the blocks of messages computed so far, in order. */
+    private final List<String> blockKeys = new ArrayList<>();
+    /** The key the first block key is chained to, or null if no block key has been computed. */
+    private String blockKeySeed;
+    /** The number of messages in a block of the computed block keys. */
+    private int blockKeySize;
+
+    /**
+     * Creates a history holding the given messages.
+     *
+     * @param messages the messages, in order
+     * @return the ConversationHistory of the messages
+     */
+    public static ConversationHistory of(List<Message> messages) {
+        ConversationHistory history = new ConversationHistory();
+        messages.forEach(history::append);
+        return history;
+    }
+
+    /**
+     * Appends a message to the history.
+     *
+     * @param message the message of the user or of the chat agent
+     * @throws IllegalArgumentException if the message is neither a user nor an assistant message
+     */
+    public synchronized void append(Message message) {
+        MessageType type = message.getMessageType();
+        if (type != MessageType.USER && type != MessageType.ASSISTANT) {
+            throw new IllegalArgumentException("Unsupported message type: " + type);
+        }
+        if (size == types.length) {
+            types = Arrays.copyOf(types, size * 2);
+            texts = Arrays.copyOf(texts, size * 2);
+            tokenSums = Arrays.copyOf(tokenSums, size * 2 + 1);
+        }
+        byte[] text = message.getText() == null ? new byte[0] : message.getText().getBytes(StandardCharsets.UTF_8);
+        types[size] = type;
+        texts[size] = text;
+        tokenSums[size + 1] = tokenSums[size] + TokenEstimator.estimate(message);
+        size++;
+        bytes += text.length;
+    }
+
+    /**
+     * Returns a snapshot of the messages of the history. The snapshot shares the storage of the history, and
+     * messages appended later are not part of it.
+     *
+     * @return an immutable list of the messages, in order
+     */
+    public synchronized List<Message> messages() {
+        return new Snapshot(types, texts, 0, size);
+    }
+
+    /**
+     * Returns a snapshot of a range of the messages of the history, sharing the storage of the history.
+     *
+     * @param from the index of the first message, inclusive
+     * @param to the index after the last message, exclusive
+     * @return an immutable list of the messages of the range, in order
+     * @throws IndexOutOfBoundsException if the range is not within the history
+     */
+    public synchronized List<Message> messages(int from, int to) {
+        Objects.checkFromToIndex(from, to, size);
+        return new Snapshot(types, texts, from, to);
+    }
+
+    /**
+     * Returns the estimated number of tokens a range of the messages takes in the prompt.
+     *
+     * @param from the index of the first message, inclusive
+     * @param to the index after the last message, exclusive
+     * @return the estimated number of tokens of the messages of the range
+     * @throws IndexOutOfBoundsException if the range is not within the history
+     */
+    public synchronized int tokens(int from, int to) {
+        Objects.checkFromToIndex(from, to, size);
+        return tokenSums[to] - tokenSums[from];
+    }
+
+    /**
+     * Returns the key of a block of messages: the hash of the key of the previous block and the types and texts of
+     * the messages of the block, the first block chained to the given seed. The keys of earlier blocks are reused
+     * from previous calls with the same seed and block size, so only the blocks not keyed yet are hashed.
+     *
+     * @param seed the key the first block is chained to
+     * @param blockSize the number of messages of a block
+     * @param block the index of the block
+     * @return the key of the block
+     * @throws IndexOutOfBoundsException if the block is not complete in the history
+     */
+    public synchronized String blockKey(String seed, int blockSize, int block) {
+        Objects.checkIndex(block, size / blockSize);
+        if (!seed.equals(blockKeySeed) || blockSize != blockKeySize) {
+            blockKeys.clear();
+            blockKeySeed = seed;
+            blockKeySize = blockSize;
+        }
+        while (blockKeys.size() <= block) {
+            int from = blockKeys.size() * blockSize;
+            List<String> parts = new ArrayList<>(2 * blockSize + 1);
+            parts.add(blockKeys.isEmpty() ? seed : blockKeys.getLast());
+            for (int index = from; index < from + blockSize; index++) {
+                parts.add(types[index].getValue());
+                parts.add(new String(texts[index], StandardCharsets.UTF_8));
+            }
+            blockKeys.add(HashUtils.sha256Hex(parts.toArray(String[]::new)));
+        }
+        return blockKeys.get(block);
+    }
+
+    /**
+     * Returns the number of messages in the history.
+     *
+     * @return the number of messages
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the total number of bytes of the encoded texts of the messages.
+     *
+     * @return the number of bytes held by the history
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Immutable view of a range of the messages of the history, decoding a message every time it is read.
+     */
+    private static final class Snapshot extends AbstractList<Message> implements RandomAccess {
+        /** The types of the messages of the history. */
+        private final MessageType[] types;
+        /** The encoded texts of the messages of the history. */
+        private final byte[][] texts;
+        /** The index of the first message of the view. */
+        private final int from;
+        /** The index after the last message of the view. */
+        private final int to;
+
+        /**
+         * Constructor for Snapshot.
+         *
+         * @param types the types of the messages of the history
+         * @param texts the encoded texts of the messages of the history
+         * @param from the index of the first message of the view
+         * @param to the index after the last message of the view
+         */
+        private Snapshot(MessageType[] types, byte[][] texts, int from, int to) {
+            this.types = types;
+            this.texts = texts;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Decodes the message at the given index of the view.
+         *
+         * @param index the index of the message in the view
+         * @return a new message with the type and text of the stored message
+         */
+        @Override
+        public Message get(int index) {
+            Objects.checkIndex(index, to - from);
+            String text = new String(texts[from + index], StandardCharsets.UTF_8);
+            return types[from + index] == MessageType.USER
+                    ? UserMessage.builder().text(text).build()
+                    : AssistantMessage.builder().content(text).build();
+        }
+
+        /**
+         * Returns the number of messages of the view.
+         *
+         * @return the number of messages
+         */
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
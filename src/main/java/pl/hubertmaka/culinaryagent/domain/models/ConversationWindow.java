@@ -0,0 +1,33 @@
+package pl.hubertmaka.culinaryagent.domain.models;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The part of a conversation sent to the chat agent for a turn: the instruction, the summary of the older turns if
+ * any were folded, and the recent turns verbatim.
+ *
+ * @param messages          The messages sent to the chat agent, starting with the instruction.
+ * @param historyTokens     The estimated number of tokens the whole history would take if sent verbatim.
+ * @param sentHistoryTokens The estimated number of tokens of the summary and the recent turns actually sent.
+ */
+public record ConversationWindow(
+    List<Message> messages,
+    int historyTokens,
+    int sentHistoryTokens
+) {
+    /**
+     * Returns the messages of the window followed by the given message. The window itself is left unchanged.
+     *
+     * @param message the new message of the user
+     * @return the messages of the window followed by the new message
+     */
+    public List<Message> followedBy(Message message) {
+        List<Message> conversation = new ArrayList<>(messages.size() + 1);
+        conversation.addAll(messages);
+        conversation.add(message);
+        return conversation;
+    }
+}
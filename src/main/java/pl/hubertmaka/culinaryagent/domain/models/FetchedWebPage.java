@@ -0,0 +1,33 @@
+package pl.hubertmaka.culinaryagent.domain.models;
+
+import org.jsoup.nodes.Document;
+
+import java.time.Duration;
+
+/**
+ * The outcome of fetching a web page, possibly conditionally.
+ *
+ * @param document     The parsed page, or null if the server responded that the page has not been modified.
+ * @param etag         The entity tag of the page, may be null.
+ * @param lastModified The Last-Modified date of the page as sent by the server, may be null.
+ * @param freshFor     The time the page may be reused without revalidation, zero if it must always be revalidated.
+ * @param storable     Whether the server allows the page to be stored.
+ * @param bytes        The number of body bytes read.
+ */
+public record FetchedWebPage(
+    Document document,
+    String etag,
+    String lastModified,
+    Duration freshFor,
+    boolean storable,
+    long bytes
+) {
+    /**
+     * Checks whether the server responded with 304 Not Modified, so the cached copy of the page is still valid.
+     *
+     * @return true if the page has not been modified
+     */
+    public boolean notModified() {
+        return document == null;
+    }
+}
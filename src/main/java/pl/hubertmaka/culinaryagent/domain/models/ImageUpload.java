@@ -0,0 +1,20 @@
+package pl.hubertmaka.culinaryagent.domain.models;
+
+import pl.hubertmaka.culinaryagent.domain.enums.FileExtension;
+
+import java.nio.file.Path;
+
+/**
+ * An uploaded image spooled to a temporary file, which is deleted once the upload has been processed.
+ *
+ * @param file          The temporary file holding the image.
+ * @param fileExtension The type of the image.
+ * @param size          The size of the image, in bytes.
+ * @param sha256        The hexadecimal SHA-256 hash of the image, computed while it was uploaded.
+ */
+public record ImageUpload(
+    Path file,
+    FileExtension fileExtension,
+    long size,
+    String sha256
+) { }
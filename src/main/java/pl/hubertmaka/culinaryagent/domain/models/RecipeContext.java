@@ -0,0 +1,32 @@
+package pl.hubertmaka.culinaryagent.domain.models;
+
+import java.util.List;
+
+/**
+ * Compact representation of a recipe sent to the chat agent in place of its raw schema.
+ *
+ * @param text          The compact recipe placed in the instruction of the chat agent: title, details, timings,
+ *                      a deduplicated ingredient list, numbered steps and notes, within the token budget.
+ * @param deferredSteps The numbered steps left out of the text because they did not fit the budget; the ones
+ *                      relevant to a question are sent along with it. Empty if every step is in the text.
+ * @param stepBudget    The estimated number of tokens available for the deferred steps sent with a question.
+ */
+public record RecipeContext(
+    String text,
+    List<String> deferredSteps,
+    int stepBudget
+) {
+    /**
+     * Returns the number of characters of the text and the deferred steps, used to bound the memory taken by the
+     * contexts held in chat sessions.
+     *
+     * @return the number of characters of the context
+     */
+    public long characters() {
+        long characters = text.length();
+        for (String step : deferredSteps) {
+            characters += step.length();
+        }
+        return characters;
+    }
+}
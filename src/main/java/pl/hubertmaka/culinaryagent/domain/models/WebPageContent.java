@@ -0,0 +1,12 @@
+package pl.hubertmaka.culinaryagent.domain.models;
+
+/**
+ * The parts of a fetched web page that recipes are extracted from.
+ *
+ * @param mainContent    The text of the main content of the page, without boilerplate.
+ * @param structuredData A small HTML document holding only the schema.org structured data and the language of the page.
+ */
+public record WebPageContent(
+    String mainContent,
+    String structuredData
+) { }
@@ -0,0 +1,15 @@
+package pl.hubertmaka.culinaryagent.exceptions;
+
+/**
+ * Exception thrown when a request cannot be accepted because the service is at its capacity.
+ */
+public class CapacityExceededException extends RuntimeException {
+    /**
+     * Constructs a new CapacityExceededException with the specified detail message.
+     *
+     * @param message the detail message
+     */
+    public CapacityExceededException(String message) {
+        super(message);
+    }
+}
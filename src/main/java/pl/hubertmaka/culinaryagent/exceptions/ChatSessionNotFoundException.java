@@ -0,0 +1,15 @@
+package pl.hubertmaka.culinaryagent.exceptions;
+
+/**
+ * Exception thrown when a chat session does not exist or has expired.
+ */
+public class ChatSessionNotFoundException extends RuntimeException {
+    /**
+     * Constructs a new ChatSessionNotFoundException with the specified detail message.
+     *
+     * @param message the detail message
+     */
+    public ChatSessionNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,15 @@
+package pl.hubertmaka.culinaryagent.exceptions;
+
+/**
+ * Exception thrown when an extraction job does not exist or its result is no longer retained.
+ */
+public class JobNotFoundException extends RuntimeException {
+    /**
+     * Constructs a new JobNotFoundException with the specified detail message.
+     *
+     * @param message the detail message
+     */
+    public JobNotFoundException(String message) {
+        super(message);
+    }
+}
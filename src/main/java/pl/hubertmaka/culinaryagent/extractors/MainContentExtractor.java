@@ -0,0 +1,301 @@
+package pl.hubertmaka.culinaryagent.extractors;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the main content of a web page, dropping navigation, comments, advertisements, related-content
+ * carousels, footers and other boilerplate. The main block is found with a readability-style scorer: text blocks
+ * award points to their ancestors based on their length and number of commas, the points are weighted by the
+ * class names and ids of the ancestors and by their link density, and the best scoring block is returned together
+ * with those of its siblings that score well enough to belong to the same content.
+ */
+@Component
+public class MainContentExtractor {
+    /** Logger for logging information and debugging purposes. */
+    private static final Logger log = LoggerFactory.getLogger(MainContentExtractor.class);
+    /** Elements that never contain main content. */
+    private static final String BOILERPLATE_ELEMENTS = "script, style, noscript, template, iframe, svg, canvas, form, "
+            + "button, input, select, textarea, nav, aside, meta, link, [hidden], "
+            + "[role=navigation], [role=banner], [role=contentinfo], [role=complementary], [role=dialog]";
+    /** Page sections that are boilerplate unless they belong to an article, where they hold its title or byline. */
+    private static final String PAGE_SECTIONS = "header, footer";
+    /** Class names and ids of elements that are unlikely to be main content. */
+    private static final Pattern UNLIKELY_CANDIDATE = Pattern.compile(
+            "-ad-|^ad-|-ads?$|advert|agegate|banner|breadcrumb|carousel|combx|comment|community|cookie|disqus|"
+                    + "footer|gdpr|masthead|menu|newsletter|pager|pagination|popup|promo|related|remark|replies|rss|"
+                    + "share|sharing|shoutbox|sidebar|skyscraper|social|sponsor|subscribe|supplemental|widget",
+            Pattern.CASE_INSENSITIVE);
+    /** Class names and ids that keep an otherwise unlikely element, because they often wrap the main content. */
+    private static final Pattern MAYBE_CANDIDATE = Pattern.compile(
+            "article|body|column|content|main|ingredient|instruction|direction",
+            Pattern.CASE_INSENSITIVE);
+    /** Class names and ids that raise the score of a candidate. */
+    private static final Pattern POSITIVE_WEIGHT = Pattern.compile(
+            "article|body|content|entry|hentry|h-entry|main|page|post|text|blog|story|recipe|ingredient|"
+                    + "instruction|direction|method|step",
+            Pattern.CASE_INSENSITIVE);
+    /** Class names and ids that lower the score of a candidate. */
+    private static final Pattern NEGATIVE_WEIGHT = Pattern.compile(
+            "-ad-|hidden|^hid$|banner|combx|comment|com-|contact|foot|footnote|gdpr|masthead|media|meta|outbrain|"
+                    + "promo|related|scroll|share|shoutbox|sidebar|skyscraper|sponsor|shopping|tags|tool|widget|"
+                    + "newsletter|subscribe",
+            Pattern.CASE_INSENSITIVE);
+    /** The elements whose text is scored. */
+    private static final String SCORED_ELEMENTS = "p, li, td, pre, blockquote, dd";
+    /** The headings kept when they introduce a kept sibling. */
+    private static final Set<String> HEADINGS = Set.of("h1", "h2", "h3", "h4", "h5", "h6");
+    /** The minimum length of a scored text block, short enough to keep ingredients such as "2 eggs". */
+    private static final int MIN_BLOCK_LENGTH = 5;
+    /** The weight of a class name or id matching the positive or negative pattern. */
+    private static final int CLASS_WEIGHT = 25;
+    /** The number of ancestor levels a text block awards points to. */
+    private static final int SCORED_ANCESTOR_LEVELS = 3;
+    /** The score, relative to the top candidate, above which a sibling is kept. */
+    private static final double SIBLING_SCORE_RATIO = 0.2;
+    /** The minimum score of a kept sibling. */
+    private static final double MIN_SIBLING_SCORE = 10;
+    /** The minimum length of an unscored paragraph sibling that is kept. */
+    private static final int MIN_SIBLING_PARAGRAPH_LENGTH = 80;
+    /** The maximum link density of an unscored paragraph sibling that is kept. */
+    private static final double MAX_SIBLING_PARAGRAPH_LINK_DENSITY = 0.25;
+    /** The minimum length of extracted main content; pages yielding less fall back to their whole text. */
+    private static final int MIN_CONTENT_LENGTH = 200;
+
+    /**
+     * Constructor for MainContentExtractor.
+     */
+    public MainContentExtractor() {
+        log.info("Creating main content extractor...");
+    }
+
+    /**
+     * Extracts the text of the main content of the document. The page title is prepended when the main block
+     * does not contain it. Pages without a clear main block fall back to the text of the whole page without its
+     * non-content elements. The document is modified by the extraction.
+     *
+     * @param document the parsed web page
+     * @return the text of the main content of the page
+     */
+    public String extract(Document document) {
+        Element body = document.body();
+        Element title = body.selectFirst("h1");
+        String titleText = title != null ? title.text() : document.title();
+        body.select("script, style, noscript, template, meta, link").remove();
+        String pageText = body.text();
+
+        body.select(BOILERPLATE_ELEMENTS).remove();
+        body.select(PAGE_SECTIONS).stream()
+                .filter(section -> section.closest("article, main") == null)
+                .forEach(Element::remove);
+        removeUnlikelyCandidates(body);
+        Map<Element, Double> scores = scoreCandidates(body);
+        Element topCandidate = findTopCandidate(scores);
+        if (topCandidate == null) {
+            log.info("No main content candidate found, using the whole page [length={}]", pageText.length());
+            return pageText;
+        }
+
+        String content = collectContent(topCandidate, scores);
+        if (content.length() < MIN_CONTENT_LENGTH) {
+            log.info("Main content too short, using the whole page [length={}]", pageText.length());
+            return pageText;
+        }
+        if (!titleText.isBlank() && !content.contains(titleText)) {
+            content = titleText + "\n" + content;
+        }
+        log.info("Extracted main content [pageLength={}, contentLength={}]", pageText.length(), content.length());
+        return content;
+    }
+
+    /**
+     * Removes the elements whose class name or id marks them as boilerplate, unless it also marks them as
+     * a possible wrapper of the main content.
+     *
+     * @param body the body of the page
+     */
+    private void removeUnlikelyCandidates(Element body) {
+        for (Element element : body.select("[class], [id]")) {
+            String classAndId = element.className() + " " + element.id();
+            if (UNLIKELY_CANDIDATE.matcher(classAndId).find() && !MAYBE_CANDIDATE.matcher(classAndId).find()) {
+                element.remove();
+            }
+        }
+    }
+
+    /**
+     * Scores the ancestors of every text block. A block awards one point, one point per comma and one point per
+     * 100 characters up to three, in full to its parent, in half to its grandparent and in a sixth to the level
+     * above. List items score the element holding their list instead of the list itself, so that the ingredients
+     * and the steps of a recipe add up in their common container. The scores are then scaled down by the link
+     * density of the candidate.
+     *
+     * @param body the body of the page
+     * @return the scores of the candidates
+     */
+    private Map<Element, Double> scoreCandidates(Element body) {
+        Map<Element, Double> scores = new IdentityHashMap<>();
+        for (Element block : body.select(SCORED_ELEMENTS)) {
+            String text = block.text();
+            if (text.length() < MIN_BLOCK_LENGTH) {
+                continue;
+            }
+            int commas = text.length() - text.replace(",", "").length();
+            double blockScore = 1 + commas + Math.min(text.length() / 100, 3);
+            Element ancestor = isListItem(block) ? block.parent().parent() : block.parent();
+            for (int level = 0; level < SCORED_ANCESTOR_LEVELS && ancestor != null && ancestor != body.parent(); level++) {
+                double divider = level == 0 ? 1 : level == 1 ? 2 : level * 3;
+                scores.merge(ancestor, blockScore / divider, Double::sum);
+                ancestor = ancestor.parent();
+            }
+        }
+        scores.replaceAll((candidate, score) -> (score + initialScore(candidate)) * (1 - linkDensity(candidate)));
+        return scores;
+    }
+
+    /**
+     * Checks whether a text block is an item of a list that has a parent of its own.
+     *
+     * @param block the text block
+     * @return true if the block is a list item
+     */
+    private boolean isListItem(Element block) {
+        return "li".equals(block.normalName()) && block.parent() != null && block.parent().parent() != null;
+    }
+
+    /**
+     * Computes the initial score of a candidate from its tag and its class name and id.
+     *
+     * @param candidate the candidate element
+     * @return the initial score of the candidate
+     */
+    private double initialScore(Element candidate) {
+        double score = switch (candidate.normalName()) {
+            case "article", "main" -> 10;
+            case "div", "section" -> 5;
+            case "pre", "td", "blockquote" -> 3;
+            case "dl", "dd", "dt" -> -3;
+            case "h1", "h2", "h3", "h4", "h5", "h6", "th" -> -5;
+            default -> 0;
+        };
+        String classAndId = candidate.className() + " " + candidate.id();
+        if (POSITIVE_WEIGHT.matcher(classAndId).find()) {
+            score += CLASS_WEIGHT;
+        }
+        if (NEGATIVE_WEIGHT.matcher(classAndId).find()) {
+            score -= CLASS_WEIGHT;
+        }
+        return score;
+    }
+
+    /**
+     * Finds the candidate with the highest score. When the parent of the best candidate scores higher than
+     * a third of it, the parent holds more of the same content and is preferred.
+     *
+     * @param scores the scores of the candidates
+     * @return the top candidate, or null if there are no candidates with a positive score
+     */
+    private Element findTopCandidate(Map<Element, Double> scores) {
+        Element topCandidate = null;
+        double topScore = 0;
+        for (Map.Entry<Element, Double> entry : scores.entrySet()) {
+            if (entry.getValue() > topScore) {
+                topCandidate = entry.getKey();
+                topScore = entry.getValue();
+            }
+        }
+        if (topCandidate == null) {
+            return null;
+        }
+        double lastScore = topScore;
+        Element parent = topCandidate.parent();
+        while (parent != null && scores.containsKey(parent)) {
+            double parentScore = scores.get(parent);
+            if (parentScore < topScore / 3) {
+                break;
+            }
+            if (parentScore > lastScore) {
+                return parent;
+            }
+            lastScore = parentScore;
+            parent = parent.parent();
+        }
+        return topCandidate;
+    }
+
+    /**
+     * Collects the text of the top candidate and of its siblings that belong to the same content: siblings scoring
+     * at least a fifth of the top candidate, long paragraphs with few links, and headings introducing a kept
+     * sibling.
+     *
+     * @param topCandidate the top candidate
+     * @param scores the scores of the candidates
+     * @return the text of the main content, one block per line
+     */
+    private String collectContent(Element topCandidate, Map<Element, Double> scores) {
+        Element parent = topCandidate.parent();
+        if (parent == null) {
+            return topCandidate.text();
+        }
+        double siblingThreshold = Math.max(MIN_SIBLING_SCORE, scores.get(topCandidate) * SIBLING_SCORE_RATIO);
+        List<Element> siblings = parent.children();
+        boolean[] kept = new boolean[siblings.size()];
+        for (int i = 0; i < siblings.size(); i++) {
+            Element sibling = siblings.get(i);
+            kept[i] = sibling == topCandidate
+                    || scores.getOrDefault(sibling, 0.0) >= siblingThreshold
+                    || isContentParagraph(sibling);
+        }
+        for (int i = siblings.size() - 2; i >= 0; i--) {
+            kept[i] |= HEADINGS.contains(siblings.get(i).normalName()) && kept[i + 1];
+        }
+        List<String> blocks = new ArrayList<>();
+        for (int i = 0; i < siblings.size(); i++) {
+            String text = siblings.get(i).text();
+            if (kept[i] && !text.isBlank()) {
+                blocks.add(text);
+            }
+        }
+        return String.join("\n", blocks);
+    }
+
+    /**
+     * Checks whether an unscored sibling is a long paragraph with few links, such as the introduction of a recipe.
+     *
+     * @param sibling the sibling element
+     * @return true if the sibling is a content paragraph
+     */
+    private boolean isContentParagraph(Element sibling) {
+        return "p".equals(sibling.normalName())
+                && sibling.text().length() >= MIN_SIBLING_PARAGRAPH_LENGTH
+                && linkDensity(sibling) < MAX_SIBLING_PARAGRAPH_LINK_DENSITY;
+    }
+
+    /**
+     * Computes the share of the text of an element that is inside links.
+     *
+     * @param element the element
+     * @return the link density, from 0 to 1
+     */
+    private double linkDensity(Element element) {
+        int textLength = element.text().length();
+        if (textLength == 0) {
+            return 0;
+        }
+        int linkLength = 0;
+        for (Element link : element.select("a")) {
+            linkLength += link.text().length();
+        }
+        return Math.min(1, (double) linkLength / textLength);
+    }
+}
@@ -0,0 +1,426 @@
+package pl.hubertmaka.culinaryagent.extractors;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.DataNode;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import pl.hubertmaka.culinaryagent.domain.dtos.IngredientDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaDto;
+import pl.hubertmaka.culinaryagent.domain.enums.Language;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts recipes from schema.org structured data embedded in web pages, either as a JSON-LD
+ * {@code <script type="application/ld+json">} block or as {@code itemtype="https://schema.org/Recipe"} microdata.
+ * A recipe is only returned when it is complete (it has a name, ingredients and instructions) and the page is
+ * written in the requested language, because structured data is used as-is and never translated.
+ */
+@Component
+public class StructuredDataRecipeExtractor {
+    /** Logger for logging information and debugging purposes. */
+    private static final Logger log = LoggerFactory.getLogger(StructuredDataRecipeExtractor.class);
+    /** Selects the JSON-LD blocks of a page. */
+    private static final String JSON_LD_SELECTOR = "script[type=application/ld+json]";
+    /** Selects the element annotated as a schema.org Recipe with microdata. */
+    private static final String MICRODATA_SELECTOR = "[itemscope][itemtype~=(?i)schema\\.org/Recipe$]";
+    /** The schema.org type of recipes. */
+    private static final String RECIPE_TYPE = "Recipe";
+    /** The maximum preparation time accepted by RecipeSchemaDto, in minutes. */
+    private static final long MAX_PREPARATION_MINUTES = 60 * 24 * 7;
+    /** The section headings of the generated recipe content, in every supported language. */
+    private static final Map<Language, Headings> HEADINGS = Map.of(
+            Language.PL, new Headings("Składniki", "Przygotowanie"),
+            Language.EN_US, new Headings("Ingredients", "Instructions"),
+            Language.EN_GB, new Headings("Ingredients", "Instructions"),
+            Language.DE, new Headings("Zutaten", "Zubereitung"),
+            Language.FR, new Headings("Ingrédients", "Préparation"),
+            Language.SP, new Headings("Ingredientes", "Preparación")
+    );
+    /** Matches the zero years and months some sites prefix their durations with, e.g. {@code P0Y0M0DT1H}. */
+    private static final Pattern ZERO_DATE_PART = Pattern.compile("^P(0+Y)?(0+M)?");
+    /** The ObjectMapper used to parse JSON-LD blocks. */
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Constructor for StructuredDataRecipeExtractor.
+     *
+     * @param objectMapper the ObjectMapper used to parse JSON-LD blocks, injected by Spring
+     */
+    public StructuredDataRecipeExtractor(ObjectMapper objectMapper) {
+        log.info("Creating structured data recipe extractor...");
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Extracts a complete recipe from the structured data of the document. JSON-LD is preferred over microdata.
+     *
+     * @param document the parsed web page
+     * @param language the language the recipe is requested in
+     * @return the recipe schema, or an empty Optional if the page has no complete recipe in the requested language
+     */
+    public Optional<RecipeSchemaDto> extract(Document document, Language language) {
+        Optional<StructuredRecipe> recipe = findJsonLdRecipe(document).or(() -> findMicrodataRecipe(document));
+        if (recipe.isEmpty()) {
+            log.info("No structured recipe data found");
+            return Optional.empty();
+        }
+        StructuredRecipe structuredRecipe = recipe.get();
+        if (!structuredRecipe.isComplete()) {
+            log.info("Structured recipe data is incomplete [name={}]", structuredRecipe.name());
+            return Optional.empty();
+        }
+        String pageLanguage = Optional.ofNullable(structuredRecipe.language())
+                .or(() -> Optional.ofNullable(document.selectFirst("html")).map(html -> html.attr("lang")))
+                .orElse(null);
+        if (!language.matches(pageLanguage)) {
+            log.info("Structured recipe data language does not match [page={}, requested={}]", pageLanguage, language.getLanguageTag());
+            return Optional.empty();
+        }
+        log.info("Extracted recipe from structured data [name={}]", structuredRecipe.name());
+        return Optional.of(toSchema(structuredRecipe, HEADINGS.get(language)));
+    }
+
+    /**
+     * Copies the parts of the page this extractor reads, the JSON-LD blocks, the microdata recipe and the language of
+     * the page, into a small HTML document. Extracting from that document gives the same result as extracting from
+     * the page, so it can be stored instead of the page.
+     *
+     * @param document the parsed web page
+     * @return the HTML of a document holding only the structured data of the page
+     */
+    public String extractStructuredData(Document document) {
+        Document structuredData = Document.createShell(document.location());
+        Element html = document.selectFirst("html");
+        if (html != null && html.hasAttr("lang")) {
+            structuredData.selectFirst("html").attr("lang", html.attr("lang"));
+        }
+        for (Element script : document.select(JSON_LD_SELECTOR)) {
+            structuredData.head()
+                    .appendElement("script")
+                    .attr("type", "application/ld+json")
+                    .appendChild(new DataNode(script.data()));
+        }
+        Element microdata = document.selectFirst(MICRODATA_SELECTOR);
+        if (microdata != null) {
+            structuredData.body().appendChild(microdata.clone());
+        }
+        return structuredData.outerHtml();
+    }
+
+    /**
+     * Finds the first recipe in the JSON-LD blocks of the document, including recipes nested in {@code @graph}
+     * containers and top-level arrays.
+     *
+     * @param document the parsed web page
+     * @return the recipe read from JSON-LD, or an empty Optional if there is none
+     */
+    private Optional<StructuredRecipe> findJsonLdRecipe(Document document) {
+        for (Element script : document.select(JSON_LD_SELECTOR)) {
+            try {
+                Optional<JsonNode> recipe = findRecipeNode(objectMapper.readTree(script.data()));
+                if (recipe.isPresent()) {
+                    return Optional.of(fromJsonLd(recipe.get()));
+                }
+            } catch (JsonProcessingException e) {
+                log.debug("Skipping malformed JSON-LD block: {}", e.getMessage());
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Recursively searches a JSON-LD node for an object of the Recipe type.
+     *
+     * @param node the JSON-LD node to search
+     * @return the recipe node, or an empty Optional if there is none
+     */
+    private Optional<JsonNode> findRecipeNode(JsonNode node) {
+        if (node.isArray()) {
+            for (JsonNode element : node) {
+                Optional<JsonNode> recipe = findRecipeNode(element);
+                if (recipe.isPresent()) {
+                    return recipe;
+                }
+            }
+            return Optional.empty();
+        }
+        if (!node.isObject()) {
+            return Optional.empty();
+        }
+        if (hasRecipeType(node.path("@type"))) {
+            return Optional.of(node);
+        }
+        return node.has("@graph") ? findRecipeNode(node.get("@graph")) : Optional.empty();
+    }
+
+    /**
+     * Checks whether a JSON-LD {@code @type}, a String or an array of Strings, includes the Recipe type.
+     *
+     * @param type the {@code @type} node
+     * @return true if the type includes Recipe
+     */
+    private boolean hasRecipeType(JsonNode type) {
+        if (type.isArray()) {
+            for (JsonNode element : type) {
+                if (RECIPE_TYPE.equals(element.asText())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return RECIPE_TYPE.equals(type.asText());
+    }
+
+    /**
+     * Reads a recipe from a JSON-LD Recipe node.
+     *
+     * @param recipe the Recipe node
+     * @return the recipe read from the node
+     */
+    private StructuredRecipe fromJsonLd(JsonNode recipe) {
+        JsonNode ingredients = recipe.has("recipeIngredient") ? recipe.get("recipeIngredient") : recipe.path("ingredients");
+        List<String> instructions = new ArrayList<>();
+        collectInstructions(recipe.path("recipeInstructions"), instructions);
+        return new StructuredRecipe(
+                clean(recipe.path("name").asText(null)),
+                clean(recipe.path("description").asText(null)),
+                textValues(ingredients),
+                instructions,
+                preparationMinutes(
+                        recipe.path("totalTime").asText(null),
+                        recipe.path("prepTime").asText(null),
+                        recipe.path("cookTime").asText(null)
+                ),
+                recipe.path("inLanguage").asText(null)
+        );
+    }
+
+    /**
+     * Collects the steps of JSON-LD recipe instructions, which can be a single text, a list of texts, or a list of
+     * HowToStep objects optionally grouped into HowToSection objects.
+     *
+     * @param node the instructions node
+     * @param steps the list the steps are added to
+     */
+    private void collectInstructions(JsonNode node, List<String> steps) {
+        if (node.isArray()) {
+            node.forEach(element -> collectInstructions(element, steps));
+        } else if (node.isObject()) {
+            if (node.has("itemListElement")) {
+                collectInstructions(node.get("itemListElement"), steps);
+            } else {
+                Optional.ofNullable(clean(node.path("text").asText(node.path("name").asText(null)))).ifPresent(steps::add);
+            }
+        } else if (node.isTextual()) {
+            Optional.ofNullable(clean(node.asText())).ifPresent(steps::add);
+        }
+    }
+
+    /**
+     * Reads the non-blank texts of a JSON-LD node holding a single text or a list of texts.
+     *
+     * @param node the node to read
+     * @return the cleaned texts
+     */
+    private List<String> textValues(JsonNode node) {
+        List<String> values = new ArrayList<>();
+        for (JsonNode value : node.isArray() ? node : List.of(node)) {
+            if (value.isTextual()) {
+                Optional.ofNullable(clean(value.asText())).ifPresent(values::add);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Finds the first recipe annotated with schema.org microdata.
+     *
+     * @param document the parsed web page
+     * @return the recipe read from microdata, or an empty Optional if there is none
+     */
+    private Optional<StructuredRecipe> findMicrodataRecipe(Document document) {
+        Element recipe = document.selectFirst(MICRODATA_SELECTOR);
+        if (recipe == null) {
+            return Optional.empty();
+        }
+        Elements instructionElements = recipe.select("[itemprop=recipeInstructions]");
+        List<String> instructions = new ArrayList<>();
+        for (Element instruction : instructionElements) {
+            Elements steps = instruction.select("[itemprop=text]");
+            if (steps.isEmpty()) {
+                steps = instruction.select("li");
+            }
+            if (steps.isEmpty()) {
+                Optional.ofNullable(clean(instruction.text())).ifPresent(instructions::add);
+            } else {
+                steps.forEach(step -> Optional.ofNullable(clean(step.text())).ifPresent(instructions::add));
+            }
+        }
+        return Optional.of(new StructuredRecipe(
+                microdataValue(recipe, "name"),
+                microdataValue(recipe, "description"),
+                recipe.select("[itemprop=recipeIngredient], [itemprop=ingredients]").stream()
+                        .map(element -> clean(element.text()))
+                        .filter(Objects::nonNull)
+                        .toList(),
+                instructions,
+                preparationMinutes(
+                        microdataValue(recipe, "totalTime"),
+                        microdataValue(recipe, "prepTime"),
+                        microdataValue(recipe, "cookTime")
+                ),
+                microdataValue(recipe, "inLanguage")
+        ));
+    }
+
+    /**
+     * Reads a microdata property, preferring its machine-readable {@code content} or {@code datetime} attribute.
+     *
+     * @param recipe the element annotated as a Recipe
+     * @param property the name of the property
+     * @return the value of the property, or null if it is missing
+     */
+    private String microdataValue(Element recipe, String property) {
+        Element element = recipe.selectFirst("[itemprop=" + property + "]");
+        if (element == null) {
+            return null;
+        }
+        if (element.hasAttr("content")) {
+            return clean(element.attr("content"));
+        }
+        if (element.hasAttr("datetime")) {
+            return clean(element.attr("datetime"));
+        }
+        return clean(element.text());
+    }
+
+    /**
+     * Computes the preparation time from ISO-8601 durations: the total time if present, otherwise the sum of the
+     * preparation and cooking times.
+     *
+     * @param totalTime the total time of the recipe
+     * @param prepTime the preparation time of the recipe
+     * @param cookTime the cooking time of the recipe
+     * @return the preparation time in minutes, or null if it is unknown or out of range
+     */
+    private Integer preparationMinutes(String totalTime, String prepTime, String cookTime) {
+        Long minutes = parseMinutes(totalTime);
+        if (minutes == null) {
+            Long prep = parseMinutes(prepTime);
+            Long cook = parseMinutes(cookTime);
+            minutes = prep == null && cook == null ? null : (prep == null ? 0 : prep) + (cook == null ? 0 : cook);
+        }
+        return minutes == null || minutes <= 0 || minutes > MAX_PREPARATION_MINUTES ? null : minutes.intValue();
+    }
+
+    /**
+     * Parses an ISO-8601 duration such as {@code PT1H30M} or {@code P1DT2H}. Zero years and months are ignored.
+     *
+     * @param duration the duration to parse
+     * @return the duration in minutes, or null if it is missing or malformed
+     */
+    private Long parseMinutes(String duration) {
+        if (duration == null || duration.isBlank()) {
+            return null;
+        }
+        try {
+            String normalized = ZERO_DATE_PART.matcher(duration.strip().toUpperCase(Locale.ROOT)).replaceFirst("P");
+            return Duration.parse(normalized).toMinutes();
+        } catch (DateTimeParseException e) {
+            log.debug("Skipping malformed duration [duration={}]", duration);
+            return null;
+        }
+    }
+
+    /**
+     * Builds the recipe schema from a complete structured recipe.
+     *
+     * @param recipe the complete structured recipe
+     * @param headings the section headings in the requested language
+     * @return the recipe schema
+     */
+    private RecipeSchemaDto toSchema(StructuredRecipe recipe, Headings headings) {
+        StringBuilder content = new StringBuilder("# ").append(recipe.name()).append("\n\n");
+        if (recipe.description() != null) {
+            content.append("> ").append(recipe.description()).append("\n\n");
+        }
+        content.append("## ").append(headings.ingredients()).append('\n');
+        recipe.ingredients().forEach(ingredient -> content.append("- ").append(ingredient).append('\n'));
+        content.append("\n## ").append(headings.instructions()).append('\n');
+        for (int i = 0; i < recipe.instructions().size(); i++) {
+            content.append(i + 1).append(". ").append(recipe.instructions().get(i)).append('\n');
+        }
+        return new RecipeSchemaDto(
+                content.toString().strip(),
+                recipe.ingredients().stream().map(IngredientDto::new).toList(),
+                recipe.preparationMinutes(),
+                List.of()
+        );
+    }
+
+    /**
+     * Removes HTML markup and entities from a structured data value and collapses its whitespace.
+     *
+     * @param value the value to clean
+     * @return the cleaned value, or null if it is missing or blank
+     */
+    private static String clean(String value) {
+        if (value == null) {
+            return null;
+        }
+        String text = Jsoup.parse(value).text().strip();
+        return text.isEmpty() ? null : text;
+    }
+
+    /**
+     * A recipe read from structured data.
+     *
+     * @param name the name of the recipe
+     * @param description the description of the recipe, may be null
+     * @param ingredients the ingredients with their quantities
+     * @param instructions the steps of the recipe, in order
+     * @param preparationMinutes the preparation time in minutes, may be null
+     * @param language the language declared by the recipe, may be null
+     */
+    private record StructuredRecipe(
+            String name,
+            String description,
+            List<String> ingredients,
+            List<String> instructions,
+            Integer preparationMinutes,
+            String language
+    ) {
+        /**
+         * Checks whether the recipe has everything needed to skip the model.
+         *
+         * @return true if the recipe has a name, ingredients and instructions
+         */
+        private boolean isComplete() {
+            return name != null && !ingredients.isEmpty() && !instructions.isEmpty();
+        }
+    }
+
+    /**
+     * The section headings of the generated recipe content.
+     *
+     * @param ingredients the heading of the ingredients section
+     * @param instructions the heading of the instructions section
+     */
+    private record Headings(String ingredients, String instructions) { }
+}
@@ -0,0 +1,224 @@
+package pl.hubertmaka.culinaryagent.interceptors;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Interceptor bounding the page fetches of a RestClient. At most the configured number of requests are in flight
+ * at the same time across all hosts, which also caps the connections they hold, and every request, including the
+ * reading of its response body, must finish within the total deadline. A request holds its permit until its
+ * response is closed. The in-flight and waiting requests are published as the
+ * {@code web.page.fetch.requests.active} and {@code web.page.fetch.requests.pending} gauges.
+ */
+public class FetchLimitsInterceptor implements ClientHttpRequestInterceptor {
+    /** Logger for logging information and debugging purposes. */
+    private static final Logger log = LoggerFactory.getLogger(FetchLimitsInterceptor.class);
+    /** The permits of the requests in flight. */
+    private final Semaphore permits;
+    /** The maximum number of requests in flight. */
+    private final int maxConcurrentRequests;
+    /** The time a request may wait for a permit. */
+    private final Duration acquireTimeout;
+    /** The total time a request may take, from asking for a permit to reading the last byte of its response. */
+    private final Duration deadline;
+    /** The source of the current time, in nanoseconds, the deadlines are measured with. */
+    private final LongSupplier nanoTime;
+
+    /**
+     * Constructor for FetchLimitsInterceptor.
+     *
+     * @param maxConcurrentRequests the maximum number of requests in flight across all hosts
+     * @param acquireTimeout the time a request may wait for a permit
+     * @param deadline the total time a request may take, including the reading of its response body
+     * @param meterRegistry the registry the request gauges are published to
+     */
+    public FetchLimitsInterceptor(int maxConcurrentRequests, Duration acquireTimeout, Duration deadline, MeterRegistry meterRegistry) {
+        this(maxConcurrentRequests, acquireTimeout, deadline, meterRegistry, System::nanoTime);
+    }
+
+    /**
+     * Constructor for FetchLimitsInterceptor measuring the deadlines with the given source of time.
+     *
+     * @param maxConcurrentRequests the maximum number of requests in flight across all hosts
+     * @param acquireTimeout the time a request may wait for a permit
+     * @param deadline the total time a request may take, including the reading of its response body
+     * @param meterRegistry the registry the request gauges are published to
+     * @param nanoTime the source of the current time, in nanoseconds, such as {@link System#nanoTime()}
+     */
+    FetchLimitsInterceptor(int maxConcurrentRequests, Duration acquireTimeout, Duration deadline, MeterRegistry meterRegistry,
+                           LongSupplier nanoTime) {
+        this.nanoTime = nanoTime;
+        this.permits = new Semaphore(maxConcurrentRequests, true);
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.acquireTimeout = acquireTimeout;
+        this.deadline = deadline;
+        Gauge.builder("web.page.fetch.requests.active", this, interceptor -> interceptor.maxConcurrentRequests - interceptor.permits.availablePermits())
+                .description("Page fetch requests in flight")
+                .register(meterRegistry);
+        Gauge.builder("web.page.fetch.requests.pending", permits, Semaphore::getQueueLength)
+                .description("Page fetch requests waiting for a free connection slot")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Executes the request once a permit is free, and returns a response that releases the permit when it is
+     * closed and fails reads past the deadline.
+     *
+     * @param request the request
+     * @param body the body of the request
+     * @param execution the execution of the request
+     * @return the response of the request
+     * @throws IOException if no permit is free in time, or the request fails
+     */
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        long deadlineNanos = nanoTime.getAsLong() + deadline.toNanos();
+        acquirePermit(request);
+        try {
+            return new DeadlineResponse(execution.execute(request, body), deadlineNanos);
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for a free permit for the request.
+     *
+     * @param request the request
+     * @throws IOException if no permit is free within the acquire timeout, or the thread is interrupted
+     */
+    private void acquirePermit(HttpRequest request) throws IOException {
+        try {
+            if (!permits.tryAcquire(acquireTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                log.info("No free page fetch slot [uri={}, maxConcurrentRequests={}]", request.getURI(), maxConcurrentRequests);
+                throw new SocketTimeoutException("No free page fetch slot within " + acquireTimeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a page fetch slot");
+        }
+    }
+
+    /**
+     * Response releasing its permit when closed, whose body fails reads past the deadline.
+     */
+    private final class DeadlineResponse implements ClientHttpResponse {
+        /** The response of the request. */
+        private final ClientHttpResponse response;
+        /** The deadline of the request, in the units of the source of time. */
+        private final long deadlineNanos;
+        /** Whether the permit was released. */
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        /**
+         * Constructor for DeadlineResponse.
+         *
+         * @param response the response of the request
+         * @param deadlineNanos the deadline of the request, in the units of the source of time
+         */
+        private DeadlineResponse(ClientHttpResponse response, long deadlineNanos) {
+            this.response = response;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Returns the status code of the response.
+         *
+         * @return the status code
+         * @throws IOException if the status code cannot be read
+         */
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return response.getStatusCode();
+        }
+
+        /**
+         * Returns the status text of the response.
+         *
+         * @return the status text
+         * @throws IOException if the status text cannot be read
+         */
+        @Override
+        public String getStatusText() throws IOException {
+            return response.getStatusText();
+        }
+
+        /**
+         * Returns the headers of the response.
+         *
+         * @return the headers
+         */
+        @Override
+        public HttpHeaders getHeaders() {
+            return response.getHeaders();
+        }
+
+        /**
+         * Returns the body of the response, whose reads fail once the deadline has passed.
+         *
+         * @return the body of the response
+         * @throws IOException if the body cannot be opened
+         */
+        @Override
+        public InputStream getBody() throws IOException {
+            return new FilterInputStream(response.getBody()) {
+                @Override
+                public int read() throws IOException {
+                    checkDeadline();
+                    return super.read();
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    checkDeadline();
+                    return super.read(buffer, offset, length);
+                }
+            };
+        }
+
+        /**
+         * Closes the response and releases its permit.
+         */
+        @Override
+        public void close() {
+            try {
+                response.close();
+            } finally {
+                if (released.compareAndSet(false, true)) {
+                    permits.release();
+                }
+            }
+        }
+
+        /**
+         * Fails when the deadline of the request has passed.
+         *
+         * @throws SocketTimeoutException if the deadline has passed
+         */
+        private void checkDeadline() throws SocketTimeoutException {
+            if (nanoTime.getAsLong() - deadlineNanos > 0) {
+                throw new SocketTimeoutException("Page fetch exceeded its deadline of " + deadline);
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package pl.hubertmaka.culinaryagent.interceptors;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Interceptor scheduling the page fetches of a RestClient politely per host. Every host gets its own fair queue
+ * with a limit on the requests in flight to it, and a token bucket spacing the requests sent to it to the
+ * configured rate, with short bursts allowed. A 429 Too Many Requests or 503 Service Unavailable response carrying
+ * a Retry-After header holds back further requests to its host until the given time; requests that could not be
+ * sent within the acquire timeout fail immediately instead of waiting. Registered in front of the
+ * {@link FetchLimitsInterceptor}, it makes a busy host hold at most its own limit of the shared slots, so it
+ * cannot starve fetches from other hosts. The time requests wait is published as the
+ * {@code web.page.fetch.host.wait} timer, tagged with the host; the timer is removed together with the state of
+ * its host. Redirects are followed by the HTTP client below the interceptor, so only the host of the original URL
+ * is scheduled, and a redirect to another host bypasses that host's queue, bucket and Retry-After delay.
+ */
+public class HostPolitenessInterceptor implements ClientHttpRequestInterceptor {
+    /** Logger for logging information and debugging purposes. */
+    private static final Logger log = LoggerFactory.getLogger(HostPolitenessInterceptor.class);
+    /** The time after which the state of a host no request was sent to is dropped. */
+    private static final Duration IDLE_HOST_TTL = Duration.ofMinutes(10);
+    /** The maximum number of hosts whose state is kept. */
+    private static final long MAXIMUM_HOSTS = 10_000;
+    /** The maximum number of requests in flight to a single host. */
+    private final int maxRequestsPerHost;
+    /** The number of requests per second sent to a single host. */
+    private final double requestsPerSecond;
+    /** The number of requests that may be sent to a single host at once after it was idle. */
+    private final int burst;
+    /** The time a request may wait before it is sent. */
+    private final Duration acquireTimeout;
+    /** The longest Retry-After delay honoured, so a misbehaving host cannot block itself indefinitely. */
+    private final Duration maxRetryAfter;
+    /** The registry the wait timers of the hosts are published to. */
+    private final MeterRegistry meterRegistry;
+    /** The scheduling state of the hosts keyed by their lower-cased name, unregistering the timers of removed hosts. */
+    private final Cache<String, HostState> hosts = Caffeine.newBuilder()
+            .maximumSize(MAXIMUM_HOSTS)
+            .expireAfterAccess(IDLE_HOST_TTL)
+            .removalListener((String host, HostState state, RemovalCause cause) -> removeWaitTime(host, state))
+            .build();
+
+    /**
+     * Constructor for HostPolitenessInterceptor.
+     *
+     * @param maxRequestsPerHost the maximum number of requests in flight to a single host
+     * @param requestsPerSecond the number of requests per second sent to a single host
+     * @param burst the number of requests that may be sent to a single host at once after it was idle
+     * @param acquireTimeout the time a request may wait before it is sent
+     * @param maxRetryAfter the longest Retry-After delay honoured
+     * @param meterRegistry the registry the wait timers are published to
+     */
+    public HostPolitenessInterceptor(
+            int maxRequestsPerHost,
+            double requestsPerSecond,
+            int burst,
+            Duration acquireTimeout,
+            Duration maxRetryAfter,
+            MeterRegistry meterRegistry
+    ) {
+        this.maxRequestsPerHost = maxRequestsPerHost;
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = burst;
+        this.acquireTimeout = acquireTimeout;
+        this.maxRetryAfter = maxRetryAfter;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Executes the request once its host allows it, and returns a response that frees the slot of the host when it
+     * is closed. Retry-After headers of rate limiting responses hold back later requests to the host.
+     *
+     * @param request the request
+     * @param body the body of the request
+     * @param execution the execution of the request
+     * @return the response of the request
+     * @throws IOException if the host does not allow the request within the acquire timeout, or the request fails
+     */
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        String host = hostOf(request);
+        HostState state = hosts.get(host, HostState::new);
+        long startedNanos = System.nanoTime();
+        try {
+            state.await();
+        } finally {
+            state.waitTime.record(System.nanoTime() - startedNanos, TimeUnit.NANOSECONDS);
+        }
+        try {
+            ClientHttpResponse response = execution.execute(request, body);
+            state.holdBack(response);
+            return new ReleasingResponse(response, state);
+        } catch (IOException | RuntimeException e) {
+            state.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Unregisters the wait timer of a host whose state was removed, so that the meters do not grow with every host
+     * ever fetched. The timer is kept if the host already has a new state, which shares the same timer.
+     *
+     * @param host the name of the host
+     * @param state the removed state of the host
+     */
+    private void removeWaitTime(String host, HostState state) {
+        if (host != null && state != null && hosts.getIfPresent(host) == null) {
+            meterRegistry.remove(state.waitTime);
+        }
+    }
+
+    /**
+     * Returns the host a request is sent to.
+     *
+     * @param request the request
+     * @return the lower-cased host name, or an empty string if the URI has no host
+     */
+    private static String hostOf(HttpRequest request) {
+        String host = request.getURI().getHost();
+        return host == null ? "" : host.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Scheduling state of a single host: its queue of requests, its token bucket and the time it asked to be left
+     * alone until.
+     */
+    private final class HostState {
+        /** The name of the host. */
+        private final String host;
+        /** The permits of the requests in flight to the host, handed out in arrival order. */
+        private final Semaphore permits;
+        /** The time requests to the host wait before they are sent. */
+        private final Timer waitTime;
+        /** The tokens in the bucket, negative when requests have reserved tokens not refilled yet. */
+        private double tokens;
+        /** The time the bucket was last refilled, in {@link System#nanoTime()} units. */
+        private long refilledAtNanos;
+        /** The time before which no request is sent to the host, in {@link System#nanoTime()} units. */
+        private long blockedUntilNanos;
+
+        /**
+         * Constructor for HostState, starting with a full bucket.
+         *
+         * @param host the name of the host
+         */
+        private HostState(String host) {
+            this.host = host;
+            this.permits = new Semaphore(maxRequestsPerHost, true);
+            this.waitTime = Timer.builder("web.page.fetch.host.wait")
+                    .description("Time page fetches wait for their host to allow them")
+                    .tag("host", host)
+                    .register(meterRegistry);
+            this.tokens = burst;
+            this.refilledAtNanos = System.nanoTime();
+            this.blockedUntilNanos = refilledAtNanos;
+        }
+
+        /**
+         * Waits until a request may be sent to the host: first for a free slot of the host, then for a token of its
+         * bucket and for the end of any Retry-After delay. On success the caller holds a slot of the host.
+         *
+         * @throws IOException if the request cannot be sent within the acquire timeout, or the thread is interrupted
+         */
+        private void await() throws IOException {
+            long deadlineNanos = System.nanoTime() + acquireTimeout.toNanos();
+            try {
+                if (!permits.tryAcquire(acquireTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                    log.info("No free page fetch slot for host [host={}, maxRequestsPerHost={}]", host, maxRequestsPerHost);
+                    throw new SocketTimeoutException("No free page fetch slot for " + host + " within " + acquireTimeout);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a page fetch slot for " + host);
+            }
+            try {
+                long delayNanos = reserveToken(deadlineNanos);
+                if (delayNanos < 0) {
+                    log.info("Host does not allow another page fetch in time [host={}, acquireTimeout={}]", host, acquireTimeout);
+                    throw new SocketTimeoutException("Host " + host + " does not allow another page fetch within " + acquireTimeout);
+                }
+                TimeUnit.NANOSECONDS.sleep(delayNanos);
+            } catch (InterruptedException e) {
+                permits.release();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + host + " to allow a page fetch");
+            } catch (IOException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        /**
+         * Reserves the next token of the bucket, unless the request could only be sent after the deadline.
+         *
+         * @param deadlineNanos the time by which the request must be sent, in {@link System#nanoTime()} units
+         * @return the time to wait before sending the request in nanoseconds, or -1 if it cannot be sent in time
+         */
+        private synchronized long reserveToken(long deadlineNanos) {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilledAtNanos) * requestsPerSecond / TimeUnit.SECONDS.toNanos(1));
+            refilledAtNanos = now;
+            long tokenDelayNanos = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / requestsPerSecond * TimeUnit.SECONDS.toNanos(1));
+            long sendAtNanos = Math.max(now + tokenDelayNanos, blockedUntilNanos);
+            if (sendAtNanos - deadlineNanos > 0) {
+                return -1;
+            }
+            tokens -= 1;
+            return Math.max(0, sendAtNanos - now);
+        }
+
+        /**
+         * Holds back further requests to the host for the Retry-After delay of a 429 or 503 response, capped at
+         * the longest delay honoured. Malformed Retry-After headers are ignored.
+         *
+         * @param response the response to inspect
+         * @throws IOException if the status code cannot be read
+         */
+        private void holdBack(ClientHttpResponse response) throws IOException {
+            HttpStatusCode status = response.getStatusCode();
+            if (!status.isSameCodeAs(HttpStatus.TOO_MANY_REQUESTS) && !status.isSameCodeAs(HttpStatus.SERVICE_UNAVAILABLE)) {
+                return;
+            }
+            Duration retryAfter = parseRetryAfter(response.getHeaders());
+            if (retryAfter == null) {
+                return;
+            }
+            Duration delay = retryAfter.compareTo(maxRetryAfter) > 0 ? maxRetryAfter : retryAfter;
+            log.info("Host asked to retry later [host={}, status={}, retryAfter={}]", host, status.value(), delay);
+            synchronized (this) {
+                long until = System.nanoTime() + delay.toNanos();
+                if (until - blockedUntilNanos > 0) {
+                    blockedUntilNanos = until;
+                }
+            }
+        }
+
+        /**
+         * Parses a Retry-After header given either as a number of seconds or as an HTTP date.
+         *
+         * @param headers the headers of the response
+         * @return the delay, or null if the header is missing or malformed
+         */
+        private Duration parseRetryAfter(HttpHeaders headers) {
+            String value = headers.getFirst(HttpHeaders.RETRY_AFTER);
+            if (value == null || value.isBlank()) {
+                return null;
+            }
+            try {
+                return Duration.ofSeconds(Math.max(0, Long.parseLong(value.strip())));
+            } catch (NumberFormatException e) {
+                try {
+                    long retryAt = headers.getFirstDate(HttpHeaders.RETRY_AFTER);
+                    return Duration.ofMillis(Math.max(0, retryAt - System.currentTimeMillis()));
+                } catch (IllegalArgumentException malformed) {
+                    log.debug("Ignoring malformed Retry-After header [host={}, value={}]", host, value);
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Response freeing the slot of its host when closed.
+     */
+    private static final class ReleasingResponse implements ClientHttpResponse {
+        /** The response of the request. */
+        private final ClientHttpResponse response;
+        /** The state of the host the request was sent to. */
+        private final HostState state;
+        /** Whether the slot was released. */
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        /**
+         * Constructor for ReleasingResponse.
+         *
+         * @param response the response of the request
+         * @param state the state of the host the request was sent to
+         */
+        private ReleasingResponse(ClientHttpResponse response, HostState state) {
+            this.response = response;
+            this.state = state;
+        }
+
+        /**
+         * Returns the status code of the response.
+         *
+         * @return the status code
+         * @throws IOException if the status code cannot be read
+         */
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return response.getStatusCode();
+        }
+
+        /**
+         * Returns the status text of the response.
+         *
+         * @return the status text
+         * @throws IOException if the status text cannot be read
+         */
+        @Override
+        public String getStatusText() throws IOException {
+            return response.getStatusText();
+        }
+
+        /**
+         * Returns the headers of the response.
+         *
+         * @return the headers
+         */
+        @Override
+        public HttpHeaders getHeaders() {
+            return response.getHeaders();
+        }
+
+        /**
+         * Returns the body of the response.
+         *
+         * @return the body of the response
+         * @throws IOException if the body cannot be opened
+         */
+        @Override
+        public InputStream getBody() throws IOException {
+            return response.getBody();
+        }
+
+        /**
+         * Closes the response and frees the slot of its host.
+         */
+        @Override
+        public void close() {
+            try {
+                response.close();
+            } finally {
+                if (released.compareAndSet(false, true)) {
+                    state.permits.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package pl.hubertmaka.culinaryagent.services;
+
+import java.util.Optional;
+
+/**
+ * Service interface for provider-side caching of the fixed prefix of recipe chat prompts, the system prompt of the
+ * chat agent and the instruction carrying the recipe, so that it is not tokenized and billed in full on every turn.
+ */
+public interface ChatContextCacheService {
+    /**
+     * Returns the name of the cached content holding the system prompt and the given instruction, if it is ready.
+     * A missing cached content is requested for the following turns.
+     *
+     * @param instruction the text of the instruction of the chat agent, with the language and recipe schema substituted
+     * @return the name of the cached content, or an empty Optional if the prompt has to be sent in full
+     */
+    Optional<String> lookup(String instruction);
+
+    /**
+     * Discards the cached content of the given instruction, e.g. after the provider rejected it.
+     *
+     * @param instruction the text of the instruction of the chat agent
+     */
+    void invalidate(String instruction);
+}
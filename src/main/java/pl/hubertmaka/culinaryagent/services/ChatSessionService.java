@@ -0,0 +1,32 @@
+package pl.hubertmaka.culinaryagent.services;
+
+import pl.hubertmaka.culinaryagent.domain.dtos.ChatSessionDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.ChatSessionRequestDto;
+import pl.hubertmaka.culinaryagent.domain.models.ChatSession;
+
+/**
+ * Service interface for keeping recipe chat sessions on the server, so that clients send the recipe schema once
+ * and only the new message with every turn.
+ */
+public interface ChatSessionService {
+    /**
+     * Opens a chat session about the recipe in the request.
+     *
+     * @param chatSessionRequest The data transfer object containing the recipe schema, voice and language of the session.
+     * @return A ChatSessionDto containing the identifier of the new session.
+     */
+    ChatSessionDto create(ChatSessionRequestDto chatSessionRequest);
+    /**
+     * Retrieves an open chat session and marks it as used.
+     *
+     * @param sessionId The identifier of the session.
+     * @return The ChatSession with the given identifier.
+     */
+    ChatSession get(String sessionId);
+    /**
+     * Closes a chat session. Closing a session that does not exist has no effect.
+     *
+     * @param sessionId The identifier of the session.
+     */
+    void delete(String sessionId);
+}
@@ -0,0 +1,20 @@
+package pl.hubertmaka.culinaryagent.services;
+
+import org.springframework.ai.chat.messages.Message;
+import pl.hubertmaka.culinaryagent.domain.models.ConversationHistory;
+import pl.hubertmaka.culinaryagent.domain.models.ConversationWindow;
+
+/**
+ * Service interface for selecting the part of a conversation history sent to the chat agent, so that the prompt of
+ * a long conversation does not grow with every turn.
+ */
+public interface ConversationHistoryService {
+    /**
+     * Selects the messages sent to the chat agent for the next turn of a conversation.
+     *
+     * @param instruction the instruction of the chat agent, sent first
+     * @param history the messages exchanged so far, in order
+     * @return the ConversationWindow with the messages to send and the estimated token counts of the history
+     */
+    ConversationWindow window(Message instruction, ConversationHistory history);
+}
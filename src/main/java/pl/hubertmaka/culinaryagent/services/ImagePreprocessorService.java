@@ -0,0 +1,19 @@
+package pl.hubertmaka.culinaryagent.services;
+
+import org.springframework.core.io.Resource;
+import pl.hubertmaka.culinaryagent.domain.enums.FileExtension;
+
+/**
+ * Service interface for preparing recipe images before they are sent to the model.
+ */
+public interface ImagePreprocessorService {
+    /**
+     * Prepares an image for the model, keeping its type, so that it carries no more detail than needed to read
+     * the recipe.
+     *
+     * @param image The image to prepare.
+     * @param fileExtension The type of the image.
+     * @return The prepared image, or the given image if it needs no preparation or cannot be decoded.
+     */
+    Resource preprocess(Resource image, FileExtension fileExtension);
+}
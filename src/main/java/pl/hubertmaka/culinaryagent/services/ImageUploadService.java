@@ -0,0 +1,25 @@
+package pl.hubertmaka.culinaryagent.services;
+
+import pl.hubertmaka.culinaryagent.domain.enums.FileExtension;
+import pl.hubertmaka.culinaryagent.domain.models.ImageUpload;
+
+import java.io.InputStream;
+import java.util.function.Function;
+
+/**
+ * Service interface for receiving uploaded images without holding them in memory as a whole.
+ */
+public interface ImageUploadService {
+    /**
+     * Admits an uploaded image, spools it to a temporary file and processes it. The temporary file is deleted and
+     * the resources reserved for the image are released once the processing has finished.
+     *
+     * @param body The stream of the uploaded image.
+     * @param fileExtension The type of the image.
+     * @param declaredSize The size of the image declared by the client, or a negative value if it is unknown.
+     * @param processor The function processing the spooled image.
+     * @param <T> The type of the result of the processing.
+     * @return The result of the processing.
+     */
+    <T> T withUpload(InputStream body, FileExtension fileExtension, long declaredSize, Function<ImageUpload, T> processor);
+}
@@ -0,0 +1,18 @@
+package pl.hubertmaka.culinaryagent.services;
+
+import pl.hubertmaka.culinaryagent.domain.dtos.BatchExtractionRequestDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.BatchExtractionResultDto;
+import reactor.core.publisher.Flux;
+
+/**
+ * Service interface for extracting recipe information from a batch of recipe data.
+ */
+public interface RecipeBatchExtractorService {
+    /**
+     * Extracts every recipe of the batch and emits the outcome of each extraction as soon as it finishes.
+     *
+     * @param batchExtractionRequest The data transfer object containing the recipe data to be extracted.
+     * @return A Flux of BatchExtractionResultDto, in completion order, tagged with the index of the recipe.
+     */
+    Flux<BatchExtractionResultDto> extract(BatchExtractionRequestDto batchExtractionRequest);
+}
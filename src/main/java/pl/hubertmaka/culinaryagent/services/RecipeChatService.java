@@ -2,6 +2,11 @@ package pl.hubertmaka.culinaryagent.services;
 
 import pl.hubertmaka.culinaryagent.domain.dtos.ChatAgentResponseDto;
 import pl.hubertmaka.culinaryagent.domain.dtos.RecipeChatRequestDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaDto;
+import pl.hubertmaka.culinaryagent.domain.enums.Language;
+import pl.hubertmaka.culinaryagent.domain.enums.Voice;
+import pl.hubertmaka.culinaryagent.domain.models.ChatSession;
+import reactor.core.publisher.Flux;
 
 /**
  * Service interface for handling recipe chat interactions.
@@ -14,4 +19,41 @@ public interface RecipeChatService {
      * @return a ChatAgentResponseDto containing the response from the chat agent
      */
     ChatAgentResponseDto chat(RecipeChatRequestDto recipeChatRequestDto);
+    /**
+     * Processes a recipe chat request and streams the response from the chat agent as it is generated.
+     * Every emitted element carries the next text fragment; metadata is present only on the fragments
+     * that report token usage (typically the last one).
+     *
+     * @param recipeChatRequestDto the request data for the recipe chat interaction
+     * @return a Flux of ChatAgentResponseDto containing consecutive text fragments of the response
+     */
+    Flux<ChatAgentResponseDto> stream(RecipeChatRequestDto recipeChatRequestDto);
+    /**
+     * Opens a chat session about the given recipe, preparing the instruction of the chat agent once for all of
+     * its turns.
+     *
+     * @param id the identifier of the session
+     * @param schema the recipe schema the conversation is about
+     * @param language the language of the conversation
+     * @param voice the voice the answers are spoken in
+     * @return the new ChatSession with an empty history
+     */
+    ChatSession openSession(String id, RecipeSchemaDto schema, Language language, Voice voice);
+    /**
+     * Answers the next message of a chat session and appends the turn to its history.
+     *
+     * @param session the chat session
+     * @param message the new message of the user
+     * @return a ChatAgentResponseDto containing the response from the chat agent
+     */
+    ChatAgentResponseDto chat(ChatSession session, String message);
+    /**
+     * Streams the answer to the next message of a chat session. The turn is appended to the history of the session
+     * once the answer is complete, and not at all if the stream fails or is cancelled.
+     *
+     * @param session the chat session
+     * @param message the new message of the user
+     * @return a Flux of ChatAgentResponseDto containing consecutive text fragments of the response
+     */
+    Flux<ChatAgentResponseDto> stream(ChatSession session, String message);
 }
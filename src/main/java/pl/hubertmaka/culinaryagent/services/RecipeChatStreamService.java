@@ -0,0 +1,60 @@
+package pl.hubertmaka.culinaryagent.services;
+
+import org.springframework.http.codec.ServerSentEvent;
+import pl.hubertmaka.culinaryagent.domain.dtos.ChatAgentResponseDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeChatRequestDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeChatResponseChunkDto;
+import pl.hubertmaka.culinaryagent.domain.enums.AudioFormat;
+import pl.hubertmaka.culinaryagent.domain.models.ChatSession;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Service interface for streaming spoken chat responses, combining the chat agent with text-to-speech.
+ */
+public interface RecipeChatStreamService {
+    /**
+     * Streams the chat agent's answer to the given request as server-sent events: text deltas of the answer
+     * interleaved with audio chunks, followed by the agent and text-to-speech completion metadata.
+     *
+     * @param recipeChatRequestDto the request data for the recipe chat interaction
+     * @param audioFormat the format the answer is spoken in
+     * @return a Flux of ServerSentEvent containing RecipeChatResponseChunkDto objects
+     */
+    Flux<ServerSentEvent<RecipeChatResponseChunkDto>> stream(RecipeChatRequestDto recipeChatRequestDto, AudioFormat audioFormat);
+    /**
+     * Streams the chat agent's answer as raw audio bytes written directly to the given output stream, without
+     * any event framing or encoding. Blocks until the whole answer has been written.
+     *
+     * @param recipeChatRequestDto the request data for the recipe chat interaction
+     * @param audioFormat the format the answer is spoken in
+     * @param outputStream the stream the audio bytes are written and flushed to as they arrive
+     * @return a ChatAgentResponseDto containing the full text of the answer and the agent's metadata
+     * @throws IOException if writing to the output stream fails
+     */
+    ChatAgentResponseDto streamAudio(RecipeChatRequestDto recipeChatRequestDto, AudioFormat audioFormat, OutputStream outputStream) throws IOException;
+    /**
+     * Streams the chat agent's answer to the next message of a chat session as server-sent events, in the same
+     * form as {@link #stream(RecipeChatRequestDto, AudioFormat)}.
+     *
+     * @param session the chat session
+     * @param message the new message of the user
+     * @param audioFormat the format the answer is spoken in
+     * @return a Flux of ServerSentEvent containing RecipeChatResponseChunkDto objects
+     */
+    Flux<ServerSentEvent<RecipeChatResponseChunkDto>> stream(ChatSession session, String message, AudioFormat audioFormat);
+    /**
+     * Streams the chat agent's answer to the next message of a chat session as raw audio bytes written directly to
+     * the given output stream. Blocks until the whole answer has been written.
+     *
+     * @param session the chat session
+     * @param message the new message of the user
+     * @param audioFormat the format the answer is spoken in
+     * @param outputStream the stream the audio bytes are written and flushed to as they arrive
+     * @return a ChatAgentResponseDto containing the full text of the answer and the agent's metadata
+     * @throws IOException if writing to the output stream fails
+     */
+    ChatAgentResponseDto streamAudio(ChatSession session, String message, AudioFormat audioFormat, OutputStream outputStream) throws IOException;
+}
@@ -0,0 +1,31 @@
+package pl.hubertmaka.culinaryagent.services;
+
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaDto;
+import pl.hubertmaka.culinaryagent.domain.models.RecipeContext;
+
+import java.util.Optional;
+
+/**
+ * Service interface for building the compact recipe context the chat agent is instructed with, instead of the raw
+ * recipe schema.
+ */
+public interface RecipeContextService {
+    /**
+     * Builds the compact context of a recipe. The context depends only on the schema, so the instruction rendered
+     * with it is the same on every turn.
+     *
+     * @param schema the recipe schema
+     * @return the RecipeContext of the recipe
+     */
+    RecipeContext context(RecipeSchemaDto schema);
+
+    /**
+     * Selects the deferred steps of a recipe relevant to the next question of the user.
+     *
+     * @param context the context of the recipe
+     * @param question the next question of the user
+     * @param previousAnswer the previous answer of the chat agent, or null if there is none
+     * @return the text of the relevant steps, or an empty Optional if the context has no deferred steps
+     */
+    Optional<String> relevantSteps(RecipeContext context, String question, String previousAnswer);
+}
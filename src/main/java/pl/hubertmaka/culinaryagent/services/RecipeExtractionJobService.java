@@ -0,0 +1,32 @@
+package pl.hubertmaka.culinaryagent.services;
+
+import pl.hubertmaka.culinaryagent.domain.dtos.ExtractionJobDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeDataRequestDto;
+import reactor.core.publisher.Mono;
+
+/**
+ * Service interface for running recipe extractions as asynchronous jobs.
+ */
+public interface RecipeExtractionJobService {
+    /**
+     * Submits the recipe data for extraction and returns without waiting for the extraction to run.
+     *
+     * @param recipeDataRequest The data transfer object containing the recipe data to be extracted.
+     * @return An ExtractionJobDto containing the identifier of the queued job.
+     */
+    ExtractionJobDto submit(RecipeDataRequestDto recipeDataRequest);
+    /**
+     * Retrieves the current state of a job, including its result or error once it has finished.
+     *
+     * @param jobId The identifier of the job.
+     * @return An ExtractionJobDto containing the current state of the job.
+     */
+    ExtractionJobDto get(String jobId);
+    /**
+     * Waits for a job to finish without blocking the caller.
+     *
+     * @param jobId The identifier of the job.
+     * @return A Mono emitting the final state of the job once it has finished.
+     */
+    Mono<ExtractionJobDto> awaitCompletion(String jobId);
+}
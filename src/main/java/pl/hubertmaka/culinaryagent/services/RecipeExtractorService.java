@@ -2,7 +2,9 @@ package pl.hubertmaka.culinaryagent.services;
 
 import pl.hubertmaka.culinaryagent.domain.dtos.RecipeDataRequestDto;
 import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaResponseDto;
+import pl.hubertmaka.culinaryagent.domain.enums.Language;
 import pl.hubertmaka.culinaryagent.domain.enums.RecipeSource;
+import pl.hubertmaka.culinaryagent.domain.models.ImageUpload;
 
 import java.util.List;
 
@@ -17,6 +19,14 @@ public interface RecipeExtractorService {
      * @return A RecipeSchemaDto containing the structured recipe information extracted from the input data.
      */
     RecipeSchemaResponseDto extract(RecipeDataRequestDto recipeDataRequest);
+    /**
+     * Extracts recipe information from an uploaded image and returns a structured recipe schema.
+     *
+     * @param image The uploaded image, spooled to a temporary file.
+     * @param language The language the recipe is extracted in.
+     * @return A RecipeSchemaDto containing the structured recipe information extracted from the image.
+     */
+    RecipeSchemaResponseDto extractImage(ImageUpload image, Language language);
     /**
      * Retrieves a list of supported recipe sources that this extractor can handle.
      *
@@ -1,6 +1,7 @@
 package pl.hubertmaka.culinaryagent.services;
 
 import pl.hubertmaka.culinaryagent.domain.dtos.RecipeChatResponseChunkDto;
+import pl.hubertmaka.culinaryagent.domain.enums.AudioFormat;
 import pl.hubertmaka.culinaryagent.domain.enums.Voice;
 import reactor.core.publisher.Flux;
 
@@ -8,14 +9,31 @@ import reactor.core.publisher.Flux;
  * Service interface for handling text-to-speech interactions.
  */
 public interface TextToSpeechService {
+    /** The number of pieces of a text stream converted at the same time by default. */
+    int PIPELINED_PIECES = 2;
+
     /**
      * Converts the given text to speech and returns a stream of audio chunks.
      *
      * @param text  The text to be converted to speech.
      * @param voice The voice to be used for the text-to-speech conversion.
+     * @param audioFormat The format the audio is synthesized in.
+     * @return A Flux stream of RecipeChatResponseChunkDto containing audio chunks.
+     */
+    Flux<RecipeChatResponseChunkDto> stream(String text, Voice voice, AudioFormat audioFormat);
+    /**
+     * Converts text that becomes available piece by piece to speech and returns a stream of audio chunks in the
+     * order of the text. By default every piece is converted on its own, and the next piece is already converted
+     * while the audio of the previous one is still streamed; the audio is emitted in the order of the pieces.
+     *
+     * @param text  The stream of the pieces of the text to be converted to speech.
+     * @param voice The voice to be used for the text-to-speech conversion.
+     * @param audioFormat The format the audio is synthesized in.
      * @return A Flux stream of RecipeChatResponseChunkDto containing audio chunks.
      */
-    Flux<RecipeChatResponseChunkDto> stream(String text, Voice voice);
+    default Flux<RecipeChatResponseChunkDto> stream(Flux<String> text, Voice voice, AudioFormat audioFormat) {
+        return text.flatMapSequential(piece -> stream(piece, voice, audioFormat), PIPELINED_PIECES);
+    }
     /**
      * Retrieves the model identifier for the text-to-speech service.
      *
@@ -0,0 +1,16 @@
+package pl.hubertmaka.culinaryagent.services;
+
+import pl.hubertmaka.culinaryagent.domain.models.WebPageContent;
+
+/**
+ * Service interface for loading the parts of web pages that recipes are extracted from.
+ */
+public interface WebPageContentService {
+    /**
+     * Loads the main content and the structured data of the web page at the given URL.
+     *
+     * @param url The URL of the web page.
+     * @return The main content and the structured data of the page.
+     */
+    WebPageContent load(String url);
+}
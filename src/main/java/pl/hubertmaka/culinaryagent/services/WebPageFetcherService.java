@@ -0,0 +1,19 @@
+package pl.hubertmaka.culinaryagent.services;
+
+import pl.hubertmaka.culinaryagent.domain.models.FetchedWebPage;
+
+/**
+ * Service interface for fetching and parsing the web pages recipes are extracted from.
+ */
+public interface WebPageFetcherService {
+    /**
+     * Fetches the web page at the given URL and parses it into a Document. When validators of a cached copy are
+     * given, the page is fetched conditionally and is neither downloaded nor parsed if it has not been modified.
+     *
+     * @param url          The URL of the web page.
+     * @param etag         The entity tag of the cached copy, sent as If-None-Match, may be null.
+     * @param lastModified The Last-Modified date of the cached copy, sent as If-Modified-Since, may be null.
+     * @return The fetched page, or a not-modified outcome when the cached copy is still valid.
+     */
+    FetchedWebPage fetch(String url, String etag, String lastModified);
+}
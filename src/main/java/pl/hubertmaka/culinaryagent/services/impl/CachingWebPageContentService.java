@@ -0,0 +1,142 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.jsoup.nodes.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import pl.hubertmaka.culinaryagent.caches.WebPageCache;
+import pl.hubertmaka.culinaryagent.domain.models.CachedWebPage;
+import pl.hubertmaka.culinaryagent.domain.models.FetchedWebPage;
+import pl.hubertmaka.culinaryagent.domain.models.WebPageContent;
+import pl.hubertmaka.culinaryagent.exceptions.RecipeExtractionException;
+import pl.hubertmaka.culinaryagent.extractors.MainContentExtractor;
+import pl.hubertmaka.culinaryagent.extractors.StructuredDataRecipeExtractor;
+import pl.hubertmaka.culinaryagent.services.WebPageContentService;
+import pl.hubertmaka.culinaryagent.services.WebPageFetcherService;
+
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Implementation of the WebPageContentService that keeps the extracted content of fetched pages in the WebPageCache
+ * and follows HTTP caching rules. A cached page is reused as-is while it is fresh according to its Cache-Control
+ * max-age or Expires header; once stale, it is revalidated with If-None-Match and If-Modified-Since, and a 304 Not
+ * Modified response reuses it without downloading or parsing the page. Requests are counted by the
+ * {@code web.page.cache.requests} counter, tagged {@code hit}, {@code revalidated} or {@code miss}, and the page bytes
+ * not downloaded thanks to the cache by the {@code web.page.cache.bytes.saved} counter.
+ */
+@Service
+public class CachingWebPageContentService implements WebPageContentService {
+    /** Logger for logging information and debugging purposes. */
+    private static final Logger log = LoggerFactory.getLogger(CachingWebPageContentService.class);
+    /** The service fetching and parsing pages. */
+    private final WebPageFetcherService webPageFetcherService;
+    /** The cache of extracted page content. */
+    private final WebPageCache webPageCache;
+    /** The extractor of the main content of a page. */
+    private final MainContentExtractor mainContentExtractor;
+    /** The extractor of the structured data of a page. */
+    private final StructuredDataRecipeExtractor structuredDataRecipeExtractor;
+    /** The counter of pages served from the cache while fresh. */
+    private final Counter hits;
+    /** The counter of stale pages served from the cache after a 304 Not Modified response. */
+    private final Counter revalidations;
+    /** The counter of pages downloaded and parsed. */
+    private final Counter misses;
+    /** The counter of page bytes not downloaded thanks to the cache. */
+    private final Counter bytesSaved;
+
+    /**
+     * Constructor for CachingWebPageContentService.
+     *
+     * @param webPageFetcherService the service to be used for fetching pages, injected by Spring
+     * @param webPageCache the cache of extracted page content, injected by Spring
+     * @param mainContentExtractor the extractor of the main content of a page, injected by Spring
+     * @param structuredDataRecipeExtractor the extractor of the structured data of a page, injected by Spring
+     * @param meterRegistry the registry the cache statistics are published to, injected by Spring
+     */
+    public CachingWebPageContentService(
+            WebPageFetcherService webPageFetcherService,
+            WebPageCache webPageCache,
+            MainContentExtractor mainContentExtractor,
+            StructuredDataRecipeExtractor structuredDataRecipeExtractor,
+            MeterRegistry meterRegistry
+    ) {
+        log.info("Creating caching web page content service...");
+        this.webPageFetcherService = webPageFetcherService;
+        this.webPageCache = webPageCache;
+        this.mainContentExtractor = mainContentExtractor;
+        this.structuredDataRecipeExtractor = structuredDataRecipeExtractor;
+        this.hits = Counter.builder("web.page.cache.requests").tag("result", "hit").register(meterRegistry);
+        this.revalidations = Counter.builder("web.page.cache.requests").tag("result", "revalidated").register(meterRegistry);
+        this.misses = Counter.builder("web.page.cache.requests").tag("result", "miss").register(meterRegistry);
+        this.bytesSaved = Counter.builder("web.page.cache.bytes.saved")
+                .description("Page bytes not downloaded thanks to the web page cache")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Loads the content of the page from the cache while it is fresh, revalidates it once it is stale, and fetches
+     * and extracts it otherwise. Freshly extracted content is cached when the server allows storing it and it can
+     * either be reused for some time or be revalidated.
+     *
+     * @param url the URL of the web page
+     * @return the main content and the structured data of the page
+     */
+    @Override
+    public WebPageContent load(String url) {
+        Instant now = Instant.now();
+        Optional<CachedWebPage> cached = webPageCache.get(url);
+        if (cached.isPresent() && cached.get().isFresh(now)) {
+            log.info("Web page cache hit [url={}]", url);
+            hits.increment();
+            bytesSaved.increment(cached.get().pageBytes());
+            return cached.get().content();
+        }
+
+        CachedWebPage stale = cached.filter(CachedWebPage::hasValidators).orElse(null);
+        FetchedWebPage fetched = stale != null
+                ? webPageFetcherService.fetch(url, stale.etag(), stale.lastModified())
+                : webPageFetcherService.fetch(url, null, null);
+        if (fetched.notModified()) {
+            if (stale == null) {
+                throw new RecipeExtractionException("The server responded with 304 Not Modified to an unconditional request");
+            }
+            log.info("Web page cache entry revalidated [url={}]", url);
+            revalidations.increment();
+            bytesSaved.increment(stale.pageBytes());
+            webPageCache.put(stale.withExpiresAt(now.plus(fetched.freshFor())));
+            return stale.content();
+        }
+
+        misses.increment();
+        WebPageContent content = extractContent(fetched.document());
+        boolean reusable = fetched.etag() != null || fetched.lastModified() != null || fetched.freshFor().isPositive();
+        if (fetched.storable() && reusable) {
+            webPageCache.put(new CachedWebPage(
+                    url,
+                    content,
+                    fetched.etag(),
+                    fetched.lastModified(),
+                    now.plus(fetched.freshFor()),
+                    fetched.bytes()
+            ));
+        }
+        return content;
+    }
+
+    /**
+     * Extracts the structured data and the main content of a page. The structured data is extracted first,
+     * because extracting the main content modifies the document.
+     *
+     * @param document the parsed page
+     * @return the main content and the structured data of the page
+     */
+    private WebPageContent extractContent(Document document) {
+        String structuredData = structuredDataRecipeExtractor.extractStructuredData(document);
+        return new WebPageContent(mainContentExtractor.extract(document), structuredData);
+    }
+}
@@ -0,0 +1,113 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import pl.hubertmaka.culinaryagent.domain.dtos.ChatSessionDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.ChatSessionRequestDto;
+import pl.hubertmaka.culinaryagent.domain.models.ChatSession;
+import pl.hubertmaka.culinaryagent.exceptions.ChatSessionNotFoundException;
+import pl.hubertmaka.culinaryagent.services.ChatSessionService;
+import pl.hubertmaka.culinaryagent.services.RecipeChatService;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Implementation of the ChatSessionService keeping the sessions in a Caffeine cache. Sessions expire after being
+ * idle for a configurable time, and the cache is bounded by the total size of the instructions and histories of the
+ * sessions, evicting the least valuable sessions first once it is exceeded. The size of a session is taken again
+ * every time it is used, so a growing conversation counts against the bound from its next turn on. Evictions run on
+ * the calling thread, so the bound holds as soon as a session has been re-weighed. Cache statistics are published to
+ * the meter registry under the {@code chat-sessions} cache name.
+ */
+@Service
+public class CaffeineChatSessionService implements ChatSessionService {
+    /** Logger for logging information and debugging purposes. */
+    private static final Logger log = LoggerFactory.getLogger(CaffeineChatSessionService.class);
+    /** The name under which the cache metrics are published. */
+    private static final String CACHE_NAME = "chat-sessions";
+    /** The service preparing and answering the sessions. */
+    private final RecipeChatService recipeChatService;
+    /** The open sessions keyed by their identifier. */
+    private final Cache<String, ChatSession> sessions;
+
+    /**
+     * Constructor for CaffeineChatSessionService.
+     *
+     * @param recipeChatService the service preparing and answering the sessions, injected by Spring
+     * @param maximumSize the maximum total size of the open sessions
+     * @param idleTimeout the time after which a session that has not been used expires
+     * @param meterRegistry the registry the cache statistics are published to, injected by Spring
+     */
+    public CaffeineChatSessionService(
+            RecipeChatService recipeChatService,
+            @Value("${culinary-agent.chat.sessions.maximum-size}") DataSize maximumSize,
+            @Value("${culinary-agent.chat.sessions.idle-timeout}") Duration idleTimeout,
+            MeterRegistry meterRegistry
+    ) {
+        log.info("Creating chat session service [maximumSize={}, idleTimeout={}]...", maximumSize, idleTimeout);
+        this.recipeChatService = recipeChatService;
+        this.sessions = Caffeine.newBuilder()
+                .maximumWeight(maximumSize.toBytes())
+                .weigher((String id, ChatSession session) ->
+                        (int) Math.min(Integer.MAX_VALUE, session.bytes()))
+                .expireAfterAccess(idleTimeout)
+                .executor(Runnable::run)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, sessions, CACHE_NAME);
+    }
+
+    /**
+     * Opens a chat session, rendering the instruction of the chat agent once for the whole session.
+     *
+     * @param chatSessionRequest the data transfer object containing the recipe schema, voice and language of the session
+     * @return a ChatSessionDto containing the identifier of the new session
+     */
+    @Override
+    public ChatSessionDto create(ChatSessionRequestDto chatSessionRequest) {
+        ChatSession session = recipeChatService.openSession(
+                UUID.randomUUID().toString(),
+                chatSessionRequest.schema(),
+                chatSessionRequest.language(),
+                chatSessionRequest.voice()
+        );
+        sessions.put(session.getId(), session);
+        log.info("Chat session created [sessionId={}, bytes={}]", session.getId(), session.bytes());
+        return new ChatSessionDto(session.getId());
+    }
+
+    /**
+     * Retrieves an open chat session, resetting its idle time and taking its size again.
+     *
+     * @param sessionId the identifier of the session
+     * @return the ChatSession with the given identifier
+     * @throws ChatSessionNotFoundException if the session does not exist or has expired
+     */
+    @Override
+    public ChatSession get(String sessionId) {
+        ChatSession session = sessions.asMap().computeIfPresent(sessionId, (id, current) -> current);
+        if (session == null) {
+            throw new ChatSessionNotFoundException("Chat session not found: " + sessionId);
+        }
+        return session;
+    }
+
+    /**
+     * Closes a chat session.
+     *
+     * @param sessionId the identifier of the session
+     */
+    @Override
+    public void delete(String sessionId) {
+        log.info("Chat session deleted [sessionId={}]", sessionId);
+        sessions.invalidate(sessionId);
+    }
+}
@@ -0,0 +1,538 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import pl.hubertmaka.culinaryagent.domain.dtos.AIEstimationDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.IngredientDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaDto;
+import pl.hubertmaka.culinaryagent.domain.models.RecipeContext;
+import pl.hubertmaka.culinaryagent.services.RecipeContextService;
+import pl.hubertmaka.culinaryagent.utils.HashUtils;
+import pl.hubertmaka.culinaryagent.utils.TokenEstimator;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * Implementation of the RecipeContextService rendering the recipe from its structured fields and the Markdown
+ * content produced by the extractor.
+ * <p>
+ * The Markdown is read by its shape rather than its headings, which are written in the language of the recipe:
+ * the level-one heading is the title, quotes are the description, table rows are details, numbered lines are steps
+ * and the remaining bullets are notes. A bullet list whose items mostly mention the {@code ingredients} field is the
+ * ingredient section of the content; its items keep their quantities, and ingredients of the field or of the AI
+ * estimations not mentioned by any of them are added. An ingredient is mentioned by a line containing the first three
+ * letters of each of its words, so that inflected forms match. Ingredients are deduplicated after normalizing case and
+ * whitespace. Markdown syntax, table headers and separators are not sent.
+ * <p>
+ * When the context exceeds the token budget the notes are left out first, and then the steps: the instruction lists
+ * the number of steps only, and every question is sent with the steps most relevant to it. A step is relevant when
+ * it shares words with the question, or with the previous answer at half the weight, compared by their first five
+ * letters so that inflected forms match and weighted by how few steps contain them; a step named by its number is
+ * always relevant, and the step after a relevant one comes next, for questions like "what now?". Contexts are
+ * cached by the hash of the schema and published under the {@code recipe-contexts} cache name.
+ */
+@Service
+public class CompactRecipeContextService implements RecipeContextService {
+    /** Logger for logging information and debugging purposes. */
+    private static final Logger log = LoggerFactory.getLogger(CompactRecipeContextService.class);
+    /** The name under which the cache metrics are published. */
+    private static final String CACHE_NAME = "recipe-contexts";
+    /** Matches a numbered line of Markdown and captures its text. */
+    private static final Pattern NUMBERED_LINE = Pattern.compile("^\\s*\\d+[.)]\\s+(.+)$");
+    /** Matches a bullet of Markdown and captures its text. */
+    private static final Pattern BULLET_LINE = Pattern.compile("^\\s*[-*+]\\s+(.+)$");
+    /** Matches a separator row of a Markdown table. */
+    private static final Pattern TABLE_SEPARATOR = Pattern.compile("^\\|?[\\s:|-]+\\|?$");
+    /** Matches Markdown emphasis and code markers. */
+    private static final Pattern EMPHASIS = Pattern.compile("[*_`]+");
+    /** Matches a word of letters or digits. */
+    private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}]+");
+    /** Matches a step named by its number in a question, in the supported languages. */
+    private static final Pattern STEP_NUMBER = Pattern.compile(
+            "(?iU)\\b(?:step|krok\\w*|schritt\\w*|étape|etape|paso)\\s*(?:n[or]\\.?\\s*)?(\\d{1,2})\\b");
+    /** The minimum number of characters of a word of a question or step worth comparing. */
+    private static final int MIN_WORD_LENGTH = 3;
+    /** The number of leading letters by which the words of questions and steps are compared. */
+    private static final int STEM_LENGTH = 5;
+    /** The number of leading letters by which the words of ingredients are compared, so that inflected forms match. */
+    private static final int INGREDIENT_STEM_LENGTH = 3;
+    /** The minimum number of characters of a word of an ingredient worth comparing, skipping units like "g". */
+    private static final int MIN_INGREDIENT_WORD_LENGTH = 2;
+    /** The score added to a step named by its number in the question, above any score of shared words. */
+    private static final double NAMED_STEP_SCORE = 1000;
+    /** The minimum share of the bullets of a section mentioning the ingredients for it to be the ingredient section. */
+    private static final double INGREDIENT_SECTION_SHARE = 0.5;
+    /** The maximum estimated number of tokens of the context placed in the instruction. */
+    private final int tokenBudget;
+    /** The contexts keyed by the hash of their schema. */
+    private final Cache<String, RecipeContext> contexts;
+
+    /**
+     * Constructor for CompactRecipeContextService.
+     *
+     * @param tokenBudget the maximum estimated number of tokens of the context placed in the instruction
+     * @param maximumSize the maximum number of cached contexts
+     * @param idleTimeout the time after which a context that has not been used expires
+     * @param meterRegistry the registry the cache statistics are published to, injected by Spring
+     */
+    public CompactRecipeContextService(
+            @Value("${culinary-agent.chat.recipe-context.token-budget}") int tokenBudget,
+            @Value("${culinary-agent.chat.recipe-context.maximum-size}") long maximumSize,
+            @Value("${culinary-agent.chat.sessions.idle-timeout}") Duration idleTimeout,
+            MeterRegistry meterRegistry
+    ) {
+        log.info("Creating compact recipe context service [tokenBudget={}, maximumSize={}]...", tokenBudget, maximumSize);
+        if (tokenBudget <= 0) {
+            throw new IllegalArgumentException("The token budget must be positive, was " + tokenBudget);
+        }
+        this.tokenBudget = tokenBudget;
+        this.contexts = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(idleTimeout)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, contexts, CACHE_NAME);
+    }
+
+    /**
+     * Returns the cached context of the recipe, building it on the first request for the schema.
+     *
+     * @param schema the recipe schema
+     * @return the RecipeContext of the recipe
+     */
+    @Override
+    public RecipeContext context(RecipeSchemaDto schema) {
+        return contexts.get(key(schema), key -> build(schema));
+    }
+
+    /**
+     * Selects the deferred steps most relevant to the question, in the order of the recipe, within the step budget
+     * of the context. If no step is relevant, the first steps are selected.
+     *
+     * @param context the context of the recipe
+     * @param question the next question of the user
+     * @param previousAnswer the previous answer of the chat agent, or null if there is none
+     * @return the text of the relevant steps, or an empty Optional if the context has no deferred steps
+     */
+    @Override
+    public Optional<String> relevantSteps(RecipeContext context, String question, String previousAnswer) {
+        List<String> steps = context.deferredSteps();
+        if (steps.isEmpty()) {
+            return Optional.empty();
+        }
+        double[] priority = priorities(steps, question, previousAnswer);
+        List<Integer> ranked = IntStream.range(0, steps.size()).boxed()
+                .sorted(Comparator.<Integer>comparingDouble(index -> -priority[index]).thenComparing(index -> index))
+                .toList();
+        Set<Integer> selected = new HashSet<>();
+        int tokens = 0;
+        for (int index : ranked) {
+            int stepTokens = TokenEstimator.estimate(steps.get(index));
+            if (tokens + stepTokens > context.stepBudget() && !selected.isEmpty()) {
+                continue;
+            }
+            selected.add(index);
+            tokens += stepTokens;
+        }
+        StringBuilder text = new StringBuilder("Recipe steps relevant to the next question:");
+        for (int index = 0; index < steps.size(); index++) {
+            if (selected.contains(index)) {
+                text.append('\n').append(steps.get(index));
+            }
+        }
+        return Optional.of(text.toString());
+    }
+
+    /**
+     * Computes the priority of every step for the question. Every word a step shares with the question scores twice
+     * and every word shared with the previous answer once, divided by the number of steps containing the word, so
+     * that words common to the whole recipe barely count. A step named by its number ranks first, and the step
+     * following a relevant one ranks at half its score.
+     *
+     * @param steps the numbered steps
+     * @param question the next question of the user
+     * @param previousAnswer the previous answer of the chat agent, or null
+     * @return the priorities of the steps, in order
+     */
+    private static double[] priorities(List<String> steps, String question, String previousAnswer) {
+        Set<String> questionStems = stems(question, MIN_WORD_LENGTH, STEM_LENGTH);
+        Set<String> answerStems = stems(previousAnswer, MIN_WORD_LENGTH, STEM_LENGTH);
+        List<Set<String>> stepStems = steps.stream()
+                .map(step -> stems(step.substring(step.indexOf(' ') + 1), MIN_WORD_LENGTH, STEM_LENGTH))
+                .toList();
+        Map<String, Integer> frequency = new HashMap<>();
+        stepStems.forEach(stemsOfStep -> stemsOfStep.forEach(stem -> frequency.merge(stem, 1, Integer::sum)));
+        double[] score = new double[steps.size()];
+        for (int index = 0; index < steps.size(); index++) {
+            for (String stem : stepStems.get(index)) {
+                int matches = (questionStems.contains(stem) ? 2 : 0) + (answerStems.contains(stem) ? 1 : 0);
+                score[index] += (double) matches / frequency.get(stem);
+            }
+        }
+        Matcher number = STEP_NUMBER.matcher(question == null ? "" : question);
+        while (number.find()) {
+            int index = Integer.parseInt(number.group(1)) - 1;
+            if (index >= 0 && index < score.length) {
+                score[index] += NAMED_STEP_SCORE;
+            }
+        }
+        double[] priority = score.clone();
+        for (int index = 1; index < score.length; index++) {
+            priority[index] = Math.max(priority[index], score[index - 1] / 2);
+        }
+        return priority;
+    }
+
+    /**
+     * Builds the compact context of a recipe within the token budget.
+     *
+     * @param schema the recipe schema
+     * @return the RecipeContext of the recipe
+     */
+    private RecipeContext build(RecipeSchemaDto schema) {
+        ParsedContent content = parse(schema.content() == null ? "" : schema.content(), ingredientKeys(schema.ingredients()));
+        List<String> steps = new ArrayList<>(content.steps().size());
+        for (int index = 0; index < content.steps().size(); index++) {
+            steps.add((index + 1) + ". " + content.steps().get(index));
+        }
+        String base = renderBase(schema, content);
+        String stepsSection = steps.isEmpty() ? "" : "\nSteps:\n" + String.join("\n", steps);
+        String notesSection = content.notes().isEmpty() ? "" : "\nNotes: " + String.join("; ", content.notes());
+        String full = base + stepsSection + notesSection;
+        RecipeContext context;
+        if (TokenEstimator.estimate(full) <= tokenBudget) {
+            context = new RecipeContext(full, List.of(), 0);
+        } else if (TokenEstimator.estimate(base + stepsSection) <= tokenBudget) {
+            context = new RecipeContext(base + stepsSection, List.of(), 0);
+        } else {
+            String deferred = "\nSteps: the recipe has " + steps.size()
+                    + " steps; the ones relevant to each question are given with it.";
+            String text = TokenEstimator.estimate(base + deferred + notesSection) <= tokenBudget
+                    ? base + deferred + notesSection
+                    : base + deferred;
+            int stepBudget = tokenBudget / 4;
+            context = new RecipeContext(text, List.copyOf(steps), stepBudget);
+        }
+        log.info("Built recipe context [contentTokens={}, contextTokens={}, deferredSteps={}]",
+                TokenEstimator.estimate(schema.content()), TokenEstimator.estimate(context.text()), context.deferredSteps().size());
+        return context;
+    }
+
+    /**
+     * Renders the part of the context that is always sent: the title, description, details, timings and ingredients.
+     *
+     * @param schema the recipe schema
+     * @param content the parsed Markdown content
+     * @return the rendered text
+     */
+    private static String renderBase(RecipeSchemaDto schema, ParsedContent content) {
+        StringBuilder text = new StringBuilder();
+        if (content.title() != null) {
+            text.append("Recipe: ").append(content.title()).append('\n');
+        }
+        if (!content.description().isEmpty()) {
+            text.append(String.join(" ", content.description())).append('\n');
+        }
+        if (!content.details().isEmpty()) {
+            text.append("Details: ").append(String.join("; ", content.details())).append('\n');
+        }
+        Integer minutes = schema.preparationTimeInMinutes();
+        if (minutes != null && minutes > 0 && content.details().stream().noneMatch(detail -> detail.contains(String.valueOf(minutes)))) {
+            text.append("Total time: ").append(minutes).append(" minutes\n");
+        }
+        Map<String, String> ingredients = new LinkedHashMap<>();
+        content.ingredients().forEach(line -> ingredients.putIfAbsent(normalize(line), line));
+        Map<String, String> listed = new LinkedHashMap<>();
+        addIngredients(listed, schema.ingredients());
+        listed.forEach((key, ingredient) -> {
+            if (!mentioned(ingredients.values(), ingredient)) {
+                ingredients.put(key, ingredient);
+            }
+        });
+        if (!ingredients.isEmpty()) {
+            text.append("Ingredients: ").append(String.join("; ", ingredients.values())).append('\n');
+        }
+        Map<String, String> additional = new LinkedHashMap<>();
+        Integer estimatedMinutes = null;
+        for (AIEstimationDto estimation : schema.aiEstimations() == null ? List.<AIEstimationDto>of() : schema.aiEstimations()) {
+            if (estimation == null) {
+                continue;
+            }
+            addIngredients(additional, estimation.additionalIngredients());
+            if (estimation.estimatedPreparationTimeMinutes() != null) {
+                estimatedMinutes = estimation.estimatedPreparationTimeMinutes();
+            }
+        }
+        additional.values().removeIf(ingredient -> mentioned(ingredients.values(), ingredient));
+        if (!additional.isEmpty()) {
+            text.append("Also needed (not in the source): ").append(String.join("; ", additional.values())).append('\n');
+        }
+        if (estimatedMinutes != null && (minutes == null || minutes == 0)) {
+            text.append("Estimated total time: ").append(estimatedMinutes).append(" minutes\n");
+        }
+        return text.toString().stripTrailing();
+    }
+
+    /**
+     * Reads the Markdown content by the shape of its lines.
+     *
+     * @param content the Markdown content of the recipe
+     * @param ingredientKeys the normalized ingredients of the schema
+     * @return the parsed content
+     */
+    private static ParsedContent parse(String content, Set<String> ingredientKeys) {
+        String title = null;
+        List<String> description = new ArrayList<>();
+        List<String> details = new ArrayList<>();
+        List<String> ingredients = new ArrayList<>();
+        List<String> steps = new ArrayList<>();
+        List<String> notes = new ArrayList<>();
+        List<String> sectionBullets = new ArrayList<>();
+        boolean tableHeader = true;
+        for (String rawLine : content.split("\\R")) {
+            String line = rawLine.strip();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.startsWith("#")) {
+                flushBullets(sectionBullets, ingredientKeys, ingredients, notes);
+                String heading = clean(line.replaceFirst("^#+", ""));
+                if (line.startsWith("# ") && title == null) {
+                    title = heading;
+                }
+                tableHeader = true;
+                continue;
+            }
+            if (line.startsWith(">")) {
+                description.add(clean(line.substring(1)));
+                continue;
+            }
+            if (line.startsWith("|")) {
+                if (TABLE_SEPARATOR.matcher(line).matches()) {
+                    continue;
+                }
+                if (tableHeader) {
+                    tableHeader = false;
+                    continue;
+                }
+                List<String> cells = new ArrayList<>();
+                for (String cell : line.replaceAll("^\\||\\|$", "").split("\\|")) {
+                    if (!cell.isBlank()) {
+                        cells.add(clean(cell));
+                    }
+                }
+                if (!cells.isEmpty()) {
+                    details.add(String.join(": ", cells));
+                }
+                continue;
+            }
+            Matcher numbered = NUMBERED_LINE.matcher(line);
+            if (numbered.matches()) {
+                steps.add(clean(numbered.group(1)));
+                continue;
+            }
+            Matcher bullet = BULLET_LINE.matcher(line);
+            if (bullet.matches()) {
+                sectionBullets.add(clean(bullet.group(1)));
+                continue;
+            }
+            notes.add(clean(line));
+        }
+        flushBullets(sectionBullets, ingredientKeys, ingredients, notes);
+        return new ParsedContent(title, description, details, ingredients, steps, notes);
+    }
+
+    /**
+     * Adds the bullets of a finished section to the ingredients if the section is an ingredient list of the content,
+     * and to the notes otherwise.
+     *
+     * @param sectionBullets the bullets of the section, cleared afterwards
+     * @param ingredientKeys the normalized ingredients of the schema
+     * @param ingredients the ingredient lines collected so far
+     * @param notes the notes collected so far
+     */
+    private static void flushBullets(
+            List<String> sectionBullets, Set<String> ingredientKeys, List<String> ingredients, List<String> notes
+    ) {
+        if (sectionBullets.isEmpty()) {
+            return;
+        }
+        long mentioning = sectionBullets.stream()
+                .filter(bullet -> ingredientKeys.stream().anyMatch(key -> mentions(bullet, key)))
+                .count();
+        if (!ingredientKeys.isEmpty() && mentioning >= sectionBullets.size() * INGREDIENT_SECTION_SHARE) {
+            ingredients.addAll(sectionBullets);
+        } else {
+            notes.addAll(sectionBullets);
+        }
+        sectionBullets.clear();
+    }
+
+    /**
+     * Checks whether an ingredient is mentioned by any of the given ingredient lines.
+     *
+     * @param lines the ingredient lines
+     * @param ingredient the ingredient
+     * @return true if a line mentions the ingredient
+     */
+    private static boolean mentioned(Iterable<String> lines, String ingredient) {
+        for (String line : lines) {
+            if (mentions(line, ingredient)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether an ingredient line mentions an ingredient, that is contains the stem of each of its words.
+     *
+     * @param line the ingredient line
+     * @param ingredient the ingredient
+     * @return true if the line mentions the ingredient
+     */
+    private static boolean mentions(String line, String ingredient) {
+        Set<String> ingredientStems = stems(ingredient, MIN_INGREDIENT_WORD_LENGTH, INGREDIENT_STEM_LENGTH);
+        return !ingredientStems.isEmpty() && stems(line, MIN_INGREDIENT_WORD_LENGTH, INGREDIENT_STEM_LENGTH).containsAll(ingredientStems);
+    }
+
+    /**
+     * Adds ingredients to a map keyed by their normalized form, skipping blank and repeated ones.
+     *
+     * @param target the map of ingredients keyed by their normalized form
+     * @param ingredients the ingredients to add, may be null
+     */
+    private static void addIngredients(Map<String, String> target, List<IngredientDto> ingredients) {
+        if (ingredients == null) {
+            return;
+        }
+        for (IngredientDto ingredient : ingredients) {
+            if (ingredient == null || ingredient.ingredient() == null || ingredient.ingredient().isBlank()) {
+                continue;
+            }
+            target.putIfAbsent(normalize(ingredient.ingredient()), clean(ingredient.ingredient()));
+        }
+    }
+
+    /**
+     * Normalizes the ingredients of the schema for comparison with the bullets of the content.
+     *
+     * @param ingredients the ingredients of the schema, may be null
+     * @return the normalized ingredients
+     */
+    private static Set<String> ingredientKeys(List<IngredientDto> ingredients) {
+        Map<String, String> keyed = new LinkedHashMap<>();
+        addIngredients(keyed, ingredients);
+        return keyed.keySet();
+    }
+
+    /**
+     * Removes Markdown emphasis and collapses whitespace.
+     *
+     * @param text the text
+     * @return the cleaned text
+     */
+    private static String clean(String text) {
+        return EMPHASIS.matcher(text).replaceAll("").replaceAll("\\s+", " ").strip();
+    }
+
+    /**
+     * Normalizes a text for comparison: cleaned, lower-cased and without trailing punctuation.
+     *
+     * @param text the text
+     * @return the normalized text
+     */
+    private static String normalize(String text) {
+        return clean(text).toLowerCase(Locale.ROOT).replaceAll("[\\s.;,]+$", "");
+    }
+
+    /**
+     * Extracts the stems of the words of a text: the first letters of every word long enough.
+     *
+     * @param text the text, may be null
+     * @param minLength the minimum number of characters of a word
+     * @param stemLength the number of leading characters kept of every word
+     * @return the stems of the words
+     */
+    private static Set<String> stems(String text, int minLength, int stemLength) {
+        Set<String> stems = new LinkedHashSet<>();
+        if (text == null) {
+            return stems;
+        }
+        Matcher word = WORD.matcher(text.toLowerCase(Locale.ROOT));
+        while (word.find()) {
+            String value = word.group();
+            if (value.length() >= minLength) {
+                stems.add(value.length() > stemLength ? value.substring(0, stemLength) : value);
+            }
+        }
+        return stems;
+    }
+
+    /**
+     * Computes the cache key of a schema.
+     *
+     * @param schema the recipe schema
+     * @return the hexadecimal SHA-256 hash of the fields of the schema
+     */
+    private static String key(RecipeSchemaDto schema) {
+        List<String> parts = new ArrayList<>();
+        parts.add(schema.content());
+        parts.add(String.valueOf(schema.preparationTimeInMinutes()));
+        if (schema.ingredients() != null) {
+            schema.ingredients().forEach(ingredient -> parts.add(ingredient == null ? null : ingredient.ingredient()));
+        }
+        parts.add("|");
+        if (schema.aiEstimations() != null) {
+            for (AIEstimationDto estimation : schema.aiEstimations()) {
+                if (estimation == null) {
+                    continue;
+                }
+                parts.add(String.valueOf(estimation.estimatedPreparationTimeMinutes()));
+                if (estimation.additionalIngredients() != null) {
+                    estimation.additionalIngredients().forEach(ingredient -> parts.add(ingredient == null ? null : ingredient.ingredient()));
+                }
+            }
+        }
+        return HashUtils.sha256Hex(parts.toArray(String[]::new));
+    }
+
+    /**
+     * The Markdown content of a recipe read by the shape of its lines.
+     *
+     * @param title the title, or null if the content has none
+     * @param description the lines of the description
+     * @param details the rows of the details table, as "field: value"
+     * @param ingredients the items of the ingredient lists, with their quantities
+     * @param steps the texts of the numbered steps
+     * @param notes the remaining bullets and lines
+     */
+    private record ParsedContent(
+            String title,
+            List<String> description,
+            List<String> details,
+            List<String> ingredients,
+            List<String> steps,
+            List<String> notes
+    ) { }
+}
@@ -1,5 +1,8 @@
 package pl.hubertmaka.culinaryagent.services.impl;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.audio.tts.TextToSpeechModel;
@@ -7,22 +10,65 @@ import org.springframework.ai.audio.tts.TextToSpeechOptions;
 import org.springframework.ai.audio.tts.TextToSpeechPrompt;
 import org.springframework.ai.elevenlabs.ElevenLabsTextToSpeechOptions;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
+import pl.hubertmaka.culinaryagent.caches.TextToSpeechAudioCache;
 import pl.hubertmaka.culinaryagent.domain.dtos.RecipeChatResponseChunkDto;
+import pl.hubertmaka.culinaryagent.domain.enums.AudioFormat;
 import pl.hubertmaka.culinaryagent.domain.enums.Voice;
 import pl.hubertmaka.culinaryagent.services.TextToSpeechService;
+import pl.hubertmaka.culinaryagent.utils.HashUtils;
+import pl.hubertmaka.culinaryagent.utils.SentenceSplitter;
 import reactor.core.publisher.Flux;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Implementation of the TextToSpeechService using the ElevenLabs TTS model.
  * This service converts text into speech and streams the audio chunks back to the client.
+ * Speech is synthesized in the requested audio format. Synthesized audio is cached by text, voice, model and
+ * format, so repeated answers are replayed instead of paid for again.
+ * <p>
+ * In segmented mode a long text is split into groups of sentences, each at least the configured segment length, and
+ * up to the configured number of segments are synthesized concurrently. The audio of the segments is emitted in the
+ * order of the text, so the first segment is played while the later ones are being synthesized. Every segment is
+ * sent with the text around it as context, so the intonation carries over between segments. Each segment is
+ * cached separately. A segment that fails before emitting any audio is retried with a backoff. Segmented
+ * syntheses record the {@code tts.synthesis.duration} timer twice: {@code measure:wall} is the elapsed time, and
+ * {@code measure:serial} is the sum of the times of the segments, the time a serial synthesis would take. Retries
+ * are counted as {@code tts.synthesis.segment.retries}.
  */
 @Service
+@ConditionalOnProperty(name = "culinary-agent.tts.websocket.enabled", havingValue = "false", matchIfMissing = true)
 public class ElevenLabsTTSService implements TextToSpeechService {
     /** Logger for logging information and debugging purposes. */
     private final static Logger log = LoggerFactory.getLogger(ElevenLabsTTSService.class);
     /** The TextToSpeechModel used to perform text-to-speech conversion. */
     private final TextToSpeechModel model;
+    /** The cache of synthesized audio keyed by the hash of the text, voice, model and audio format. */
+    private final TextToSpeechAudioCache audioCache;
+    /** Whether long texts are synthesized as concurrent segments. */
+    private final boolean segmented;
+    /** The minimum length of a segment; shorter sentences are grouped with the following ones. */
+    private final int segmentLength;
+    /** The maximum number of segments of a text synthesized at a time. */
+    private final int concurrency;
+    /** The maximum number of retries of a segment that failed before emitting any audio. */
+    private final int retries;
+    /** The delay before the first retry of a segment, doubled on every further retry. */
+    private final Duration retryBackoff;
+    /** The timer of the elapsed time of segmented syntheses. */
+    private final Timer wallTime;
+    /** The timer of the summed times of the segments of segmented syntheses. */
+    private final Timer serialTime;
+    /** The counter of retried segments. */
+    private final Counter segmentRetries;
+    /** The identifier of the ElevenLabs TTS model, part of every cache key. */
     @Value("${spring.ai.elevenlabs.tts.options.model-id}")
     private String modelId;
 
@@ -30,25 +76,67 @@ public class ElevenLabsTTSService implements TextToSpeechService {
      * Constructor for ElevenLabsTTSService that initializes the TextToSpeechModel.
      *
      * @param model the TextToSpeechModel to be used for text-to-speech conversion, injected by Spring
+     * @param audioCache the cache of synthesized audio, injected by Spring
+     * @param segmented whether long texts are synthesized as concurrent segments
+     * @param segmentLength the minimum length of a segment
+     * @param concurrency the maximum number of segments of a text synthesized at a time
+     * @param retries the maximum number of retries of a segment that failed before emitting any audio
+     * @param retryBackoff the delay before the first retry of a segment
+     * @param meterRegistry the registry the synthesis metrics are published to, injected by Spring
      */
-    public ElevenLabsTTSService(TextToSpeechModel model) {
-        log.info("Creating ElevenLabs TTS service...");
+    public ElevenLabsTTSService(
+            TextToSpeechModel model,
+            TextToSpeechAudioCache audioCache,
+            @Value("${culinary-agent.tts.segmented.enabled}") boolean segmented,
+            @Value("${culinary-agent.tts.segmented.segment-length}") int segmentLength,
+            @Value("${culinary-agent.tts.segmented.concurrency}") int concurrency,
+            @Value("${culinary-agent.tts.segmented.retries}") int retries,
+            @Value("${culinary-agent.tts.segmented.retry-backoff}") Duration retryBackoff,
+            MeterRegistry meterRegistry
+    ) {
+        log.info("Creating ElevenLabs TTS service [segmented={}, segmentLength={}, concurrency={}]...",
+                segmented, segmentLength, concurrency);
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("The segment concurrency must be positive, was " + concurrency);
+        }
         this.model = model;
+        this.audioCache = audioCache;
+        this.segmented = segmented;
+        this.segmentLength = segmentLength;
+        this.concurrency = concurrency;
+        this.retries = retries;
+        this.retryBackoff = retryBackoff;
+        this.wallTime = Timer.builder("tts.synthesis.duration")
+                .description("Time of segmented text-to-speech syntheses")
+                .tag("measure", "wall")
+                .register(meterRegistry);
+        this.serialTime = Timer.builder("tts.synthesis.duration")
+                .description("Time of segmented text-to-speech syntheses")
+                .tag("measure", "serial")
+                .register(meterRegistry);
+        this.segmentRetries = Counter.builder("tts.synthesis.segment.retries")
+                .description("Segments of text-to-speech syntheses retried after a failure")
+                .register(meterRegistry);
     }
 
     /**
      * Streams the text-to-speech conversion result as a Flux of RecipeChatResponseChunkDto.
+     * Audio synthesized before for the same text, voice, model and format is replayed from the audio cache. In segmented
+     * mode a text longer than a segment is synthesized as concurrent segments whose audio is emitted in order.
      *
      * @param text the input text to be converted to speech
      * @param voice the Voice enum representing the desired voice for text-to-speech conversion
+     * @param audioFormat the format the audio is synthesized in
      * @return a Flux of RecipeChatResponseChunkDto containing the audio chunks of the converted speech
      */
     @Override
-    public Flux<RecipeChatResponseChunkDto> stream(String text, Voice voice) {
+    public Flux<RecipeChatResponseChunkDto> stream(String text, Voice voice, AudioFormat audioFormat) {
         log.info("Creating Flux of Recipe Chat Response...");
-        TextToSpeechPrompt prompt = new TextToSpeechPrompt(text, createConfiguration(voice));
-        return model.stream(prompt)
-            .map(m -> new RecipeChatResponseChunkDto(m.getResult().getOutput(), null));
+        List<String> segments = segmented ? SentenceSplitter.split(text, segmentLength) : List.of(text);
+        Flux<byte[]> audio = segments.size() > 1
+            ? synthesizeSegments(segments, voice, audioFormat)
+            : cachedAudio(text, voice, audioFormat, null, null);
+        return audio.map(chunk -> new RecipeChatResponseChunkDto(chunk, null));
     }
 
     /**
@@ -62,14 +150,118 @@ public class ElevenLabsTTSService implements TextToSpeechService {
     }
 
     /**
-     * Creates a TextToSpeechOptions configuration based on the provided voice.
+     * Synthesizes the segments of a text concurrently and emits their audio in the order of the text, recording the
+     * elapsed time and the summed times of the segments once all of them complete.
+     *
+     * @param segments the segments of the text, in order
+     * @param voice the Voice enum representing the desired voice for text-to-speech conversion
+     * @param audioFormat the format the audio is synthesized in
+     * @return a Flux of audio chunks of the whole text
+     */
+    private Flux<byte[]> synthesizeSegments(List<String> segments, Voice voice, AudioFormat audioFormat) {
+        log.info("Synthesizing speech in segments [segments={}, concurrency={}]", segments.size(), concurrency);
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicLong segmentNanos = new AtomicLong();
+            return Flux.range(0, segments.size())
+                .flatMapSequential(index -> timed(synthesizeSegment(segments, index, voice, audioFormat), segmentNanos), concurrency)
+                .doOnComplete(() -> {
+                    wallTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    serialTime.record(segmentNanos.get(), TimeUnit.NANOSECONDS);
+                });
+        });
+    }
+
+    /**
+     * Synthesizes one segment of a text with the segments around it as context. A segment failing before emitting
+     * any audio is retried; once audio has been emitted, a failure is passed on, since retrying would repeat it.
+     *
+     * @param segments the segments of the text, in order
+     * @param index the index of the segment to synthesize
+     * @param voice the Voice enum representing the desired voice for text-to-speech conversion
+     * @param audioFormat the format the audio is synthesized in
+     * @return a Flux of audio chunks of the segment
+     */
+    private Flux<byte[]> synthesizeSegment(List<String> segments, int index, Voice voice, AudioFormat audioFormat) {
+        String previousText = index > 0 ? segments.get(index - 1) : null;
+        String nextText = index < segments.size() - 1 ? segments.get(index + 1) : null;
+        return Flux.defer(() -> {
+            AtomicBoolean emitted = new AtomicBoolean();
+            return Flux.defer(() -> cachedAudio(segments.get(index), voice, audioFormat, previousText, nextText))
+                .doOnNext(chunk -> emitted.set(true))
+                .retryWhen(Retry.backoff(retries, retryBackoff)
+                    .filter(e -> !emitted.get())
+                    .doBeforeRetry(signal -> {
+                        segmentRetries.increment();
+                        log.warn("Retrying speech segment [index={}, attempt={}]: {}",
+                            index, signal.totalRetries() + 1, signal.failure().getMessage());
+                    })
+                    .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+        });
+    }
+
+    /**
+     * Adds the time from the subscription to the completion of the audio to the given total.
+     *
+     * @param audio the Flux of audio chunks
+     * @param totalNanos the total the time is added to, in nanoseconds
+     * @return the Flux of audio chunks
+     */
+    private static Flux<byte[]> timed(Flux<byte[]> audio, AtomicLong totalNanos) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            return audio.doOnComplete(() -> totalNanos.addAndGet(System.nanoTime() - start));
+        });
+    }
+
+    /**
+     * Returns the audio of the text from the audio cache, synthesizing it on a miss. The context of a segment is not
+     * part of the cache key.
+     *
+     * @param text the input text to be converted to speech
+     * @param voice the Voice enum representing the desired voice for text-to-speech conversion
+     * @param audioFormat the format the audio is synthesized in
+     * @param previousText the text spoken before, or null
+     * @param nextText the text spoken after, or null
+     * @return a Flux of audio chunks of the converted speech
+     */
+    private Flux<byte[]> cachedAudio(String text, Voice voice, AudioFormat audioFormat, String previousText, String nextText) {
+        String cacheKey = HashUtils.sha256Hex(text, voice.name(), modelId, audioFormat.name());
+        return audioCache.get(cacheKey, () -> synthesize(text, voice, audioFormat, previousText, nextText));
+    }
+
+    /**
+     * Synthesizes the text with the ElevenLabs TTS model.
+     *
+     * @param text the input text to be converted to speech
+     * @param voice the Voice enum representing the desired voice for text-to-speech conversion
+     * @param audioFormat the format the audio is synthesized in
+     * @param previousText the text spoken before, or null
+     * @param nextText the text spoken after, or null
+     * @return a Flux of audio chunks of the converted speech
+     */
+    private Flux<byte[]> synthesize(String text, Voice voice, AudioFormat audioFormat, String previousText, String nextText) {
+        TextToSpeechPrompt prompt = new TextToSpeechPrompt(text, createConfiguration(voice, audioFormat, previousText, nextText));
+        return model.stream(prompt)
+            .mapNotNull(m -> m.getResult().getOutput());
+    }
+
+    /**
+     * Creates a TextToSpeechOptions configuration based on the provided voice, audio format and the text around a
+     * segment.
      *
      * @param voice the Voice enum representing the desired voice for text-to-speech conversion
-     * @return a TextToSpeechOptions object configured with the specified voice
+     * @param audioFormat the format the audio is synthesized in
+     * @param previousText the text spoken before, or null
+     * @param nextText the text spoken after, or null
+     * @return a TextToSpeechOptions object configured with the specified voice and audio format
      */
-    private TextToSpeechOptions createConfiguration(Voice voice) {
+    private TextToSpeechOptions createConfiguration(Voice voice, AudioFormat audioFormat, String previousText, String nextText) {
         return ElevenLabsTextToSpeechOptions.builder()
             .voice(voice.getVoiceId())
+            .outputFormat(audioFormat.getOutputFormat())
+            .previousText(previousText)
+            .nextText(nextText)
             .build();
     }
 }
@@ -0,0 +1,527 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import pl.hubertmaka.culinaryagent.caches.TextToSpeechAudioCache;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeChatResponseChunkDto;
+import pl.hubertmaka.culinaryagent.domain.enums.AudioFormat;
+import pl.hubertmaka.culinaryagent.domain.enums.Voice;
+import pl.hubertmaka.culinaryagent.exceptions.RecipeChatException;
+import pl.hubertmaka.culinaryagent.services.TextToSpeechService;
+import pl.hubertmaka.culinaryagent.utils.HashUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.WebsocketClientSpec;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Implementation of the TextToSpeechService using the ElevenLabs multi-context WebSocket input-streaming API.
+ * <p>
+ * Connections are kept open in a pool per voice, model and audio format and reused by later syntheses, so only the
+ * first synthesis of a voice and format pays for the TLS and WebSocket handshakes. Every synthesis is a context of
+ * its own on one of the pooled connections, and up to the configured number of contexts share a connection before
+ * another one is opened. Streamed text is sent piece by piece as it becomes available, so the audio of the first
+ * sentence arrives while the rest of the answer is still being generated, and the provider keeps the intonation
+ * across the sentences of a context.
+ * <p>
+ * Connections without contexts for longer than the configured idle time are closed by a periodic sweep, which runs
+ * often enough to close them before the provider's inactivity timeout, and are never handed out once idle for that
+ * long.
+ * <p>
+ * Whole texts are cached like in {@link ElevenLabsTTSService}, under the same keys; streamed texts are not cached.
+ * Syntheses are counted as {@code tts.websocket.sessions} tagged {@code connection:new|reused}, and the open
+ * connections are published as {@code tts.websocket.connections}.
+ */
+@Service
+@ConditionalOnProperty(name = "culinary-agent.tts.websocket.enabled", havingValue = "true")
+public class ElevenLabsWebSocketTTSService implements TextToSpeechService {
+    /** Logger for logging information and debugging purposes. */
+    private final static Logger log = LoggerFactory.getLogger(ElevenLabsWebSocketTTSService.class);
+    /** The longest inactivity timeout of a connection ElevenLabs allows, requested for every connection. */
+    private static final Duration PROVIDER_INACTIVITY_TIMEOUT = Duration.ofSeconds(180);
+    /** The maximum size of a message received from ElevenLabs, which carries base64 encoded audio. */
+    private static final int MAX_MESSAGE_SIZE = 4 * 1024 * 1024;
+    /** The client the WebSocket connections are opened with. */
+    private final HttpClient httpClient;
+    /** The ObjectMapper used to write and parse the messages of the protocol. */
+    private final ObjectMapper objectMapper;
+    /** The cache of synthesized audio keyed by the hash of the text, voice, model and audio format. */
+    private final TextToSpeechAudioCache audioCache;
+    /** The base URL of the ElevenLabs WebSocket API. */
+    private final String url;
+    /** The identifier of the ElevenLabs TTS model, part of every cache key. */
+    private final String modelId;
+    /** The maximum number of contexts synthesized on one connection at a time. */
+    private final int maxContextsPerConnection;
+    /** The time after which a connection without contexts is closed instead of reused, in nanoseconds. */
+    private final long maxIdleNanos;
+    /** The periodic sweep closing the idle connections, disposed when the application shuts down. */
+    private final Disposable idleSweep;
+    /** The open connections by voice, model and audio format, guarded by its own monitor. */
+    private final Map<String, List<SocketConnection>> pool = new HashMap<>();
+    /** The sequence the context identifiers are generated from. */
+    private final AtomicLong contextIds = new AtomicLong();
+    /** The counter of syntheses that opened a new connection. */
+    private final Counter newConnectionSessions;
+    /** The counter of syntheses that reused a pooled connection. */
+    private final Counter reusedConnectionSessions;
+
+    /**
+     * Constructor for ElevenLabsWebSocketTTSService.
+     *
+     * @param audioCache the cache of synthesized audio, injected by Spring
+     * @param objectMapper the ObjectMapper used to write and parse the messages of the protocol, injected by Spring
+     * @param url the base URL of the ElevenLabs WebSocket API
+     * @param apiKey the ElevenLabs API key
+     * @param modelId the identifier of the ElevenLabs TTS model
+     * @param maxContextsPerConnection the maximum number of contexts synthesized on one connection at a time
+     * @param maxIdleTime the time after which a connection without contexts is closed instead of reused
+     * @param connectTimeout the timeout of opening a connection
+     * @param meterRegistry the registry the connection metrics are published to, injected by Spring
+     */
+    public ElevenLabsWebSocketTTSService(
+            TextToSpeechAudioCache audioCache,
+            ObjectMapper objectMapper,
+            @Value("${culinary-agent.tts.websocket.url}") String url,
+            @Value("${spring.ai.elevenlabs.api-key}") String apiKey,
+            @Value("${spring.ai.elevenlabs.tts.options.model-id}") String modelId,
+            @Value("${culinary-agent.tts.websocket.max-contexts-per-connection}") int maxContextsPerConnection,
+            @Value("${culinary-agent.tts.websocket.max-idle-time}") Duration maxIdleTime,
+            @Value("${culinary-agent.tts.websocket.connect-timeout}") Duration connectTimeout,
+            MeterRegistry meterRegistry
+    ) {
+        log.info("Creating ElevenLabs WebSocket TTS service [url={}, maxContextsPerConnection={}, maxIdleTime={}]...",
+                url, maxContextsPerConnection, maxIdleTime);
+        if (maxContextsPerConnection <= 0) {
+            throw new IllegalArgumentException("The contexts per connection must be positive, was " + maxContextsPerConnection);
+        }
+        if (maxIdleTime.isNegative() || maxIdleTime.isZero()) {
+            throw new IllegalArgumentException("The idle time of a connection must be positive, was " + maxIdleTime);
+        }
+        if (maxIdleTime.compareTo(PROVIDER_INACTIVITY_TIMEOUT) >= 0) {
+            throw new IllegalArgumentException("The idle time of a connection must be shorter than "
+                    + PROVIDER_INACTIVITY_TIMEOUT + ", was " + maxIdleTime);
+        }
+        this.httpClient = HttpClient.create()
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+                .headers(headers -> headers.set("xi-api-key", apiKey));
+        this.objectMapper = objectMapper;
+        this.audioCache = audioCache;
+        this.url = url;
+        this.modelId = modelId;
+        this.maxContextsPerConnection = maxContextsPerConnection;
+        this.maxIdleNanos = maxIdleTime.toNanos();
+        this.newConnectionSessions = Counter.builder("tts.websocket.sessions")
+                .description("Text-to-speech syntheses by whether they opened a new WebSocket connection")
+                .tag("connection", "new")
+                .register(meterRegistry);
+        this.reusedConnectionSessions = Counter.builder("tts.websocket.sessions")
+                .description("Text-to-speech syntheses by whether they opened a new WebSocket connection")
+                .tag("connection", "reused")
+                .register(meterRegistry);
+        Gauge.builder("tts.websocket.connections", this, ElevenLabsWebSocketTTSService::openConnections)
+                .description("Open WebSocket connections to ElevenLabs")
+                .register(meterRegistry);
+        Duration margin = PROVIDER_INACTIVITY_TIMEOUT.minus(maxIdleTime);
+        Duration sweepPeriod = (maxIdleTime.compareTo(margin) < 0 ? maxIdleTime : margin).dividedBy(2);
+        this.idleSweep = Flux.interval(sweepPeriod, sweepPeriod).subscribe(tick -> closeIdleConnections());
+    }
+
+    /**
+     * Streams the text-to-speech conversion result as a Flux of RecipeChatResponseChunkDto.
+     * Audio synthesized before for the same text, voice, model and format is replayed from the audio cache.
+     *
+     * @param text the input text to be converted to speech
+     * @param voice the Voice enum representing the desired voice for text-to-speech conversion
+     * @param audioFormat the format the audio is synthesized in
+     * @return a Flux of RecipeChatResponseChunkDto containing the audio chunks of the converted speech
+     */
+    @Override
+    public Flux<RecipeChatResponseChunkDto> stream(String text, Voice voice, AudioFormat audioFormat) {
+        log.info("Creating Flux of Recipe Chat Response over WebSocket...");
+        String cacheKey = HashUtils.sha256Hex(text, voice.name(), modelId, audioFormat.name());
+        return audioCache.get(cacheKey, () -> synthesize(Flux.just(text), voice, audioFormat))
+            .map(chunk -> new RecipeChatResponseChunkDto(chunk, null));
+    }
+
+    /**
+     * Streams the text-to-speech conversion of text that becomes available piece by piece. All pieces are spoken in
+     * one context, each sent as soon as it arrives.
+     *
+     * @param text the stream of the pieces of the text to be converted to speech
+     * @param voice the Voice enum representing the desired voice for text-to-speech conversion
+     * @param audioFormat the format the audio is synthesized in
+     * @return a Flux of RecipeChatResponseChunkDto containing the audio chunks of the converted speech
+     */
+    @Override
+    public Flux<RecipeChatResponseChunkDto> stream(Flux<String> text, Voice voice, AudioFormat audioFormat) {
+        log.info("Creating Flux of Recipe Chat Response from streamed text over WebSocket...");
+        return synthesize(text, voice, audioFormat).map(chunk -> new RecipeChatResponseChunkDto(chunk, null));
+    }
+
+    /**
+     * Retrieves the model identifier for the ElevenLabs TTS model.
+     *
+     * @return a String representing the model identifier
+     */
+    @Override
+    public String getModel() {
+        return modelId;
+    }
+
+    /**
+     * Closes the pooled connections when the application shuts down.
+     */
+    @PreDestroy
+    public void shutdown() {
+        idleSweep.dispose();
+        List<SocketConnection> connections = new ArrayList<>();
+        synchronized (pool) {
+            pool.values().forEach(connections::addAll);
+            pool.clear();
+        }
+        log.info("Closing ElevenLabs WebSocket connections [connections={}]...", connections.size());
+        connections.forEach(SocketConnection::close);
+    }
+
+    /**
+     * Synthesizes the text in a new context on a pooled connection of the voice and format, released when the audio
+     * ends.
+     *
+     * @param text the stream of the pieces of the text to be converted to speech
+     * @param voice the Voice enum representing the desired voice for text-to-speech conversion
+     * @param audioFormat the format the audio is synthesized in
+     * @return a Flux of audio chunks of the converted speech
+     */
+    private Flux<byte[]> synthesize(Flux<String> text, Voice voice, AudioFormat audioFormat) {
+        return Flux.defer(() -> {
+            SocketConnection connection = acquire(voice, audioFormat);
+            String contextId = "context-" + contextIds.incrementAndGet();
+            return connection.synthesize(contextId, text)
+                .doFinally(signal -> release(connection));
+        });
+    }
+
+    /**
+     * Returns the least busy open connection of the voice, model and format with a free context, opening a new one
+     * when there is none. Closed connections and connections idle for longer than the maximum idle time are
+     * discarded.
+     *
+     * @param voice the voice of the connection
+     * @param audioFormat the audio format of the connection
+     * @return the connection the context is synthesized on, with the context counted
+     */
+    private SocketConnection acquire(Voice voice, AudioFormat audioFormat) {
+        String key = voice.getVoiceId() + "|" + modelId + "|" + audioFormat.getOutputFormat();
+        long now = System.nanoTime();
+        List<SocketConnection> stale = new ArrayList<>();
+        SocketConnection connection;
+        boolean opened = false;
+        synchronized (pool) {
+            List<SocketConnection> connections = pool.computeIfAbsent(key, k -> new ArrayList<>());
+            removeStale(connections, now, stale);
+            connection = connections.stream()
+                .filter(candidate -> candidate.contexts < maxContextsPerConnection)
+                .min(Comparator.comparingInt(candidate -> candidate.contexts))
+                .orElse(null);
+            if (connection == null) {
+                connection = new SocketConnection(key);
+                connections.add(connection);
+                opened = true;
+                newConnectionSessions.increment();
+            } else {
+                reusedConnectionSessions.increment();
+            }
+            connection.contexts++;
+        }
+        stale.forEach(SocketConnection::close);
+        if (opened) {
+            connection.open(voice, audioFormat);
+        }
+        return connection;
+    }
+
+    /**
+     * Closes the connections of all voices, models and formats idle for longer than the maximum idle time, and drops
+     * the pools left without connections.
+     */
+    private void closeIdleConnections() {
+        long now = System.nanoTime();
+        List<SocketConnection> stale = new ArrayList<>();
+        synchronized (pool) {
+            pool.values().removeIf(connections -> {
+                removeStale(connections, now, stale);
+                return connections.isEmpty();
+            });
+        }
+        if (!stale.isEmpty()) {
+            log.info("Closing idle ElevenLabs WebSocket connections [connections={}]...", stale.size());
+        }
+        stale.forEach(SocketConnection::close);
+    }
+
+    /**
+     * Removes the closed connections and the connections idle for longer than the maximum idle time from a pool.
+     * Must be called while holding the monitor of the pool.
+     *
+     * @param connections the connections of a voice, model and audio format
+     * @param now the current time, in nanoseconds
+     * @param stale the list the removed connections are added to, to be closed outside the monitor
+     */
+    private void removeStale(List<SocketConnection> connections, long now, List<SocketConnection> stale) {
+        connections.removeIf(candidate -> {
+            boolean discarded = candidate.closed
+                    || candidate.contexts == 0 && now - candidate.lastUsedNanos > maxIdleNanos;
+            if (discarded) {
+                stale.add(candidate);
+            }
+            return discarded;
+        });
+    }
+
+    /**
+     * Releases a context of the connection, marking the connection as used now.
+     *
+     * @param connection the connection the context was synthesized on
+     */
+    private void release(SocketConnection connection) {
+        synchronized (pool) {
+            connection.contexts--;
+            connection.lastUsedNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Removes a connection that was closed from the pool.
+     *
+     * @param connection the closed connection
+     */
+    private void discard(SocketConnection connection) {
+        synchronized (pool) {
+            List<SocketConnection> connections = pool.get(connection.key);
+            if (connections != null) {
+                connections.remove(connection);
+            }
+        }
+    }
+
+    /**
+     * Counts the open connections of all voices and models.
+     *
+     * @return the number of open connections
+     */
+    private int openConnections() {
+        synchronized (pool) {
+            return pool.values().stream().mapToInt(List::size).sum();
+        }
+    }
+
+    /**
+     * Writes a message of the protocol as JSON.
+     *
+     * @param message the message
+     * @return the JSON of the message
+     */
+    private String write(ObjectNode message) {
+        try {
+            return objectMapper.writeValueAsString(message);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to write ElevenLabs WebSocket message", e);
+        }
+    }
+
+    /**
+     * A WebSocket connection to ElevenLabs shared by the contexts of one voice, model and audio format. Messages are
+     * queued until the connection is open, and received audio is dispatched to the context it belongs to.
+     */
+    private final class SocketConnection {
+        /** The voice, model and audio format of the connection. */
+        private final String key;
+        /** The messages to send, queued while the connection is being opened. */
+        private final Sinks.Many<String> outgoing = Sinks.many().unicast().onBackpressureBuffer();
+        /** The audio sinks of the contexts being synthesized, by context identifier. */
+        private final Map<String, Sinks.Many<byte[]>> audio = new ConcurrentHashMap<>();
+        /** The number of contexts being synthesized, guarded by the pool. */
+        private int contexts;
+        /** The time the connection was opened or its last context was released, guarded by the pool. */
+        private long lastUsedNanos = System.nanoTime();
+        /** Whether the connection was closed or failed. */
+        private volatile boolean closed;
+
+        private SocketConnection(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Opens the connection, sending the queued messages and dispatching the received ones until either side
+         * closes it.
+         *
+         * @param voice the voice of the connection
+         * @param audioFormat the audio format of the connection
+         */
+        private void open(Voice voice, AudioFormat audioFormat) {
+            log.info("Opening ElevenLabs WebSocket connection [voice={}, model={}, format={}]...", voice, modelId, audioFormat);
+            String uri = url + "/v1/text-to-speech/" + voice.getVoiceId() + "/multi-stream-input"
+                    + "?model_id=" + modelId
+                    + "&output_format=" + audioFormat.getOutputFormat()
+                    + "&inactivity_timeout=" + PROVIDER_INACTIVITY_TIMEOUT.toSeconds();
+            httpClient
+                .websocket(WebsocketClientSpec.builder().maxFramePayloadLength(MAX_MESSAGE_SIZE).build())
+                .uri(uri)
+                .handle((inbound, outbound) -> Mono.firstWithSignal(
+                    inbound.aggregateFrames(MAX_MESSAGE_SIZE).receive().asString().doOnNext(this::dispatch).then(),
+                    outbound.sendString(outgoing.asFlux()).then().then(Mono.never())))
+                .subscribe(
+                    ignored -> { },
+                    error -> fail(new RecipeChatException("ElevenLabs WebSocket connection failed: " + error.getMessage())),
+                    () -> fail(new RecipeChatException("ElevenLabs WebSocket connection was closed")));
+        }
+
+        /**
+         * Synthesizes the text in a new context of the connection. Every piece of the text is sent as soon as it
+         * arrives; once the text ends, the context is flushed and closed, and the audio completes when ElevenLabs
+         * reports the context final. A context cancelled before that is closed, which stops its synthesis.
+         *
+         * @param contextId the identifier of the context
+         * @param text the stream of the pieces of the text to be converted to speech
+         * @return a Flux of audio chunks of the context
+         */
+        private Flux<byte[]> synthesize(String contextId, Flux<String> text) {
+            Sinks.Many<byte[]> sink = Sinks.many().unicast().onBackpressureBuffer();
+            audio.put(contextId, sink);
+            if (closed) {
+                audio.remove(contextId);
+                return Flux.error(new RecipeChatException("ElevenLabs WebSocket connection was closed"));
+            }
+            send(message(contextId).put("text", " "));
+            Mono<byte[]> sending = text
+                .filter(piece -> !piece.isBlank())
+                .doOnNext(piece -> send(message(contextId).put("text", piece.strip() + " ")))
+                .then(Mono.<byte[]>fromRunnable(() -> {
+                    send(message(contextId).put("text", "").put("flush", true));
+                    send(message(contextId).put("close_context", true));
+                }));
+            return Flux.merge(sink.asFlux(), sending)
+                .doFinally(signal -> {
+                    if (audio.remove(contextId) != null && !closed) {
+                        send(message(contextId).put("close_context", true));
+                    }
+                });
+        }
+
+        /**
+         * Closes the connection, failing the contexts still being synthesized.
+         */
+        private void close() {
+            if (!closed) {
+                send(objectMapper.createObjectNode().put("close_socket", true));
+            }
+            fail(new RecipeChatException("ElevenLabs WebSocket connection was closed"));
+        }
+
+        /**
+         * Marks the connection as closed, removes it from the pool and fails the contexts still being synthesized.
+         *
+         * @param error the error the contexts fail with
+         */
+        private void fail(RecipeChatException error) {
+            if (!closed) {
+                log.info("ElevenLabs WebSocket connection closed [key={}, contexts={}]", key, audio.size());
+            }
+            closed = true;
+            discard(this);
+            outgoing.tryEmitComplete();
+            audio.values().forEach(sink -> sink.tryEmitError(error));
+            audio.clear();
+        }
+
+        /**
+         * Dispatches a received message to the context it belongs to: audio is emitted, the final message completes
+         * the context, and an error fails it. An error not belonging to any context fails the connection.
+         *
+         * @param text the JSON of the received message
+         */
+        private void dispatch(String text) {
+            JsonNode message;
+            try {
+                message = objectMapper.readTree(text);
+            } catch (JsonProcessingException e) {
+                log.warn("Ignoring malformed ElevenLabs WebSocket message: {}", e.getMessage());
+                return;
+            }
+            String contextId = message.hasNonNull("contextId")
+                    ? message.get("contextId").asText()
+                    : message.path("context_id").asText(null);
+            Sinks.Many<byte[]> sink = contextId == null ? null : audio.get(contextId);
+            if (message.hasNonNull("error")) {
+                RecipeChatException error = new RecipeChatException("ElevenLabs speech synthesis failed: "
+                        + message.path("message").asText(message.get("error").asText()));
+                if (sink == null) {
+                    fail(error);
+                } else {
+                    audio.remove(contextId);
+                    sink.tryEmitError(error);
+                }
+                return;
+            }
+            if (sink == null) {
+                return;
+            }
+            String chunk = message.path("audio").asText("");
+            if (!chunk.isEmpty()) {
+                sink.tryEmitNext(Base64.getDecoder().decode(chunk));
+            }
+            if (message.path("isFinal").asBoolean(false) || message.path("is_final").asBoolean(false)) {
+                audio.remove(contextId);
+                sink.tryEmitComplete();
+            }
+        }
+
+        /**
+         * Sends a message, or queues it until the connection is open. Messages of concurrent contexts are
+         * serialized.
+         *
+         * @param message the message
+         */
+        private void send(ObjectNode message) {
+            String json = write(message);
+            synchronized (outgoing) {
+                outgoing.tryEmitNext(json);
+            }
+        }
+
+        /**
+         * Creates a message of a context.
+         *
+         * @param contextId the identifier of the context
+         * @return the message with the context identifier set
+         */
+        private ObjectNode message(String contextId) {
+            return objectMapper.createObjectNode().put("context_id", contextId);
+        }
+    }
+}
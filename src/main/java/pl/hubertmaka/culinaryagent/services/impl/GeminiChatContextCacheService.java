@@ -0,0 +1,207 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.google.genai.cache.CachedContentRequest;
+import org.springframework.ai.google.genai.cache.GoogleGenAiCachedContent;
+import org.springframework.ai.google.genai.cache.GoogleGenAiCachedContentService;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import pl.hubertmaka.culinaryagent.services.ChatContextCacheService;
+import pl.hubertmaka.culinaryagent.utils.HashUtils;
+import pl.hubertmaka.culinaryagent.utils.TokenEstimator;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Implementation of the ChatContextCacheService using Gemini explicit context caching. The first time a recipe is
+ * chatted about, a cached content holding the chat agent personality as its system instruction and the instruction
+ * with the recipe as its content is created in the background on the blocking call scheduler; that turn is sent in
+ * full, and later turns of any session or stateless request about the same recipe reference the cached content.
+ * <p>
+ * Cached contents are created with the configured TTL and forgotten locally after nine tenths of it, so a name is
+ * never used after the provider has expired it. Contents evicted for size or invalidated are deleted at the provider
+ * right away instead of waiting for their TTL. Prompts estimated below the provider's minimum cacheable size are
+ * never cached, and a failed creation is remembered for the same time as a created content, so a rejected prompt is
+ * not submitted again on every turn. Lookups are published under the {@code chat-context-cache} cache name, and
+ * creations as the {@code chat.context-cache.creations} counter, tagged {@code result:success|failure}.
+ */
+@Service
+public class GeminiChatContextCacheService implements ChatContextCacheService {
+    /** Logger for logging information and debugging purposes. */
+    private static final Logger log = LoggerFactory.getLogger(GeminiChatContextCacheService.class);
+    /** The name under which the cache metrics are published. */
+    private static final String CACHE_NAME = "chat-context-cache";
+    /** The display name of the cached contents created at the provider. */
+    private static final String DISPLAY_NAME = "culinary-agent-chat";
+    /** The service managing the cached contents at the provider. */
+    private final GoogleGenAiCachedContentService cachedContentService;
+    /** The scheduler the cached contents are created and deleted on. */
+    private final Scheduler blockingCallScheduler;
+    /** The personality of the chat agent, the system instruction of the cached contents. */
+    private final String personality;
+    /** The name of the Gemini model the cached contents are created for. */
+    private final String modelName;
+    /** Whether the context is cached at all. */
+    private final boolean enabled;
+    /** The minimum estimated number of tokens of a prompt prefix worth caching. */
+    private final int minTokens;
+    /** The time the cached contents live at the provider. */
+    private final Duration ttl;
+    /** The estimated number of tokens of the personality. */
+    private final int personalityTokens;
+    /** The names of the cached contents keyed by the hash of the model, personality and instruction; empty if the creation failed. */
+    private final AsyncCache<String, Optional<String>> contents;
+    /** The counter of cached contents created. */
+    private final Counter created;
+    /** The counter of cached contents that could not be created. */
+    private final Counter failures;
+
+    /**
+     * Constructor for GeminiChatContextCacheService.
+     *
+     * @param cachedContentService the service managing the cached contents at the provider, injected by Spring
+     * @param blockingCallScheduler the scheduler the cached contents are created and deleted on, injected by Spring with the qualifier "blockingCallScheduler"
+     * @param personality the personality of the chat agent, injected by Spring with the qualifier "chatAgentPersonality"
+     * @param modelName the name of the Gemini model the cached contents are created for
+     * @param enabled whether the context is cached at all
+     * @param minTokens the minimum estimated number of tokens of a prompt prefix worth caching
+     * @param ttl the time the cached contents live at the provider
+     * @param maximumSize the maximum number of cached contents kept at a time
+     * @param meterRegistry the registry the cache metrics are published to, injected by Spring
+     */
+    public GeminiChatContextCacheService(
+            GoogleGenAiCachedContentService cachedContentService,
+            @Qualifier("blockingCallScheduler") Scheduler blockingCallScheduler,
+            @Qualifier("chatAgentPersonality") String personality,
+            @Value("${spring.ai.google.genai.chat.options.model}") String modelName,
+            @Value("${culinary-agent.chat.context-cache.enabled}") boolean enabled,
+            @Value("${culinary-agent.chat.context-cache.min-tokens}") int minTokens,
+            @Value("${culinary-agent.chat.context-cache.ttl}") Duration ttl,
+            @Value("${culinary-agent.chat.context-cache.maximum-size}") long maximumSize,
+            MeterRegistry meterRegistry
+    ) {
+        log.info("Creating Gemini chat context cache service [enabled={}, minTokens={}, ttl={}, maximumSize={}]...",
+                enabled, minTokens, ttl, maximumSize);
+        this.cachedContentService = cachedContentService;
+        this.blockingCallScheduler = blockingCallScheduler;
+        this.personality = personality;
+        this.modelName = modelName;
+        this.enabled = enabled;
+        this.minTokens = minTokens;
+        this.ttl = ttl;
+        this.personalityTokens = TokenEstimator.estimate(personality);
+        this.contents = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl.minus(ttl.dividedBy(10)))
+                .executor(Runnable::run)
+                .removalListener((String key, Optional<String> name, RemovalCause cause) -> {
+                    if (name != null && name.isPresent() && cause != RemovalCause.EXPIRED) {
+                        delete(name.get());
+                    }
+                })
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, contents, CACHE_NAME);
+        this.created = Counter.builder("chat.context-cache.creations")
+                .description("Cached contents of chat prompts created at the provider")
+                .tag("result", "success")
+                .register(meterRegistry);
+        this.failures = Counter.builder("chat.context-cache.creations")
+                .description("Cached contents of chat prompts created at the provider")
+                .tag("result", "failure")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the name of the cached content of the given instruction if it has been created, requesting its
+     * creation in the background otherwise.
+     *
+     * @param instruction the text of the instruction of the chat agent, with the language and recipe schema substituted
+     * @return the name of the cached content, or an empty Optional if the prompt has to be sent in full
+     */
+    @Override
+    public Optional<String> lookup(String instruction) {
+        if (!enabled || personalityTokens + TokenEstimator.estimate(instruction) < minTokens) {
+            return Optional.empty();
+        }
+        CompletableFuture<Optional<String>> content = contents.get(key(instruction), (key, executor) ->
+                Mono.fromCallable(() -> create(instruction))
+                        .subscribeOn(blockingCallScheduler)
+                        .toFuture());
+        if (!content.isDone() || content.isCompletedExceptionally()) {
+            return Optional.empty();
+        }
+        return content.getNow(Optional.empty());
+    }
+
+    /**
+     * Discards the cached content of the given instruction and deletes it at the provider.
+     *
+     * @param instruction the text of the instruction of the chat agent
+     */
+    @Override
+    public void invalidate(String instruction) {
+        log.info("Invalidating cached chat context");
+        contents.synchronous().invalidate(key(instruction));
+    }
+
+    /**
+     * Creates the cached content of the given instruction at the provider.
+     *
+     * @param instruction the text of the instruction of the chat agent
+     * @return the name of the created cached content, or an empty Optional if the provider rejected it
+     */
+    private Optional<String> create(String instruction) {
+        try {
+            GoogleGenAiCachedContent content = cachedContentService.create(CachedContentRequest.builder()
+                    .model(modelName)
+                    .displayName(DISPLAY_NAME)
+                    .systemInstruction(personality)
+                    .addTextContent(instruction)
+                    .ttl(ttl)
+                    .build());
+            created.increment();
+            log.info("Created cached chat context [name={}, expireTime={}]", content.getName(), content.getExpireTime());
+            return Optional.of(content.getName());
+        } catch (RuntimeException e) {
+            failures.increment();
+            log.warn("Failed to create cached chat context: {}", e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Deletes a cached content at the provider in the background.
+     *
+     * @param name the name of the cached content
+     */
+    private void delete(String name) {
+        Mono.fromCallable(() -> cachedContentService.delete(name))
+                .subscribeOn(blockingCallScheduler)
+                .subscribe(
+                        deleted -> log.info("Deleted cached chat context [name={}, deleted={}]", name, deleted),
+                        e -> log.warn("Failed to delete cached chat context [name={}]: {}", name, e.getMessage()));
+    }
+
+    /**
+     * Computes the key of the cached content of an instruction.
+     *
+     * @param instruction the text of the instruction of the chat agent
+     * @return the hexadecimal SHA-256 hash of the model, personality and instruction
+     */
+    private String key(String instruction) {
+        return HashUtils.sha256Hex(modelName, personality, instruction);
+    }
+}
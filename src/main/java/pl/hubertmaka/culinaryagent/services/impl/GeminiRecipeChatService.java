@@ -1,40 +1,81 @@
 package pl.hubertmaka.culinaryagent.services.impl;
 
+import com.google.genai.errors.ApiException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AbstractMessage;
 import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
 import org.springframework.ai.chat.metadata.Usage;
 import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.google.genai.GoogleGenAiChatOptions;
+import org.springframework.ai.google.genai.metadata.GoogleGenAiUsage;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import pl.hubertmaka.culinaryagent.domain.dtos.ChatAgentResponseDto;
 import pl.hubertmaka.culinaryagent.domain.dtos.MessageDto;
 import pl.hubertmaka.culinaryagent.domain.dtos.MetadataDto;
 import pl.hubertmaka.culinaryagent.domain.dtos.RecipeChatRequestDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaDto;
+import pl.hubertmaka.culinaryagent.domain.enums.Language;
 import pl.hubertmaka.culinaryagent.domain.enums.Role;
+import pl.hubertmaka.culinaryagent.domain.enums.Voice;
+import pl.hubertmaka.culinaryagent.domain.models.ChatSession;
+import pl.hubertmaka.culinaryagent.domain.models.ConversationHistory;
+import pl.hubertmaka.culinaryagent.domain.models.ConversationWindow;
+import pl.hubertmaka.culinaryagent.domain.models.RecipeContext;
 import pl.hubertmaka.culinaryagent.exceptions.RecipeChatException;
 import pl.hubertmaka.culinaryagent.mappers.Mapper;
+import pl.hubertmaka.culinaryagent.services.ChatContextCacheService;
+import pl.hubertmaka.culinaryagent.services.ConversationHistoryService;
 import pl.hubertmaka.culinaryagent.services.RecipeChatService;
+import pl.hubertmaka.culinaryagent.services.RecipeContextService;
 
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Service implementation for handling recipe chat interactions using a Gemini-based chat client.
  * This service processes incoming chat requests, interacts with the ChatClient to generate responses,
- * and extracts relevant metadata from the chat interactions.
+ * and extracts relevant metadata from the chat interactions. The conversation history of every turn is windowed by the
+ * ConversationHistoryService, and the estimated tokens of the history are reported in the metadata of the answer. Once
+ * the ChatContextCacheService holds the system prompt and the instruction of a recipe at the provider, turns reference
+ * that cached content instead of sending them again; a turn whose cached content is missing, expired or rejected is
+ * retried in full, while other failures are passed on without giving up the cached content. The
+ * recipe is substituted into the instruction as the compact context built by the RecipeContextService; when its steps
+ * do not fit the instruction, the steps relevant to the question are sent right before it on every turn.
  */
 @Service
 public class GeminiRecipeChatService implements RecipeChatService {
     /** Logger for logging information and debugging purposes. */
     private static final Logger log = LoggerFactory.getLogger(GeminiRecipeChatService.class);
+    /** The status codes with which Gemini rejects a reference to cached content: invalid argument, permission denied and not found. */
+    private static final Set<Integer> CACHED_CONTENT_REJECTION_CODES = Set.of(400, 403, 404);
     /** The ChatClient used to interact with the Gemini model for recipe chat interactions. */
     private final ChatClient chatClient;
+    /** The ChatClient without a system prompt, used for turns whose system prompt and instruction are cached. */
+    private final ChatClient cachedChatClient;
     /** The Mapper used to convert between Message and MessageDto objects. */
     private final Mapper<Message, MessageDto> mapper;
     /** The instruction prompt for the chat agent, loaded from the classpath resource. */
     private final String instruction;
+    /** The scheduler the blocking model stream is subscribed on. */
+    private final Scheduler blockingCallScheduler;
+    /** The service selecting the part of the conversation history sent to the chat agent. */
+    private final ConversationHistoryService historyService;
+    /** The service caching the system prompt and the instruction at the provider. */
+    private final ChatContextCacheService contextCache;
+    /** The service building the compact context of the recipe. */
+    private final RecipeContextService recipeContextService;
 
     /**
      * Constructor for GeminiRecipeChatService that initializes the ChatClient and instruction prompt.
@@ -42,16 +83,31 @@ public class GeminiRecipeChatService implements RecipeChatService {
      * @param chatClient the ChatClient to be used for recipe chat interactions, injected by Spring with the qualifier "recipeChatAgent"
      * @param instruction the instruction prompt for the chat agent, injected by Spring with the qualifier "agentUserInstruction"
      * @param mapper the Mapper used to convert between Message and MessageDto objects
+     * @param blockingCallScheduler the scheduler the model stream is subscribed on, injected by Spring with the qualifier "blockingCallScheduler"
+     * @param historyService the service selecting the part of the conversation history sent to the chat agent
+     * @param cachedChatClient the ChatClient used for turns with cached context, injected by Spring with the qualifier "cachedRecipeChatAgent"
+     * @param contextCache the service caching the system prompt and the instruction at the provider
+     * @param recipeContextService the service building the compact context of the recipe
      */
     public GeminiRecipeChatService(
             @Qualifier("recipeChatAgent") ChatClient chatClient,
             @Qualifier("agentUserInstruction") String instruction,
-            Mapper<Message, MessageDto> mapper
+            Mapper<Message, MessageDto> mapper,
+            @Qualifier("blockingCallScheduler") Scheduler blockingCallScheduler,
+            ConversationHistoryService historyService,
+            @Qualifier("cachedRecipeChatAgent") ChatClient cachedChatClient,
+            ChatContextCacheService contextCache,
+            RecipeContextService recipeContextService
     ) {
         log.info("Creating Gemini recipe chat service...");
         this.chatClient = chatClient;
         this.instruction = instruction;
         this.mapper = mapper;
+        this.blockingCallScheduler = blockingCallScheduler;
+        this.historyService = historyService;
+        this.cachedChatClient = cachedChatClient;
+        this.contextCache = contextCache;
+        this.recipeContextService = recipeContextService;
     }
 
     /**
@@ -63,35 +119,312 @@ public class GeminiRecipeChatService implements RecipeChatService {
     @Override
     public ChatAgentResponseDto chat(RecipeChatRequestDto recipeChatRequestDto) {
         log.info("Gemini recipe chat request received");
-        ChatResponse response = callAgent(recipeChatRequestDto);
-        MetadataDto metadataDto = extractMetadata(response);
+        RecipeContext context = recipeContextService.context(recipeChatRequestDto.schema());
+        ConversationWindow window = buildConversation(recipeChatRequestDto, context);
+        ChatResponse response = callAgent(withRelevantSteps(window.messages(), context));
+        MetadataDto metadataDto = extractMetadata(response, window);
         return new ChatAgentResponseDto(response.getResult().getOutput().getText(), metadataDto);
     }
 
     /**
-     * Calls the Gemini chat agent with the provided chat request information and returns the chat response.
+     * Streams the chat agent response for the given request. Each emitted ChatAgentResponseDto carries the text
+     * fragment generated since the previous one, while metadata is attached only to fragments reporting token usage.
+     * The underlying model stream is subscribed on the blocking call scheduler, a virtual thread per stream when
+     * virtual threads are enabled, so the caller's thread is never held for the duration of the generation.
      *
-     * @param request the data transfer object containing the chat request information, including language, schema, and conversation history
+     * @param recipeChatRequestDto the data transfer object containing the chat request information, including language, schema, and conversation history
+     * @return a Flux of ChatAgentResponseDto containing consecutive text fragments of the generated response
+     */
+    @Override
+    public Flux<ChatAgentResponseDto> stream(RecipeChatRequestDto recipeChatRequestDto) {
+        log.info("Gemini recipe chat stream request received");
+        return Flux.defer(() -> {
+            RecipeContext context = recipeContextService.context(recipeChatRequestDto.schema());
+            ConversationWindow window = buildConversation(recipeChatRequestDto, context);
+            return streamAgent(withRelevantSteps(window.messages(), context))
+                .map(response -> new ChatAgentResponseDto(extractText(response), extractStreamMetadata(response, window)));
+        })
+            .subscribeOn(blockingCallScheduler);
+    }
+
+    /**
+     * Opens a chat session about the given recipe, with the recipe context built and the instruction rendered and
+     * mapped once for all turns.
+     *
+     * @param id the identifier of the session
+     * @param schema the recipe schema the conversation is about
+     * @param language the language of the conversation
+     * @param voice the voice the answers are spoken in
+     * @return the new ChatSession with an empty history
+     */
+    @Override
+    public ChatSession openSession(String id, RecipeSchemaDto schema, Language language, Voice voice) {
+        log.info("Opening Gemini recipe chat session [sessionId={}]", id);
+        RecipeContext context = recipeContextService.context(schema);
+        Message sessionInstruction = mapper.mapFrom(new MessageDto(Role.USER, renderInstruction(language, context)));
+        return new ChatSession(id, language, voice, sessionInstruction, context);
+    }
+
+    /**
+     * Answers the next message of a chat session, sending the windowed conversation of the session followed by the
+     * new message, and appends the turn to the history.
+     *
+     * @param session the chat session
+     * @param message the new message of the user
+     * @return a ChatAgentResponseDto containing the generated response text and associated metadata
+     */
+    @Override
+    public ChatAgentResponseDto chat(ChatSession session, String message) {
+        log.info("Gemini recipe chat session request received [sessionId={}]", session.getId());
+        Message userMessage = mapper.mapFrom(new MessageDto(Role.USER, message));
+        ConversationWindow window = historyService.window(session.getInstruction(), session.history());
+        ChatResponse response = callAgent(withRelevantSteps(window.followedBy(userMessage), session.getContext()));
+        MetadataDto metadataDto = extractMetadata(response, window);
+        String answer = response.getResult().getOutput().getText();
+        session.append(userMessage, mapper.mapFrom(new MessageDto(Role.ASSISTANT, answer)));
+        return new ChatAgentResponseDto(answer, metadataDto);
+    }
+
+    /**
+     * Streams the answer to the next message of a chat session, sending the windowed conversation of the session
+     * followed by the new message. The fragments are accumulated and the turn is appended to the history once the
+     * stream completes.
+     *
+     * @param session the chat session
+     * @param message the new message of the user
+     * @return a Flux of ChatAgentResponseDto containing consecutive text fragments of the generated response
+     */
+    @Override
+    public Flux<ChatAgentResponseDto> stream(ChatSession session, String message) {
+        log.info("Gemini recipe chat session stream request received [sessionId={}]", session.getId());
+        return Flux.defer(() -> {
+            Message userMessage = mapper.mapFrom(new MessageDto(Role.USER, message));
+            StringBuilder answer = new StringBuilder();
+            ConversationWindow window = historyService.window(session.getInstruction(), session.history());
+            return streamAgent(withRelevantSteps(window.followedBy(userMessage), session.getContext()))
+                .map(response -> new ChatAgentResponseDto(extractText(response), extractStreamMetadata(response, window)))
+                .doOnNext(fragment -> answer.append(fragment.content()))
+                .doOnComplete(() -> session.append(userMessage, mapper.mapFrom(new MessageDto(Role.ASSISTANT, answer.toString()))));
+        })
+            .subscribeOn(blockingCallScheduler);
+    }
+
+    /**
+     * Calls the Gemini chat agent with the given conversation and returns the chat response. The cached content of the
+     * instruction is used when it is ready; if Gemini rejects it as missing, expired or invalid, the cached content is
+     * invalidated and the conversation is sent in full. Other failures, such as rate limits, server errors and
+     * timeouts, are passed on.
+     *
+     * @param conversation the messages sent to the chat agent, starting with the instruction
      * @return a ChatResponse containing the generated response from the Gemini chat agent
      */
-    private ChatResponse callAgent(RecipeChatRequestDto request) {
+    private ChatResponse callAgent(List<Message> conversation) {
         log.info("Calling Gemini recipe chat service...");
-        String newInstruction = instruction.replace("{language}", request.language().getName()).replace("{schema}", request.schema().content());
-        request.messages().addFirst(new MessageDto(Role.USER, newInstruction));
+        String instruction = instructionText(conversation);
+        Optional<String> cachedContent = lookupCachedContent(instruction);
+        if (cachedContent.isPresent()) {
+            try {
+                return promptWithCachedContent(cachedContent.get(), conversation).call().chatResponse();
+            } catch (RuntimeException e) {
+                if (!isCachedContentRejected(e)) {
+                    throw e;
+                }
+                log.warn("Chat call with cached context rejected, sending the full prompt: {}", e.getMessage());
+                contextCache.invalidate(instruction);
+            }
+        }
         return chatClient.prompt()
-            .messages(preprocessConversationHistory(request.messages()))
+            .messages(conversation)
             .call()
             .chatResponse();
     }
 
+    /**
+     * Streams the response of the Gemini chat agent to the given conversation. The cached content of the instruction
+     * is used when it is ready; if Gemini rejects it before anything is emitted, the cached content is invalidated and
+     * the conversation is streamed in full. Other failures are passed on.
+     *
+     * @param conversation the messages sent to the chat agent, starting with the instruction
+     * @return a Flux of ChatResponse chunks generated by the Gemini chat agent
+     */
+    private Flux<ChatResponse> streamAgent(List<Message> conversation) {
+        String instruction = instructionText(conversation);
+        Flux<ChatResponse> fullPrompt = Flux.defer(() -> chatClient.prompt()
+            .messages(conversation)
+            .stream()
+            .chatResponse());
+        Optional<String> cachedContent = lookupCachedContent(instruction);
+        if (cachedContent.isEmpty()) {
+            return fullPrompt;
+        }
+        AtomicBoolean emitted = new AtomicBoolean();
+        return promptWithCachedContent(cachedContent.get(), conversation)
+            .stream()
+            .chatResponse()
+            .doOnNext(response -> emitted.set(true))
+            .onErrorResume(e -> !emitted.get() && isCachedContentRejected(e), e -> {
+                log.warn("Chat stream with cached context rejected, sending the full prompt: {}", e.getMessage());
+                contextCache.invalidate(instruction);
+                return fullPrompt;
+            });
+    }
+
+    /**
+     * Checks whether a call failed because Gemini rejected the referenced cached content, which happens once it has
+     * expired or was deleted. Spring AI wraps the errors of the Gemini client, so the causes of the failure are
+     * searched for the error reported by Gemini.
+     *
+     * @param error the failure of the call with the cached content
+     * @return true if Gemini rejected the cached content, false for any other failure
+     */
+    private static boolean isCachedContentRejected(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ApiException apiException) {
+                String message = String.valueOf(apiException.getMessage()).toLowerCase(Locale.ROOT).replace(" ", "");
+                return CACHED_CONTENT_REJECTION_CODES.contains(apiException.code()) && message.contains("cachedcontent");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the text of the instruction the conversation starts with.
+     *
+     * @param conversation the messages sent to the chat agent, starting with the instruction
+     * @return the text of the instruction, or null if the conversation has no instruction text
+     */
+    private String instructionText(List<Message> conversation) {
+        Message first = conversation.isEmpty() ? null : conversation.getFirst();
+        return first == null ? null : first.getText();
+    }
+
+    /**
+     * Looks up the cached content of the instruction. Conversations without an instruction text are always sent in
+     * full.
+     *
+     * @param instruction the text of the instruction, may be null
+     * @return the name of the cached content, or an empty Optional if it is not ready or there is no instruction
+     */
+    private Optional<String> lookupCachedContent(String instruction) {
+        return instruction == null ? Optional.empty() : contextCache.lookup(instruction);
+    }
+
+    /**
+     * Prepares a prompt referencing the cached content in place of the system prompt and the instruction.
+     *
+     * @param cachedContent the name of the cached content holding the system prompt and the instruction
+     * @param conversation the messages of the conversation, starting with the instruction
+     * @return the request spec sending the conversation after the instruction with the cached content
+     */
+    private ChatClient.ChatClientRequestSpec promptWithCachedContent(String cachedContent, List<Message> conversation) {
+        return cachedChatClient.prompt()
+            .messages(conversation.subList(1, conversation.size()))
+            .options(GoogleGenAiChatOptions.builder()
+                .cachedContentName(cachedContent)
+                .useCachedContent(true)
+                .build());
+    }
+
+    /**
+     * Builds the messages sent to the chat agent: the instruction with the language and recipe context substituted,
+     * followed by the conversation history windowed by the history service. The request's message list is left
+     * untouched.
+     *
+     * @param request the data transfer object containing the chat request information, including language, schema, and conversation history
+     * @param context the compact context of the recipe
+     * @return a ConversationWindow with the messages ready to be sent to the chat agent
+     */
+    private ConversationWindow buildConversation(RecipeChatRequestDto request, RecipeContext context) {
+        Message instruction = mapper.mapFrom(new MessageDto(Role.USER, renderInstruction(request.language(), context)));
+        return historyService.window(instruction, ConversationHistory.of(preprocessConversationHistory(request.messages())));
+    }
+
+    /**
+     * Substitutes the language and the compact recipe context into the instruction of the chat agent.
+     *
+     * @param language the language of the conversation
+     * @param context the compact context of the recipe
+     * @return the instruction ready to be sent to the chat agent
+     */
+    private String renderInstruction(Language language, RecipeContext context) {
+        return instruction.replace("{language}", language.getName()).replace("{schema}", context.text());
+    }
+
+    /**
+     * Inserts the recipe steps relevant to the question right before it, when the steps of the recipe were left out
+     * of the instruction. The question is the last message of the conversation, and the previous answer the last
+     * assistant message before it.
+     *
+     * @param conversation the messages sent to the chat agent, starting with the instruction and ending with the question
+     * @param context the compact context of the recipe
+     * @return the conversation with the relevant steps, or the given conversation if no steps were deferred
+     */
+    private List<Message> withRelevantSteps(List<Message> conversation, RecipeContext context) {
+        if (context.deferredSteps().isEmpty() || conversation.size() < 2) {
+            return conversation;
+        }
+        String question = conversation.getLast().getText();
+        String previousAnswer = conversation.subList(1, conversation.size() - 1).reversed().stream()
+            .filter(message -> message.getMessageType() == MessageType.ASSISTANT)
+            .map(Message::getText)
+            .findFirst()
+            .orElse(null);
+        return recipeContextService.relevantSteps(context, question, previousAnswer)
+            .map(steps -> {
+                List<Message> messages = new ArrayList<>(conversation);
+                messages.add(messages.size() - 1, mapper.mapFrom(new MessageDto(Role.USER, steps)));
+                return (List<Message>) messages;
+            })
+            .orElse(conversation);
+    }
+
+    /**
+     * Extracts the generated text from a single chat response, returning an empty String when the response carries no output.
+     *
+     * @param response the ChatResponse from which to extract the text
+     * @return the generated text, or an empty String if none is present
+     */
+    private String extractText(ChatResponse response) {
+        return Optional.ofNullable(response)
+            .map(ChatResponse::getResult)
+            .map(Generation::getOutput)
+            .map(AbstractMessage::getText)
+            .orElse("");
+    }
+
+    /**
+     * Extracts metadata from a streamed chat response. Unlike {@link #extractMetadata(ChatResponse, ConversationWindow)} it does not fail
+     * when usage is absent, because intermediate stream chunks usually do not report it.
+     *
+     * @param response the streamed ChatResponse from which to extract metadata
+     * @param window the conversation window the response was generated for
+     * @return a MetadataDto with token usage, or null if the chunk reports no usage
+     */
+    private MetadataDto extractStreamMetadata(ChatResponse response, ConversationWindow window) {
+        return Optional.ofNullable(response)
+            .map(ChatResponse::getMetadata)
+            .filter(meta -> meta.getUsage() != null && meta.getUsage().getTotalTokens() != null && meta.getUsage().getTotalTokens() > 0)
+            .map(meta -> new MetadataDto(
+                meta.getUsage().getPromptTokens(),
+                meta.getUsage().getCompletionTokens(),
+                meta.getUsage().getTotalTokens(),
+                meta.getModel(),
+                window.historyTokens(),
+                window.sentHistoryTokens(),
+                cachedTokens(meta.getUsage())
+            ))
+            .orElse(null);
+    }
+
     /**
      * Extracts metadata from the given chat response and returns it as a MetadataDto.
      *
      * @param response the ChatResponse from which to extract metadata
-     * @return a MetadataDto containing the extracted metadata information, including token usage and model details
+     * @param window the conversation window the response was generated for
+     * @return a MetadataDto containing the extracted metadata information, including token usage, model details and the estimated tokens of the history
      * @throws RecipeChatException if the metadata cannot be retrieved from the chat response
      */
-    private MetadataDto extractMetadata(ChatResponse response) {
+    private MetadataDto extractMetadata(ChatResponse response, ConversationWindow window) {
         log.info("Extract metadata from chat response");
         return Optional.ofNullable(response)
             .map(ChatResponse::getMetadata)
@@ -101,12 +434,25 @@ public class GeminiRecipeChatService implements RecipeChatService {
                     usage.getPromptTokens(),
                     usage.getCompletionTokens(),
                     usage.getTotalTokens(),
-                    meta.getModel()
+                    meta.getModel(),
+                    window.historyTokens(),
+                    window.sentHistoryTokens(),
+                    cachedTokens(usage)
                 );
             })
             .orElseThrow(() -> new RecipeChatException("Failed to retrieve metadata from chat response"));
     }
 
+    /**
+     * Returns the number of input tokens served from the provider's context cache, explicit or implicit.
+     *
+     * @param usage the usage reported by the model
+     * @return the number of cached input tokens, or null if the usage does not report any
+     */
+    private Integer cachedTokens(Usage usage) {
+        return usage instanceof GoogleGenAiUsage googleUsage ? googleUsage.getCachedContentTokenCount() : null;
+    }
+
     /**
      * Preprocesses the conversation history by mapping each MessageDto to a Message object using the provided mapper.
      *
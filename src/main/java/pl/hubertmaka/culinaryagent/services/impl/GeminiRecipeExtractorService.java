@@ -4,25 +4,35 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.messages.AbstractMessage;
+import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.metadata.Usage;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.content.Media;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import pl.hubertmaka.culinaryagent.caches.RecipeExtractionCache;
+import pl.hubertmaka.culinaryagent.caches.SimilarImageIndex;
 import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaDto;
 import pl.hubertmaka.culinaryagent.mappers.Mapper;
 import pl.hubertmaka.culinaryagent.domain.dtos.MetadataDto;
 import pl.hubertmaka.culinaryagent.domain.dtos.RecipeDataRequestDto;
 import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaResponseDto;
+import pl.hubertmaka.culinaryagent.domain.enums.ExtractionPath;
+import pl.hubertmaka.culinaryagent.domain.enums.Language;
 import pl.hubertmaka.culinaryagent.domain.enums.RecipeSource;
+import pl.hubertmaka.culinaryagent.domain.models.ImageUpload;
 import pl.hubertmaka.culinaryagent.exceptions.RecipeExtractionException;
 import pl.hubertmaka.culinaryagent.exceptions.UnsupportedSchemaException;
 import pl.hubertmaka.culinaryagent.services.RecipeExtractorService;
 import pl.hubertmaka.culinaryagent.strategies.RecipeInputStrategy;
+import pl.hubertmaka.culinaryagent.utils.HashUtils;
 
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 /**
  * Service implementation for extracting recipe information using a Gemini-based chat client.
@@ -32,6 +42,8 @@ import java.util.Optional;
 public class GeminiRecipeExtractorService implements RecipeExtractorService {
     /** Logger for logging information and debugging purposes. */
     private static final Logger log = LoggerFactory.getLogger(GeminiRecipeExtractorService.class);
+    /** The model name reported for recipes read from structured data, which consume no tokens. */
+    private static final String STRUCTURED_DATA_MODEL = "schema.org";
     /** The ChatClient used to interact with the Gemini model for recipe extraction. */
     private final ChatClient chatClient;
     /** The RecipeSchemaConverter used to convert the raw text response from the ChatClient into a structured RecipeSchemaDto. */
@@ -40,22 +52,53 @@ public class GeminiRecipeExtractorService implements RecipeExtractorService {
     private final List<RecipeInputStrategy> strategies;
     /** The instruction prompt for the recipe extractor agent, loaded from the classpath resource. */
     private final String instruction;
+    /** The cache of extraction results addressed by the hash of the normalized input. */
+    private final RecipeExtractionCache extractionCache;
+    /** The index of the recipes extracted from images, addressed by the perceptual hash of the image. */
+    private final SimilarImageIndex similarImageIndex;
+    /** The fingerprint of the extractor prompts, part of every cache key. */
+    private final String promptFingerprint;
+    /** The name of the Gemini model used for extraction, part of every cache key. */
+    private final String modelName;
 
+    /**
+     * Constructor for GeminiRecipeExtractorService.
+     *
+     * @param chatClient the ChatClient to be used for recipe extraction, injected by Spring with the qualifier "recipeExtractorAgent"
+     * @param instruction the instruction prompt for the extractor agent, injected by Spring with the qualifier "extractorUserInstruction"
+     * @param mapper the Mapper used to convert the raw model output into a RecipeSchemaDto
+     * @param strategies the strategies handling the different types of recipe inputs
+     * @param extractionCache the cache of extraction results
+     * @param similarImageIndex the index of the recipes extracted from images
+     * @param promptFingerprint the fingerprint of the extractor prompts, injected by Spring with the qualifier "extractorPromptFingerprint"
+     * @param modelName the name of the Gemini model used for extraction
+     */
     public GeminiRecipeExtractorService(
             @Qualifier("recipeExtractorAgent") ChatClient chatClient,
             @Qualifier("extractorUserInstruction") String instruction,
             Mapper<RecipeSchemaDto, String> mapper,
-            List<RecipeInputStrategy> strategies
+            List<RecipeInputStrategy> strategies,
+            RecipeExtractionCache extractionCache,
+            SimilarImageIndex similarImageIndex,
+            @Qualifier("extractorPromptFingerprint") String promptFingerprint,
+            @Value("${spring.ai.google.genai.chat.options.model}") String modelName
     ) {
         log.info("Creating Gemini recipe extractor service...");
         this.chatClient = chatClient;
         this.instruction = instruction;
         this.mapper = mapper;
         this.strategies = strategies;
+        this.extractionCache = extractionCache;
+        this.similarImageIndex = similarImageIndex;
+        this.promptFingerprint = promptFingerprint;
+        this.modelName = modelName;
     }
 
     /**
      * Extracts recipe information from the provided recipe data and returns a structured recipe schema.
+     * Results are served from the extraction cache when the same normalized input was extracted before
+     * with the same language, model and prompt version. Sources embedding a complete structured recipe are
+     * extracted without calling the model, and images similar to an image extracted before are served its recipe.
      *
      * @param recipeSchema The data transfer object containing the recipe data to be extracted.
      * @return A RecipeSchemaDto containing the structured recipe information extracted from the input data.
@@ -63,10 +106,34 @@ public class GeminiRecipeExtractorService implements RecipeExtractorService {
     @Override
     public RecipeSchemaResponseDto extract(RecipeDataRequestDto recipeSchema) {
         log.info("Extracting recipe using GeminiRecipeExtractorService...");
-        RecipeInputStrategy strategy = getAvailableStrategy(recipeSchema);
-        ChatResponse response = callAgent(strategy, recipeSchema);
-        MetadataDto metadata = extractMetadata(response);
-        return extractSchema(response, metadata);
+        RecipeInputStrategy strategy = getAvailableStrategy(recipeSchema.contentType());
+        String cacheKey = createCacheKey(strategy, recipeSchema);
+        return extractionCache.get(cacheKey, () -> strategy.extractStructured(recipeSchema)
+                .map(this::createStructuredResponse)
+                .orElseGet(() -> extractMessage(strategy.createMessage(recipeSchema), recipeSchema.language())));
+    }
+
+    /**
+     * Extracts recipe information from an uploaded image. Results are cached under the hash of the image bytes,
+     * computed while the image was uploaded, together with the language, model and prompt version, and images
+     * similar to an image extracted before are served its recipe.
+     *
+     * @param image The uploaded image, spooled to a temporary file.
+     * @param language The language the recipe is extracted in.
+     * @return A RecipeSchemaDto containing the structured recipe information extracted from the image.
+     */
+    @Override
+    public RecipeSchemaResponseDto extractImage(ImageUpload image, Language language) {
+        log.info("Extracting recipe from uploaded image using GeminiRecipeExtractorService...");
+        RecipeInputStrategy strategy = getAvailableStrategy(RecipeSource.IMAGE);
+        String cacheKey = HashUtils.sha256Hex(
+                image.sha256(),
+                RecipeSource.IMAGE.name(),
+                language.name(),
+                modelName,
+                promptFingerprint
+        );
+        return extractionCache.get(cacheKey, () -> extractMessage(strategy.createUploadMessage(image), language));
     }
 
     /**
@@ -80,36 +147,91 @@ public class GeminiRecipeExtractorService implements RecipeExtractorService {
     }
 
     /**
-     * Retrieves the appropriate RecipeInputStrategy based on the content type of the provided recipe data.
+     * Retrieves the appropriate RecipeInputStrategy based on the content type of the recipe data.
      *
-     * @param recipe the recipe data for which to find a supporting strategy
-     * @return the RecipeInputStrategy that supports the content type of the provided recipe data
-     * @throws UnsupportedSchemaException if no strategy supports the content type of the provided recipe data
+     * @param contentType the content type for which to find a supporting strategy
+     * @return the RecipeInputStrategy that supports the content type
+     * @throws UnsupportedSchemaException if no strategy supports the content type
      */
-    private RecipeInputStrategy getAvailableStrategy(RecipeDataRequestDto recipe) {
+    private RecipeInputStrategy getAvailableStrategy(RecipeSource contentType) {
         log.info("Getting available strategy...");
         return strategies.stream()
-                .filter(s -> s.supports(recipe.contentType()))
-                .filter(s -> getSupportedSources().contains(recipe.contentType()))
+                .filter(s -> s.supports(contentType))
+                .filter(s -> getSupportedSources().contains(contentType))
                 .findFirst()
-                .orElseThrow(() -> new UnsupportedSchemaException("Unsupported source: " + recipe.contentType()));
+                .orElseThrow(() -> new UnsupportedSchemaException("Unsupported source: " + contentType));
+    }
+
+    /**
+     * Creates the content-addressed cache key of an extraction: the hash of the normalized content together with
+     * the recipe source, the language, the model name and the prompt fingerprint.
+     *
+     * @param strategy the RecipeInputStrategy used to normalize the content
+     * @param recipeSchema the recipe data to be extracted
+     * @return a String containing the cache key of the extraction
+     */
+    private String createCacheKey(RecipeInputStrategy strategy, RecipeDataRequestDto recipeSchema) {
+        return HashUtils.sha256Hex(
+                strategy.normalizeContent(recipeSchema),
+                recipeSchema.contentType().name(),
+                recipeSchema.language().name(),
+                modelName,
+                promptFingerprint
+        );
+    }
+
+    /**
+     * Creates the response for a recipe read from structured data, reporting no token usage.
+     *
+     * @param recipeSchemaDto the recipe read from structured data
+     * @return a RecipeSchemaResponseDto marked as extracted from structured data
+     */
+    private RecipeSchemaResponseDto createStructuredResponse(RecipeSchemaDto recipeSchemaDto) {
+        log.info("Recipe extracted from structured data, skipping recipe extractor agent");
+        return new RecipeSchemaResponseDto(
+                recipeSchemaDto,
+                new MetadataDto(0, 0, 0, STRUCTURED_DATA_MODEL),
+                ExtractionPath.STRUCTURED_DATA
+        );
+    }
+
+    /**
+     * Extracts the recipe from the message created by a strategy. Messages carrying a single image are looked up in
+     * the similar image index first, so that the model is called only for images not extracted before.
+     *
+     * @param message the message created by the RecipeInputStrategy handling the recipe data
+     * @param language the language the recipe is extracted in
+     * @return a RecipeSchemaResponseDto containing the extracted recipe and its metadata
+     */
+    private RecipeSchemaResponseDto extractMessage(UserMessage message, Language language) {
+        Supplier<RecipeSchemaResponseDto> extraction = () -> {
+            ChatResponse response = callAgent(message, language);
+            MetadataDto metadata = extractMetadata(response);
+            return extractSchema(response, metadata);
+        };
+        List<Media> media = message.getMedia();
+        if (media.size() != 1 || !(media.getFirst().getData() instanceof byte[] image)) {
+            return extraction.get();
+        }
+        String scope = HashUtils.sha256Hex(language.name(), modelName, promptFingerprint);
+        return similarImageIndex.get(image, scope, extraction);
     }
 
     /**
-     * Calls the recipe extractor agent with the appropriate strategy and recipe data to obtain a chat response.
+     * Calls the recipe extractor agent with the message created by a strategy to obtain a chat response.
      *
-     * @param strategy the RecipeInputStrategy to use for creating the message for the agent
-     * @param recipeSchema the recipe data to be extracted, which will be used to create the message for the agent
+     * @param message the message created by the RecipeInputStrategy handling the recipe data
+     * @param language the language the recipe is extracted in
      * @return the ChatResponse obtained from calling the recipe extractor agent
      */
-    private ChatResponse callAgent(RecipeInputStrategy strategy, RecipeDataRequestDto recipeSchema) {
+    private ChatResponse callAgent(UserMessage message, Language language) {
         log.info("Calling recipe extractor agent...");
         return chatClient.prompt()
                 .user(u -> u
                         .text(instruction)
-                        .params(Map.of("language", recipeSchema.language().getName()))
+                        .params(Map.of("language", language.getName()))
                 )
-                .messages(strategy.createMessage(recipeSchema))
+                .messages(message)
                 .call()
                 .chatResponse();
     }
@@ -0,0 +1,430 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import org.w3c.dom.Node;
+import pl.hubertmaka.culinaryagent.domain.enums.FileExtension;
+import pl.hubertmaka.culinaryagent.exceptions.CapacityExceededException;
+import pl.hubertmaka.culinaryagent.exceptions.RecipeExtractionException;
+import pl.hubertmaka.culinaryagent.services.ImagePreprocessorService;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Implementation of the ImagePreprocessorService based on ImageIO. Phone photos are turned upright according to
+ * their EXIF orientation, scaled down so that their longer side does not exceed the configured maximum dimension,
+ * optionally converted to grayscale, and re-encoded in their own format: JPEG at the configured quality, PNG at the
+ * highest compression. Images already small enough and upright are passed through untouched, and images that cannot
+ * be decoded are passed through as well, leaving it to the model to reject them.
+ * <p>
+ * Very large images are decoded with source subsampling, so at most about twice the maximum dimension is held in
+ * memory before the final high-quality downscale. Preprocessing is CPU bound, so it runs on a bounded pool of
+ * platform threads fed by a bounded queue; images that find the queue full are rejected with a
+ * CapacityExceededException. Durations are published as the {@code image.preprocessing.duration} timer and payload
+ * sizes as the {@code image.preprocessing.bytes} summary, tagged {@code stage:original|processed}.
+ */
+@Service
+public class ImageIOPreprocessorService implements ImagePreprocessorService {
+    /** Logger for logging information and debugging purposes. */
+    private static final Logger log = LoggerFactory.getLogger(ImageIOPreprocessorService.class);
+    /** The name of the native metadata format of the JPEG reader. */
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+    /** The marker tag of the APP1 segment carrying EXIF data. */
+    private static final String APP1_MARKER_TAG = "225";
+    /** The header of an EXIF APP1 segment. */
+    private static final byte[] EXIF_HEADER = "Exif\0\0".getBytes(StandardCharsets.ISO_8859_1);
+    /** The EXIF tag holding the orientation of the image. */
+    private static final int ORIENTATION_TAG = 0x0112;
+    /** The EXIF orientation of an upright image. */
+    private static final int UPRIGHT = 1;
+    /** The best PNG compression, as an ImageIO compression quality. */
+    private static final float PNG_BEST_COMPRESSION = 0.0f;
+    /** Whether images are preprocessed at all. */
+    private final boolean enabled;
+    /** The maximum length of the longer side of a preprocessed image, in pixels. */
+    private final int maxDimension;
+    /** Whether images are converted to grayscale. */
+    private final boolean grayscale;
+    /** The quality JPEG images are re-encoded at, between 0 and 1. */
+    private final float jpegQuality;
+    /** The bounded pool of threads preprocessing images, fed by a bounded queue. */
+    private final ThreadPoolExecutor executor;
+    /** The timer of the time images take to preprocess, including the time spent in the queue. */
+    private final Timer duration;
+    /** The distribution of the sizes of the images before preprocessing. */
+    private final DistributionSummary originalBytes;
+    /** The distribution of the sizes of the images after preprocessing. */
+    private final DistributionSummary processedBytes;
+    /** The counter of images rejected because the queue was full. */
+    private final Counter rejectedImages;
+
+    /**
+     * Constructor for ImageIOPreprocessorService.
+     *
+     * @param enabled whether images are preprocessed at all
+     * @param maxDimension the maximum length of the longer side of a preprocessed image, in pixels
+     * @param grayscale whether images are converted to grayscale
+     * @param jpegQuality the quality JPEG images are re-encoded at, between 0 and 1
+     * @param threads the number of images preprocessed at the same time
+     * @param queueCapacity the maximum number of images waiting for a thread
+     * @param meterRegistry the registry the preprocessing metrics are published to, injected by Spring
+     */
+    public ImageIOPreprocessorService(
+            @Value("${culinary-agent.image.preprocessing.enabled}") boolean enabled,
+            @Value("${culinary-agent.image.preprocessing.max-dimension}") int maxDimension,
+            @Value("${culinary-agent.image.preprocessing.grayscale}") boolean grayscale,
+            @Value("${culinary-agent.image.preprocessing.jpeg-quality}") float jpegQuality,
+            @Value("${culinary-agent.image.preprocessing.threads}") int threads,
+            @Value("${culinary-agent.image.preprocessing.queue-capacity}") int queueCapacity,
+            MeterRegistry meterRegistry
+    ) {
+        log.info("Creating image preprocessor service [enabled={}, maxDimension={}, grayscale={}, jpegQuality={}, threads={}]...",
+                enabled, maxDimension, grayscale, jpegQuality, threads);
+        this.enabled = enabled;
+        this.maxDimension = maxDimension;
+        this.grayscale = grayscale;
+        this.jpegQuality = jpegQuality;
+        this.executor = new ThreadPoolExecutor(
+                threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name("image-preprocessing-", 0).daemon(true).factory(),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        this.duration = Timer.builder("image.preprocessing.duration")
+                .description("Time images take to preprocess, including the time spent in the queue")
+                .register(meterRegistry);
+        this.originalBytes = DistributionSummary.builder("image.preprocessing.bytes")
+                .description("Size of the images sent to the model")
+                .baseUnit("bytes")
+                .tag("stage", "original")
+                .register(meterRegistry);
+        this.processedBytes = DistributionSummary.builder("image.preprocessing.bytes")
+                .description("Size of the images sent to the model")
+                .baseUnit("bytes")
+                .tag("stage", "processed")
+                .register(meterRegistry);
+        this.rejectedImages = Counter.builder("image.preprocessing.rejected")
+                .description("Images rejected because the preprocessing queue was full")
+                .register(meterRegistry);
+        Gauge.builder("image.preprocessing.queue.depth", executor, e -> e.getQueue().size())
+                .description("Images waiting for a preprocessing thread")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Preprocesses the image on the preprocessing pool and waits for the result.
+     *
+     * @param image the image to prepare
+     * @param fileExtension the type of the image
+     * @return the prepared image, or the given image if it needs no preparation or cannot be decoded
+     * @throws CapacityExceededException if the preprocessing queue is full
+     * @throws RecipeExtractionException if preprocessing fails unexpectedly or the thread is interrupted
+     */
+    @Override
+    public Resource preprocess(Resource image, FileExtension fileExtension) {
+        if (!enabled) {
+            return image;
+        }
+        long startedNanos = System.nanoTime();
+        Future<Resource> task;
+        try {
+            task = executor.submit(() -> transform(image, fileExtension));
+        } catch (RejectedExecutionException e) {
+            rejectedImages.increment();
+            log.warn("Image rejected, the preprocessing queue is full [queueDepth={}]", executor.getQueue().size());
+            throw new CapacityExceededException("Too many images are being processed, please retry later");
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RecipeExtractionException("Interrupted while preprocessing the image");
+        } catch (ExecutionException e) {
+            throw new RecipeExtractionException("Failed to preprocess the image: " + e.getCause().getMessage());
+        } finally {
+            duration.record(System.nanoTime() - startedNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Stops the preprocessing threads when the application shuts down.
+     */
+    @PreDestroy
+    public void shutdown() {
+        log.info("Shutting down image preprocessing threads [queued={}]...", executor.getQueue().size());
+        executor.shutdownNow();
+    }
+
+    /**
+     * Decodes, orients, scales, converts and re-encodes the image.
+     *
+     * @param image the image to prepare
+     * @param fileExtension the type of the image
+     * @return the prepared image, or the given image if it needs no preparation or cannot be decoded
+     * @throws IOException if the image cannot be read or encoded
+     */
+    private Resource transform(Resource image, FileExtension fileExtension) throws IOException {
+        long sizeBefore = image.contentLength();
+        try (InputStream input = image.getInputStream();
+             ImageInputStream imageInput = new MemoryCacheImageInputStream(input)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInput);
+            if (!readers.hasNext()) {
+                log.warn("Image cannot be decoded, sending it unchanged [bytes={}]", sizeBefore);
+                return image;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInput, true, false);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int orientation = readOrientation(reader);
+                double scale = Math.min(1.0, (double) maxDimension / Math.max(width, height));
+                if (scale == 1.0 && orientation == UPRIGHT && !grayscale) {
+                    return image;
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, Math.max(width, height) / (2 * maxDimension));
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                BufferedImage decoded = reader.read(0, param);
+                int targetWidth = Math.max(1, (int) Math.round(width * scale));
+                int targetHeight = Math.max(1, (int) Math.round(height * scale));
+                BufferedImage processed = render(decoded, targetWidth, targetHeight, orientation, fileExtension);
+                byte[] encoded = encode(processed, fileExtension);
+                originalBytes.record(sizeBefore);
+                processedBytes.record(encoded.length);
+                log.info("Image preprocessed [from={}x{}, to={}x{}, orientation={}, bytesBefore={}, bytesAfter={}]",
+                        width, height, processed.getWidth(), processed.getHeight(), orientation, sizeBefore, encoded.length);
+                return new ByteArrayResource(encoded);
+            } catch (IOException | IllegalArgumentException e) {
+                log.warn("Image cannot be decoded, sending it unchanged [bytes={}]: {}", sizeBefore, e.getMessage());
+                return image;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Draws the image at the target size onto a new image, turned upright and converted to the output color model.
+     * Images with transparency keep it when they are re-encoded as PNG, and are laid on white otherwise.
+     *
+     * @param source the decoded image
+     * @param width the width of the scaled image, before it is turned upright
+     * @param height the height of the scaled image, before it is turned upright
+     * @param orientation the EXIF orientation of the image
+     * @param fileExtension the type of the image
+     * @return the scaled, upright image
+     */
+    private BufferedImage render(BufferedImage source, int width, int height, int orientation, FileExtension fileExtension) {
+        boolean transparent = source.getColorModel().hasAlpha() && fileExtension == FileExtension.PNG;
+        int type = grayscale ? BufferedImage.TYPE_BYTE_GRAY : transparent ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        boolean transposed = orientation >= 5;
+        BufferedImage target = new BufferedImage(transposed ? height : width, transposed ? width : height, type);
+        BufferedImage scaled = halveDown(source, width, height);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            applyQualityHints(graphics);
+            if (!transparent) {
+                graphics.setColor(Color.WHITE);
+                graphics.fillRect(0, 0, target.getWidth(), target.getHeight());
+            }
+            graphics.transform(orientationTransform(orientation, width, height));
+            graphics.drawImage(scaled, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    /**
+     * Halves the image repeatedly while it is at least twice the target size, so that the final bilinear scaling
+     * averages all source pixels instead of skipping most of them, which would break thin strokes of text.
+     *
+     * @param source the image to scale down
+     * @param width the target width
+     * @param height the target height
+     * @return the image scaled down to less than twice the target size
+     */
+    private static BufferedImage halveDown(BufferedImage source, int width, int height) {
+        BufferedImage current = source;
+        int type = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        while (current.getWidth() / 2 >= width && current.getHeight() / 2 >= height) {
+            BufferedImage half = new BufferedImage(current.getWidth() / 2, current.getHeight() / 2, type);
+            Graphics2D graphics = half.createGraphics();
+            try {
+                applyQualityHints(graphics);
+                graphics.drawImage(current, 0, 0, half.getWidth(), half.getHeight(), null);
+            } finally {
+                graphics.dispose();
+            }
+            current = half;
+        }
+        return current;
+    }
+
+    /**
+     * Sets the rendering hints favouring quality over speed.
+     *
+     * @param graphics the graphics to configure
+     */
+    private static void applyQualityHints(Graphics2D graphics) {
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        graphics.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
+    }
+
+    /**
+     * Creates the transform turning an image of the given size upright, as described by its EXIF orientation.
+     *
+     * @param orientation the EXIF orientation, from 1 to 8
+     * @param width the width of the image as stored
+     * @param height the height of the image as stored
+     * @return the transform mapping the stored image onto the upright image
+     */
+    private static AffineTransform orientationTransform(int orientation, int width, int height) {
+        return switch (orientation) {
+            case 2 -> new AffineTransform(-1, 0, 0, 1, width, 0);
+            case 3 -> new AffineTransform(-1, 0, 0, -1, width, height);
+            case 4 -> new AffineTransform(1, 0, 0, -1, 0, height);
+            case 5 -> new AffineTransform(0, 1, 1, 0, 0, 0);
+            case 6 -> new AffineTransform(0, 1, -1, 0, height, 0);
+            case 7 -> new AffineTransform(0, -1, -1, 0, height, width);
+            case 8 -> new AffineTransform(0, -1, 1, 0, 0, width);
+            default -> new AffineTransform();
+        };
+    }
+
+    /**
+     * Encodes the image in its own format: JPEG at the configured quality, PNG at the highest compression.
+     *
+     * @param image the image to encode
+     * @param fileExtension the type of the image
+     * @return the encoded image
+     * @throws IOException if the image cannot be encoded
+     */
+    private byte[] encode(BufferedImage image, FileExtension fileExtension) throws IOException {
+        boolean png = fileExtension == FileExtension.PNG;
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(png ? "png" : "jpeg").next();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream imageOutput = new MemoryCacheImageOutputStream(output)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(png ? PNG_BEST_COMPRESSION : jpegQuality);
+            }
+            writer.setOutput(imageOutput);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Reads the EXIF orientation of a JPEG image from its APP1 segment.
+     *
+     * @param reader the reader positioned on the image
+     * @return the EXIF orientation, or 1 if the image is not a JPEG or has no orientation
+     * @throws IOException if the metadata cannot be read
+     */
+    private static int readOrientation(ImageReader reader) throws IOException {
+        IIOMetadata metadata = reader.getImageMetadata(0);
+        if (metadata == null || !JPEG_METADATA_FORMAT.equals(metadata.getNativeMetadataFormatName())) {
+            return UPRIGHT;
+        }
+        Node root = metadata.getAsTree(JPEG_METADATA_FORMAT);
+        for (Node section = root.getFirstChild(); section != null; section = section.getNextSibling()) {
+            if (!"markerSequence".equals(section.getNodeName())) {
+                continue;
+            }
+            for (Node marker = section.getFirstChild(); marker != null; marker = marker.getNextSibling()) {
+                if ("unknown".equals(marker.getNodeName())
+                        && marker instanceof IIOMetadataNode node
+                        && APP1_MARKER_TAG.equals(node.getAttribute("MarkerTag"))
+                        && node.getUserObject() instanceof byte[] data) {
+                    int orientation = parseExifOrientation(data);
+                    if (orientation != UPRIGHT) {
+                        return orientation;
+                    }
+                }
+            }
+        }
+        return UPRIGHT;
+    }
+
+    /**
+     * Parses the orientation tag from the first image directory of an EXIF APP1 segment.
+     *
+     * @param segment the content of the APP1 segment
+     * @return the EXIF orientation, or 1 if the segment holds no valid orientation
+     */
+    private static int parseExifOrientation(byte[] segment) {
+        if (segment.length < EXIF_HEADER.length + 8
+                || !Arrays.equals(segment, 0, EXIF_HEADER.length, EXIF_HEADER, 0, EXIF_HEADER.length)) {
+            return UPRIGHT;
+        }
+        ByteBuffer tiff = ByteBuffer.wrap(segment, EXIF_HEADER.length, segment.length - EXIF_HEADER.length).slice();
+        tiff.order(tiff.get(0) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        if (tiff.getShort(2) != 42) {
+            return UPRIGHT;
+        }
+        int directory = tiff.getInt(4);
+        if (directory < 8 || directory + 2 > tiff.limit()) {
+            return UPRIGHT;
+        }
+        int entries = Short.toUnsignedInt(tiff.getShort(directory));
+        for (int i = 0; i < entries; i++) {
+            int entry = directory + 2 + i * 12;
+            if (entry + 12 > tiff.limit()) {
+                break;
+            }
+            if (Short.toUnsignedInt(tiff.getShort(entry)) == ORIENTATION_TAG) {
+                int orientation = Short.toUnsignedInt(tiff.getShort(entry + 8));
+                return orientation >= 1 && orientation <= 8 ? orientation : UPRIGHT;
+            }
+        }
+        return UPRIGHT;
+    }
+}
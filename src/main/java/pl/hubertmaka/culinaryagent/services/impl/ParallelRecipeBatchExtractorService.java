@@ -0,0 +1,85 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import pl.hubertmaka.culinaryagent.domain.dtos.BatchExtractionRequestDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.BatchExtractionResultDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.ExtractionErrorDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeDataRequestDto;
+import pl.hubertmaka.culinaryagent.services.RecipeBatchExtractorService;
+import pl.hubertmaka.culinaryagent.services.RecipeExtractorService;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.List;
+
+/**
+ * Implementation of the RecipeBatchExtractorService that fans the recipes of a batch out to the RecipeExtractorService
+ * with a bounded number of extractions in flight. Outcomes are emitted in completion order, and the failure of one
+ * recipe is reported as its outcome instead of failing the whole batch.
+ */
+@Service
+public class ParallelRecipeBatchExtractorService implements RecipeBatchExtractorService {
+    /** Logger for logging information and debugging purposes. */
+    private static final Logger log = LoggerFactory.getLogger(ParallelRecipeBatchExtractorService.class);
+    /** The service responsible for extracting a single recipe. */
+    private final RecipeExtractorService recipeExtractorService;
+    /** The scheduler the blocking extractions run on. */
+    private final Scheduler blockingCallScheduler;
+    /** The maximum number of extractions of a single batch in flight at the same time. */
+    private final int concurrency;
+
+    /**
+     * Constructor for ParallelRecipeBatchExtractorService.
+     *
+     * @param recipeExtractorService the service to be used for extracting single recipes, injected by Spring
+     * @param blockingCallScheduler the scheduler the extractions run on, injected by Spring with the qualifier "blockingCallScheduler"
+     * @param concurrency the maximum number of extractions of a single batch in flight at the same time
+     */
+    public ParallelRecipeBatchExtractorService(
+            RecipeExtractorService recipeExtractorService,
+            @Qualifier("blockingCallScheduler") Scheduler blockingCallScheduler,
+            @Value("${culinary-agent.extraction.batch.concurrency}") int concurrency
+    ) {
+        log.info("Creating batch recipe extractor service [concurrency={}]...", concurrency);
+        this.recipeExtractorService = recipeExtractorService;
+        this.blockingCallScheduler = blockingCallScheduler;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Extracts every recipe of the batch, running at most the configured number of extractions at the same time,
+     * and emits the outcome of each extraction as soon as it finishes.
+     *
+     * @param batchExtractionRequest the data transfer object containing the recipe data to be extracted
+     * @return a Flux of BatchExtractionResultDto, in completion order, tagged with the index of the recipe
+     */
+    @Override
+    public Flux<BatchExtractionResultDto> extract(BatchExtractionRequestDto batchExtractionRequest) {
+        List<RecipeDataRequestDto> recipes = batchExtractionRequest.recipes();
+        log.info("Extracting batch of {} recipes...", recipes.size());
+        return Flux.range(0, recipes.size())
+                .flatMap(index -> extract(index, recipes.get(index)), concurrency);
+    }
+
+    /**
+     * Extracts a single recipe of the batch on the blocking call scheduler.
+     *
+     * @param index the index of the recipe in the batch
+     * @param recipe the recipe data to be extracted
+     * @return a Mono of the outcome of the extraction, which never completes with an error
+     */
+    private Mono<BatchExtractionResultDto> extract(int index, RecipeDataRequestDto recipe) {
+        return Mono.fromCallable(() -> recipeExtractorService.extract(recipe))
+                .subscribeOn(blockingCallScheduler)
+                .map(result -> BatchExtractionResultDto.success(index, result))
+                .onErrorResume(e -> {
+                    log.warn("Extraction of batch recipe {} failed: {}", index, e.getMessage(), e);
+                    return Mono.just(BatchExtractionResultDto.failure(index, ExtractionErrorDto.from(e)));
+                });
+    }
+}
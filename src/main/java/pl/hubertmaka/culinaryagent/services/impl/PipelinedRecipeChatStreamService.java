@@ -0,0 +1,376 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import pl.hubertmaka.culinaryagent.domain.dtos.ChatAgentResponseDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.MetadataDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeChatRequestDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeChatResponseChunkDto;
+import pl.hubertmaka.culinaryagent.domain.enums.AudioFormat;
+import pl.hubertmaka.culinaryagent.domain.enums.StreamEvent;
+import pl.hubertmaka.culinaryagent.domain.enums.Voice;
+import pl.hubertmaka.culinaryagent.domain.models.ChatSession;
+import pl.hubertmaka.culinaryagent.exceptions.RecipeChatException;
+import pl.hubertmaka.culinaryagent.services.RecipeChatService;
+import pl.hubertmaka.culinaryagent.services.RecipeChatStreamService;
+import pl.hubertmaka.culinaryagent.services.TextToSpeechService;
+import pl.hubertmaka.culinaryagent.utils.SentenceSplitter;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Implementation of the RecipeChatStreamService that pipelines the chat agent's token stream into text-to-speech.
+ * In pipelined mode the answer is split at sentence boundaries while it is being generated and every sentence is
+ * synthesized as soon as it is complete, so the first audio chunk is sent long before the model finishes.
+ * In sequential mode the whole answer is generated first and then synthesized in a single call.
+ * <p>
+ * The text of the answer is sent as text delta events while it is generated, interleaved with the audio events, so
+ * clients can display it before the audio of the first sentence arrives. The model stream is subscribed once and
+ * shared between the text deltas and text-to-speech.
+ * <p>
+ * The answer is spoken in the audio format negotiated for the request. The audio of every answer is measured per
+ * format: {@code tts.audio.first.byte} is the time from the start of the synthesis to the first audio byte,
+ * {@code tts.audio.size} the bytes of the answer's audio, and {@code tts.audio.rate} the bytes per second sent from
+ * the first audio byte on, all tagged with the {@code format}.
+ */
+@Service
+public class PipelinedRecipeChatStreamService implements RecipeChatStreamService {
+    /** Logger for logging information and debugging purposes. */
+    private static final Logger log = LoggerFactory.getLogger(PipelinedRecipeChatStreamService.class);
+    /** The service responsible for handling chat interactions related to recipes. */
+    private final RecipeChatService recipeChatService;
+    /** The service responsible for converting text to speech for recipe-related interactions. */
+    private final TextToSpeechService textToSpeechService;
+    /** Whether the chat agent's output is synthesized sentence by sentence while it is being generated. */
+    private final boolean pipelined;
+    /** The minimum length of a sentence sent to text-to-speech; shorter sentences are merged with the following ones. */
+    private final int minSentenceLength;
+    /** The audio metrics of every audio format. */
+    private final Map<AudioFormat, AudioMeters> audioMeters = new EnumMap<>(AudioFormat.class);
+
+    /**
+     * Constructor for PipelinedRecipeChatStreamService.
+     *
+     * @param recipeChatService the service to be used for handling chat interactions, injected by Spring
+     * @param textToSpeechService the service to be used for converting text to speech, injected by Spring
+     * @param pipelined whether sentences are synthesized while the answer is being generated
+     * @param minSentenceLength the minimum length of a sentence sent to text-to-speech
+     * @param meterRegistry the registry the audio metrics are published to, injected by Spring
+     */
+    public PipelinedRecipeChatStreamService(
+            RecipeChatService recipeChatService,
+            TextToSpeechService textToSpeechService,
+            @Value("${culinary-agent.chat.pipelined-tts}") boolean pipelined,
+            @Value("${culinary-agent.chat.min-sentence-length}") int minSentenceLength,
+            MeterRegistry meterRegistry
+    ) {
+        log.info("Creating chat stream service [pipelined={}]...", pipelined);
+        this.recipeChatService = recipeChatService;
+        this.textToSpeechService = textToSpeechService;
+        this.pipelined = pipelined;
+        this.minSentenceLength = minSentenceLength;
+        for (AudioFormat audioFormat : AudioFormat.values()) {
+            audioMeters.put(audioFormat, new AudioMeters(
+                    Timer.builder("tts.audio.first.byte")
+                            .description("Time from the start of the synthesis of an answer to its first audio byte")
+                            .tag("format", audioFormat.name())
+                            .register(meterRegistry),
+                    DistributionSummary.builder("tts.audio.size")
+                            .description("Size of the audio of an answer")
+                            .baseUnit("bytes")
+                            .tag("format", audioFormat.name())
+                            .register(meterRegistry),
+                    DistributionSummary.builder("tts.audio.rate")
+                            .description("Bytes of audio per second sent from the first audio byte of an answer")
+                            .baseUnit("bytes/s")
+                            .tag("format", audioFormat.name())
+                            .register(meterRegistry)));
+        }
+    }
+
+    /**
+     * Streams the chat agent's answer as server-sent events: text deltas and ordered audio chunks interleaved,
+     * followed by the agent completion and the text-to-speech completion events.
+     *
+     * @param recipeChatRequestDto the data transfer object containing the chat request information
+     * @param audioFormat the format the answer is spoken in
+     * @return a Flux of ServerSentEvent containing RecipeChatResponseChunkDto objects
+     */
+    @Override
+    public Flux<ServerSentEvent<RecipeChatResponseChunkDto>> stream(RecipeChatRequestDto recipeChatRequestDto, AudioFormat audioFormat) {
+        return pipelined
+                ? streamPipelined(() -> recipeChatService.stream(recipeChatRequestDto), recipeChatRequestDto.voice(), audioFormat)
+                : streamSequentially(recipeChatService.chat(recipeChatRequestDto), recipeChatRequestDto.voice(), audioFormat);
+    }
+
+    /**
+     * Streams the chat agent's answer to the next message of a chat session as server-sent events, in the same way
+     * as {@link #stream(RecipeChatRequestDto, AudioFormat)}, spoken in the voice of the session.
+     *
+     * @param session the chat session
+     * @param message the new message of the user
+     * @param audioFormat the format the answer is spoken in
+     * @return a Flux of ServerSentEvent containing RecipeChatResponseChunkDto objects
+     */
+    @Override
+    public Flux<ServerSentEvent<RecipeChatResponseChunkDto>> stream(ChatSession session, String message, AudioFormat audioFormat) {
+        return pipelined
+                ? streamPipelined(() -> recipeChatService.stream(session, message), session.getVoice(), audioFormat)
+                : streamSequentially(recipeChatService.chat(session, message), session.getVoice(), audioFormat);
+    }
+
+    /**
+     * Streams the chat agent's answer as raw audio bytes. The audio chunks produced by text-to-speech are written
+     * to the output stream as-is and flushed one by one, so no base64 or JSON encoding takes place. The first agent
+     * completion event is returned to the caller so that its metadata can be sent alongside the audio.
+     *
+     * @param recipeChatRequestDto the data transfer object containing the chat request information
+     * @param audioFormat the format the answer is spoken in
+     * @param outputStream the stream the audio bytes are written and flushed to as they arrive
+     * @return a ChatAgentResponseDto containing the full text of the answer and the agent's metadata
+     * @throws IOException if writing to the output stream fails
+     */
+    @Override
+    public ChatAgentResponseDto streamAudio(RecipeChatRequestDto recipeChatRequestDto, AudioFormat audioFormat, OutputStream outputStream) throws IOException {
+        log.info("Streaming chat response as raw audio [format={}]...", audioFormat);
+        return writeAudio(stream(recipeChatRequestDto, audioFormat), outputStream);
+    }
+
+    /**
+     * Streams the chat agent's answer to the next message of a chat session as raw audio bytes, in the same way as
+     * {@link #streamAudio(RecipeChatRequestDto, AudioFormat, OutputStream)}.
+     *
+     * @param session the chat session
+     * @param message the new message of the user
+     * @param audioFormat the format the answer is spoken in
+     * @param outputStream the stream the audio bytes are written and flushed to as they arrive
+     * @return a ChatAgentResponseDto containing the full text of the answer and the agent's metadata
+     * @throws IOException if writing to the output stream fails
+     */
+    @Override
+    public ChatAgentResponseDto streamAudio(ChatSession session, String message, AudioFormat audioFormat, OutputStream outputStream) throws IOException {
+        log.info("Streaming chat session response as raw audio [sessionId={}, format={}]...", session.getId(), audioFormat);
+        return writeAudio(stream(session, message, audioFormat), outputStream);
+    }
+
+    /**
+     * Writes the audio chunks of the events to the output stream as-is, flushing them one by one, and returns the
+     * first agent completion event.
+     *
+     * @param events the events of the spoken answer
+     * @param outputStream the stream the audio bytes are written and flushed to as they arrive
+     * @return a ChatAgentResponseDto containing the full text of the answer and the agent's metadata
+     * @throws IOException if writing to the output stream fails
+     */
+    private ChatAgentResponseDto writeAudio(Flux<ServerSentEvent<RecipeChatResponseChunkDto>> events, OutputStream outputStream) throws IOException {
+        ChatAgentResponseDto agentResponse = null;
+        for (ServerSentEvent<RecipeChatResponseChunkDto> event : events.toIterable(1)) {
+            RecipeChatResponseChunkDto chunk = event.data();
+            if (StreamEvent.AUDIO.getEvent().equals(event.event()) && chunk != null && chunk.audioChunk() != null) {
+                outputStream.write(chunk.audioChunk());
+                outputStream.flush();
+            } else if (StreamEvent.AGENT_COMPLETION.getEvent().equals(event.event()) && agentResponse == null && chunk != null) {
+                agentResponse = chunk.agentResponse();
+            }
+        }
+        return agentResponse;
+    }
+
+    /**
+     * Synthesizes the whole answer, generated beforehand, in a single text-to-speech call. The whole text is sent as
+     * a single text delta before the audio.
+     *
+     * @param agentResponse the complete answer of the chat agent
+     * @param voice the voice the answer is spoken in
+     * @param audioFormat the format the answer is spoken in
+     * @return a Flux of ServerSentEvent containing RecipeChatResponseChunkDto objects
+     */
+    private Flux<ServerSentEvent<RecipeChatResponseChunkDto>> streamSequentially(ChatAgentResponseDto agentResponse, Voice voice, AudioFormat audioFormat) {
+        log.info("Streaming chat response sequentially...");
+        return Flux.just(buildTextDeltaChunk(agentResponse.content()))
+                .concatWith(measure(textToSpeechService.stream(agentResponse.content(), voice, audioFormat), audioFormat)
+                        .map(this::buildAudioChunk))
+                .concatWith(Flux.just(buildAgentMetaChunk(agentResponse)))
+                .concatWith(Flux.just(buildTTSMetaChunk(agentResponse)));
+    }
+
+    /**
+     * Streams the answer from the chat agent, splits it into sentences as it arrives and synthesizes each sentence
+     * while the model keeps generating. Every fragment of the answer is sent as a text delta as soon as it arrives,
+     * interleaved with the audio chunks, which keep the order of the sentences; the completion events are emitted
+     * once the whole answer has been generated and spoken.
+     *
+     * @param answer the supplier of the stream of the answer, subscribed once per subscription
+     * @param voice the voice the answer is spoken in
+     * @param audioFormat the format the answer is spoken in
+     * @return a Flux of ServerSentEvent containing RecipeChatResponseChunkDto objects
+     */
+    private Flux<ServerSentEvent<RecipeChatResponseChunkDto>> streamPipelined(Supplier<Flux<ChatAgentResponseDto>> answer, Voice voice, AudioFormat audioFormat) {
+        log.info("Streaming chat response in pipelined mode...");
+        return Flux.defer(() -> {
+            ResponseAccumulator accumulator = new ResponseAccumulator();
+            return answer.get()
+                    .doOnNext(accumulator::append)
+                    .map(ChatAgentResponseDto::content)
+                    .publish(fragments -> Flux.merge(
+                            fragments.filter(fragment -> !fragment.isEmpty()).map(this::buildTextDeltaChunk),
+                            measure(textToSpeechService.stream(SentenceSplitter.split(fragments, minSentenceLength), voice, audioFormat), audioFormat)
+                                    .map(this::buildAudioChunk)))
+                    .concatWith(Flux.defer(() -> {
+                        ChatAgentResponseDto agentResponse = accumulator.toResponse();
+                        return Flux.just(buildAgentMetaChunk(agentResponse), buildTTSMetaChunk(agentResponse));
+                    }));
+        });
+    }
+
+    /**
+     * Records the audio metrics of the format for the audio of an answer: the time to its first byte when it arrives,
+     * and its size and the bytes per second sent from the first byte on when it completes.
+     *
+     * @param audio the audio chunks of the answer
+     * @param audioFormat the format of the audio
+     * @return the audio chunks of the answer
+     */
+    private Flux<RecipeChatResponseChunkDto> measure(Flux<RecipeChatResponseChunkDto> audio, AudioFormat audioFormat) {
+        AudioMeters meters = audioMeters.get(audioFormat);
+        return Flux.defer(() -> {
+            long startNanos = System.nanoTime();
+            AtomicLong firstByteNanos = new AtomicLong();
+            AtomicLong bytes = new AtomicLong();
+            return audio
+                    .doOnNext(chunk -> {
+                        int length = chunk.audioChunk() == null ? 0 : chunk.audioChunk().length;
+                        if (length > 0 && bytes.getAndAdd(length) == 0) {
+                            firstByteNanos.set(System.nanoTime());
+                            meters.firstByte().record(firstByteNanos.get() - startNanos, TimeUnit.NANOSECONDS);
+                        }
+                    })
+                    .doOnComplete(() -> {
+                        if (bytes.get() == 0) {
+                            return;
+                        }
+                        meters.size().record(bytes.get());
+                        long elapsedNanos = System.nanoTime() - firstByteNanos.get();
+                        if (elapsedNanos > 0) {
+                            meters.rate().record(bytes.get() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Builds a ServerSentEvent containing an audio chunk from the provided RecipeChatResponseChunkDto.
+     *
+     * @param chunk the RecipeChatResponseChunkDto containing the audio data to be included in the ServerSentEvent
+     * @return a ServerSentEvent containing the audio chunk data
+     */
+    private ServerSentEvent<RecipeChatResponseChunkDto> buildAudioChunk(RecipeChatResponseChunkDto chunk) {
+        log.debug("Received recipe chat response for audio: {}", chunk);
+        return ServerSentEvent.<RecipeChatResponseChunkDto>builder()
+            .event(StreamEvent.AUDIO.getEvent())
+            .data(chunk)
+            .build();
+    }
+
+    /**
+     * Builds a ServerSentEvent containing a fragment of the text of the agent's answer, without metadata.
+     *
+     * @param delta the text generated since the previous text delta
+     * @return a ServerSentEvent containing the text delta
+     */
+    private ServerSentEvent<RecipeChatResponseChunkDto> buildTextDeltaChunk(String delta) {
+        return ServerSentEvent.<RecipeChatResponseChunkDto>builder()
+            .event(StreamEvent.TEXT_DELTA.getEvent())
+            .data(new RecipeChatResponseChunkDto(null, new ChatAgentResponseDto(delta, null)))
+            .build();
+    }
+
+    /**
+     * Builds a ServerSentEvent containing metadata about the agent's response from the provided ChatAgentResponseDto.
+     *
+     * @param response the ChatAgentResponseDto containing the agent's response and associated metadata
+     * @return a ServerSentEvent containing the agent's response metadata
+     */
+    private ServerSentEvent<RecipeChatResponseChunkDto> buildAgentMetaChunk(ChatAgentResponseDto response) {
+        log.info("Received recipe chat response for agent: {}", response);
+        return ServerSentEvent.<RecipeChatResponseChunkDto>builder()
+            .event(StreamEvent.AGENT_COMPLETION.getEvent())
+            .data(new RecipeChatResponseChunkDto(null, response))
+            .build();
+    }
+
+    /**
+     * Builds a ServerSentEvent containing metadata about the text-to-speech conversion from the provided ChatAgentResponseDto.
+     *
+     * @param response the ChatAgentResponseDto containing the agent's response and associated metadata
+     * @return a ServerSentEvent containing the text-to-speech conversion metadata
+     */
+    private ServerSentEvent<RecipeChatResponseChunkDto> buildTTSMetaChunk(ChatAgentResponseDto response) {
+        log.info("Received recipe chat response for TTS: {}", response);
+        int inputTokens = response.content().length();
+        int outputTokens = 0;
+        int totalTokens = inputTokens + outputTokens;
+        return ServerSentEvent.<RecipeChatResponseChunkDto>builder()
+            .event(StreamEvent.AGENT_COMPLETION.getEvent())
+            .data(new RecipeChatResponseChunkDto(
+                null,
+                new ChatAgentResponseDto(
+                    response.content(),
+                    new MetadataDto(inputTokens, outputTokens, totalTokens, textToSpeechService.getModel())
+                )
+            ))
+            .build();
+    }
+
+    /**
+     * The audio metrics of one audio format.
+     *
+     * @param firstByte the time from the start of the synthesis of an answer to its first audio byte
+     * @param size the size of the audio of an answer
+     * @param rate the bytes of audio per second sent from the first audio byte of an answer
+     */
+    private record AudioMeters(Timer firstByte, DistributionSummary size, DistributionSummary rate) { }
+
+    /**
+     * Accumulates the streamed fragments of the agent's answer together with the most recent usage metadata.
+     */
+    private static final class ResponseAccumulator {
+        /** The text of the answer received so far. */
+        private final StringBuilder content = new StringBuilder();
+        /** The most recent metadata reported by the stream. */
+        private MetadataDto metadata;
+
+        private void append(ChatAgentResponseDto fragment) {
+            content.append(fragment.content());
+            if (fragment.metadata() != null) {
+                metadata = fragment.metadata();
+            }
+        }
+
+        /**
+         * Builds the complete agent response from the accumulated fragments.
+         *
+         * @return a ChatAgentResponseDto with the full answer and its metadata
+         * @throws RecipeChatException if the stream reported no metadata
+         */
+        private ChatAgentResponseDto toResponse() {
+            if (metadata == null) {
+                throw new RecipeChatException("Failed to retrieve metadata from chat response stream");
+            }
+            return new ChatAgentResponseDto(content.toString(), metadata);
+        }
+    }
+}
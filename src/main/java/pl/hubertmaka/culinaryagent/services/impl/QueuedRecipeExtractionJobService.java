@@ -0,0 +1,335 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import pl.hubertmaka.culinaryagent.domain.dtos.ExtractionErrorDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.ExtractionJobDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeDataRequestDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaResponseDto;
+import pl.hubertmaka.culinaryagent.domain.enums.JobStatus;
+import pl.hubertmaka.culinaryagent.exceptions.CapacityExceededException;
+import pl.hubertmaka.culinaryagent.exceptions.JobNotFoundException;
+import pl.hubertmaka.culinaryagent.services.RecipeExtractionJobService;
+import pl.hubertmaka.culinaryagent.services.RecipeExtractorService;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Implementation of the RecipeExtractionJobService running extractions on a bounded pool of workers fed by a bounded
+ * queue. Jobs that do not fit into the queue are rejected with a CapacityExceededException instead of piling up.
+ * Jobs are kept until they finish and afterwards for a configurable retention period, so that clients can fetch
+ * their results. The queue depth and the time jobs spend in the queue are published to the meter registry.
+ */
+@Service
+public class QueuedRecipeExtractionJobService implements RecipeExtractionJobService {
+    /** Logger for logging information and debugging purposes. */
+    private static final Logger log = LoggerFactory.getLogger(QueuedRecipeExtractionJobService.class);
+    /** The service responsible for extracting recipe information. */
+    private final RecipeExtractorService recipeExtractorService;
+    /** The bounded pool of workers running the jobs, fed by a bounded queue. */
+    private final ThreadPoolExecutor executor;
+    /** The queued, running and retained finished jobs keyed by their identifier. */
+    private final Cache<String, ExtractionJob> jobs;
+    /** The timer of the time jobs spend in the queue before a worker picks them up. */
+    private final Timer queueWaitTimer;
+    /** The counter of jobs rejected because the queue was full. */
+    private final Counter rejectedJobs;
+
+    /**
+     * Constructor for QueuedRecipeExtractionJobService.
+     *
+     * @param recipeExtractorService the service to be used for extracting recipe information, injected by Spring
+     * @param workers the number of jobs running at the same time
+     * @param queueCapacity the maximum number of jobs waiting for a worker
+     * @param retention the time a finished job and its result are kept
+     * @param meterRegistry the registry the job metrics are published to, injected by Spring
+     */
+    @Autowired
+    public QueuedRecipeExtractionJobService(
+            RecipeExtractorService recipeExtractorService,
+            @Value("${culinary-agent.extraction.jobs.workers}") int workers,
+            @Value("${culinary-agent.extraction.jobs.queue-capacity}") int queueCapacity,
+            @Value("${culinary-agent.extraction.jobs.retention}") Duration retention,
+            MeterRegistry meterRegistry
+    ) {
+        this(recipeExtractorService, workers, queueCapacity, retention, meterRegistry, Ticker.systemTicker());
+    }
+
+    /**
+     * Constructor for QueuedRecipeExtractionJobService measuring the retention of finished jobs with the given ticker.
+     *
+     * @param recipeExtractorService the service to be used for extracting recipe information
+     * @param workers the number of jobs running at the same time
+     * @param queueCapacity the maximum number of jobs waiting for a worker
+     * @param retention the time a finished job and its result are kept
+     * @param meterRegistry the registry the job metrics are published to
+     * @param ticker the source of time for the retention of finished jobs
+     */
+    QueuedRecipeExtractionJobService(RecipeExtractorService recipeExtractorService, int workers, int queueCapacity,
+                                     Duration retention, MeterRegistry meterRegistry, Ticker ticker) {
+        log.info("Creating extraction job service [workers={}, queueCapacity={}, retention={}]...", workers, queueCapacity, retention);
+        this.recipeExtractorService = recipeExtractorService;
+        this.executor = new ThreadPoolExecutor(
+                workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name("extraction-job-", 0).daemon(true).factory(),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        this.jobs = Caffeine.newBuilder()
+                .expireAfter(new RetentionExpiry(retention))
+                .ticker(ticker)
+                .build();
+        this.queueWaitTimer = Timer.builder("extraction.jobs.queue.wait")
+                .description("Time extraction jobs spend in the queue before a worker picks them up")
+                .register(meterRegistry);
+        this.rejectedJobs = Counter.builder("extraction.jobs.rejected")
+                .description("Extraction jobs rejected because the queue was full")
+                .register(meterRegistry);
+        Gauge.builder("extraction.jobs.queue.depth", executor, e -> e.getQueue().size())
+                .description("Extraction jobs waiting for a worker")
+                .register(meterRegistry);
+        Gauge.builder("extraction.jobs.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Extraction jobs being run by a worker")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queues the recipe data for extraction and returns immediately.
+     *
+     * @param recipeDataRequest the data transfer object containing the recipe data to be extracted
+     * @return an ExtractionJobDto containing the identifier of the queued job
+     * @throws CapacityExceededException if the queue is full
+     */
+    @Override
+    public ExtractionJobDto submit(RecipeDataRequestDto recipeDataRequest) {
+        ExtractionJob job = new ExtractionJob(UUID.randomUUID().toString());
+        jobs.put(job.id, job);
+        try {
+            executor.execute(() -> run(job, recipeDataRequest));
+        } catch (RejectedExecutionException e) {
+            jobs.invalidate(job.id);
+            rejectedJobs.increment();
+            log.warn("Extraction job rejected, the queue is full [queueDepth={}]", executor.getQueue().size());
+            throw new CapacityExceededException("Too many extraction jobs in progress, please retry later");
+        }
+        log.info("Extraction job submitted [jobId={}]", job.id);
+        return job.toDto();
+    }
+
+    /**
+     * Retrieves the current state of a job.
+     *
+     * @param jobId the identifier of the job
+     * @return an ExtractionJobDto containing the current state of the job
+     * @throws JobNotFoundException if the job does not exist or is no longer retained
+     */
+    @Override
+    public ExtractionJobDto get(String jobId) {
+        return findJob(jobId).toDto();
+    }
+
+    /**
+     * Waits for a job to finish. Cancelling the returned Mono stops waiting without affecting the job.
+     *
+     * @param jobId the identifier of the job
+     * @return a Mono emitting the final state of the job once it has finished
+     * @throws JobNotFoundException if the job does not exist or is no longer retained
+     */
+    @Override
+    public Mono<ExtractionJobDto> awaitCompletion(String jobId) {
+        return Mono.fromFuture(findJob(jobId).completion, true);
+    }
+
+    /**
+     * Stops the workers when the application shuts down. Queued and running jobs are abandoned.
+     */
+    @PreDestroy
+    public void shutdown() {
+        log.info("Shutting down extraction job workers [queued={}]...", executor.getQueue().size());
+        executor.shutdownNow();
+    }
+
+    /**
+     * Runs a job on a worker and records its result. The job is stored again once finished, so that its retention
+     * period starts counting, and only then are the clients waiting for it released.
+     *
+     * @param job the job to run
+     * @param recipeDataRequest the recipe data to be extracted
+     */
+    private void run(ExtractionJob job, RecipeDataRequestDto recipeDataRequest) {
+        queueWaitTimer.record(System.nanoTime() - job.submittedAt, TimeUnit.NANOSECONDS);
+        job.status = JobStatus.RUNNING;
+        log.info("Running extraction job [jobId={}]", job.id);
+        try {
+            job.succeed(recipeExtractorService.extract(recipeDataRequest));
+        } catch (RuntimeException e) {
+            log.warn("Extraction job failed [jobId={}]: {}", job.id, e.getMessage(), e);
+            job.fail(ExtractionErrorDto.from(e));
+        }
+        jobs.put(job.id, job);
+        job.publish();
+    }
+
+    /**
+     * Finds a job by its identifier.
+     *
+     * @param jobId the identifier of the job
+     * @return the job
+     * @throws JobNotFoundException if the job does not exist or is no longer retained
+     */
+    private ExtractionJob findJob(String jobId) {
+        return Optional.ofNullable(jobs.getIfPresent(jobId))
+                .orElseThrow(() -> new JobNotFoundException("Extraction job not found: " + jobId));
+    }
+
+    /**
+     * A single extraction job together with its outcome.
+     */
+    private static final class ExtractionJob {
+        /** The identifier of the job. */
+        private final String id;
+        /** The time the job was submitted at, in nanoseconds of System.nanoTime(). */
+        private final long submittedAt = System.nanoTime();
+        /** The final state of the job, completed once the job has finished and its retention period has started. */
+        private final CompletableFuture<ExtractionJobDto> completion = new CompletableFuture<>();
+        /** The final state of the job, or null until the job has finished. */
+        private volatile ExtractionJobDto outcome;
+        /** The current status of the job. */
+        private volatile JobStatus status = JobStatus.QUEUED;
+
+        /**
+         * Constructor for ExtractionJob. The job starts queued.
+         *
+         * @param id the identifier of the job
+         */
+        private ExtractionJob(String id) {
+            this.id = id;
+        }
+
+        /**
+         * Finishes the job with the extracted recipe.
+         *
+         * @param result the recipe extracted by the job
+         */
+        private void succeed(RecipeSchemaResponseDto result) {
+            finish(new ExtractionJobDto(id, JobStatus.SUCCEEDED, result, null));
+        }
+
+        /**
+         * Finishes the job with the error it failed with.
+         *
+         * @param error the error describing why the extraction failed
+         */
+        private void fail(ExtractionErrorDto error) {
+            finish(new ExtractionJobDto(id, JobStatus.FAILED, null, error));
+        }
+
+        /**
+         * Records the final state of the job. The outcome is recorded before the status changes, so a job seen as
+         * finished always has its outcome available.
+         *
+         * @param outcome the final state of the job
+         */
+        private void finish(ExtractionJobDto outcome) {
+            this.outcome = outcome;
+            status = outcome.status();
+        }
+
+        /**
+         * Releases the clients waiting for the job with its final state. Called once the finished job has been stored
+         * again, so that a client released by it always finds the job retained.
+         */
+        private void publish() {
+            completion.complete(outcome);
+        }
+
+        /**
+         * Builds the current state of the job.
+         *
+         * @return the final state of a finished job, or its current status otherwise
+         */
+        private ExtractionJobDto toDto() {
+            JobStatus current = status;
+            ExtractionJobDto finished = outcome;
+            return finished != null ? finished : new ExtractionJobDto(id, current, null, null);
+        }
+
+        /**
+         * Checks whether the job has finished, successfully or not.
+         *
+         * @return true if the job has finished, false if it is queued or running
+         */
+        private boolean isFinished() {
+            return status.isFinished();
+        }
+    }
+
+    /**
+     * Expiry keeping unfinished jobs indefinitely and finished jobs for the retention period after they finished.
+     *
+     * @param retention the time a finished job is kept
+     */
+    private record RetentionExpiry(Duration retention) implements Expiry<String, ExtractionJob> {
+        /**
+         * Returns the lifetime of a newly retained job.
+         *
+         * @param jobId the identifier of the job
+         * @param job the job
+         * @param currentTime the current time, in nanoseconds
+         * @return the retention period if the job has finished, or an unbounded lifetime otherwise
+         */
+        @Override
+        public long expireAfterCreate(String jobId, ExtractionJob job, long currentTime) {
+            return job.isFinished() ? retention.toNanos() : Long.MAX_VALUE;
+        }
+
+        /**
+         * Returns the lifetime of a job after it is put again, which restarts the retention period once it has
+         * finished.
+         *
+         * @param jobId the identifier of the job
+         * @param job the job
+         * @param currentTime the current time, in nanoseconds
+         * @param currentDuration the remaining lifetime of the job, in nanoseconds
+         * @return the retention period if the job has finished, or an unbounded lifetime otherwise
+         */
+        @Override
+        public long expireAfterUpdate(String jobId, ExtractionJob job, long currentTime, long currentDuration) {
+            return job.isFinished() ? retention.toNanos() : Long.MAX_VALUE;
+        }
+
+        /**
+         * Returns the lifetime of a job after it is read, which polling does not extend.
+         *
+         * @param jobId the identifier of the job
+         * @param job the job
+         * @param currentTime the current time, in nanoseconds
+         * @param currentDuration the remaining lifetime of the job, in nanoseconds
+         * @return the remaining lifetime of the job, unchanged
+         */
+        @Override
+        public long expireAfterRead(String jobId, ExtractionJob job, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
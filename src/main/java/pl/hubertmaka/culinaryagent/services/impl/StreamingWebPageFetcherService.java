@@ -0,0 +1,384 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.StreamParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.RestClient;
+import pl.hubertmaka.culinaryagent.domain.models.FetchedWebPage;
+import pl.hubertmaka.culinaryagent.exceptions.RecipeExtractionException;
+import pl.hubertmaka.culinaryagent.services.WebPageFetcherService;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Implementation of the WebPageFetcherService that streams the response body into an incremental Jsoup parser
+ * instead of buffering the whole page into a String. At most the configured number of bytes is read from every
+ * page; larger pages are parsed up to the cap. Elements that never carry recipe content, such as inline scripts,
+ * styles and SVG images, are pruned as soon as they are parsed, so the memory held per fetch stays bounded by the
+ * cap and by the size of the remaining content. The number of bytes currently read by fetches in flight is published
+ * as the {@code web.page.fetch.in-flight.bytes} gauge. Pages are fetched conditionally when validators of a cached
+ * copy are given, and the Cache-Control, Age and Expires headers are turned into the time the page stays fresh.
+ */
+@Service
+public class StreamingWebPageFetcherService implements WebPageFetcherService {
+    /** Logger for logging information and debugging purposes. */
+    private static final Logger log = LoggerFactory.getLogger(StreamingWebPageFetcherService.class);
+    /** The number of leading bytes searched for a byte order mark or a {@code <meta>} charset declaration. */
+    private static final int CHARSET_SNIFF_LENGTH = 4096;
+    /** Matches the charset of a {@code <meta charset>} or {@code <meta http-equiv="Content-Type">} declaration. */
+    private static final Pattern META_CHARSET = Pattern.compile(
+            "<meta[^>]+charset\\s*=\\s*[\"']?([\\w.:-]+)", Pattern.CASE_INSENSITIVE);
+    /** Elements pruned as soon as they are parsed, because they never carry recipe content. */
+    private static final Set<String> PRUNED_ELEMENTS = Set.of(
+            "style", "noscript", "template", "svg", "canvas", "iframe", "object", "embed");
+    /** The script type of JSON-LD structured data, the only scripts kept. */
+    private static final String JSON_LD_TYPE = "application/ld+json";
+    /** Matches the max-age directive of a Cache-Control header. */
+    private static final Pattern MAX_AGE = Pattern.compile("(?:^|[,\\s])max-age\\s*=\\s*\"?(\\d+)", Pattern.CASE_INSENSITIVE);
+    /** Matches the directive of a Cache-Control header that forbids reusing the page without revalidation. */
+    private static final Pattern NO_CACHE = Pattern.compile("(?:^|[,\\s])no-cache(?:$|[,\\s=])", Pattern.CASE_INSENSITIVE);
+    /** Matches the directive of a Cache-Control header that forbids storing the page. */
+    private static final Pattern NO_STORE = Pattern.compile("(?:^|[,\\s])no-store(?:$|[,\\s])", Pattern.CASE_INSENSITIVE);
+    /** Attributes that may hold inlined data URIs, such as base64 encoded images. */
+    private static final List<String> DATA_URI_ATTRIBUTES = List.of("src", "srcset", "href", "poster");
+    /** The RestClient used for making HTTP requests to fetch pages. */
+    private final RestClient restClient;
+    /** The maximum number of bytes read from a single page. */
+    private final long maxPageBytes;
+    /** The distribution of the number of bytes read per page. */
+    private final DistributionSummary pageSize;
+    /** The number of pages cut off at the byte cap. */
+    private final Counter truncatedPages;
+    /** The number of bytes read by the fetches currently in flight. */
+    private final AtomicLong inFlightBytes = new AtomicLong();
+
+    /**
+     * Constructor for StreamingWebPageFetcherService.
+     *
+     * @param restClient the RestClient to be used for making HTTP requests, injected by Spring
+     * @param maxPageSize the maximum number of bytes read from a single page
+     * @param meterRegistry the registry the fetch metrics are published to, injected by Spring
+     */
+    public StreamingWebPageFetcherService(
+            RestClient restClient,
+            @Value("${culinary-agent.fetch.max-page-size}") DataSize maxPageSize,
+            MeterRegistry meterRegistry
+    ) {
+        log.info("Creating streaming web page fetcher service [maxPageSize={}]...", maxPageSize);
+        this.restClient = restClient;
+        this.maxPageBytes = maxPageSize.toBytes();
+        this.pageSize = DistributionSummary.builder("web.page.fetch.size")
+                .description("Bytes read per fetched page")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.truncatedPages = Counter.builder("web.page.fetch.truncated")
+                .description("Pages cut off at the maximum page size")
+                .register(meterRegistry);
+        Gauge.builder("web.page.fetch.in-flight.bytes", inFlightBytes, AtomicLong::get)
+                .description("Bytes read by the page fetches currently in flight")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Fetches the web page at the given URL, streaming at most the configured number of bytes into the parser.
+     * With validators, the request is conditional and a 304 Not Modified response is returned without a body.
+     *
+     * @param url the URL of the web page
+     * @param etag the entity tag of the cached copy, may be null
+     * @param lastModified the Last-Modified date of the cached copy, may be null
+     * @return the fetched page without inline scripts, styles and data URIs, or a not-modified outcome
+     * @throws RecipeExtractionException if the server responds with an error status
+     */
+    @Override
+    public FetchedWebPage fetch(String url, String etag, String lastModified) {
+        log.info("Fetching web page [url={}, conditional={}]", url, etag != null || lastModified != null);
+        return restClient.get()
+                .uri(url)
+                .headers(headers -> {
+                    if (etag != null) {
+                        headers.set(HttpHeaders.IF_NONE_MATCH, etag);
+                    }
+                    if (lastModified != null) {
+                        headers.set(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+                    }
+                })
+                .exchange((request, response) -> {
+                    HttpHeaders headers = response.getHeaders();
+                    if (response.getStatusCode().isSameCodeAs(HttpStatus.NOT_MODIFIED)) {
+                        log.info("Web page not modified [url={}]", url);
+                        return new FetchedWebPage(null, etag, lastModified, freshFor(headers), isStorable(headers), 0);
+                    }
+                    if (response.getStatusCode().isError()) {
+                        throw new RecipeExtractionException(
+                                "Failed to fetch the page, the server responded with " + response.getStatusCode().value());
+                    }
+                    try (CappedInputStream body = new CappedInputStream(response.getBody())) {
+                        Document document = parse(body, headers.getContentType(), url);
+                        pageSize.record(body.bytesRead);
+                        if (body.truncated) {
+                            truncatedPages.increment();
+                            log.info("Web page truncated at the maximum page size [url={}, maxBytes={}]", url, maxPageBytes);
+                        }
+                        return new FetchedWebPage(
+                                document,
+                                headers.getETag(),
+                                headers.getFirst(HttpHeaders.LAST_MODIFIED),
+                                freshFor(headers),
+                                isStorable(headers),
+                                body.bytesRead
+                        );
+                    }
+                });
+    }
+
+    /**
+     * Computes the time a response stays fresh: its max-age minus its Age, or the time until its Expires date.
+     * Responses marked no-cache, and responses without either header, are fresh for no time
+     * and are revalidated on every use.
+     *
+     * @param headers the headers of the response
+     * @return the time the response stays fresh, never negative
+     */
+    private Duration freshFor(HttpHeaders headers) {
+        String cacheControl = String.join(",", headers.getOrEmpty(HttpHeaders.CACHE_CONTROL));
+        if (NO_CACHE.matcher(cacheControl).find()) {
+            return Duration.ZERO;
+        }
+        Matcher maxAge = MAX_AGE.matcher(cacheControl);
+        if (maxAge.find()) {
+            long age = parseSeconds(headers.getFirst(HttpHeaders.AGE));
+            return Duration.ofSeconds(Math.max(0, parseSeconds(maxAge.group(1)) - age));
+        }
+        try {
+            long expires = headers.getExpires();
+            long date = headers.getDate();
+            if (expires > 0) {
+                return Duration.ofMillis(Math.max(0, expires - (date > 0 ? date : System.currentTimeMillis())));
+            }
+        } catch (IllegalArgumentException e) {
+            log.debug("Ignoring malformed Expires or Date header: {}", e.getMessage());
+        }
+        return Duration.ZERO;
+    }
+
+    /**
+     * Checks whether a response may be stored, which Cache-Control no-store forbids.
+     *
+     * @param headers the headers of the response
+     * @return true if the response may be stored
+     */
+    private boolean isStorable(HttpHeaders headers) {
+        return !NO_STORE.matcher(String.join(",", headers.getOrEmpty(HttpHeaders.CACHE_CONTROL))).find();
+    }
+
+    /**
+     * Parses a number of seconds, treating missing and malformed values as zero.
+     *
+     * @param value the value to parse, may be null
+     * @return the number of seconds
+     */
+    private static long parseSeconds(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.strip());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Parses the page incrementally, pruning elements without recipe content as soon as they are complete.
+     *
+     * @param body the response body
+     * @param contentType the content type of the response, may be null
+     * @param url the URL of the page, used to resolve relative links
+     * @return the parsed web page
+     * @throws IOException if reading the response body fails
+     */
+    private Document parse(InputStream body, MediaType contentType, String url) throws IOException {
+        BufferedInputStream input = new BufferedInputStream(body, CHARSET_SNIFF_LENGTH);
+        Charset charset = detectCharset(input, contentType);
+        try (StreamParser parser = new StreamParser(Parser.htmlParser())) {
+            parser.parse(new InputStreamReader(input, charset), url);
+            Iterator<Element> elements = parser.iterator();
+            while (elements.hasNext()) {
+                Element element = elements.next();
+                if (isPruned(element)) {
+                    element.remove();
+                } else {
+                    DATA_URI_ATTRIBUTES.stream()
+                            .filter(attribute -> element.attr(attribute).regionMatches(true, 0, "data:", 0, 5))
+                            .forEach(element::removeAttr);
+                }
+            }
+            return parser.document();
+        }
+    }
+
+    /**
+     * Checks whether a parsed element is pruned: every script except JSON-LD structured data, and elements that
+     * never carry recipe content.
+     *
+     * @param element the parsed element
+     * @return true if the element is removed from the document
+     */
+    private boolean isPruned(Element element) {
+        if ("script".equals(element.normalName())) {
+            return !JSON_LD_TYPE.equalsIgnoreCase(element.attr("type").strip());
+        }
+        return PRUNED_ELEMENTS.contains(element.normalName());
+    }
+
+    /**
+     * Detects the charset of the page from the Content-Type header, then from a byte order mark, then from
+     * a {@code <meta>} declaration in the first bytes of the page, defaulting to UTF-8. A byte order mark is skipped.
+     *
+     * @param input the buffered response body, positioned at its start
+     * @param contentType the content type of the response, may be null
+     * @return the charset of the page
+     * @throws IOException if reading the response body fails
+     */
+    private Charset detectCharset(BufferedInputStream input, MediaType contentType) throws IOException {
+        input.mark(CHARSET_SNIFF_LENGTH);
+        byte[] head = input.readNBytes(CHARSET_SNIFF_LENGTH);
+        input.reset();
+        if (head.length >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF) {
+            input.skipNBytes(3);
+            return StandardCharsets.UTF_8;
+        }
+        if (head.length >= 2 && (head[0] & 0xFF) == 0xFE && (head[1] & 0xFF) == 0xFF) {
+            input.skipNBytes(2);
+            return StandardCharsets.UTF_16BE;
+        }
+        if (head.length >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xFE) {
+            input.skipNBytes(2);
+            return StandardCharsets.UTF_16LE;
+        }
+        Charset declared = contentType != null ? charsetOrNull(contentType.getParameter("charset")) : null;
+        if (declared != null) {
+            return declared;
+        }
+        Matcher meta = META_CHARSET.matcher(new String(head, StandardCharsets.ISO_8859_1));
+        Charset sniffed = meta.find() ? charsetOrNull(meta.group(1)) : null;
+        return sniffed != null ? sniffed : StandardCharsets.UTF_8;
+    }
+
+    /**
+     * Resolves a charset name, ignoring names that are malformed or unsupported.
+     *
+     * @param name the charset name, may be null
+     * @return the charset, or null if the name is missing or cannot be resolved
+     */
+    private static Charset charsetOrNull(String name) {
+        if (name == null) {
+            return null;
+        }
+        try {
+            String unquoted = name.replace("\"", "").strip();
+            return Charset.isSupported(unquoted) ? Charset.forName(unquoted) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Input stream that ends once the maximum page size has been read, and accounts the bytes it has read in
+     * the in-flight gauge until it is closed.
+     */
+    private final class CappedInputStream extends FilterInputStream {
+        /** The number of bytes read so far. */
+        private long bytesRead;
+        /** Whether the page was cut off at the maximum page size. */
+        private boolean truncated;
+        /** Whether the stream was closed, as the parser and the fetch both close it. */
+        private boolean closed;
+
+        /**
+         * Constructor for CappedInputStream.
+         *
+         * @param in the response body
+         */
+        private CappedInputStream(InputStream in) {
+            super(in);
+        }
+
+        /**
+         * Reads a single byte, unless the maximum page size has been read.
+         *
+         * @return the byte read, or -1 at the end of the page or of the cap
+         * @throws IOException if reading the response body fails
+         */
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        /**
+         * Reads up to the given number of bytes, never past the maximum page size.
+         *
+         * @param buffer the buffer the bytes are read into
+         * @param offset the offset in the buffer
+         * @param length the maximum number of bytes to read
+         * @return the number of bytes read, or -1 at the end of the page or of the cap
+         * @throws IOException if reading the response body fails
+         */
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            long remaining = maxPageBytes - bytesRead;
+            if (remaining <= 0) {
+                truncated = truncated || in.read() != -1;
+                return -1;
+            }
+            int read = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read > 0) {
+                bytesRead += read;
+                inFlightBytes.addAndGet(read);
+            }
+            return read;
+        }
+
+        /**
+         * Closes the response body and releases the bytes read from the in-flight gauge.
+         *
+         * @throws IOException if closing the response body fails
+         */
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                inFlightBytes.addAndGet(-bytesRead);
+            }
+            super.close();
+        }
+    }
+}
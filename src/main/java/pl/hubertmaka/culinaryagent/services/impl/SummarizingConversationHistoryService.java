@@ -0,0 +1,250 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import pl.hubertmaka.culinaryagent.domain.models.ConversationHistory;
+import pl.hubertmaka.culinaryagent.domain.models.ConversationWindow;
+import pl.hubertmaka.culinaryagent.services.ConversationHistoryService;
+import pl.hubertmaka.culinaryagent.utils.HashUtils;
+import pl.hubertmaka.culinaryagent.utils.TokenEstimator;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Implementation of the ConversationHistoryService keeping the recent turns of a conversation within a token budget
+ * and folding the older turns into a rolling summary.
+ * <p>
+ * The newest messages are kept verbatim as long as their estimated tokens fit the budget; the newest message is
+ * always kept. The messages before them are folded in blocks of a fixed number of messages, so the summary of a
+ * conversation covers one of a few prefixes and is reused across turns: the summary of a longer prefix is produced
+ * from the summary of the previous block and the messages of the next ones. Summaries are cached by the hash of the
+ * instruction and the folded messages, so sessions and stateless requests carrying the same history share them. The
+ * tokens of the messages and the hashes of the blocks are kept by the history of a session, so a turn of a session
+ * only estimates and hashes what was appended since the previous turn.
+ * <p>
+ * Summaries are produced asynchronously on the blocking call scheduler and never on the request path: until the
+ * summary of the older turns is ready, the turns not covered by an earlier summary are sent verbatim, so a turn may
+ * exceed the budget by up to the messages of the pending blocks but never loses context. Cache statistics are
+ * published under the {@code chat-history-summaries} cache name, and the produced summaries as the
+ * {@code chat.history.summaries} counter, tagged {@code result:success|failure}.
+ */
+@Service
+public class SummarizingConversationHistoryService implements ConversationHistoryService {
+    /** Logger for logging information and debugging purposes. */
+    private static final Logger log = LoggerFactory.getLogger(SummarizingConversationHistoryService.class);
+    /** The name under which the cache metrics are published. */
+    private static final String CACHE_NAME = "chat-history-summaries";
+    /** The text introducing the summary of the older turns in the conversation sent to the chat agent. */
+    private static final String SUMMARY_HEADER = "Summary of the earlier conversation:\n";
+    /** The ChatClient used to summarize the older turns. */
+    private final ChatClient summarizer;
+    /** The scheduler the summaries are produced on. */
+    private final Scheduler blockingCallScheduler;
+    /** Whether the history is windowed at all. */
+    private final boolean enabled;
+    /** The maximum estimated number of tokens of the recent turns sent verbatim. */
+    private final int tokenBudget;
+    /** The number of messages folded into the summary at a time. */
+    private final int foldSize;
+    /** The summaries of the folded prefixes keyed by the hash of the instruction and the folded messages. */
+    private final AsyncCache<String, String> summaries;
+    /** The counter of summaries produced. */
+    private final Counter summarized;
+    /** The counter of summaries that failed. */
+    private final Counter failures;
+
+    /**
+     * Constructor for SummarizingConversationHistoryService.
+     *
+     * @param summarizer the ChatClient used to summarize the older turns, injected by Spring with the qualifier "conversationSummarizer"
+     * @param blockingCallScheduler the scheduler the summaries are produced on, injected by Spring with the qualifier "blockingCallScheduler"
+     * @param enabled whether the history is windowed at all
+     * @param tokenBudget the maximum estimated number of tokens of the recent turns sent verbatim
+     * @param foldSize the number of messages folded into the summary at a time, a positive even number
+     * @param maximumSize the maximum number of cached summaries
+     * @param idleTimeout the time after which a summary that has not been used expires
+     * @param meterRegistry the registry the summary metrics are published to, injected by Spring
+     */
+    public SummarizingConversationHistoryService(
+            @Qualifier("conversationSummarizer") ChatClient summarizer,
+            @Qualifier("blockingCallScheduler") Scheduler blockingCallScheduler,
+            @Value("${culinary-agent.chat.history.enabled}") boolean enabled,
+            @Value("${culinary-agent.chat.history.token-budget}") int tokenBudget,
+            @Value("${culinary-agent.chat.history.fold-size}") int foldSize,
+            @Value("${culinary-agent.chat.history.summaries-maximum-size}") long maximumSize,
+            @Value("${culinary-agent.chat.sessions.idle-timeout}") Duration idleTimeout,
+            MeterRegistry meterRegistry
+    ) {
+        log.info("Creating summarizing conversation history service [enabled={}, tokenBudget={}, foldSize={}, maximumSize={}]...",
+                enabled, tokenBudget, foldSize, maximumSize);
+        if (tokenBudget < 0) {
+            throw new IllegalArgumentException("The token budget must not be negative, was " + tokenBudget);
+        }
+        if (foldSize <= 0 || foldSize % 2 != 0) {
+            throw new IllegalArgumentException("The fold size must be a positive even number, was " + foldSize);
+        }
+        this.summarizer = summarizer;
+        this.blockingCallScheduler = blockingCallScheduler;
+        this.enabled = enabled;
+        this.tokenBudget = tokenBudget;
+        this.foldSize = foldSize;
+        this.summaries = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(idleTimeout)
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, summaries, CACHE_NAME);
+        this.summarized = Counter.builder("chat.history.summaries")
+                .description("Summaries of older conversation turns produced")
+                .tag("result", "success")
+                .register(meterRegistry);
+        this.failures = Counter.builder("chat.history.summaries")
+                .description("Summaries of older conversation turns produced")
+                .tag("result", "failure")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Selects the messages sent to the chat agent for the next turn: the instruction, the most recent summary of the
+     * older turns that is ready, and the turns after it verbatim. If the turns outside the budget are not covered by
+     * a summary yet, their summary is requested in the background for the following turns. The tokens of the
+     * messages and the keys of their blocks are read from the history, so only the messages that are sent are read.
+     *
+     * @param instruction the instruction of the chat agent, sent first
+     * @param history the messages exchanged so far, in order
+     * @return the ConversationWindow with the messages to send and the estimated token counts of the history
+     */
+    @Override
+    public ConversationWindow window(Message instruction, ConversationHistory history) {
+        int size = history.size();
+        int historyTokens = history.tokens(0, size);
+        if (!enabled || historyTokens <= tokenBudget) {
+            return buildWindow(instruction, null, history.messages(0, size), historyTokens, historyTokens);
+        }
+        int keepFrom = size - 1;
+        while (keepFrom > 0 && history.tokens(keepFrom - 1, size) <= tokenBudget) {
+            keepFrom--;
+        }
+        int foldUpTo = keepFrom / foldSize * foldSize;
+        if (foldUpTo == 0) {
+            return buildWindow(instruction, null, history.messages(0, size), historyTokens, historyTokens);
+        }
+        String instructionKey = HashUtils.sha256Hex(instruction.getText());
+        int blocks = foldUpTo / foldSize;
+        int summarizedUpTo = 0;
+        String summary = null;
+        for (int block = blocks - 1; block >= 0 && summary == null; block--) {
+            summary = completedSummary(history.blockKey(instructionKey, foldSize, block));
+            summarizedUpTo = summary == null ? 0 : (block + 1) * foldSize;
+        }
+        if (summarizedUpTo < foldUpTo) {
+            fold(history.blockKey(instructionKey, foldSize, blocks - 1), summary, history, summarizedUpTo, foldUpTo);
+        }
+        int sentHistoryTokens = history.tokens(summarizedUpTo, size);
+        Message summaryMessage = summary == null ? null : new UserMessage(SUMMARY_HEADER + summary);
+        if (summaryMessage != null) {
+            sentHistoryTokens += TokenEstimator.estimate(summaryMessage);
+        }
+        log.info("Windowed conversation history [messages={}, summarized={}, historyTokens={}, sentHistoryTokens={}]",
+                size, summarizedUpTo, historyTokens, sentHistoryTokens);
+        List<Message> recent = history.messages(summarizedUpTo, size);
+        return buildWindow(instruction, summaryMessage, recent, historyTokens, sentHistoryTokens);
+    }
+
+    /**
+     * Returns the summary cached under the given key if it has already been produced.
+     *
+     * @param key the key of the summary
+     * @return the summary, or null if it is absent, still being produced or failed
+     */
+    private String completedSummary(String key) {
+        CompletableFuture<String> summary = summaries.getIfPresent(key);
+        if (summary == null || !summary.isDone() || summary.isCompletedExceptionally()) {
+            return null;
+        }
+        return summary.getNow(null);
+    }
+
+    /**
+     * Requests the summary of a prefix of the history in the background, unless it is already being produced.
+     * Failed summaries are dropped from the cache by Caffeine and requested again on a later turn.
+     *
+     * @param key the key of the summarized prefix
+     * @param previousSummary the summary of the messages before the given ones, or null if they are the first ones
+     * @param history the messages exchanged so far
+     * @param from the index of the first message not covered by the previous summary
+     * @param to the index after the last message of the summarized prefix
+     */
+    private void fold(String key, String previousSummary, ConversationHistory history, int from, int to) {
+        summaries.get(key, (ignored, executor) -> Mono
+                .fromCallable(() -> summarize(previousSummary, history.messages(from, to)))
+                .subscribeOn(blockingCallScheduler)
+                .doOnSuccess(summary -> summarized.increment())
+                .doOnError(e -> {
+                    failures.increment();
+                    log.warn("Failed to summarize conversation history: {}", e.getMessage());
+                })
+                .toFuture());
+    }
+
+    /**
+     * Calls the summarizer with the previous summary and the messages to fold into it.
+     *
+     * @param previousSummary the summary of the earlier messages, or null if there is none
+     * @param messages the messages to fold into the summary
+     * @return the summary of the earlier and the given messages
+     */
+    private String summarize(String previousSummary, List<Message> messages) {
+        log.info("Summarizing conversation history [messages={}]", messages.size());
+        StringBuilder prompt = new StringBuilder();
+        if (previousSummary != null) {
+            prompt.append("Previous summary:\n").append(previousSummary).append("\n\n");
+        }
+        prompt.append("Conversation:\n");
+        for (Message message : messages) {
+            prompt.append(message.getMessageType().getValue()).append(": ").append(message.getText()).append('\n');
+        }
+        return summarizer.prompt()
+                .user(prompt.toString())
+                .call()
+                .content();
+    }
+
+    /**
+     * Builds the window from the instruction, the optional summary and the messages sent verbatim.
+     *
+     * @param instruction the instruction of the chat agent
+     * @param summary the message carrying the summary of the older turns, or null if none is sent
+     * @param recent the messages sent verbatim
+     * @param historyTokens the estimated number of tokens of the whole history
+     * @param sentHistoryTokens the estimated number of tokens of the summary and the messages sent verbatim
+     * @return the ConversationWindow
+     */
+    private static ConversationWindow buildWindow(
+            Message instruction, Message summary, List<Message> recent, int historyTokens, int sentHistoryTokens
+    ) {
+        List<Message> messages = new ArrayList<>(recent.size() + 2);
+        messages.add(instruction);
+        if (summary != null) {
+            messages.add(summary);
+        }
+        messages.addAll(recent);
+        return new ConversationWindow(messages, historyTokens, sentHistoryTokens);
+    }
+}
@@ -0,0 +1,220 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import pl.hubertmaka.culinaryagent.domain.enums.FileExtension;
+import pl.hubertmaka.culinaryagent.domain.models.ImageUpload;
+import pl.hubertmaka.culinaryagent.exceptions.CapacityExceededException;
+import pl.hubertmaka.culinaryagent.exceptions.RecipeExtractionException;
+import pl.hubertmaka.culinaryagent.services.ImageUploadService;
+import pl.hubertmaka.culinaryagent.utils.HashUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Implementation of the ImageUploadService that spools uploaded images to temporary files through a fixed-size
+ * buffer, hashing them on the way, so an upload never allocates more than the buffer regardless of the size of the
+ * image. Images are still loaded into memory when they are sent to the model, so every upload reserves its size from
+ * a shared memory budget before it is read; uploads that do not fit the remaining budget are rejected with a
+ * CapacityExceededException instead of queueing. The reserved budget is published as the
+ * {@code image.upload.memory.reserved} gauge, rejected uploads as the {@code image.upload.rejected} counter and
+ * the size of the uploads as the {@code image.upload.size} summary.
+ */
+@Service
+public class TempFileImageUploadService implements ImageUploadService {
+    /** Logger for logging information and debugging purposes. */
+    private static final Logger log = LoggerFactory.getLogger(TempFileImageUploadService.class);
+    /** The size of the buffer an upload is copied through. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** The number of bytes represented by a single permit of the memory budget. */
+    private static final long BYTES_PER_PERMIT = 1024;
+    /** The prefix of the temporary files holding uploads. */
+    private static final String TEMPORARY_FILE_PREFIX = "upload-";
+    /** The directory holding the temporary files. */
+    private final Path directory;
+    /** The maximum size of a single image, in bytes. */
+    private final long maxImageBytes;
+    /** The memory budget shared by the images being processed, in permits of {@link #BYTES_PER_PERMIT} bytes. */
+    private final Semaphore memoryBudget;
+    /** The total number of permits of the memory budget. */
+    private final int memoryBudgetPermits;
+    /** The counter of uploads rejected because the memory budget was exhausted. */
+    private final Counter rejectedUploads;
+    /** The distribution of the sizes of the uploaded images. */
+    private final DistributionSummary uploadSize;
+
+    /**
+     * Constructor for TempFileImageUploadService. Creates the upload directory if needed.
+     *
+     * @param directory the directory holding the temporary files
+     * @param maxImageSize the maximum size of a single image
+     * @param memoryBudget the memory budget shared by the images being processed
+     * @param meterRegistry the registry the upload metrics are published to, injected by Spring
+     * @throws UncheckedIOException if the upload directory cannot be created
+     */
+    public TempFileImageUploadService(
+            @Value("${culinary-agent.image.directory}") String directory,
+            @Value("${culinary-agent.image.max-size}") DataSize maxImageSize,
+            @Value("${culinary-agent.image.memory-budget}") DataSize memoryBudget,
+            MeterRegistry meterRegistry
+    ) {
+        log.info("Creating image upload service [directory={}, maxImageSize={}, memoryBudget={}]...", directory, maxImageSize, memoryBudget);
+        this.directory = Path.of(directory);
+        this.maxImageBytes = maxImageSize.toBytes();
+        this.memoryBudgetPermits = Math.toIntExact(Math.max(1, memoryBudget.toBytes() / BYTES_PER_PERMIT));
+        this.memoryBudget = new Semaphore(memoryBudgetPermits);
+        this.rejectedUploads = Counter.builder("image.upload.rejected")
+                .description("Image uploads rejected because the memory budget was exhausted")
+                .register(meterRegistry);
+        this.uploadSize = DistributionSummary.builder("image.upload.size")
+                .description("Size of the uploaded images")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("image.upload.memory.reserved", this, service ->
+                        (double) (service.memoryBudgetPermits - service.memoryBudget.availablePermits()) * BYTES_PER_PERMIT)
+                .description("Memory budget reserved by the images being processed")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        try {
+            Files.createDirectories(this.directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create the image upload directory " + directory, e);
+        }
+    }
+
+    /**
+     * Reserves the declared size of the image, or the maximum image size if it is unknown, from the memory budget,
+     * spools the image to a temporary file and processes it. Once the image has been spooled, the reservation is
+     * reduced to its actual size.
+     *
+     * @param body the stream of the uploaded image
+     * @param fileExtension the type of the image
+     * @param declaredSize the size of the image declared by the client, or a negative value if it is unknown
+     * @param processor the function processing the spooled image
+     * @param <T> the type of the result of the processing
+     * @return the result of the processing
+     * @throws MaxUploadSizeExceededException if the image is larger than the maximum image size
+     * @throws CapacityExceededException if the image does not fit the remaining memory budget
+     * @throws RecipeExtractionException if the image is empty or cannot be read
+     */
+    @Override
+    public <T> T withUpload(InputStream body, FileExtension fileExtension, long declaredSize, Function<ImageUpload, T> processor) {
+        if (declaredSize > maxImageBytes) {
+            throw new MaxUploadSizeExceededException(maxImageBytes);
+        }
+        int reserved = reserve(declaredSize >= 0 ? declaredSize : maxImageBytes);
+        Path file = null;
+        try {
+            file = Files.createTempFile(directory, TEMPORARY_FILE_PREFIX, "." + fileExtension.getExtension());
+            ImageUpload upload = spool(body, file, fileExtension);
+            int needed = permitsFor(upload.size());
+            if (needed < reserved) {
+                memoryBudget.release(reserved - needed);
+                reserved = needed;
+            }
+            log.info("Image upload spooled [size={}, sha256={}]", upload.size(), upload.sha256());
+            return processor.apply(upload);
+        } catch (IOException e) {
+            throw new RecipeExtractionException("Failed to read the uploaded image: " + e.getMessage());
+        } finally {
+            memoryBudget.release(reserved);
+            deleteQuietly(file);
+        }
+    }
+
+    /**
+     * Reserves memory for an image from the budget without waiting.
+     *
+     * @param bytes the number of bytes to reserve
+     * @return the number of permits reserved
+     * @throws CapacityExceededException if the budget has not enough memory left
+     */
+    private int reserve(long bytes) {
+        int permits = permitsFor(bytes);
+        if (!memoryBudget.tryAcquire(permits)) {
+            rejectedUploads.increment();
+            log.info("Image upload rejected, memory budget exhausted [requestedBytes={}, availableBytes={}]",
+                    bytes, (long) memoryBudget.availablePermits() * BYTES_PER_PERMIT);
+            throw new CapacityExceededException("Too many images are being processed, please retry later");
+        }
+        return permits;
+    }
+
+    /**
+     * Converts a number of bytes into permits of the memory budget, rounding up and never exceeding the whole budget,
+     * so that a single image of the maximum size is always admitted by an idle service.
+     *
+     * @param bytes the number of bytes
+     * @return the number of permits
+     */
+    private int permitsFor(long bytes) {
+        long permits = Math.max(1, (bytes + BYTES_PER_PERMIT - 1) / BYTES_PER_PERMIT);
+        return (int) Math.min(permits, memoryBudgetPermits);
+    }
+
+    /**
+     * Copies the image to the temporary file through a fixed-size buffer, hashing it on the way.
+     *
+     * @param body the stream of the uploaded image
+     * @param file the temporary file
+     * @param fileExtension the type of the image
+     * @return the spooled image
+     * @throws IOException if the image cannot be read or written
+     * @throws MaxUploadSizeExceededException if the image is larger than the maximum image size
+     * @throws RecipeExtractionException if the image is empty
+     */
+    private ImageUpload spool(InputStream body, Path file, FileExtension fileExtension) throws IOException {
+        MessageDigest digest = HashUtils.newSha256Digest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        try (OutputStream output = Files.newOutputStream(file)) {
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                size += read;
+                if (size > maxImageBytes) {
+                    throw new MaxUploadSizeExceededException(maxImageBytes);
+                }
+                digest.update(buffer, 0, read);
+                output.write(buffer, 0, read);
+            }
+        }
+        if (size == 0) {
+            throw new RecipeExtractionException("The uploaded image is empty");
+        }
+        uploadSize.record(size);
+        return new ImageUpload(file, fileExtension, size, HexFormat.of().formatHex(digest.digest()));
+    }
+
+    /**
+     * Deletes a temporary file, logging failures.
+     *
+     * @param file the file to delete, may be null
+     */
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete temporary image upload [file={}]", file, e);
+        }
+    }
+}
@@ -2,7 +2,12 @@ package pl.hubertmaka.culinaryagent.strategies;
 
 import org.springframework.ai.chat.messages.UserMessage;
 import pl.hubertmaka.culinaryagent.domain.dtos.RecipeDataRequestDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaDto;
 import pl.hubertmaka.culinaryagent.domain.enums.RecipeSource;
+import pl.hubertmaka.culinaryagent.domain.models.ImageUpload;
+import pl.hubertmaka.culinaryagent.exceptions.UnsupportedSchemaException;
+
+import java.util.Optional;
 
 /**
  * Strategy interface for handling different types of recipe inputs.
@@ -25,4 +30,38 @@ public interface RecipeInputStrategy {
      * @return a UserMessage representing the recipe data
      */
     UserMessage createMessage(RecipeDataRequestDto recipeData);
+
+    /**
+     * Creates a UserMessage based on an uploaded image. Only strategies handling images support uploads.
+     *
+     * @param image the uploaded image to create a message from
+     * @return a UserMessage representing the image
+     * @throws UnsupportedSchemaException if the strategy does not handle images
+     */
+    default UserMessage createUploadMessage(ImageUpload image) {
+        throw new UnsupportedSchemaException("Image uploads are not supported by this source");
+    }
+
+    /**
+     * Extracts the recipe directly from structured data contained in the provided RecipeDataDto, without calling
+     * the model. Sources without structured data return an empty Optional, and the recipe is then extracted from
+     * the message created by {@link #createMessage(RecipeDataRequestDto)}.
+     *
+     * @param recipeData the data of the recipe to extract the structured recipe from
+     * @return the structured recipe, or an empty Optional if the source has no complete structured recipe
+     */
+    default Optional<RecipeSchemaDto> extractStructured(RecipeDataRequestDto recipeData) {
+        return Optional.empty();
+    }
+
+    /**
+     * Normalizes the content of the provided RecipeDataDto so that inputs differing only in insignificant details
+     * (e.g. surrounding whitespace) produce the same value. The result is used to address cached extractions.
+     *
+     * @param recipeData the data of the recipe whose content is normalized
+     * @return the normalized content of the recipe data
+     */
+    default String normalizeContent(RecipeDataRequestDto recipeData) {
+        return recipeData.content().strip();
+    }
 }
@@ -5,6 +5,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.content.Media;
 import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
 import org.springframework.util.MimeType;
@@ -12,20 +13,41 @@ import org.springframework.util.MimeTypeUtils;
 import pl.hubertmaka.culinaryagent.domain.dtos.RecipeDataRequestDto;
 import pl.hubertmaka.culinaryagent.domain.enums.FileExtension;
 import pl.hubertmaka.culinaryagent.domain.enums.RecipeSource;
+import pl.hubertmaka.culinaryagent.domain.models.ImageUpload;
+import pl.hubertmaka.culinaryagent.services.ImagePreprocessorService;
 import pl.hubertmaka.culinaryagent.strategies.RecipeInputStrategy;
+import pl.hubertmaka.culinaryagent.utils.HashUtils;
 
 import java.util.Base64;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * Strategy implementation for handling image-based recipe inputs.
  * This strategy supports the RecipeSource.IMAGE type and creates a UserMessage
- * containing the image as media content.
+ * containing the image as media content. Uploaded images are attached as file-backed resources, so they are
+ * read into memory only once, when the message is built right before the model is called. Every image is
+ * preprocessed before it is attached, so that it is upright and no larger than the model needs.
  */
 @Component
 public class ImageRecipeInputStrategy implements RecipeInputStrategy {
     /** Logger for logging information and debugging purposes. */
     private final static Logger log = LoggerFactory.getLogger(ImageRecipeInputStrategy.class);
+    /** Pattern matching a run of whitespace characters. */
+    private final static Pattern WHITESPACE = Pattern.compile("\\s+");
+    /** The service preparing images before they are sent to the model. */
+    private final ImagePreprocessorService imagePreprocessorService;
+
+    /**
+     * Constructor for ImageRecipeInputStrategy.
+     *
+     * @param imagePreprocessorService the service preparing images before they are sent to the model, injected by Spring
+     */
+    public ImageRecipeInputStrategy(ImagePreprocessorService imagePreprocessorService) {
+        log.info("Creating image recipe input strategy...");
+        this.imagePreprocessorService = imagePreprocessorService;
+    }
 
     /**
      * Implements the supports method to check if the given recipe source is of type IMAGE.
@@ -49,13 +71,50 @@ public class ImageRecipeInputStrategy implements RecipeInputStrategy {
     public UserMessage createMessage(RecipeDataRequestDto recipeData) {
         log.info("Creating UserMessage for image recipe input...");
         MimeType mimeType = getMimeType(recipeData.fileExtension());
-        Resource image = decodeImage(recipeData.content());
+        Resource image = imagePreprocessorService.preprocess(decodeImage(recipeData.content()), recipeData.fileExtension());
         return UserMessage.builder()
                 .text("Extract text from given image")
                 .media(List.of(new Media(mimeType, image)))
                 .build();
     }
 
+    /**
+     * Implements the createUploadMessage method to create a UserMessage containing the uploaded image as media content,
+     * read from its temporary file.
+     *
+     * @param image the uploaded image to create a message from
+     * @return a UserMessage representing the uploaded image
+     */
+    @Override
+    public UserMessage createUploadMessage(ImageUpload image) {
+        log.info("Creating UserMessage for uploaded image [size={}]...", image.size());
+        Resource preprocessed = imagePreprocessorService.preprocess(new FileSystemResource(image.file()), image.fileExtension());
+        return UserMessage.builder()
+                .text("Extract text from given image")
+                .media(List.of(new Media(getMimeType(image.fileExtension()), preprocessed)))
+                .build();
+    }
+
+    /**
+     * Normalizes the image content to the SHA-256 hash of the decoded image bytes, the same hash an uploaded image
+     * is addressed by, so the same image sent as base64, with or without a data URI prefix, or uploaded as a file
+     * shares its cache entry. Content that is not valid base64 is normalized to its payload without whitespace.
+     *
+     * @param recipeData the data of the recipe whose content is normalized
+     * @return the hexadecimal SHA-256 hash of the image bytes
+     */
+    @Override
+    public String normalizeContent(RecipeDataRequestDto recipeData) {
+        String base64Image = WHITESPACE.matcher(stripDataUriPrefix(recipeData.content())).replaceAll("");
+        try {
+            byte[] imageBytes = Base64.getDecoder().decode(base64Image);
+            return HexFormat.of().formatHex(HashUtils.newSha256Digest().digest(imageBytes));
+        } catch (IllegalArgumentException e) {
+            log.debug("Could not decode image content, normalizing its base64 payload: {}", e.getMessage());
+            return base64Image;
+        }
+    }
+
     /**
      * Decodes a base64 encoded image string into a Resource that can be used as media content in a UserMessage.
      *
@@ -64,15 +123,21 @@ public class ImageRecipeInputStrategy implements RecipeInputStrategy {
      */
     private Resource decodeImage(String base64EncodedImage) {
         log.info("Decoding image from base64 encoded image...");
-        String cleanBase64Image = base64EncodedImage;
-        if (base64EncodedImage.contains(",")) {
-            log.info("Decoding image from base64 encoded image...");
-            cleanBase64Image = base64EncodedImage.split(",")[1];
-        }
-        byte[] decodedBytes = Base64.getDecoder().decode(cleanBase64Image);
+        byte[] decodedBytes = Base64.getDecoder().decode(stripDataUriPrefix(base64EncodedImage));
         return new ByteArrayResource(decodedBytes);
     }
 
+    /**
+     * Removes the data URI prefix, such as {@code data:image/png;base64,}, from a base64 encoded image.
+     *
+     * @param base64EncodedImage the base64 encoded image, with or without a data URI prefix
+     * @return the base64 payload of the image
+     */
+    private static String stripDataUriPrefix(String base64EncodedImage) {
+        int separator = base64EncodedImage.indexOf(',');
+        return separator >= 0 ? base64EncodedImage.substring(separator + 1) : base64EncodedImage;
+    }
+
     /**
      * Determines the MIME type of the image based on its file extension.
      *
@@ -8,6 +8,8 @@ import pl.hubertmaka.culinaryagent.domain.dtos.RecipeDataRequestDto;
 import pl.hubertmaka.culinaryagent.domain.enums.RecipeSource;
 import pl.hubertmaka.culinaryagent.strategies.RecipeInputStrategy;
 
+import java.util.regex.Pattern;
+
 /**
  * Strategy implementation for handling text-based recipe inputs.
  * This strategy supports the RecipeSource.TEXT type and creates a UserMessage
@@ -17,6 +19,8 @@ import pl.hubertmaka.culinaryagent.strategies.RecipeInputStrategy;
 public class TextRecipeInputStrategy implements RecipeInputStrategy {
     /** Logger for logging information and debugging purposes. */
     private final static Logger log = LoggerFactory.getLogger(TextRecipeInputStrategy.class);
+    /** Pattern matching a run of whitespace characters. */
+    private final static Pattern WHITESPACE = Pattern.compile("\\s+");
 
     /**
      * Implements the supports method to check if the given recipe source is of type TEXT.
@@ -41,4 +45,15 @@ public class TextRecipeInputStrategy implements RecipeInputStrategy {
                 .text(recipeData.content())
                 .build();
     }
+
+    /**
+     * Normalizes the text content by trimming it and collapsing every run of whitespace into a single space.
+     *
+     * @param recipeData the data of the recipe whose content is normalized
+     * @return the normalized text content
+     */
+    @Override
+    public String normalizeContent(RecipeDataRequestDto recipeData) {
+        return WHITESPACE.matcher(recipeData.content().strip()).replaceAll(" ");
+    }
 }
@@ -1,37 +1,67 @@
 package pl.hubertmaka.culinaryagent.strategies.impl;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.RestClient;
 import pl.hubertmaka.culinaryagent.domain.dtos.RecipeDataRequestDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaDto;
 import pl.hubertmaka.culinaryagent.domain.enums.RecipeSource;
+import pl.hubertmaka.culinaryagent.domain.models.WebPageContent;
+import pl.hubertmaka.culinaryagent.extractors.StructuredDataRecipeExtractor;
+import pl.hubertmaka.culinaryagent.services.WebPageContentService;
 import pl.hubertmaka.culinaryagent.strategies.RecipeInputStrategy;
+import pl.hubertmaka.culinaryagent.utils.HashUtils;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
 
 /**
  * Strategy implementation for handling URL-based recipe inputs.
  * This strategy supports the RecipeSource.URL type and creates a UserMessage
- * containing the extracted text content from the provided URL.
+ * containing the main text content of the page at the provided URL, without navigation, comments, footers and
+ * other boilerplate. Pages embedding a complete schema.org recipe are
+ * extracted from their structured data without calling the model.
  */
 @Component
 public class UrlRecipeInputStrategy implements RecipeInputStrategy {
     /** Logger for logging information and debugging purposes. */
     private final static Logger log = LoggerFactory.getLogger(UrlRecipeInputStrategy.class);
+    /** The time a loaded page is kept, so that the structured data and the text of a page are read from one fetch. */
+    private static final Duration RECENT_PAGE_TTL = Duration.ofMinutes(1);
+    /** The maximum number of recently loaded pages kept. */
+    private static final long RECENT_PAGES_MAXIMUM_SIZE = 64;
 
-    /** The RestClient used for making HTTP requests to fetch content from URLs. */
-    private final RestClient restClient;
+    /** The service loading the content of the pages at the provided URLs. */
+    private final WebPageContentService webPageContentService;
+    /** The extractor reading recipes from the schema.org structured data of a page. */
+    private final StructuredDataRecipeExtractor structuredDataRecipeExtractor;
+    /** The content of recently loaded pages keyed by their normalized URL. */
+    private final Cache<String, WebPageContent> recentPages = Caffeine.newBuilder()
+            .maximumSize(RECENT_PAGES_MAXIMUM_SIZE)
+            .expireAfterWrite(RECENT_PAGE_TTL)
+            .build();
 
     /**
-     * Constructor for UrlRecipeInputStrategy that initializes the RestClient.
+     * Constructor for UrlRecipeInputStrategy that initializes the page content service and the extractor.
      *
-     * @param restClient the RestClient to be used for making HTTP requests, injected by Spring
+     * @param webPageContentService the service to be used for loading page content, injected by Spring
+     * @param structuredDataRecipeExtractor the extractor reading recipes from structured data, injected by Spring
      */
-    public UrlRecipeInputStrategy(RestClient restClient) {
+    public UrlRecipeInputStrategy(
+            WebPageContentService webPageContentService,
+            StructuredDataRecipeExtractor structuredDataRecipeExtractor
+    ) {
         log.info("Creating URL recipe input strategy...");
-        this.restClient = restClient;
+        this.webPageContentService = webPageContentService;
+        this.structuredDataRecipeExtractor = structuredDataRecipeExtractor;
     }
 
     /**
@@ -59,29 +89,85 @@ public class UrlRecipeInputStrategy implements RecipeInputStrategy {
     }
 
     /**
-     * Extracts the text content from the provided URL by making an HTTP GET request and parsing the HTML response.
+     * Extracts the recipe from the schema.org JSON-LD or microdata of the page, if the page embeds a complete recipe
+     * in the requested language. The loaded page is kept for a short time, so that falling back to
+     * {@link #createMessage(RecipeDataRequestDto)} does not load it again.
+     *
+     * @param recipeData the data of the recipe to extract the structured recipe from
+     * @return the structured recipe, or an empty Optional if the page has no complete structured recipe
+     */
+    @Override
+    public Optional<RecipeSchemaDto> extractStructured(RecipeDataRequestDto recipeData) {
+        WebPageContent page = loadPage(recipeData.content());
+        return structuredDataRecipeExtractor.extract(Jsoup.parse(page.structuredData()), recipeData.language());
+    }
+
+    /**
+     * Addresses the extraction of a page by the hash of its extracted main content and structured data instead of
+     * its URL, so a page that changed is extracted again instead of being served the recipe of its old version.
+     * The page is loaded through the web page service, which reuses it while fresh and revalidates it once stale,
+     * and is kept for the extraction that follows on a cache miss.
+     *
+     * @param recipeData the data of the recipe whose content is normalized
+     * @return the hash of the content of the page
+     */
+    @Override
+    public String normalizeContent(RecipeDataRequestDto recipeData) {
+        WebPageContent page = loadPage(recipeData.content());
+        return HashUtils.sha256Hex(page.mainContent(), page.structuredData());
+    }
+
+    /**
+     * Normalizes the URL by lower-casing its scheme and host and dropping the fragment, which is never sent to
+     * the server. URLs that cannot be parsed are only trimmed.
+     *
+     * @param content the URL to normalize
+     * @return the normalized URL
+     */
+    private String normalizeUrl(String content) {
+        String url = content.strip();
+        try {
+            URI uri = new URI(url);
+            if (uri.getScheme() == null || uri.getRawAuthority() == null) {
+                return url;
+            }
+            String query = uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "";
+            return uri.getScheme().toLowerCase(Locale.ROOT) + "://"
+                    + uri.getRawAuthority().toLowerCase(Locale.ROOT)
+                    + Objects.toString(uri.getRawPath(), "")
+                    + query;
+        } catch (URISyntaxException e) {
+            log.debug("Could not normalize URL [url={}]: {}", url, e.getMessage());
+            return url;
+        }
+    }
+
+    /**
+     * Extracts the main text content from the provided URL, without the boilerplate around it.
      *
      * @param url the URL from which to extract content
      * @return a String containing the extracted text content from the URL
      */
     protected String extractContent(String url) {
-        String htmlContent = restClient.get()
-                .uri(url)
-                .retrieve()
-                .body(String.class);
-        return extractTextFromHtml(htmlContent);
+        return loadPage(url).mainContent();
     }
 
     /**
-     * Extracts the text content from the given HTML content by parsing it and removing unnecessary elements.
+     * Loads the content of the page at the normalized URL, reusing a page loaded within the last minute. The page is
+     * fetched outside of the cache, so that a slow fetch does not hold a lock of the cache's map; concurrent first
+     * loads of the same URL may both fetch it, and are served by the web page cache once it holds the page.
      *
-     * @param htmlContent the HTML content to extract text from
-     * @return a String containing the extracted text content from the HTML
+     * @param content the URL of the page
+     * @return the content of the page
      */
-    private String extractTextFromHtml(String htmlContent) {
-        Document document = Jsoup.parse(htmlContent);
-        document.select("script, style, meta, link").remove();
-        return document.body().text();
+    private WebPageContent loadPage(String content) {
+        String url = normalizeUrl(content);
+        WebPageContent page = recentPages.getIfPresent(url);
+        if (page == null) {
+            page = webPageContentService.load(url);
+            recentPages.put(url, page);
+        }
+        return page;
     }
 
 }
@@ -0,0 +1,47 @@
+package pl.hubertmaka.culinaryagent.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Utility class for computing content hashes used as cache keys and fingerprints.
+ */
+public final class HashUtils {
+    /** Separator placed between hashed parts so that ("ab", "c") and ("a", "bc") produce different hashes. */
+    private static final byte PART_SEPARATOR = 0;
+
+    private HashUtils() { }
+
+    /**
+     * Computes the SHA-256 hash of the given parts, encoded as a lowercase hexadecimal String.
+     * Null parts are hashed as empty Strings.
+     *
+     * @param parts the parts to hash, in order
+     * @return the hexadecimal SHA-256 hash of the parts
+     */
+    public static String sha256Hex(String... parts) {
+        MessageDigest digest = newSha256Digest();
+        for (String part : parts) {
+            if (part != null) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update(PART_SEPARATOR);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Creates a new SHA-256 MessageDigest, which can be used to hash content incrementally.
+     *
+     * @return a new SHA-256 MessageDigest instance
+     */
+    public static MessageDigest newSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+        }
+    }
+}
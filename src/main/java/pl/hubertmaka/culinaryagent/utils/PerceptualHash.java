@@ -0,0 +1,115 @@
+package pl.hubertmaka.culinaryagent.utils;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.OptionalLong;
+
+/**
+ * Utility class for computing perceptual hashes of images. Unlike content hashes, perceptual hashes of the same
+ * picture stay within a few bits of each other when it is recompressed, rescaled, slightly cropped or has its
+ * brightness changed, so near-duplicate images can be found by the Hamming distance of their hashes.
+ */
+public final class PerceptualHash {
+    /** The number of columns of the grid the image is reduced to; one more than the bits compared per row. */
+    private static final int GRID_COLUMNS = 9;
+    /** The number of rows of the grid the image is reduced to. */
+    private static final int GRID_ROWS = 8;
+    /** The minimum number of decoded pixels per grid cell along each axis, so every cell averages a real area. */
+    private static final int PIXELS_PER_CELL = 8;
+
+    private PerceptualHash() { }
+
+    /**
+     * Computes the 64-bit difference hash (dHash) of an encoded image. The image is decoded with source subsampling,
+     * reduced to a 9x8 grid of average luminance, and every bit tells whether a cell is brighter than its right
+     * neighbour.
+     *
+     * @param image the encoded image
+     * @return the difference hash of the image, or an empty OptionalLong if the image cannot be decoded
+     */
+    public static OptionalLong dHash(byte[] image) {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                return OptionalLong.empty();
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int subsampling = Math.max(1, Math.min(
+                        reader.getWidth(0) / (GRID_COLUMNS * PIXELS_PER_CELL),
+                        reader.getHeight(0) / (GRID_ROWS * PIXELS_PER_CELL)));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return OptionalLong.of(dHash(reader.read(0, param)));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            return OptionalLong.empty();
+        }
+    }
+
+    /**
+     * Computes the 64-bit difference hash (dHash) of a decoded image.
+     *
+     * @param image the decoded image
+     * @return the difference hash of the image
+     */
+    public static long dHash(BufferedImage image) {
+        double[] cells = averageLuminance(image);
+        long hash = 0;
+        for (int row = 0; row < GRID_ROWS; row++) {
+            for (int column = 0; column < GRID_COLUMNS - 1; column++) {
+                int cell = row * GRID_COLUMNS + column;
+                hash = (hash << 1) | (cells[cell] > cells[cell + 1] ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Computes the number of bits in which two hashes differ.
+     *
+     * @param first the first hash
+     * @param second the second hash
+     * @return the Hamming distance between the hashes, from 0 to 64
+     */
+    public static int distance(long first, long second) {
+        return Long.bitCount(first ^ second);
+    }
+
+    /**
+     * Reduces the image to the grid by averaging the luminance of the pixels falling into each cell.
+     *
+     * @param image the decoded image
+     * @return the average luminance of the cells, row by row
+     */
+    private static double[] averageLuminance(BufferedImage image) {
+        double[] sums = new double[GRID_COLUMNS * GRID_ROWS];
+        int[] counts = new int[sums.length];
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int gridRow = y * GRID_ROWS / height;
+            for (int x = 0; x < width; x++) {
+                int cell = gridRow * GRID_COLUMNS + x * GRID_COLUMNS / width;
+                int rgb = row[x];
+                sums[cell] += 0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF) + 0.114 * (rgb & 0xFF);
+                counts[cell]++;
+            }
+        }
+        for (int cell = 0; cell < sums.length; cell++) {
+            sums[cell] = counts[cell] == 0 ? 0 : sums[cell] / counts[cell];
+        }
+        return sums;
+    }
+}
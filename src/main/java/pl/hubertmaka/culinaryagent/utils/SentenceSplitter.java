@@ -0,0 +1,102 @@
+package pl.hubertmaka.culinaryagent.utils;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Utility class for splitting text into sentences, both for complete texts and for text arriving incrementally
+ * as a stream of fragments (e.g. tokens generated by a chat model).
+ */
+public final class SentenceSplitter {
+    /** Pattern matching a sentence boundary: terminal punctuation, optional closing quotes or brackets, and whitespace. */
+    private static final Pattern BOUNDARY = Pattern.compile("[.!?…]+[\"')\\]]*\\s+");
+
+    private SentenceSplitter() { }
+
+    /**
+     * Splits a stream of text fragments into a stream of sentences. A sentence is emitted as soon as its boundary
+     * arrives, provided it is at least {@code minLength} characters long; shorter sentences are merged with the
+     * following ones. Any remaining text is emitted when the source completes.
+     *
+     * @param fragments the stream of text fragments to split
+     * @param minLength the minimum length of an emitted sentence
+     * @return a Flux of sentences in the order they appear in the source
+     */
+    public static Flux<String> split(Flux<String> fragments, int minLength) {
+        return Flux.defer(() -> {
+            SentenceBuffer buffer = new SentenceBuffer(minLength);
+            return fragments
+                    .concatMapIterable(buffer::append)
+                    .concatWith(Mono.fromSupplier(buffer::flush));
+        });
+    }
+
+    /**
+     * Splits a complete text into sentences, merging sentences shorter than {@code minLength} with the following ones.
+     *
+     * @param text      the text to split
+     * @param minLength the minimum length of a returned sentence
+     * @return a list of sentences in the order they appear in the text
+     */
+    public static List<String> split(String text, int minLength) {
+        SentenceBuffer buffer = new SentenceBuffer(minLength);
+        List<String> sentences = new ArrayList<>(buffer.append(text));
+        String rest = buffer.flush();
+        if (rest != null) {
+            sentences.add(rest);
+        }
+        return sentences;
+    }
+
+    /**
+     * Stateful buffer accumulating text fragments until complete sentences can be cut from it.
+     */
+    private static final class SentenceBuffer {
+        /** The text received so far that has not been emitted yet. */
+        private final StringBuilder pending = new StringBuilder();
+        /** The minimum length of an emitted sentence. */
+        private final int minLength;
+
+        private SentenceBuffer(int minLength) {
+            this.minLength = minLength;
+        }
+
+        /**
+         * Appends a fragment and returns every sentence that became complete.
+         *
+         * @param fragment the text fragment to append
+         * @return a list of complete sentences, possibly empty
+         */
+        private List<String> append(String fragment) {
+            pending.append(fragment);
+            List<String> sentences = new ArrayList<>();
+            Matcher matcher = BOUNDARY.matcher(pending);
+            int start = 0;
+            while (matcher.find()) {
+                String sentence = pending.substring(start, matcher.end()).strip();
+                if (sentence.length() >= minLength) {
+                    sentences.add(sentence);
+                    start = matcher.end();
+                }
+            }
+            pending.delete(0, start);
+            return sentences;
+        }
+
+        /**
+         * Returns the remaining text and clears the buffer.
+         *
+         * @return the remaining text, or null if nothing but whitespace is left
+         */
+        private String flush() {
+            String rest = pending.toString().strip();
+            pending.setLength(0);
+            return rest.isEmpty() ? null : rest;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package pl.hubertmaka.culinaryagent.utils;
+
+import io.micrometer.core.instrument.Counter;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls with the same key into a single execution. The first caller of a key runs the loader
+ * on its own thread, while every caller arriving before it finishes waits for the same in-flight result and receives
+ * the same value or the same exception. Once the execution completes the key is released, so later calls run again.
+ *
+ * @param <K> the type of the keys identifying the calls
+ * @param <V> the type of the values produced by the calls
+ */
+public final class SingleFlight<K, V> {
+    /** The results of the calls currently in flight, keyed by the call key. */
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    /** The counter incremented every time a caller shares an in-flight result instead of running the loader. */
+    private final Counter sharedCalls;
+
+    /**
+     * Constructor for SingleFlight.
+     *
+     * @param sharedCalls the counter incremented for every call served by an in-flight execution
+     */
+    public SingleFlight(Counter sharedCalls) {
+        this.sharedCalls = sharedCalls;
+    }
+
+    /**
+     * Runs the loader for the given key, or waits for the result of an execution of the same key that is already
+     * in flight. A waiting caller that is interrupted stops waiting and gets a CancellationException, while the
+     * execution it was waiting for keeps running for the remaining callers.
+     *
+     * @param key the key identifying the call
+     * @param loader the supplier producing the value, run only by the first caller of the key
+     * @return the value produced by the loader
+     * @throws CancellationException if the caller is interrupted while waiting for an in-flight execution
+     */
+    public V execute(K key, Supplier<V> loader) {
+        CompletableFuture<V> call = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, call);
+        if (existing != null) {
+            sharedCalls.increment();
+            return await(existing);
+        }
+        try {
+            V value = loader.get();
+            call.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, call);
+        }
+    }
+
+    /**
+     * Returns the number of calls currently in flight.
+     *
+     * @return the number of keys whose loader is running
+     */
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Waits for an in-flight execution and rethrows its failure unwrapped, so that sharing callers observe the
+     * same exception as the caller that ran the loader.
+     *
+     * @param call the future of the in-flight execution
+     * @return the value produced by the in-flight execution
+     */
+    private V await(CompletableFuture<V> call) {
+        try {
+            return call.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            CancellationException cancellation = new CancellationException("Interrupted while waiting for an in-flight call");
+            cancellation.initCause(e);
+            throw cancellation;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package pl.hubertmaka.culinaryagent.utils;
+
+import org.springframework.ai.chat.messages.Message;
+
+/**
+ * Utility class for estimating the number of prompt tokens taken by messages without calling a tokenizer. The
+ * estimate assumes about four characters per token, which holds for English and errs on the low side for Polish, and
+ * adds a fixed overhead for the role and framing of every message.
+ */
+public final class TokenEstimator {
+    /** The average number of characters per token. */
+    private static final int CHARACTERS_PER_TOKEN = 4;
+    /** The number of tokens taken by the role and framing of a message. */
+    private static final int MESSAGE_OVERHEAD = 4;
+
+    private TokenEstimator() { }
+
+    /**
+     * Estimates the number of tokens of a text.
+     *
+     * @param text the text, may be null
+     * @return the estimated number of tokens, 0 for a null or empty text
+     */
+    public static int estimate(String text) {
+        if (text == null) {
+            return 0;
+        }
+        return (text.length() + CHARACTERS_PER_TOKEN - 1) / CHARACTERS_PER_TOKEN;
+    }
+
+    /**
+     * Estimates the number of tokens a message takes in the prompt.
+     *
+     * @param message the message
+     * @return the estimated number of tokens of the text and framing of the message
+     */
+    public static int estimate(Message message) {
+        return estimate(message.getText()) + MESSAGE_OVERHEAD;
+    }
+}
@@ -0,0 +1,163 @@
+package pl.hubertmaka.culinaryagent.caches;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pl.hubertmaka.culinaryagent.domain.dtos.MetadataDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaResponseDto;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecipeExtractionCacheTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private final RecipeSchemaResponseDto response = new RecipeSchemaResponseDto(
+        new RecipeSchemaDto("Pasta", List.of(), 20, List.of()),
+        new MetadataDto(10, 20, 30, "gemini-pro")
+    );
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    @DisplayName("Test if get loads a missing entry once and serves it from the cache afterwards")
+    void whenGetSameKeyTwice_thenLoadOnce() {
+        // Given
+        var cache = new RecipeExtractionCache(true, 10, Duration.ofMinutes(5), meterRegistry);
+        var loads = new AtomicInteger();
+
+        // When
+        var first = cache.get("key", () -> { loads.incrementAndGet(); return response; });
+        var second = cache.get("key", () -> { loads.incrementAndGet(); return response; });
+
+        // Then
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    @DisplayName("Test if get always calls the loader when the cache is disabled")
+    void whenCacheDisabled_thenAlwaysLoad() {
+        // Given
+        var cache = new RecipeExtractionCache(false, 10, Duration.ofMinutes(5), meterRegistry);
+        var loads = new AtomicInteger();
+
+        // When
+        cache.get("key", () -> { loads.incrementAndGet(); return response; });
+        cache.get("key", () -> { loads.incrementAndGet(); return response; });
+
+        // Then
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    @DisplayName("Test if get does not cache a failed extraction")
+    void whenLoaderThrows_thenDoNotCache() {
+        // Given
+        var cache = new RecipeExtractionCache(true, 10, Duration.ofMinutes(5), meterRegistry);
+
+        // When
+        assertThrows(IllegalStateException.class, () -> cache.get("key", () -> { throw new IllegalStateException(); }));
+        var result = cache.get("key", () -> response);
+
+        // Then
+        assertSame(response, result);
+    }
+
+    @Test
+    @DisplayName("Test if cache hits and misses are published to the meter registry")
+    void whenGet_thenPublishHitAndMissMetrics() {
+        // Given
+        var cache = new RecipeExtractionCache(true, 10, Duration.ofMinutes(5), meterRegistry);
+
+        // When
+        cache.get("key", () -> response);
+        cache.get("key", () -> response);
+
+        // Then
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "recipe-extraction").tag("result", "hit").functionCounter().count());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "recipe-extraction").tag("result", "miss").functionCounter().count());
+    }
+
+    @Test
+    @DisplayName("Test if concurrent misses of the same key run a single extraction and count the coalesced calls")
+    void whenConcurrentMissesOfSameKey_thenExtractOnce() throws Exception {
+        // Given
+        var joined = new Semaphore(0);
+        meterRegistry = new SimpleMeterRegistry() {
+            @Override
+            protected Counter newCounter(Meter.Id id) {
+                var counter = super.newCounter(id);
+                return !id.getName().equals("recipe.extraction.coalesced") ? counter : new Counter() {
+                    @Override
+                    public void increment(double amount) {
+                        counter.increment(amount);
+                        joined.release();
+                    }
+
+                    @Override
+                    public double count() {
+                        return counter.count();
+                    }
+
+                    @Override
+                    public Meter.Id getId() {
+                        return counter.getId();
+                    }
+                };
+            }
+        };
+        var cache = new RecipeExtractionCache(true, 10, Duration.ofMinutes(5), meterRegistry);
+        var loads = new AtomicInteger();
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(2);
+        var coalesced = meterRegistry.get("recipe.extraction.coalesced").counter();
+
+        // When
+        Future<RecipeSchemaResponseDto> leader = executor.submit(() -> cache.get("key", () -> {
+            loads.incrementAndGet();
+            started.countDown();
+            awaitQuietly(release);
+            return response;
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<RecipeSchemaResponseDto> follower = executor.submit(() -> cache.get("key", () -> {
+            loads.incrementAndGet();
+            return response;
+        }));
+        assertTrue(joined.tryAcquire(5, TimeUnit.SECONDS));
+        release.countDown();
+
+        // Then
+        assertSame(response, leader.get(5, TimeUnit.SECONDS));
+        assertSame(response, follower.get(5, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+        assertEquals(1.0, coalesced.count());
+        executor.shutdown();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
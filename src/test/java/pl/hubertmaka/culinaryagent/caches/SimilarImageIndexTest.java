@@ -0,0 +1,197 @@
+package pl.hubertmaka.culinaryagent.caches;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pl.hubertmaka.culinaryagent.domain.dtos.MetadataDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaResponseDto;
+import pl.hubertmaka.culinaryagent.utils.PerceptualHash;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimilarImageIndexTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private SimilarImageIndex index;
+    private AtomicInteger extractions;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        index = new SimilarImageIndex(true, 10, 100, Duration.ofMinutes(5), meterRegistry);
+        extractions = new AtomicInteger();
+    }
+
+    @Test
+    @DisplayName("Test if get serves the recipe of a re-cropped, rescaled and recompressed copy of an extracted photo")
+    void whenNearDuplicateImage_thenServePreviousExtraction() throws IOException {
+        // Given
+        var original = scene(1600, 1200, 7L);
+        var copy = original.getSubimage(24, 18, 1552, 1164);
+        var originalBytes = encodeJpeg(original, 0.95f);
+        var copyBytes = encodeJpeg(scale(copy, 776, 582), 0.6f);
+
+        // When
+        var first = index.get(originalBytes, "scope", () -> extract("Pierogi"));
+        var second = index.get(copyBytes, "scope", () -> extract("Other"));
+
+        // Then
+        assertTrue(PerceptualHash.distance(hash(originalBytes), hash(copyBytes)) <= 10);
+        assertSame(first, second);
+        assertEquals(1, extractions.get());
+        assertEquals(1.0, meterRegistry.get("image.dedup.requests").tag("result", "hit").counter().count());
+        assertEquals(1.0, meterRegistry.get("image.dedup.requests").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    @DisplayName("Test if get extracts a different photo again")
+    void whenDifferentImage_thenExtractAgain() throws IOException {
+        // Given
+        var firstBytes = encodeJpeg(scene(800, 600, 1L), 0.9f);
+        var secondBytes = encodeJpeg(scene(800, 600, 2L), 0.9f);
+
+        // When
+        var first = index.get(firstBytes, "scope", () -> extract("Pierogi"));
+        var second = index.get(secondBytes, "scope", () -> extract("Bigos"));
+
+        // Then
+        assertTrue(PerceptualHash.distance(hash(firstBytes), hash(secondBytes)) > 10);
+        assertNotSame(first, second);
+        assertEquals(2, extractions.get());
+    }
+
+    @Test
+    @DisplayName("Test if get does not serve a recipe extracted in another scope")
+    void whenSameImageInAnotherScope_thenExtractAgain() throws IOException {
+        // Given
+        var image = encodeJpeg(scene(800, 600, 3L), 0.9f);
+
+        // When
+        index.get(image, "polish", () -> extract("Pierogi"));
+        var english = index.get(image, "english", () -> extract("Dumplings"));
+
+        // Then
+        assertEquals("Dumplings", english.recipeSchema().content());
+        assertEquals(2, extractions.get());
+    }
+
+    @Test
+    @DisplayName("Test if get extracts images that cannot be decoded without indexing them")
+    void whenImageCannotBeDecoded_thenExtractEveryTime() {
+        // Given
+        var image = new byte[]{1, 2, 3, 4};
+
+        // When
+        index.get(image, "scope", () -> extract("Pierogi"));
+        index.get(image, "scope", () -> extract("Pierogi"));
+
+        // Then
+        assertEquals(2, extractions.get());
+        assertEquals(0.0, meterRegistry.get("image.dedup.size").gauge().value());
+    }
+
+    @Test
+    @DisplayName("Test if find skips a closer image that has expired and serves another image within the distance")
+    void whenClosestImageExpired_thenServeNextClosestLiveImage() {
+        // Given
+        var time = new AtomicLong();
+        var expiring = new SimilarImageIndex(true, 10, 100, Duration.ofMinutes(5), meterRegistry, time::get);
+        var older = extract("Pierogi");
+        var newer = extract("Bigos");
+        expiring.put(0L, "scope", older);
+        time.addAndGet(Duration.ofMinutes(3).toNanos());
+        expiring.put(0b111L, "scope", newer);
+
+        // When
+        var beforeExpiry = expiring.find(0L, "scope");
+        time.addAndGet(Duration.ofMinutes(3).toNanos());
+        var afterExpiry = expiring.find(0L, "scope");
+
+        // Then
+        assertSame(older, beforeExpiry.orElseThrow());
+        assertSame(newer, afterExpiry.orElseThrow());
+    }
+
+    private RecipeSchemaResponseDto extract(String recipeName) {
+        extractions.incrementAndGet();
+        return new RecipeSchemaResponseDto(
+                new RecipeSchemaDto(recipeName, List.of(), 30, List.of()),
+                new MetadataDto(10, 20, 30, "gemini-pro")
+        );
+    }
+
+    private static long hash(byte[] image) {
+        return PerceptualHash.dHash(image).orElseThrow();
+    }
+
+    /**
+     * Draws a photo-like scene of overlapping shapes on a gradient, different for every seed.
+     */
+    private static BufferedImage scene(int width, int height, long seed) {
+        var random = new Random(seed);
+        var image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        var graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setPaint(new GradientPaint(0, 0, new Color(random.nextInt()), width, height, new Color(random.nextInt())));
+        graphics.fillRect(0, 0, width, height);
+        for (int shape = 0; shape < 12; shape++) {
+            graphics.setColor(new Color(random.nextInt()));
+            int x = random.nextInt(width);
+            int y = random.nextInt(height);
+            int w = width / 8 + random.nextInt(width / 3);
+            int h = height / 8 + random.nextInt(height / 3);
+            if (random.nextBoolean()) {
+                graphics.fillOval(x - w / 2, y - h / 2, w, h);
+            } else {
+                graphics.fillRect(x - w / 2, y - h / 2, w, h);
+            }
+        }
+        graphics.dispose();
+        return image;
+    }
+
+    private static BufferedImage scale(BufferedImage image, int width, int height) {
+        var scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        var graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+        return scaled;
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        var output = new ByteArrayOutputStream();
+        try (var imageOutput = new MemoryCacheImageOutputStream(output)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(imageOutput);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        assertNotNull(ImageIO.read(new ByteArrayInputStream(output.toByteArray())));
+        return output.toByteArray();
+    }
+}
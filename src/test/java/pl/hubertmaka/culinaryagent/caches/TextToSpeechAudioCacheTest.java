@@ -0,0 +1,132 @@
+package pl.hubertmaka.culinaryagent.caches;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TextToSpeechAudioCacheTest {
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    @DisplayName("Test if cached audio is replayed in fixed-size slices without calling the synthesizer again")
+    void whenGetSameKeyTwice_thenReplayCachedSlices() {
+        // Given
+        var cache = createCache(1024, 4);
+        var syntheses = new AtomicInteger();
+        var audio = new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+
+        // When
+        cache.get("key", () -> { syntheses.incrementAndGet(); return Flux.just(audio); }).blockLast();
+        var replayed = cache.get("key", () -> { syntheses.incrementAndGet(); return Flux.just(audio); });
+
+        // Then
+        StepVerifier.create(replayed)
+            .assertNext(slice -> assertArrayEquals(new byte[]{1, 2, 3, 4}, slice))
+            .assertNext(slice -> assertArrayEquals(new byte[]{5, 6, 7, 8}, slice))
+            .assertNext(slice -> assertArrayEquals(new byte[]{9, 10}, slice))
+            .verifyComplete();
+        assertEquals(1, syntheses.get());
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    @DisplayName("Test if cached audio survives a restart of the cache")
+    void whenCacheRecreated_thenReplayAudioFromDisk() {
+        // Given
+        createCache(1024, 4).get("key", () -> Flux.just(new byte[]{1, 2}, new byte[]{3})).blockLast();
+
+        // When
+        var restarted = createCache(1024, 4);
+        var replayed = collect(restarted.get("key", () -> Flux.error(new IllegalStateException("should not synthesize"))));
+
+        // Then
+        assertArrayEquals(new byte[]{1, 2, 3}, replayed);
+        assertEquals(3, restarted.size());
+    }
+
+    @Test
+    @DisplayName("Test if the least recently used audio is evicted once the cache exceeds its size")
+    void whenCacheExceedsMaximumSize_thenEvictLeastRecentlyUsed() {
+        // Given
+        var cache = createCache(8, 4);
+        var syntheses = new AtomicInteger();
+        cache.get("first", () -> Flux.just(new byte[4])).blockLast();
+        cache.get("second", () -> Flux.just(new byte[4])).blockLast();
+        cache.get("first", () -> Flux.just(new byte[4])).blockLast();
+
+        // When
+        cache.get("third", () -> Flux.just(new byte[4])).blockLast();
+
+        // Then
+        assertEquals(8, cache.size());
+        assertFalse(Files.exists(directory.resolve("second.audio")));
+        cache.get("first", () -> { syntheses.incrementAndGet(); return Flux.just(new byte[4]); }).blockLast();
+        cache.get("second", () -> { syntheses.incrementAndGet(); return Flux.just(new byte[4]); }).blockLast();
+        assertEquals(1, syntheses.get());
+    }
+
+    @Test
+    @DisplayName("Test if concurrent requests for the same audio share a single synthesis")
+    void whenConcurrentRequestsForSameKey_thenSynthesizeOnce() {
+        // Given
+        var cache = createCache(1024, 4);
+        var syntheses = new AtomicInteger();
+        var first = cache.get("key", () -> {
+            syntheses.incrementAndGet();
+            return Flux.just(new byte[]{1}, new byte[]{2}).delayElements(Duration.ofMillis(50));
+        });
+        var second = cache.get("key", () -> {
+            syntheses.incrementAndGet();
+            return Flux.just(new byte[]{9});
+        });
+
+        // When
+        var results = Flux.merge(first.collectList(), second.collectList()).collectList().block();
+
+        // Then
+        assertEquals(1, syntheses.get());
+        assertEquals(2, results.size());
+        results.forEach(chunks -> assertEquals(2, chunks.size()));
+    }
+
+    @Test
+    @DisplayName("Test if a failed synthesis is not cached")
+    void whenSynthesisFails_thenDoNotCache() {
+        // Given
+        var cache = createCache(1024, 4);
+
+        // When
+        StepVerifier.create(cache.get("key", () -> Flux.error(new IllegalStateException("provider down"))))
+            .verifyError(IllegalStateException.class);
+        var result = collect(cache.get("key", () -> Flux.just(new byte[]{1})));
+
+        // Then
+        assertArrayEquals(new byte[]{1}, result);
+    }
+
+    private TextToSpeechAudioCache createCache(long maximumBytes, long sliceBytes) {
+        return new TextToSpeechAudioCache(
+            true, directory.toString(), DataSize.ofBytes(maximumBytes), DataSize.ofBytes(sliceBytes), new SimpleMeterRegistry()
+        );
+    }
+
+    private static byte[] collect(Flux<byte[]> audio) {
+        var output = new ByteArrayOutputStream();
+        audio.doOnNext(output::writeBytes).blockLast();
+        return output.toByteArray();
+    }
+}
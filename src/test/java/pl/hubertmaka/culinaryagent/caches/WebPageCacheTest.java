@@ -0,0 +1,104 @@
+package pl.hubertmaka.culinaryagent.caches;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import pl.hubertmaka.culinaryagent.domain.models.CachedWebPage;
+import pl.hubertmaka.culinaryagent.domain.models.WebPageContent;
+
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebPageCacheTest {
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    @DisplayName("Test if a stored page is returned with its content and validators")
+    void whenPut_thenGetReturnsPage() {
+        // Given
+        var cache = createCache(directory, DataSize.ofMegabytes(1));
+        var page = page("https://example.com/a");
+
+        // When
+        cache.put(page);
+        var result = cache.get("https://example.com/a");
+
+        // Then
+        assertEquals(page, result.orElseThrow());
+        assertTrue(cache.get("https://example.com/missing").isEmpty());
+        assertTrue(cache.size() > 0);
+    }
+
+    @Test
+    @DisplayName("Test if cached pages survive a restart of the cache")
+    void whenCacheRecreated_thenReturnPageFromDisk() {
+        // Given
+        createCache(directory, DataSize.ofMegabytes(1)).put(page("https://example.com/a"));
+
+        // When
+        var cache = createCache(directory, DataSize.ofMegabytes(1));
+
+        // Then
+        assertEquals(page("https://example.com/a"), cache.get("https://example.com/a").orElseThrow());
+    }
+
+    @Test
+    @DisplayName("Test if the least recently used page is evicted once the cache exceeds its maximum size")
+    void whenCacheFull_thenEvictLeastRecentlyUsedPage() {
+        // Given
+        var measured = createCache(directory.resolve("measured"), DataSize.ofMegabytes(1));
+        measured.put(page("https://example.com/a"));
+        var entryBytes = measured.size();
+        var cache = createCache(directory.resolve("bounded"), DataSize.ofBytes(entryBytes * 5 / 2));
+        cache.put(page("https://example.com/a"));
+        cache.put(page("https://example.com/b"));
+        cache.get("https://example.com/a");
+
+        // When
+        cache.put(page("https://example.com/c"));
+
+        // Then
+        assertTrue(cache.get("https://example.com/a").isPresent());
+        assertTrue(cache.get("https://example.com/b").isEmpty());
+        assertTrue(cache.get("https://example.com/c").isPresent());
+        assertEquals(entryBytes * 2, cache.size());
+    }
+
+    @Test
+    @DisplayName("Test if nothing is stored or returned when the cache is disabled")
+    void whenCacheDisabled_thenNeverReturnPage() {
+        // Given
+        var cache = new WebPageCache(false, directory.toString(), DataSize.ofMegabytes(1),
+            new ObjectMapper().findAndRegisterModules(), new SimpleMeterRegistry());
+
+        // When
+        cache.put(page("https://example.com/a"));
+
+        // Then
+        assertTrue(cache.get("https://example.com/a").isEmpty());
+        assertEquals(0, cache.size());
+    }
+
+    private WebPageCache createCache(Path directory, DataSize maximumSize) {
+        return new WebPageCache(true, directory.toString(), maximumSize,
+            new ObjectMapper().findAndRegisterModules(), new SimpleMeterRegistry());
+    }
+
+    private CachedWebPage page(String url) {
+        return new CachedWebPage(
+            url,
+            new WebPageContent("Pasta. Boil the pasta and stir in the sauce.", "<html lang=\"en\"></html>"),
+            "\"v1\"",
+            "Wed, 21 Oct 2026 07:28:00 GMT",
+            Instant.parse("2026-10-21T08:00:00Z"),
+            42_000
+        );
+    }
+}
@@ -73,4 +73,14 @@ class AgentConfigTest {
         // Then
         assertNotNull(agentModel);
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Test if the chat agent personality bean is loaded from the resource")
+    void whenChatAgentPersonality_thenReadResource() {
+        // When
+        var personality = agentConfig.chatAgentPersonality();
+
+        // Then
+        assertEquals("Test chat personality", personality);
+    }
+}
@@ -1,18 +1,38 @@
 package pl.hubertmaka.culinaryagent.config;
 
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class RestClientConfigTest {
 
     private RestClientConfig restClientConfig;
+    private ConnectionProvider connectionProvider;
 
     @BeforeEach
     void setUp() {
         restClientConfig = new RestClientConfig();
+        connectionProvider = restClientConfig.pageFetchConnectionProvider(2, Duration.ofSeconds(30), Duration.ofSeconds(5));
+    }
+
+    @AfterEach
+    void tearDown() {
+        connectionProvider.dispose();
     }
 
     @Test
@@ -30,9 +50,69 @@ class RestClientConfigTest {
         // Given
 
         // When
-        var restClient = restClientConfig.restClient();
+        var restClient = createRestClient();
 
         // Then
         assertNotNull(restClient);
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Test if RestClient sends the browser user agent and transparently decodes gzip responses")
+    void whenServerRespondsWithGzip_thenDecodeBody() throws IOException {
+        // Given
+        var server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        var userAgent = new AtomicReference<String>();
+        var acceptEncoding = new AtomicReference<String>();
+        var compressed = gzip("<html><body>Pierogi</body></html>");
+        server.createContext("/recipe", exchange -> {
+            userAgent.set(exchange.getRequestHeaders().getFirst("User-Agent"));
+            acceptEncoding.set(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, compressed.length);
+            try (var body = exchange.getResponseBody()) {
+                body.write(compressed);
+            }
+        });
+        server.start();
+
+        try {
+            // When
+            var body = createRestClient().get()
+                    .uri("http://localhost:" + server.getAddress().getPort() + "/recipe")
+                    .retrieve()
+                    .body(String.class);
+
+            // Then
+            assertEquals("<html><body>Pierogi</body></html>", body);
+            assertTrue(userAgent.get().startsWith("Mozilla/5.0"));
+            assertTrue(acceptEncoding.get().contains("gzip"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private RestClient createRestClient() {
+        return restClientConfig.restClient(
+                connectionProvider,
+                4,
+                Duration.ofSeconds(2),
+                Duration.ofSeconds(5),
+                Duration.ofSeconds(5),
+                Duration.ofSeconds(10),
+                Duration.ofMinutes(5),
+                2,
+                10.0,
+                4,
+                Duration.ofMinutes(2),
+                new SimpleMeterRegistry()
+        );
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,79 @@
+package pl.hubertmaka.culinaryagent.domain.enums;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AudioFormatTest {
+
+    @Test
+    @DisplayName("Test if fromAccept selects the format of the audio media type the client accepts")
+    void whenFromAcceptAudioMediaType_thenReturnMatchingFormat() {
+        // Given
+        var defaultFormat = AudioFormat.MP3_22050_32;
+
+        // When
+        var ogg = AudioFormat.fromAccept("audio/ogg", defaultFormat);
+        var pcm = AudioFormat.fromAccept("audio/pcm", defaultFormat);
+        var mpeg = AudioFormat.fromAccept("audio/mpeg", defaultFormat);
+        var mpegWithOpusDefault = AudioFormat.fromAccept("audio/mpeg", AudioFormat.OPUS_48000_32);
+
+        // Then
+        assertEquals(Optional.of(AudioFormat.OPUS_48000_32), ogg);
+        assertEquals(Optional.of(AudioFormat.PCM_16000), pcm);
+        assertEquals(Optional.of(AudioFormat.MP3_22050_32), mpeg);
+        assertEquals(Optional.of(AudioFormat.MP3_22050_32), mpegWithOpusDefault);
+    }
+
+    @Test
+    @DisplayName("Test if fromAccept selects PCM by its registered media type, its rate or the older audio/pcm alias")
+    void whenFromAcceptPcmMediaType_thenReturnPcmOnlyForMatchingRate() {
+        // Given
+        var defaultFormat = AudioFormat.MP3_22050_32;
+
+        // When
+        var registered = AudioFormat.fromAccept("audio/L16;rate=16000", defaultFormat);
+        var withoutRate = AudioFormat.fromAccept("audio/l16", defaultFormat);
+        var alias = AudioFormat.fromAccept("audio/pcm", defaultFormat);
+        var otherRate = AudioFormat.fromAccept("audio/L16;rate=44100", defaultFormat);
+
+        // Then
+        assertEquals(Optional.of(AudioFormat.PCM_16000), registered);
+        assertEquals(Optional.of(AudioFormat.PCM_16000), withoutRate);
+        assertEquals(Optional.of(AudioFormat.PCM_16000), alias);
+        assertEquals(Optional.empty(), otherRate);
+        assertEquals("audio/L16;rate=16000", AudioFormat.PCM_16000.getMediaType());
+    }
+
+    @Test
+    @DisplayName("Test if fromAccept prefers the accepted media type with the highest quality and skips refused ones")
+    void whenFromAcceptWithQualityValues_thenReturnPreferredFormat() {
+        // Given
+        var accept = "audio/mpeg;q=0.5, audio/ogg, audio/pcm;q=0";
+
+        // When
+        var format = AudioFormat.fromAccept(accept, AudioFormat.MP3_22050_32);
+
+        // Then
+        assertEquals(Optional.of(AudioFormat.OPUS_48000_32), format);
+        assertEquals(Optional.empty(), AudioFormat.fromAccept("audio/pcm;q=0", AudioFormat.MP3_22050_32));
+    }
+
+    @Test
+    @DisplayName("Test if fromAccept returns empty when the header is missing, invalid or accepts any audio")
+    void whenFromAcceptWithoutSpecificAudio_thenReturnEmpty() {
+        // Given
+        var defaultFormat = AudioFormat.MP3_22050_32;
+
+        // When & Then
+        assertEquals(Optional.empty(), AudioFormat.fromAccept(null, defaultFormat));
+        assertEquals(Optional.empty(), AudioFormat.fromAccept("", defaultFormat));
+        assertEquals(Optional.empty(), AudioFormat.fromAccept("*/*", defaultFormat));
+        assertEquals(Optional.empty(), AudioFormat.fromAccept("audio/*", defaultFormat));
+        assertEquals(Optional.empty(), AudioFormat.fromAccept("text/plain", defaultFormat));
+        assertEquals(Optional.empty(), AudioFormat.fromAccept("not a media type", defaultFormat));
+    }
+}
@@ -0,0 +1,131 @@
+package pl.hubertmaka.culinaryagent.extractors;
+
+import org.jsoup.Jsoup;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MainContentExtractorTest {
+
+    /** The rough number of characters per prompt token, used to estimate the token reduction of the corpus. */
+    private static final double CHARACTERS_PER_TOKEN = 4.0;
+    /** The minimum token reduction expected over the whole corpus. */
+    private static final double MIN_CORPUS_TOKEN_REDUCTION = 0.4;
+
+    private final MainContentExtractor extractor = new MainContentExtractor();
+
+    @Test
+    @DisplayName("Test if extract keeps the recipe and drops navigation, sidebar, comments and footer")
+    void whenPageHasBoilerplate_thenReturnMainContentOnly() {
+        // Given
+        var html = """
+                <html><body>
+                <nav><a href="/">Home</a> <a href="/recipes">All recipes</a></nav>
+                <div class="sidebar"><p>About the author of this blog, who loves cooking, baking, and travelling.</p></div>
+                <div class="entry-content">
+                  <h1>Garlic Bread</h1>
+                  <p>Crispy, buttery garlic bread that is ready in fifteen minutes, perfect with any pasta dish.</p>
+                  <ul><li>1 baguette</li><li>100 g butter, softened</li><li>3 cloves garlic, crushed</li></ul>
+                  <ol><li>Mix the butter with the garlic, then spread it between slices of the baguette.</li>
+                  <li>Wrap in foil and bake for ten minutes at 200C, then open the foil and bake for five more.</li></ol>
+                </div>
+                <div id="comments"><p>Lovely recipe, thanks so much, my family loved it, will make again!</p></div>
+                <footer><p>Copyright 2024, all rights reserved, privacy policy, terms of use.</p></footer>
+                </body></html>
+                """;
+
+        // When
+        var result = extractor.extract(Jsoup.parse(html));
+
+        // Then
+        assertTrue(result.contains("Garlic Bread"));
+        assertTrue(result.contains("100 g butter, softened"));
+        assertTrue(result.contains("Wrap in foil and bake"));
+        assertFalse(result.contains("All recipes"));
+        assertFalse(result.contains("About the author"));
+        assertFalse(result.contains("Lovely recipe"));
+        assertFalse(result.contains("Copyright"));
+    }
+
+    @Test
+    @DisplayName("Test if extract falls back to the whole page text when no main content block is found")
+    void whenNoMainContent_thenReturnWholePageText() {
+        // Given
+        var html = "<html><body><div>Boil the eggs for ten minutes.</div><script>track()</script></body></html>";
+
+        // When
+        var result = extractor.extract(Jsoup.parse(html));
+
+        // Then
+        assertEquals("Boil the eggs for ten minutes.", result);
+    }
+
+    @Test
+    @DisplayName("Test if extract keeps every recipe line of the corpus pages while reducing their prompt tokens")
+    void whenExtractCorpus_thenKeepRecipeAndReduceTokens() throws IOException, URISyntaxException {
+        // Given
+        var corpus = Path.of(Objects.requireNonNull(getClass().getResource("/main-content-corpus")).toURI());
+        List<Path> pages;
+        try (Stream<Path> files = Files.list(corpus)) {
+            pages = files.filter(file -> file.toString().endsWith(".html")).sorted().toList();
+        }
+        var report = new StringBuilder(String.format("%-28s %10s %10s %10s%n", "page", "before", "after", "reduction"));
+        var parityFailures = new ArrayList<String>();
+        long tokensBefore = 0;
+        long tokensAfter = 0;
+
+        // When
+        for (Path page : pages) {
+            var html = Files.readString(page, StandardCharsets.UTF_8);
+            var fullText = fullPageText(html);
+            var mainContent = extractor.extract(Jsoup.parse(html));
+            long before = estimateTokens(fullText);
+            long after = estimateTokens(mainContent);
+            tokensBefore += before;
+            tokensAfter += after;
+            report.append(String.format("%-28s %10d %10d %9.0f%%%n",
+                    page.getFileName(), before, after, 100.0 * (before - after) / before));
+
+            var expected = Path.of(page.toString().replace(".html", ".expected"));
+            for (String line : Files.readAllLines(expected, StandardCharsets.UTF_8)) {
+                if (line.startsWith("+ ") && !mainContent.contains(line.substring(2))) {
+                    parityFailures.add(page.getFileName() + " lost: " + line.substring(2));
+                }
+                if (line.startsWith("- ") && mainContent.contains(line.substring(2))) {
+                    parityFailures.add(page.getFileName() + " kept: " + line.substring(2));
+                }
+            }
+        }
+        double reduction = 1 - (double) tokensAfter / tokensBefore;
+        report.append(String.format("%-28s %10d %10d %9.0f%%%n", "total", tokensBefore, tokensAfter, 100 * reduction));
+
+        // Then
+        assertFalse(pages.isEmpty());
+        assertTrue(parityFailures.isEmpty(), () -> String.join("\n", parityFailures));
+        assertTrue(reduction >= MIN_CORPUS_TOKEN_REDUCTION, report::toString);
+    }
+
+    /**
+     * Extracts the text of the whole page the way URL sources were read before main content extraction.
+     */
+    private static String fullPageText(String html) {
+        var document = Jsoup.parse(html);
+        document.select("script, style, meta, link").remove();
+        return document.body().text();
+    }
+
+    private static long estimateTokens(String text) {
+        return Math.round(text.length() / CHARACTERS_PER_TOKEN);
+    }
+}
@@ -0,0 +1,142 @@
+package pl.hubertmaka.culinaryagent.extractors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jsoup.Jsoup;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pl.hubertmaka.culinaryagent.domain.dtos.IngredientDto;
+import pl.hubertmaka.culinaryagent.domain.enums.Language;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StructuredDataRecipeExtractorTest {
+
+    private final StructuredDataRecipeExtractor extractor = new StructuredDataRecipeExtractor(new ObjectMapper());
+
+    @Test
+    @DisplayName("Test if extract reads a JSON-LD recipe nested in a @graph with sectioned instructions")
+    void whenJsonLdRecipeInGraph_thenReturnRecipeSchema() {
+        // Given
+        var html = """
+                <html lang="en-US"><head><script type="application/ld+json">
+                {"@context": "https://schema.org", "@graph": [
+                  {"@type": "WebPage", "name": "Blog"},
+                  {"@type": ["Recipe", "NewsArticle"], "name": "Tomato Pasta", "description": "Quick &amp; easy",
+                   "recipeIngredient": ["200 g pasta", "1 can tomatoes"],
+                   "prepTime": "PT10M", "cookTime": "PT15M",
+                   "recipeInstructions": [
+                     {"@type": "HowToSection", "name": "Pasta", "itemListElement": [
+                       {"@type": "HowToStep", "text": "Boil the pasta."}
+                     ]},
+                     {"@type": "HowToStep", "text": "Add the <b>tomatoes</b>."}
+                   ]}
+                ]}
+                </script></head><body></body></html>
+                """;
+
+        // When
+        var result = extractor.extract(Jsoup.parse(html), Language.EN_US);
+
+        // Then
+        assertTrue(result.isPresent());
+        assertEquals(List.of(new IngredientDto("200 g pasta"), new IngredientDto("1 can tomatoes")), result.get().ingredients());
+        assertEquals(25, result.get().preparationTimeInMinutes());
+        assertTrue(result.get().content().startsWith("# Tomato Pasta"));
+        assertTrue(result.get().content().contains("> Quick & easy"));
+        assertTrue(result.get().content().contains("1. Boil the pasta.\n2. Add the tomatoes."));
+        assertTrue(result.get().aiEstimations().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test if extract reads a recipe annotated with microdata")
+    void whenMicrodataRecipe_thenReturnRecipeSchema() {
+        // Given
+        var html = """
+                <html lang="de"><body>
+                <div itemscope itemtype="https://schema.org/Recipe">
+                  <h1 itemprop="name">Kartoffelsalat</h1>
+                  <meta itemprop="totalTime" content="P0Y0M0DT1H30M">
+                  <span itemprop="recipeIngredient">1 kg Kartoffeln</span>
+                  <ol itemprop="recipeInstructions"><li>Kochen.</li><li>Schneiden.</li></ol>
+                </div>
+                </body></html>
+                """;
+
+        // When
+        var result = extractor.extract(Jsoup.parse(html), Language.DE);
+
+        // Then
+        assertTrue(result.isPresent());
+        assertEquals(90, result.get().preparationTimeInMinutes());
+        assertTrue(result.get().content().contains("## Zutaten\n- 1 kg Kartoffeln"));
+        assertTrue(result.get().content().contains("## Zubereitung\n1. Kochen.\n2. Schneiden."));
+    }
+
+    @Test
+    @DisplayName("Test if extract returns empty when the structured recipe has no instructions")
+    void whenRecipeIncomplete_thenReturnEmpty() {
+        // Given
+        var html = """
+                <html lang="en"><head><script type="application/ld+json">
+                {"@type": "Recipe", "name": "Pasta", "recipeIngredient": ["pasta"]}
+                </script></head></html>
+                """;
+
+        // When
+        var result = extractor.extract(Jsoup.parse(html), Language.EN_US);
+
+        // Then
+        assertTrue(result.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test if extract returns empty when the page language differs from the requested language")
+    void whenLanguageDiffers_thenReturnEmpty() {
+        // Given
+        var html = """
+                <html lang="pl"><head><script type="application/ld+json">
+                {"@type": "Recipe", "name": "Pierogi", "recipeIngredient": ["mąka"], "recipeInstructions": "Lepić."}
+                </script></head></html>
+                """;
+
+        // When
+        var result = extractor.extract(Jsoup.parse(html), Language.EN_US);
+
+        // Then
+        assertTrue(result.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test if extract skips malformed JSON-LD and leaves an out of range preparation time unset")
+    void whenMalformedJsonLdAndInvalidDuration_thenSkipThem() {
+        // Given
+        var html = """
+                <html lang="en-GB"><head>
+                <script type="application/ld+json">{ not json</script>
+                <script type="application/ld+json">
+                {"@type": "Recipe", "name": "Bread", "recipeIngredient": "flour", "totalTime": "P30D",
+                 "recipeInstructions": ["Knead.", "Bake."]}
+                </script></head></html>
+                """;
+
+        // When
+        var result = extractor.extract(Jsoup.parse(html), Language.EN_GB);
+
+        // Then
+        assertTrue(result.isPresent());
+        assertNull(result.get().preparationTimeInMinutes());
+        assertEquals(List.of(new IngredientDto("flour")), result.get().ingredients());
+    }
+
+    @Test
+    @DisplayName("Test if extract returns empty when the page has no structured data")
+    void whenNoStructuredData_thenReturnEmpty() {
+        // When
+        var result = extractor.extract(Jsoup.parse("<html><body><p>Pasta</p></body></html>"), Language.EN_US);
+
+        // Then
+        assertTrue(result.isEmpty());
+    }
+}
@@ -0,0 +1,87 @@
+package pl.hubertmaka.culinaryagent.interceptors;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class FetchLimitsInterceptorTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    @DisplayName("Test if intercept rejects a request while every slot is held and accepts it once a response is closed")
+    void whenAllSlotsHeld_thenRejectUntilResponseClosed() throws IOException {
+        // Given
+        var interceptor = new FetchLimitsInterceptor(1, Duration.ofMillis(50), Duration.ofSeconds(5), meterRegistry);
+        var request = mock(HttpRequest.class);
+        var execution = mockExecution(new byte[0]);
+
+        // When
+        var first = interceptor.intercept(request, new byte[0], execution);
+        var active = meterRegistry.get("web.page.fetch.requests.active").gauge().value();
+
+        // Then
+        assertEquals(1.0, active);
+        assertThrows(SocketTimeoutException.class, () -> interceptor.intercept(request, new byte[0], execution));
+        first.close();
+        first.close();
+        assertEquals(0.0, meterRegistry.get("web.page.fetch.requests.active").gauge().value());
+        assertNotNull(interceptor.intercept(request, new byte[0], execution));
+    }
+
+    @Test
+    @DisplayName("Test if reading the response body fails once the deadline has passed")
+    void whenDeadlinePassed_thenFailBodyReads() throws Exception {
+        // Given
+        var time = new AtomicLong();
+        var interceptor = new FetchLimitsInterceptor(1, Duration.ofMillis(50), Duration.ofMillis(20), meterRegistry, time::get);
+        var execution = mockExecution("<html></html>".getBytes());
+        var response = interceptor.intercept(mock(HttpRequest.class), new byte[0], execution);
+        var body = response.getBody();
+        time.addAndGet(Duration.ofMillis(20).toNanos());
+        assertEquals('<', body.read());
+
+        // When
+        time.addAndGet(1);
+
+        // Then
+        assertThrows(SocketTimeoutException.class, body::read);
+        response.close();
+    }
+
+    @Test
+    @DisplayName("Test if intercept releases the slot when the request fails")
+    void whenExecutionFails_thenReleaseSlot() throws IOException {
+        // Given
+        var interceptor = new FetchLimitsInterceptor(1, Duration.ofMillis(50), Duration.ofSeconds(5), meterRegistry);
+        var execution = mock(ClientHttpRequestExecution.class);
+        when(execution.execute(any(), any())).thenThrow(new IOException("Connection refused"));
+
+        // When & Then
+        assertThrows(IOException.class, () -> interceptor.intercept(mock(HttpRequest.class), new byte[0], execution));
+        assertEquals(0.0, meterRegistry.get("web.page.fetch.requests.active").gauge().value());
+    }
+
+    private static ClientHttpRequestExecution mockExecution(byte[] body) throws IOException {
+        var execution = mock(ClientHttpRequestExecution.class);
+        when(execution.execute(any(), any())).thenAnswer(invocation -> {
+            var response = mock(ClientHttpResponse.class);
+            when(response.getBody()).thenReturn(new ByteArrayInputStream(body));
+            return response;
+        });
+        return execution;
+    }
+}
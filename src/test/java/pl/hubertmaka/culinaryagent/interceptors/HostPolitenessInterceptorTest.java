@@ -0,0 +1,97 @@
+package pl.hubertmaka.culinaryagent.interceptors;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class HostPolitenessInterceptorTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    @DisplayName("Test if intercept queues requests to a busy host without holding back requests to other hosts")
+    void whenHostBusy_thenRejectItsRequestsButAcceptOtherHosts() throws IOException {
+        // Given
+        var interceptor = new HostPolitenessInterceptor(1, 100, 10, Duration.ofMillis(50), Duration.ofMinutes(2), meterRegistry);
+        var execution = mockExecution(HttpStatus.OK, new HttpHeaders());
+
+        // When
+        var first = interceptor.intercept(request("https://busy.example.com/a"), new byte[0], execution);
+
+        // Then
+        assertThrows(SocketTimeoutException.class,
+                () -> interceptor.intercept(request("https://busy.example.com/b"), new byte[0], execution));
+        assertNotNull(interceptor.intercept(request("https://other.example.com/a"), new byte[0], execution));
+        first.close();
+        first.close();
+        assertNotNull(interceptor.intercept(request("https://BUSY.example.com/c"), new byte[0], execution));
+    }
+
+    @Test
+    @DisplayName("Test if intercept spaces requests to a host to its rate once the burst is used up")
+    void whenBurstUsedUp_thenSpaceRequestsToRate() throws IOException {
+        // Given
+        var interceptor = new HostPolitenessInterceptor(4, 20, 1, Duration.ofSeconds(1), Duration.ofMinutes(2), meterRegistry);
+        var execution = mockExecution(HttpStatus.OK, new HttpHeaders());
+        var started = System.nanoTime();
+
+        // When
+        for (var i = 0; i < 3; i++) {
+            interceptor.intercept(request("https://example.com/" + i), new byte[0], execution).close();
+        }
+
+        // Then
+        assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(90));
+        var waitTime = meterRegistry.get("web.page.fetch.host.wait").tag("host", "example.com").timer();
+        assertEquals(3, waitTime.count());
+    }
+
+    @Test
+    @DisplayName("Test if intercept fails requests to a host immediately while its Retry-After delay outlasts the acquire timeout")
+    void whenHostAsksToRetryLater_thenFailItsRequestsImmediately() throws IOException {
+        // Given
+        var interceptor = new HostPolitenessInterceptor(4, 100, 10, Duration.ofSeconds(1), Duration.ofMinutes(2), meterRegistry);
+        var headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "120");
+        interceptor.intercept(request("https://example.com/a"), new byte[0], mockExecution(HttpStatus.TOO_MANY_REQUESTS, headers)).close();
+        var started = System.nanoTime();
+
+        // When & Then
+        assertThrows(SocketTimeoutException.class,
+                () -> interceptor.intercept(request("https://example.com/b"), new byte[0], mockExecution(HttpStatus.OK, new HttpHeaders())));
+        assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(500));
+        assertNotNull(interceptor.intercept(request("https://other.example.com/a"), new byte[0], mockExecution(HttpStatus.OK, new HttpHeaders())));
+    }
+
+    private static HttpRequest request(String uri) {
+        var request = mock(HttpRequest.class);
+        when(request.getURI()).thenReturn(URI.create(uri));
+        return request;
+    }
+
+    private static ClientHttpRequestExecution mockExecution(HttpStatus status, HttpHeaders headers) throws IOException {
+        var execution = mock(ClientHttpRequestExecution.class);
+        when(execution.execute(any(), any())).thenAnswer(invocation -> {
+            var response = mock(ClientHttpResponse.class);
+            when(response.getStatusCode()).thenReturn(status);
+            when(response.getHeaders()).thenReturn(headers);
+            return response;
+        });
+        return execution;
+    }
+}
@@ -0,0 +1,70 @@
+package pl.hubertmaka.culinaryagent.services;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeChatResponseChunkDto;
+import pl.hubertmaka.culinaryagent.domain.enums.AudioFormat;
+import pl.hubertmaka.culinaryagent.domain.enums.Voice;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TextToSpeechServiceTest {
+
+    @Test
+    @DisplayName("Test if stream converts the next piece of the text while the previous one is spoken and keeps their order")
+    void whenStreamPieces_thenOverlapSynthesisAndKeepOrder() {
+        // Given
+        Map<String, Sinks.Many<RecipeChatResponseChunkDto>> syntheses = Map.of(
+                "Boil the water.", Sinks.many().unicast().onBackpressureBuffer(),
+                "Add pasta.", Sinks.many().unicast().onBackpressureBuffer(),
+                "Drain it.", Sinks.many().unicast().onBackpressureBuffer()
+        );
+        List<String> started = new CopyOnWriteArrayList<>();
+        TextToSpeechService service = new TextToSpeechService() {
+            @Override
+            public Flux<RecipeChatResponseChunkDto> stream(String text, Voice voice, AudioFormat audioFormat) {
+                started.add(text);
+                return syntheses.get(text).asFlux();
+            }
+
+            @Override
+            public String getModel() {
+                return "model";
+            }
+        };
+
+        // When
+        var result = service.stream(Flux.just("Boil the water.", "Add pasta.", "Drain it."), Voice.VOICE_WOMAN, AudioFormat.MP3_22050_32)
+                .map(chunk -> new String(chunk.audioChunk()));
+
+        // Then
+        StepVerifier.create(result)
+                .then(() -> {
+                    assertEquals(List.of("Boil the water.", "Add pasta."), started);
+                    syntheses.get("Add pasta.").tryEmitNext(chunk("pasta"));
+                    syntheses.get("Add pasta.").tryEmitComplete();
+                    syntheses.get("Boil the water.").tryEmitNext(chunk("water"));
+                })
+                .expectNext("water")
+                .then(() -> syntheses.get("Boil the water.").tryEmitComplete())
+                .expectNext("pasta")
+                .then(() -> {
+                    assertEquals(3, started.size());
+                    syntheses.get("Drain it.").tryEmitNext(chunk("drain"));
+                    syntheses.get("Drain it.").tryEmitComplete();
+                })
+                .expectNext("drain")
+                .verifyComplete();
+    }
+
+    private static RecipeChatResponseChunkDto chunk(String audio) {
+        return new RecipeChatResponseChunkDto(audio.getBytes(), null);
+    }
+}
@@ -0,0 +1,138 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.jsoup.Jsoup;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import pl.hubertmaka.culinaryagent.caches.WebPageCache;
+import pl.hubertmaka.culinaryagent.domain.models.CachedWebPage;
+import pl.hubertmaka.culinaryagent.domain.models.FetchedWebPage;
+import pl.hubertmaka.culinaryagent.domain.models.WebPageContent;
+import pl.hubertmaka.culinaryagent.extractors.MainContentExtractor;
+import pl.hubertmaka.culinaryagent.extractors.StructuredDataRecipeExtractor;
+import pl.hubertmaka.culinaryagent.services.WebPageFetcherService;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CachingWebPageContentServiceTest {
+    private static final String URL = "https://example.com/pasta";
+    private static final String HTML = """
+            <html lang="en"><head>
+            <script type="application/ld+json">{"@type": "Recipe", "name": "Pasta"}</script>
+            </head><body><h1>Pasta</h1><p>Boil the pasta and stir in the sauce.</p></body></html>
+            """;
+
+    @Mock
+    private WebPageFetcherService webPageFetcherService;
+    @Mock
+    private WebPageCache webPageCache;
+    private SimpleMeterRegistry meterRegistry;
+    private CachingWebPageContentService contentService;
+
+    private final WebPageContent cachedContent = new WebPageContent("Pasta", "<html lang=\"en\"></html>");
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        contentService = new CachingWebPageContentService(
+                webPageFetcherService,
+                webPageCache,
+                new MainContentExtractor(),
+                new StructuredDataRecipeExtractor(new ObjectMapper()),
+                meterRegistry
+        );
+    }
+
+    @Test
+    @DisplayName("Test if a fresh cached page is returned without fetching the page")
+    void whenCachedPageFresh_thenReturnItWithoutFetching() {
+        // Given
+        when(webPageCache.get(URL)).thenReturn(Optional.of(cachedPage(Instant.now().plusSeconds(60))));
+
+        // When
+        var result = contentService.load(URL);
+
+        // Then
+        assertSame(cachedContent, result);
+        verifyNoInteractions(webPageFetcherService);
+        assertEquals(1.0, requests("hit"));
+        assertEquals(42_000.0, meterRegistry.get("web.page.cache.bytes.saved").counter().count());
+    }
+
+    @Test
+    @DisplayName("Test if a stale cached page is revalidated and reused when the server responds with 304")
+    void whenCachedPageStaleAndNotModified_thenReuseItAndExtendFreshness() {
+        // Given
+        when(webPageCache.get(URL)).thenReturn(Optional.of(cachedPage(Instant.now().minusSeconds(60))));
+        when(webPageFetcherService.fetch(URL, "\"v1\"", "Wed, 21 Oct 2026 07:28:00 GMT"))
+                .thenReturn(new FetchedWebPage(null, "\"v1\"", "Wed, 21 Oct 2026 07:28:00 GMT", Duration.ofMinutes(5), true, 0));
+        var stored = ArgumentCaptor.forClass(CachedWebPage.class);
+
+        // When
+        var result = contentService.load(URL);
+
+        // Then
+        assertSame(cachedContent, result);
+        verify(webPageCache).put(stored.capture());
+        assertTrue(stored.getValue().isFresh(Instant.now().plusSeconds(240)));
+        assertEquals(1.0, requests("revalidated"));
+        assertEquals(42_000.0, meterRegistry.get("web.page.cache.bytes.saved").counter().count());
+    }
+
+    @Test
+    @DisplayName("Test if a downloaded page is extracted and stored together with its validators")
+    void whenPageNotCached_thenExtractAndStoreIt() {
+        // Given
+        when(webPageCache.get(URL)).thenReturn(Optional.empty());
+        when(webPageFetcherService.fetch(URL, null, null))
+                .thenReturn(new FetchedWebPage(Jsoup.parse(HTML), "\"v2\"", null, Duration.ZERO, true, HTML.length()));
+        var stored = ArgumentCaptor.forClass(CachedWebPage.class);
+
+        // When
+        var result = contentService.load(URL);
+
+        // Then
+        assertTrue(result.mainContent().contains("Boil the pasta"));
+        assertTrue(result.structuredData().contains("\"Recipe\""));
+        verify(webPageCache).put(stored.capture());
+        assertEquals("\"v2\"", stored.getValue().etag());
+        assertEquals(result, stored.getValue().content());
+        assertEquals(1.0, requests("miss"));
+    }
+
+    @Test
+    @DisplayName("Test if a page marked no-store is not stored")
+    void whenPageNotStorable_thenDoNotStoreIt() {
+        // Given
+        when(webPageCache.get(URL)).thenReturn(Optional.empty());
+        when(webPageFetcherService.fetch(URL, null, null))
+                .thenReturn(new FetchedWebPage(Jsoup.parse(HTML), "\"v2\"", null, Duration.ofMinutes(5), false, HTML.length()));
+
+        // When
+        contentService.load(URL);
+
+        // Then
+        verify(webPageCache, never()).put(any());
+    }
+
+    private CachedWebPage cachedPage(Instant expiresAt) {
+        return new CachedWebPage(URL, cachedContent, "\"v1\"", "Wed, 21 Oct 2026 07:28:00 GMT", expiresAt, 42_000);
+    }
+
+    private double requests(String result) {
+        return meterRegistry.get("web.page.cache.requests").tag("result", result).counter().count();
+    }
+}
@@ -0,0 +1,92 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.util.unit.DataSize;
+import pl.hubertmaka.culinaryagent.domain.dtos.ChatSessionRequestDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaDto;
+import pl.hubertmaka.culinaryagent.domain.enums.Language;
+import pl.hubertmaka.culinaryagent.domain.enums.Voice;
+import pl.hubertmaka.culinaryagent.domain.models.ChatSession;
+import pl.hubertmaka.culinaryagent.domain.models.RecipeContext;
+import pl.hubertmaka.culinaryagent.exceptions.ChatSessionNotFoundException;
+import pl.hubertmaka.culinaryagent.services.RecipeChatService;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CaffeineChatSessionServiceTest {
+
+    @Mock
+    private RecipeChatService recipeChatService;
+
+    private final ChatSessionRequestDto request = new ChatSessionRequestDto(
+        new RecipeSchemaDto("Pasta", List.of(), 20, List.of()), Voice.VOICE_WOMAN, Language.EN_US
+    );
+
+    @Test
+    @DisplayName("Test if create opens a session that can be retrieved until it is deleted")
+    void whenCreateAndDelete_thenSessionAvailableUntilDeleted() {
+        // Given
+        stubOpenSession();
+        var service = new CaffeineChatSessionService(recipeChatService, DataSize.ofMegabytes(1), Duration.ofMinutes(30), new SimpleMeterRegistry());
+
+        // When
+        var created = service.create(request);
+        var session = service.get(created.sessionId());
+        service.delete(created.sessionId());
+
+        // Then
+        assertEquals(created.sessionId(), session.getId());
+        assertEquals(Voice.VOICE_WOMAN, session.getVoice());
+        verify(recipeChatService, times(1)).openSession(created.sessionId(), request.schema(), Language.EN_US, Voice.VOICE_WOMAN);
+        assertThrows(ChatSessionNotFoundException.class, () -> service.get(created.sessionId()));
+    }
+
+    @Test
+    @DisplayName("Test if get throws ChatSessionNotFoundException for an unknown session")
+    void whenSessionUnknown_thenThrowChatSessionNotFoundException() {
+        // Given
+        var service = new CaffeineChatSessionService(recipeChatService, DataSize.ofMegabytes(1), Duration.ofMinutes(30), new SimpleMeterRegistry());
+
+        // When & Then
+        assertThrows(ChatSessionNotFoundException.class, () -> service.get("missing"));
+        verifyNoInteractions(recipeChatService);
+    }
+
+    @Test
+    @DisplayName("Test if a session growing beyond the size of the store is evicted once it is used again")
+    void whenSessionGrowsBeyondMaximumSize_thenEvictIt() {
+        // Given
+        stubOpenSession();
+        var service = new CaffeineChatSessionService(recipeChatService, DataSize.ofKilobytes(1), Duration.ofMinutes(30), new SimpleMeterRegistry());
+        var created = service.create(request);
+        var session = service.get(created.sessionId());
+
+        // When
+        session.append(new UserMessage("a".repeat(600)), AssistantMessage.builder().content("b".repeat(600)).build());
+        service.get(created.sessionId());
+
+        // Then
+        assertThrows(ChatSessionNotFoundException.class, () -> service.get(created.sessionId()));
+    }
+
+    private void stubOpenSession() {
+        when(recipeChatService.openSession(anyString(), any(), any(), any())).thenAnswer(invocation -> new ChatSession(
+            invocation.getArgument(0), invocation.getArgument(2), invocation.getArgument(3), new UserMessage("Instruction: Pasta"),
+            new RecipeContext("Pasta", List.of(), 0)
+        ));
+    }
+}
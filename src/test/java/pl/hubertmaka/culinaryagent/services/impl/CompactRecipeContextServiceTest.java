@@ -0,0 +1,222 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pl.hubertmaka.culinaryagent.domain.dtos.AIEstimationDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.IngredientDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaDto;
+import pl.hubertmaka.culinaryagent.domain.models.RecipeContext;
+import pl.hubertmaka.culinaryagent.utils.TokenEstimator;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactRecipeContextServiceTest {
+
+    /** The minimum prompt token reduction of the recipe context expected over the whole corpus. */
+    private static final double MIN_CORPUS_TOKEN_REDUCTION = 0.4;
+    /** The minimum share of the steps asked about in the corpus that are sent with the question. */
+    private static final double MIN_CORPUS_STEP_RECALL = 0.9;
+
+    private static final String PASTA = """
+            # Tomato Pasta
+
+            > Simple pasta in a quick tomato sauce.
+
+            ## Details
+            | Field | Value |
+            |---|---|
+            | Servings | 2 |
+            | Total Time | 25 min |
+
+            ## Ingredients
+            - 200 g **penne**
+            - 400 g canned tomatoes
+            - 2  Cloves garlic, sliced
+
+            ## Instructions
+            1. Boil the penne in salted water for 10 minutes.
+            2. Fry the garlic in olive oil for 1 minute.
+            3. Add the tomatoes and simmer for 10 minutes.
+            4. Toss the penne with the sauce.
+
+            ## Chef's Notes
+            - Add a pinch of sugar if the tomatoes are sour.
+            """;
+
+    @Test
+    @DisplayName("Test if context renders the recipe without Markdown and lists every ingredient once with its quantity")
+    void whenContext_thenRenderCompactTextWithDeduplicatedIngredients() {
+        // Given
+        var service = service(1000);
+        var schema = new RecipeSchemaDto(PASTA, ingredients("Penne", "canned tomatoes", "garlic", "olive oil"), 25,
+                List.of(new AIEstimationDto(ingredients("salt", "Olive  oil"), null)));
+
+        // When
+        var context = service.context(schema);
+
+        // Then
+        var text = context.text();
+        assertTrue(text.startsWith("Recipe: Tomato Pasta\nSimple pasta in a quick tomato sauce."));
+        assertTrue(text.contains("Details: Servings: 2; Total Time: 25 min"));
+        assertFalse(text.contains("Total time: 25 minutes"));
+        assertTrue(text.contains("Ingredients: 200 g penne; 400 g canned tomatoes; 2 Cloves garlic, sliced; olive oil\n"));
+        assertTrue(text.contains("Also needed (not in the source): salt\n"));
+        assertTrue(text.contains("Steps:\n1. Boil the penne in salted water for 10 minutes.\n2. Fry the garlic"));
+        assertTrue(text.endsWith("Notes: Add a pinch of sugar if the tomatoes are sour."));
+        assertFalse(text.contains("|") || text.contains("#") || text.contains("**"));
+        assertTrue(context.deferredSteps().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test if context over the token budget drops the notes first and then defers the steps")
+    void whenContextOverBudget_thenDropNotesAndDeferSteps() {
+        // Given
+        var schema = new RecipeSchemaDto(PASTA, ingredients("penne", "canned tomatoes", "garlic"), 25, List.of());
+        int fullTokens = TokenEstimator.estimate(service(1000).context(schema).text());
+
+        // When
+        var withoutNotes = service(fullTokens - 1).context(schema);
+        var withoutSteps = service(60).context(schema);
+
+        // Then
+        assertFalse(withoutNotes.text().contains("pinch of sugar"));
+        assertTrue(withoutNotes.text().contains("4. Toss the penne with the sauce."));
+        assertTrue(withoutNotes.deferredSteps().isEmpty());
+        assertFalse(withoutSteps.text().contains("Boil the penne"));
+        assertTrue(withoutSteps.text().contains("the recipe has 4 steps"));
+        assertEquals(4, withoutSteps.deferredSteps().size());
+        assertEquals("3. Add the tomatoes and simmer for 10 minutes.", withoutSteps.deferredSteps().get(2));
+        assertTrue(withoutSteps.stepBudget() >= 15);
+    }
+
+    @Test
+    @DisplayName("Test if relevantSteps selects the steps matching the question, the step after them and a step named by number")
+    void whenRelevantSteps_thenSelectMatchingStepsInRecipeOrder() {
+        // Given
+        var service = service(60);
+        var context = service.context(new RecipeSchemaDto(PASTA, ingredients("penne"), 25, List.of()));
+        var narrowContext = new RecipeContext(
+                context.text(), context.deferredSteps(), 25);
+
+        // When
+        var garlic = service.relevantSteps(narrowContext, "How long do I fry the garlic?", null);
+        var numbered = service.relevantSteps(narrowContext, "What was step 4 again?", null);
+        var unrelated = service.relevantSteps(narrowContext, "Is this vegan?", null);
+
+        // Then
+        assertEquals("Recipe steps relevant to the next question:\n"
+                + "2. Fry the garlic in olive oil for 1 minute.\n"
+                + "3. Add the tomatoes and simmer for 10 minutes.", garlic.orElseThrow());
+        assertTrue(numbered.orElseThrow().contains("4. Toss the penne with the sauce."));
+        assertTrue(unrelated.orElseThrow().contains("1. Boil the penne"));
+        assertTrue(service.relevantSteps(service(1000).context(new RecipeSchemaDto(PASTA, List.of(), 25, List.of())),
+                "How long do I fry the garlic?", null).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test if context is built once per schema and rebuilt when the schema changes")
+    void whenContextRequestedTwice_thenReuseCachedContext() {
+        // Given
+        var service = service(1000);
+        var schema = new RecipeSchemaDto(PASTA, ingredients("penne"), 25, List.of());
+
+        // When
+        var first = service.context(schema);
+        var second = service.context(new RecipeSchemaDto(PASTA, ingredients("penne"), 25, List.of()));
+        var changed = service.context(new RecipeSchemaDto(PASTA, ingredients("penne"), 30, List.of()));
+
+        // Then
+        assertSame(first, second);
+        assertNotSame(first, changed);
+        assertTrue(changed.text().contains("Total time: 30 minutes"));
+    }
+
+    @Test
+    @DisplayName("Test if the context of the corpus sessions keeps the ingredients and the asked steps while reducing the prompt tokens")
+    void whenChatCorpus_thenKeepAskedStepsAndReducePromptTokens() throws IOException, URISyntaxException {
+        // Given
+        var service = service(600);
+        var objectMapper = new ObjectMapper();
+        var corpus = Path.of(Objects.requireNonNull(getClass().getResource("/chat-context-corpus")).toURI());
+        List<Path> sessions;
+        try (Stream<Path> files = Files.list(corpus)) {
+            sessions = files.filter(file -> file.toString().endsWith(".json")).sorted().toList();
+        }
+        var report = new StringBuilder(String.format("%-24s %6s %10s %10s %10s%n", "session", "turns", "before", "after", "reduction"));
+        var parityFailures = new ArrayList<String>();
+        var missedSteps = new ArrayList<String>();
+        int askedSteps = 0;
+        long tokensBefore = 0;
+        long tokensAfter = 0;
+
+        // When
+        for (Path file : sessions) {
+            var session = objectMapper.readValue(file.toFile(), CorpusSession.class);
+            var context = service.context(session.schema());
+            for (String kept : session.keep()) {
+                if (!context.text().contains(kept)) {
+                    parityFailures.add(file.getFileName() + " lost: " + kept);
+                }
+            }
+            long before = 0;
+            long after = 0;
+            String previousAnswer = null;
+            for (CorpusTurn turn : session.turns()) {
+                var steps = service.relevantSteps(context, turn.question(), previousAnswer).orElse("");
+                for (int step : turn.steps()) {
+                    var prefix = "\n" + step + ". ";
+                    askedSteps++;
+                    if (!context.text().contains(prefix) && !steps.contains(prefix)) {
+                        missedSteps.add(file.getFileName() + " missed step " + step + " for: " + turn.question());
+                    }
+                }
+                before += TokenEstimator.estimate(session.schema().content());
+                after += TokenEstimator.estimate(context.text()) + TokenEstimator.estimate(steps);
+                previousAnswer = context.deferredSteps().isEmpty() ? null : context.deferredSteps().get(turn.steps().getFirst() - 1);
+            }
+            tokensBefore += before;
+            tokensAfter += after;
+            report.append(String.format("%-24s %6d %10d %10d %9.0f%%%n",
+                    file.getFileName(), session.turns().size(), before, after, 100.0 * (before - after) / before));
+        }
+        double reduction = 1 - (double) tokensAfter / tokensBefore;
+        double recall = 1 - (double) missedSteps.size() / askedSteps;
+        report.append(String.format("%-24s %6s %10d %10d %9.0f%%%n", "total", "", tokensBefore, tokensAfter, 100 * reduction));
+        report.append(String.format("asked steps sent: %d of %d (%.0f%%)%n", askedSteps - missedSteps.size(), askedSteps, 100 * recall));
+        missedSteps.forEach(missed -> report.append(missed).append('\n'));
+
+        // Then
+        assertFalse(sessions.isEmpty());
+        assertTrue(parityFailures.isEmpty(), () -> String.join("\n", parityFailures));
+        assertTrue(reduction >= MIN_CORPUS_TOKEN_REDUCTION, report::toString);
+        assertTrue(recall >= MIN_CORPUS_STEP_RECALL, report::toString);
+    }
+
+    private static CompactRecipeContextService service(int tokenBudget) {
+        return new CompactRecipeContextService(tokenBudget, 100, Duration.ofMinutes(30), new SimpleMeterRegistry());
+    }
+
+    private static List<IngredientDto> ingredients(String... names) {
+        return Stream.of(names).map(IngredientDto::new).toList();
+    }
+
+    /**
+     * A hand-written chat session of the corpus: the recipe, lines its context must keep, and the questions asked with
+     * the numbers of the steps they are about.
+     */
+    private record CorpusSession(RecipeSchemaDto schema, List<String> keep, List<CorpusTurn> turns) { }
+
+    private record CorpusTurn(String question, List<Integer> steps) { }
+}
@@ -1,22 +1,33 @@
 package pl.hubertmaka.culinaryagent.services.impl;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.ai.audio.tts.Speech;
 import org.springframework.ai.audio.tts.TextToSpeechModel;
 import org.springframework.ai.audio.tts.TextToSpeechPrompt;
 import org.springframework.ai.audio.tts.TextToSpeechResponse;
+import org.springframework.ai.elevenlabs.ElevenLabsTextToSpeechOptions;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+import pl.hubertmaka.culinaryagent.caches.TextToSpeechAudioCache;
 import pl.hubertmaka.culinaryagent.domain.dtos.RecipeChatResponseChunkDto;
+import pl.hubertmaka.culinaryagent.domain.enums.AudioFormat;
 import pl.hubertmaka.culinaryagent.domain.enums.Voice;
 import reactor.core.publisher.Flux;
 import reactor.test.StepVerifier;
 
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -28,11 +39,14 @@ class ElevenLabsTTSServiceTest {
     @Mock
     private TextToSpeechModel textToSpeechModel;
 
+    @TempDir
+    private Path cacheDirectory;
+
     private ElevenLabsTTSService elevenLabsTTSService;
 
     @BeforeEach
     void setUp() {
-        elevenLabsTTSService = new ElevenLabsTTSService(textToSpeechModel);
+        elevenLabsTTSService = createService(createAudioCache(false), false, new SimpleMeterRegistry());
     }
 
     @Test
@@ -61,19 +75,19 @@ class ElevenLabsTTSServiceTest {
         // Given
         String text = "Hello, this is a test.";
         Voice voice = Voice.VOICE_WOMAN;
-        Speech speech = mock(Speech.class);
+        Speech speech = new Speech(new byte[]{1, 2, 3});
         TextToSpeechResponse response = new TextToSpeechResponse(List.of(speech));
 
         when(textToSpeechModel.stream(any(TextToSpeechPrompt.class))).thenReturn(Flux.just(response));
 
         // When
-        Flux<RecipeChatResponseChunkDto> result = elevenLabsTTSService.stream(text, voice);
+        Flux<RecipeChatResponseChunkDto> result = elevenLabsTTSService.stream(text, voice, AudioFormat.MP3_22050_32);
 
         // Then
         assertNotNull(result);
         StepVerifier.create(result)
             .assertNext(chunk -> {
-                assertEquals(speech, chunk.audioChunk());
+                assertArrayEquals(speech.getOutput(), chunk.audioChunk());
                 assertNull(chunk.agentResponse());
             })
             .verifyComplete();
@@ -91,7 +105,7 @@ class ElevenLabsTTSServiceTest {
         when(textToSpeechModel.stream(any(TextToSpeechPrompt.class))).thenReturn(Flux.just(response));
 
         // When
-        elevenLabsTTSService.stream(text, voice).blockFirst();
+        elevenLabsTTSService.stream(text, voice, AudioFormat.MP3_22050_32).blockFirst();
 
         // Then
         verify(textToSpeechModel, times(1)).stream(any(TextToSpeechPrompt.class));
@@ -109,7 +123,7 @@ class ElevenLabsTTSServiceTest {
         when(textToSpeechModel.stream(any(TextToSpeechPrompt.class))).thenReturn(Flux.just(response));
 
         // When
-        elevenLabsTTSService.stream(text, voice).blockFirst();
+        elevenLabsTTSService.stream(text, voice, AudioFormat.MP3_22050_32).blockFirst();
 
         // Then
         verify(textToSpeechModel, times(1)).stream(any(TextToSpeechPrompt.class));
@@ -121,24 +135,24 @@ class ElevenLabsTTSServiceTest {
         // Given
         String text = "Multi-chunk test.";
         Voice voice = Voice.VOICE_WOMAN;
-        Speech speech1 = mock(Speech.class);
-        Speech speech2 = mock(Speech.class);
+        Speech speech1 = new Speech(new byte[]{1, 2});
+        Speech speech2 = new Speech(new byte[]{3, 4});
         TextToSpeechResponse response1 = new TextToSpeechResponse(List.of(speech1));
         TextToSpeechResponse response2 = new TextToSpeechResponse(List.of(speech2));
 
         when(textToSpeechModel.stream(any(TextToSpeechPrompt.class))).thenReturn(Flux.just(response1, response2));
 
         // When
-        Flux<RecipeChatResponseChunkDto> result = elevenLabsTTSService.stream(text, voice);
+        Flux<RecipeChatResponseChunkDto> result = elevenLabsTTSService.stream(text, voice, AudioFormat.MP3_22050_32);
 
         // Then
         StepVerifier.create(result)
             .assertNext(chunk -> {
-                assertEquals(speech1, chunk.audioChunk());
+                assertArrayEquals(speech1.getOutput(), chunk.audioChunk());
                 assertNull(chunk.agentResponse());
             })
             .assertNext(chunk -> {
-                assertEquals(speech2, chunk.audioChunk());
+                assertArrayEquals(speech2.getOutput(), chunk.audioChunk());
                 assertNull(chunk.agentResponse());
             })
             .verifyComplete();
@@ -154,10 +168,149 @@ class ElevenLabsTTSServiceTest {
         when(textToSpeechModel.stream(any(TextToSpeechPrompt.class))).thenReturn(Flux.empty());
 
         // When
-        Flux<RecipeChatResponseChunkDto> result = elevenLabsTTSService.stream(text, voice);
+        Flux<RecipeChatResponseChunkDto> result = elevenLabsTTSService.stream(text, voice, AudioFormat.MP3_22050_32);
 
         // Then
         StepVerifier.create(result)
             .verifyComplete();
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Test if stream replays cached audio instead of calling the model again for the same text and voice")
+    void whenStreamSameTextTwice_thenCallModelOnce() {
+        // Given
+        var service = createService(createAudioCache(true), false, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "modelId", "eleven_flash_v2_5");
+        var response = new TextToSpeechResponse(List.of(new Speech(new byte[]{1, 2, 3})));
+        when(textToSpeechModel.stream(any(TextToSpeechPrompt.class))).thenReturn(Flux.just(response));
+
+        // When
+        service.stream("Hello.", Voice.VOICE_WOMAN, AudioFormat.MP3_22050_32).blockLast();
+        var replayed = service.stream("Hello.", Voice.VOICE_WOMAN, AudioFormat.MP3_22050_32);
+
+        // Then
+        StepVerifier.create(replayed)
+            .assertNext(chunk -> assertArrayEquals(new byte[]{1, 2, 3}, chunk.audioChunk()))
+            .verifyComplete();
+        verify(textToSpeechModel, times(1)).stream(any(TextToSpeechPrompt.class));
+    }
+
+    @Test
+    @DisplayName("Test if stream requests the audio format from the model and caches each format separately")
+    void whenStreamSameTextInTwoFormats_thenSynthesizeEachFormat() {
+        // Given
+        var service = createService(createAudioCache(true), false, new SimpleMeterRegistry());
+        var prompts = new CopyOnWriteArrayList<TextToSpeechPrompt>();
+        when(textToSpeechModel.stream(any(TextToSpeechPrompt.class))).thenAnswer(invocation -> {
+            TextToSpeechPrompt prompt = invocation.getArgument(0);
+            prompts.add(prompt);
+            var outputFormat = ((ElevenLabsTextToSpeechOptions) prompt.getOptions()).getOutputFormat();
+            return Flux.just(new TextToSpeechResponse(List.of(new Speech(outputFormat.getBytes()))));
+        });
+
+        // When
+        service.stream("Hello.", Voice.VOICE_WOMAN, AudioFormat.MP3_22050_32).blockLast();
+        var opus = service.stream("Hello.", Voice.VOICE_WOMAN, AudioFormat.OPUS_48000_32);
+
+        // Then
+        StepVerifier.create(opus.map(chunk -> new String(chunk.audioChunk())))
+            .expectNext("opus_48000_32")
+            .verifyComplete();
+        assertEquals(2, prompts.size());
+        assertEquals("mp3_22050_32", ((ElevenLabsTextToSpeechOptions) prompts.getFirst().getOptions()).getOutputFormat());
+    }
+
+    @Test
+    @DisplayName("Test if segmented stream synthesizes the segments concurrently with their context and emits the audio in order")
+    void whenStreamSegmented_thenSynthesizeConcurrentlyAndEmitInOrder() {
+        // Given
+        var meterRegistry = new SimpleMeterRegistry();
+        var service = createService(createAudioCache(false), true, meterRegistry);
+        var prompts = new CopyOnWriteArrayList<TextToSpeechPrompt>();
+        when(textToSpeechModel.stream(any(TextToSpeechPrompt.class))).thenAnswer(invocation -> {
+            TextToSpeechPrompt prompt = invocation.getArgument(0);
+            prompts.add(prompt);
+            String text = prompt.getInstructions().getText();
+            long delay = text.startsWith("Boil") ? 150 : 10;
+            return Flux.just(new TextToSpeechResponse(List.of(new Speech(text.substring(0, 3).getBytes()))))
+                .delayElements(Duration.ofMillis(delay));
+        });
+
+        // When
+        var result = service.stream("Boil the water. Add the pasta. Drain it well.", Voice.VOICE_WOMAN, AudioFormat.MP3_22050_32);
+
+        // Then
+        StepVerifier.create(result.map(chunk -> new String(chunk.audioChunk())))
+            .expectNext("Boi", "Add", "Dra")
+            .verifyComplete();
+        assertEquals(3, prompts.size());
+        var options = (ElevenLabsTextToSpeechOptions) prompts.stream()
+            .filter(prompt -> prompt.getInstructions().getText().startsWith("Add"))
+            .findFirst().orElseThrow().getOptions();
+        assertEquals("Boil the water.", options.getPreviousText());
+        assertEquals("Drain it well.", options.getNextText());
+        var wall = meterRegistry.get("tts.synthesis.duration").tag("measure", "wall").timer();
+        var serial = meterRegistry.get("tts.synthesis.duration").tag("measure", "serial").timer();
+        assertEquals(1, wall.count());
+        assertTrue(wall.totalTime(TimeUnit.MILLISECONDS) < serial.totalTime(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    @DisplayName("Test if a segment failing before emitting audio is retried and its audio emitted once")
+    void whenSegmentFailsBeforeAudio_thenRetrySegment() {
+        // Given
+        var meterRegistry = new SimpleMeterRegistry();
+        var service = createService(createAudioCache(false), true, meterRegistry);
+        var attempts = new AtomicInteger();
+        when(textToSpeechModel.stream(any(TextToSpeechPrompt.class))).thenAnswer(invocation -> {
+            String text = ((TextToSpeechPrompt) invocation.getArgument(0)).getInstructions().getText();
+            if (text.startsWith("Add") && attempts.getAndIncrement() == 0) {
+                return Flux.error(new IllegalStateException("503 Service Unavailable"));
+            }
+            return Flux.just(new TextToSpeechResponse(List.of(new Speech(text.substring(0, 3).getBytes()))));
+        });
+
+        // When
+        var result = service.stream("Boil the water. Add the pasta.", Voice.VOICE_WOMAN, AudioFormat.MP3_22050_32);
+
+        // Then
+        StepVerifier.create(result.map(chunk -> new String(chunk.audioChunk())))
+            .expectNext("Boi", "Add")
+            .verifyComplete();
+        assertEquals(2, attempts.get());
+        assertEquals(1, meterRegistry.get("tts.synthesis.segment.retries").counter().count());
+    }
+
+    @Test
+    @DisplayName("Test if a segment failing after emitting audio is not retried")
+    void whenSegmentFailsAfterAudio_thenPropagateError() {
+        // Given
+        var service = createService(createAudioCache(false), true, new SimpleMeterRegistry());
+        when(textToSpeechModel.stream(any(TextToSpeechPrompt.class))).thenReturn(Flux.concat(
+            Flux.just(new TextToSpeechResponse(List.of(new Speech(new byte[]{1})))),
+            Flux.error(new IllegalStateException("Connection reset"))));
+
+        // When
+        var result = service.stream("Boil the water.", Voice.VOICE_WOMAN, AudioFormat.MP3_22050_32);
+
+        // Then
+        StepVerifier.create(result)
+            .expectNextCount(1)
+            .verifyError(IllegalStateException.class);
+        verify(textToSpeechModel, times(1)).stream(any(TextToSpeechPrompt.class));
+    }
+
+    private ElevenLabsTTSService createService(TextToSpeechAudioCache audioCache, boolean segmented, SimpleMeterRegistry meterRegistry) {
+        var service = new ElevenLabsTTSService(
+            textToSpeechModel, audioCache, segmented, 1, 3, 2, Duration.ofMillis(1), meterRegistry
+        );
+        ReflectionTestUtils.setField(service, "modelId", "eleven_flash_v2_5");
+        return service;
+    }
+
+    private TextToSpeechAudioCache createAudioCache(boolean enabled) {
+        return new TextToSpeechAudioCache(
+            enabled, cacheDirectory.toString(), DataSize.ofMegabytes(1), DataSize.ofKilobytes(16), new SimpleMeterRegistry()
+        );
+    }
+}
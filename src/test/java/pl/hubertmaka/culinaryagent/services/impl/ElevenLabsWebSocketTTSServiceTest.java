@@ -0,0 +1,231 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import pl.hubertmaka.culinaryagent.caches.TextToSpeechAudioCache;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeChatResponseChunkDto;
+import pl.hubertmaka.culinaryagent.domain.enums.AudioFormat;
+import pl.hubertmaka.culinaryagent.domain.enums.Voice;
+import pl.hubertmaka.culinaryagent.exceptions.RecipeChatException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ElevenLabsWebSocketTTSServiceTest {
+
+    /** The latency of every reply of the stub provider. */
+    private static final Duration LATENCY = Duration.ofMillis(50);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicInteger handshakes = new AtomicInteger();
+    private final List<String> apiKeys = new CopyOnWriteArrayList<>();
+    private final List<JsonNode> received = new CopyOnWriteArrayList<>();
+    private SimpleMeterRegistry meterRegistry;
+    private DisposableServer server;
+    private ElevenLabsWebSocketTTSService service;
+
+    @TempDir
+    private Path cacheDirectory;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        server = HttpServer.create()
+            .port(0)
+            .route(routes -> routes.ws("/v1/text-to-speech/{voice}/multi-stream-input", (inbound, outbound) -> {
+                handshakes.incrementAndGet();
+                apiKeys.add(inbound.headers().get("xi-api-key"));
+                return outbound.sendString(inbound.receive().asString()
+                    .map(this::readTree)
+                    .doOnNext(received::add)
+                    .takeUntil(message -> message.path("close_socket").asBoolean(false))
+                    .concatMap(this::reply));
+            }))
+            .bindNow();
+        service = createService(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+        server.disposeNow();
+    }
+
+    @Test
+    @DisplayName("Test if stream reuses the pooled connection of the voice for the next synthesis")
+    void whenStreamTwice_thenReuseConnection() {
+        // Given
+        var first = service.stream("Boil the water.", Voice.VOICE_WOMAN, AudioFormat.MP3_22050_32);
+        var second = service.stream("Add pasta.", Voice.VOICE_WOMAN, AudioFormat.MP3_22050_32);
+
+        // When
+        var firstAudio = audio(first);
+        var secondAudio = audio(second);
+
+        // Then
+        assertEquals(List.of("Boil the water."), firstAudio);
+        assertEquals(List.of("Add pasta."), secondAudio);
+        assertEquals(1, handshakes.get());
+        assertEquals(List.of("test-api-key"), apiKeys);
+        assertEquals(1, meterRegistry.get("tts.websocket.sessions").tag("connection", "new").counter().count());
+        assertEquals(1, meterRegistry.get("tts.websocket.sessions").tag("connection", "reused").counter().count());
+        assertEquals(1, meterRegistry.get("tts.websocket.connections").gauge().value());
+    }
+
+    @Test
+    @DisplayName("Test if streamed text is sent as it arrives and its audio emitted before the text ends")
+    void whenStreamText_thenSendPiecesAsTheyArrive() {
+        // Given
+        Sinks.Many<String> text = Sinks.many().unicast().onBackpressureBuffer();
+
+        // When
+        var result = service.stream(text.asFlux(), Voice.VOICE_MAN, AudioFormat.MP3_22050_32).map(this::decode);
+
+        // Then
+        StepVerifier.create(result)
+            .then(() -> text.tryEmitNext("Boil the water."))
+            .expectNext("Boil the water.")
+            .then(() -> text.tryEmitNext("Add pasta."))
+            .expectNext("Add pasta.")
+            .then(text::tryEmitComplete)
+            .expectComplete()
+            .verify(Duration.ofSeconds(5));
+        var contexts = received.stream().map(message -> message.path("context_id").asText()).distinct().toList();
+        assertEquals(1, contexts.size());
+        assertTrue(received.stream().anyMatch(message -> message.path("flush").asBoolean(false)));
+    }
+
+    @Test
+    @DisplayName("Test if concurrent syntheses share a connection up to the context limit and each gets its own audio")
+    void whenStreamConcurrently_thenMultiplexContextsOverConnections() {
+        // Given
+        var texts = List.of("Boil the water.", "Add pasta.", "Drain it well.");
+
+        // When
+        var results = Flux.fromIterable(texts)
+            .flatMapSequential(text -> service.stream(text, Voice.VOICE_WOMAN, AudioFormat.MP3_22050_32).map(this::decode).collectList())
+            .collectList()
+            .block(Duration.ofSeconds(5));
+
+        // Then
+        assertEquals(List.of(List.of("Boil the water."), List.of("Add pasta."), List.of("Drain it well.")), results);
+        assertEquals(2, handshakes.get());
+        assertEquals(3, received.stream()
+            .filter(message -> message.path("close_context").asBoolean(false))
+            .map(message -> message.path("context_id").asText())
+            .distinct()
+            .count());
+    }
+
+    @Test
+    @DisplayName("Test if a closed connection fails its syntheses and the next synthesis opens a new connection")
+    void whenConnectionClosed_thenFailSynthesisAndReconnect() {
+        // Given
+        var dropped = service.stream("Drop the connection.", Voice.VOICE_WOMAN, AudioFormat.MP3_22050_32);
+
+        // When
+        var recovered = service.stream("Add pasta.", Voice.VOICE_WOMAN, AudioFormat.MP3_22050_32);
+
+        // Then
+        StepVerifier.create(dropped)
+            .expectError(RecipeChatException.class)
+            .verify(Duration.ofSeconds(5));
+        assertEquals(List.of("Add pasta."), audio(recovered));
+        assertEquals(2, handshakes.get());
+    }
+
+    @Test
+    @DisplayName("Test if connections idle for longer than the idle time are closed without waiting for another synthesis")
+    void whenConnectionIdle_thenCloseItInTheBackground() {
+        // Given
+        service.shutdown();
+        meterRegistry = new SimpleMeterRegistry();
+        service = createService(2, Duration.ofMillis(200));
+        var audio = audio(service.stream("Boil the water.", Voice.VOICE_WOMAN, AudioFormat.MP3_22050_32));
+
+        // When
+        var closed = Flux.interval(Duration.ofMillis(20))
+            .map(tick -> received.stream().anyMatch(message -> message.path("close_socket").asBoolean(false)))
+            .filter(Boolean::booleanValue)
+            .next()
+            .block(Duration.ofSeconds(5));
+
+        // Then
+        assertEquals(List.of("Boil the water."), audio);
+        assertEquals(Boolean.TRUE, closed);
+        assertEquals(0, meterRegistry.get("tts.websocket.connections").gauge().value());
+        assertEquals(1, handshakes.get());
+    }
+
+    private ElevenLabsWebSocketTTSService createService(int maxContextsPerConnection) {
+        return createService(maxContextsPerConnection, Duration.ofMinutes(1));
+    }
+
+    private ElevenLabsWebSocketTTSService createService(int maxContextsPerConnection, Duration maxIdleTime) {
+        var audioCache = new TextToSpeechAudioCache(
+            false, cacheDirectory.toString(), DataSize.ofMegabytes(1), DataSize.ofKilobytes(16), new SimpleMeterRegistry()
+        );
+        return new ElevenLabsWebSocketTTSService(
+            audioCache, objectMapper, "ws://localhost:" + server.port(), "test-api-key", "eleven_flash_v2_5",
+            maxContextsPerConnection, maxIdleTime, Duration.ofSeconds(2), meterRegistry
+        );
+    }
+
+    /**
+     * Replies to a message like ElevenLabs after the simulated latency: the audio of a text is the text itself, a
+     * closed context is reported final, and the text "Drop the connection." closes the connection.
+     */
+    private Mono<String> reply(JsonNode message) {
+        var contextId = message.path("context_id").asText();
+        var text = message.path("text").asText("").strip();
+        if (text.equals("Drop the connection.")) {
+            return Mono.error(new IllegalStateException("Connection dropped"));
+        }
+        if (!text.isEmpty()) {
+            var audio = Base64.getEncoder().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+            return Mono.just(objectMapper.createObjectNode().put("audio", audio).put("contextId", contextId).toString())
+                .delayElement(LATENCY);
+        }
+        if (message.path("close_context").asBoolean(false)) {
+            return Mono.just(objectMapper.createObjectNode().put("isFinal", true).put("contextId", contextId).toString())
+                .delayElement(LATENCY);
+        }
+        return Mono.empty();
+    }
+
+    private JsonNode readTree(String message) {
+        try {
+            return objectMapper.readTree(message);
+        } catch (Exception e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private List<String> audio(Flux<RecipeChatResponseChunkDto> chunks) {
+        return chunks.map(this::decode).collectList().block(Duration.ofSeconds(5));
+    }
+
+    private String decode(RecipeChatResponseChunkDto chunk) {
+        return new String(chunk.audioChunk(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,148 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import com.google.genai.Client;
+import com.google.genai.types.HttpOptions;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.google.genai.cache.GoogleGenAiCachedContentService;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeminiChatContextCacheServiceTest {
+
+    private static final String INSTRUCTION = "Cook pierogi in English. " + "Knead the dough until smooth. ".repeat(20);
+
+    private HttpServer server;
+    private SimpleMeterRegistry meterRegistry;
+    private GeminiChatContextCacheService contextCache;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final List<String> createBodies = new CopyOnWriteArrayList<>();
+    private final AtomicInteger createStatus = new AtomicInteger(200);
+    private final AtomicInteger created = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        meterRegistry = new SimpleMeterRegistry();
+        var client = Client.builder()
+                .apiKey("test-key")
+                .httpOptions(HttpOptions.builder().baseUrl("http://localhost:" + server.getAddress().getPort()).build())
+                .build();
+        contextCache = new GeminiChatContextCacheService(new GoogleGenAiCachedContentService(client), Schedulers.immediate(),
+                "You are a cooking assistant.", "gemini-2.5-flash", true, 100, Duration.ofMinutes(15), 100, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    @DisplayName("Test if lookup creates the cached content of a recipe once and reuses it on later turns")
+    void whenLookupTwice_thenCreateOnceAndReuse() {
+        // When
+        var first = contextCache.lookup(INSTRUCTION);
+        var second = contextCache.lookup(INSTRUCTION);
+
+        // Then
+        assertEquals(Optional.of("cachedContents/chat-1"), first);
+        assertEquals(first, second);
+        assertEquals(List.of("POST /v1beta/cachedContents"), requests);
+        assertTrue(createBodies.getFirst().contains("You are a cooking assistant."));
+        assertTrue(createBodies.getFirst().contains("Knead the dough until smooth."));
+        assertTrue(createBodies.getFirst().contains("900s"));
+        assertEquals(1.0, meterRegistry.get("chat.context-cache.creations").tag("result", "success").counter().count());
+    }
+
+    @Test
+    @DisplayName("Test if invalidate deletes the cached content at the provider and the next lookup creates a new one")
+    void whenInvalidate_thenDeleteAndCreateAgain() {
+        // Given
+        contextCache.lookup(INSTRUCTION);
+
+        // When
+        contextCache.invalidate(INSTRUCTION);
+        var recreated = contextCache.lookup(INSTRUCTION);
+
+        // Then
+        assertEquals(Optional.of("cachedContents/chat-2"), recreated);
+        assertEquals(List.of(
+                "POST /v1beta/cachedContents",
+                "DELETE /v1beta/cachedContents/chat-1",
+                "POST /v1beta/cachedContents"
+        ), requests);
+    }
+
+    @Test
+    @DisplayName("Test if a rejected cached content is not requested again on every turn")
+    void whenProviderRejectsCachedContent_thenSendFullPromptWithoutRetrying() {
+        // Given
+        createStatus.set(400);
+
+        // When
+        var first = contextCache.lookup(INSTRUCTION);
+        var second = contextCache.lookup(INSTRUCTION);
+
+        // Then
+        assertTrue(first.isEmpty());
+        assertTrue(second.isEmpty());
+        assertEquals(1, requests.size());
+        assertEquals(1.0, meterRegistry.get("chat.context-cache.creations").tag("result", "failure").counter().count());
+    }
+
+    @Test
+    @DisplayName("Test if lookup does not cache a prompt below the minimum cacheable size")
+    void whenPromptTooSmall_thenDoNotCache() {
+        // When
+        var result = contextCache.lookup("Cook pierogi.");
+
+        // Then
+        assertTrue(result.isEmpty());
+        assertTrue(requests.isEmpty());
+    }
+
+    /**
+     * Stubs the cachedContents API: creates numbered cached contents and deletes them.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        requests.add(method + " " + path);
+        byte[] body;
+        int status;
+        if (method.equals("POST")) {
+            createBodies.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            status = createStatus.get();
+            body = status == 200
+                    ? ("{\"name\": \"cachedContents/chat-" + created.incrementAndGet() + "\", \"model\": \"models/gemini-2.5-flash\","
+                            + " \"expireTime\": \"2030-01-01T00:00:00Z\", \"usageMetadata\": {\"totalTokenCount\": 1200}}")
+                            .getBytes(StandardCharsets.UTF_8)
+                    : "{\"error\": {\"code\": 400, \"message\": \"Cached content is too small\", \"status\": \"INVALID_ARGUMENT\"}}"
+                            .getBytes(StandardCharsets.UTF_8);
+        } else {
+            status = 200;
+            body = "{}".getBytes(StandardCharsets.UTF_8);
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+}
@@ -1,10 +1,12 @@
 package pl.hubertmaka.culinaryagent.services.impl;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.ai.chat.client.ChatClient;
@@ -12,9 +14,14 @@ import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
 import org.springframework.ai.chat.metadata.Usage;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.google.genai.metadata.GoogleGenAiUsage;
+import com.google.genai.errors.ClientException;
+import com.google.genai.errors.ServerException;
+import com.google.genai.types.GenerateContentResponseUsageMetadata;
 import pl.hubertmaka.culinaryagent.domain.dtos.ChatAgentResponseDto;
 import pl.hubertmaka.culinaryagent.domain.dtos.MessageDto;
 import pl.hubertmaka.culinaryagent.domain.dtos.RecipeChatRequestDto;
@@ -22,11 +29,19 @@ import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaDto;
 import pl.hubertmaka.culinaryagent.domain.enums.Language;
 import pl.hubertmaka.culinaryagent.domain.enums.Role;
 import pl.hubertmaka.culinaryagent.domain.enums.Voice;
+import pl.hubertmaka.culinaryagent.domain.models.RecipeContext;
 import pl.hubertmaka.culinaryagent.exceptions.RecipeChatException;
 import pl.hubertmaka.culinaryagent.mappers.Mapper;
-
+import pl.hubertmaka.culinaryagent.mappers.impl.MessageMapper;
+import pl.hubertmaka.culinaryagent.services.ChatContextCacheService;
+import pl.hubertmaka.culinaryagent.services.RecipeContextService;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
 import java.util.List;
-import java.util.function.Consumer;
+import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -41,11 +56,29 @@ class GeminiRecipeChatServiceTest {
     @Mock
     private Mapper<Message, MessageDto> mapper;
 
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    private ChatClient summarizer;
+
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    private ChatClient cachedChatClient;
+
+    @Mock
+    private ChatContextCacheService contextCache;
+
+    @Mock
+    private RecipeContextService recipeContextService;
+
     private GeminiRecipeChatService geminiRecipeChatService;
 
     @BeforeEach
     void setUp() {
-        geminiRecipeChatService = new GeminiRecipeChatService(chatClient, "Test instruction: {language} {schema}", mapper);
+        var historyService = new SummarizingConversationHistoryService(
+                summarizer, Schedulers.immediate(), true, 40, 2, 100, Duration.ofMinutes(30), new SimpleMeterRegistry());
+        lenient().when(recipeContextService.context(any(RecipeSchemaDto.class)))
+                .thenAnswer(invocation -> new RecipeContext(invocation.<RecipeSchemaDto>getArgument(0).content(), List.of(), 0));
+        geminiRecipeChatService = new GeminiRecipeChatService(
+                chatClient, "Test instruction: {language} {schema}", mapper, Schedulers.immediate(), historyService, cachedChatClient, contextCache,
+                recipeContextService);
     }
 
     @Test
@@ -61,7 +94,7 @@ class GeminiRecipeChatServiceTest {
         // Given
         var messageDto = new MessageDto(Role.USER, "What can I cook with tomatoes?");
         var schema = new RecipeSchemaDto("Tomato soup", List.of(), 30, List.of());
-        var request = new RecipeChatRequestDto(schema, List.of(messageDto), Voice.VOICE_WOMAN, Language.EN_US);
+        var request = new RecipeChatRequestDto(schema, List.of(messageDto), Voice.VOICE_WOMAN, Language.EN_US, null);
 
         var usage = mock(Usage.class);
         when(usage.getPromptTokens()).thenReturn(10);
@@ -81,10 +114,10 @@ class GeminiRecipeChatServiceTest {
         when(chatResponse.getResult()).thenReturn(generation);
         when(chatResponse.getMetadata()).thenReturn(metadata);
 
-        when(mapper.mapFrom(messageDto)).thenReturn(new UserMessage("What can I cook with tomatoes?"));
+        var messageMapper = new MessageMapper();
+        when(mapper.mapFrom(any(MessageDto.class))).thenAnswer(invocation -> messageMapper.mapFrom(invocation.getArgument(0)));
 
         when(chatClient.prompt()
-                .user(any(Consumer.class))
                 .messages(anyList())
                 .call()
                 .chatResponse()
@@ -110,7 +143,7 @@ class GeminiRecipeChatServiceTest {
         var userMessageDto = new MessageDto(Role.USER, "How long should I cook the pasta?");
         var assistantMessageDto = new MessageDto(Role.ASSISTANT, "Cook for 10 minutes.");
         var schema = new RecipeSchemaDto("Pasta", List.of(), 20, List.of());
-        var request = new RecipeChatRequestDto(schema, List.of(userMessageDto, assistantMessageDto), Voice.VOICE_WOMAN, Language.EN_US);
+        var request = new RecipeChatRequestDto(schema, List.of(userMessageDto, assistantMessageDto), Voice.VOICE_WOMAN, Language.EN_US, null);
 
         var usage = mock(Usage.class);
         when(usage.getPromptTokens()).thenReturn(5);
@@ -133,7 +166,6 @@ class GeminiRecipeChatServiceTest {
         when(mapper.mapFrom(any(MessageDto.class))).thenReturn(new UserMessage("mapped message"));
 
         when(chatClient.prompt()
-                .user(any(Consumer.class))
                 .messages(anyList())
                 .call()
                 .chatResponse()
@@ -143,7 +175,9 @@ class GeminiRecipeChatServiceTest {
         geminiRecipeChatService.chat(request);
 
         // Then
-        verify(mapper, times(2)).mapFrom(any(MessageDto.class));
+        verify(mapper).mapFrom(new MessageDto(Role.USER, "Test instruction: " + Language.EN_US.getName() + " Pasta"));
+        verify(mapper).mapFrom(userMessageDto);
+        verify(mapper).mapFrom(assistantMessageDto);
     }
 
     @Test
@@ -151,7 +185,9 @@ class GeminiRecipeChatServiceTest {
     void whenChatWithEmptyHistory_thenReturnResponse() {
         // Given
         var schema = new RecipeSchemaDto("Salad", List.of(), 10, List.of());
-        var request = new RecipeChatRequestDto(schema, List.of(), Voice.VOICE_WOMAN, Language.PL);
+        var request = new RecipeChatRequestDto(schema, List.of(), Voice.VOICE_WOMAN, Language.PL, null);
+        var instructionDto = new MessageDto(Role.USER, "Test instruction: " + Language.PL.getName() + " Salad");
+        when(mapper.mapFrom(instructionDto)).thenReturn(new UserMessage(instructionDto.content()));
 
         var usage = mock(Usage.class);
         when(usage.getPromptTokens()).thenReturn(3);
@@ -172,7 +208,6 @@ class GeminiRecipeChatServiceTest {
         when(chatResponse.getMetadata()).thenReturn(metadata);
 
         when(chatClient.prompt()
-                .user(any(Consumer.class))
                 .messages(anyList())
                 .call()
                 .chatResponse()
@@ -184,7 +219,8 @@ class GeminiRecipeChatServiceTest {
         // Then
         assertNotNull(result);
         assertEquals("A simple salad recipe.", result.content());
-        verify(mapper, never()).mapFrom(any(MessageDto.class));
+        verify(mapper).mapFrom(instructionDto);
+        verifyNoMoreInteractions(mapper);
     }
 
     @Test
@@ -192,10 +228,9 @@ class GeminiRecipeChatServiceTest {
     void whenChatResponseIsNull_thenThrowRecipeChatException() {
         // Given
         var schema = new RecipeSchemaDto("Soup", List.of(), 15, List.of());
-        var request = new RecipeChatRequestDto(schema, List.of(), Voice.VOICE_WOMAN, Language.EN_US);
+        var request = new RecipeChatRequestDto(schema, List.of(), Voice.VOICE_WOMAN, Language.EN_US, null);
 
         when(chatClient.prompt()
-                .user(any(Consumer.class))
                 .messages(anyList())
                 .call()
                 .chatResponse()
@@ -204,6 +239,233 @@ class GeminiRecipeChatServiceTest {
         // When & Then
         assertThrows(RecipeChatException.class, () -> geminiRecipeChatService.chat(request));
     }
-}
 
+    @Test
+    @DisplayName("Test if session stream sends the prepared conversation and appends only the new turn")
+    void whenStreamSessionTwice_thenMapOnlyNewMessages() {
+        // Given
+        var messageMapper = new MessageMapper();
+        when(mapper.mapFrom(any(MessageDto.class))).thenAnswer(invocation -> messageMapper.mapFrom(invocation.getArgument(0)));
+        when(chatClient.prompt()
+                .messages(anyList())
+                .stream()
+                .chatResponse()
+        ).thenAnswer(invocation -> Flux.just(
+                new ChatResponse(List.of(new Generation(AssistantMessage.builder().content("Chop ").build()))),
+                new ChatResponse(List.of(new Generation(AssistantMessage.builder().content("the onion.").build())))
+        ));
+        var session = geminiRecipeChatService.openSession(
+                "session-1", new RecipeSchemaDto("Onion soup", List.of(), 40, List.of()), Language.EN_US, Voice.VOICE_WOMAN);
+
+        // When
+        var first = geminiRecipeChatService.stream(session, "What first?");
+        var second = geminiRecipeChatService.stream(session, "And then?");
+
+        // Then
+        StepVerifier.create(first).expectNextCount(2).verifyComplete();
+        StepVerifier.create(second).expectNextCount(2).verifyComplete();
+        var history = session.history().messages();
+        assertEquals(4, history.size());
+        assertEquals("Test instruction: " + Language.EN_US.getName() + " Onion soup", session.getInstruction().getText());
+        assertEquals("Chop the onion.", history.get(1).getText());
+        assertEquals("And then?", history.get(2).getText());
+        verify(mapper, times(5)).mapFrom(any(MessageDto.class));
+    }
 
+    @Test
+    @DisplayName("Test if session chat sends the summary of older turns and reports the history tokens")
+    void whenChatSessionOverBudget_thenSendSummaryAndReportHistoryTokens() {
+        // Given
+        var messageMapper = new MessageMapper();
+        when(mapper.mapFrom(any(MessageDto.class))).thenAnswer(invocation -> messageMapper.mapFrom(invocation.getArgument(0)));
+        when(summarizer.prompt().user(anyString()).call().content()).thenReturn("The user is frying onions.");
+        var chatResponse = new ChatResponse(
+                List.of(new Generation(AssistantMessage.builder().content("Stir the onions every minute.").build())),
+                ChatResponseMetadata.builder().model("gemini-pro").usage(new DefaultUsage(50, 10)).build());
+        when(chatClient.prompt()
+                .messages(anyList())
+                .call()
+                .chatResponse()
+        ).thenReturn(chatResponse);
+        var session = geminiRecipeChatService.openSession(
+                "session-1", new RecipeSchemaDto("Onion soup", List.of(), 40, List.of()), Language.EN_US, Voice.VOICE_WOMAN);
+        for (int turn = 0; turn < 4; turn++) {
+            geminiRecipeChatService.chat(session, "What should I do with the onions in step " + turn + "?");
+        }
+
+        // When
+        var result = geminiRecipeChatService.chat(session, "And now?");
+
+        // Then
+        var conversation = ArgumentCaptor.forClass(List.class);
+        verify(chatClient.prompt(), atLeastOnce()).messages(conversation.capture());
+        List<Message> lastConversation = conversation.getValue();
+        assertTrue(lastConversation.get(1).getText().endsWith("The user is frying onions."));
+        assertEquals("And now?", lastConversation.getLast().getText());
+        assertTrue(result.metadata().sentHistoryTokens() < result.metadata().historyTokens());
+        assertEquals(50, result.metadata().inputTokens());
+    }
+
+    @Test
+    @DisplayName("Test if session chat references the cached context instead of sending the instruction and reports cached tokens")
+    void whenContextCached_thenSendConversationWithoutInstruction() {
+        // Given
+        when(mapper.mapFrom(any(MessageDto.class))).thenAnswer(invocation -> new MessageMapper().mapFrom(invocation.getArgument(0)));
+        when(contextCache.lookup(anyString())).thenReturn(Optional.of("cachedContents/chat-1"));
+        var usage = GoogleGenAiUsage.from(GenerateContentResponseUsageMetadata.builder()
+                .promptTokenCount(1000)
+                .candidatesTokenCount(20)
+                .totalTokenCount(1020)
+                .cachedContentTokenCount(900)
+                .build());
+        when(cachedChatClient.prompt()
+                .messages(anyList())
+                .options(any())
+                .call()
+                .chatResponse()
+        ).thenReturn(new ChatResponse(
+                List.of(new Generation(AssistantMessage.builder().content("Boil the pierogi.").build())),
+                ChatResponseMetadata.builder().model("gemini-pro").usage(usage).build()));
+        var session = geminiRecipeChatService.openSession(
+                "session-1", new RecipeSchemaDto("Pierogi", List.of(), 60, List.of()), Language.EN_US, Voice.VOICE_WOMAN);
+
+        // When
+        var result = geminiRecipeChatService.chat(session, "What now?");
+
+        // Then
+        var conversation = ArgumentCaptor.forClass(List.class);
+        verify(cachedChatClient.prompt(), atLeastOnce()).messages(conversation.capture());
+        List<Message> sent = conversation.getAllValues().getLast();
+        assertEquals(1, sent.size());
+        assertEquals("What now?", sent.getFirst().getText());
+        assertEquals(900, result.metadata().cachedTokens());
+        verify(contextCache).lookup("Test instruction: " + Language.EN_US.getName() + " Pierogi");
+    }
+
+    @Test
+    @DisplayName("Test if a chat rejected with the cached context invalidates it and is sent in full")
+    void whenCachedContextCallFails_thenInvalidateAndSendFullPrompt() {
+        // Given
+        when(mapper.mapFrom(any(MessageDto.class))).thenAnswer(invocation -> new MessageMapper().mapFrom(invocation.getArgument(0)));
+        when(contextCache.lookup(anyString())).thenReturn(Optional.of("cachedContents/expired"));
+        when(cachedChatClient.prompt()
+                .messages(anyList())
+                .options(any())
+                .call()
+                .chatResponse()
+        ).thenThrow(new RuntimeException("Failed to generate content",
+                new ClientException(404, "NOT_FOUND", "CachedContent not found (or permission denied)")));
+        when(chatClient.prompt()
+                .messages(anyList())
+                .call()
+                .chatResponse()
+        ).thenReturn(new ChatResponse(
+                List.of(new Generation(AssistantMessage.builder().content("Boil the pierogi.").build())),
+                ChatResponseMetadata.builder().model("gemini-pro").usage(new DefaultUsage(1000, 20)).build()));
+        var session = geminiRecipeChatService.openSession(
+                "session-1", new RecipeSchemaDto("Pierogi", List.of(), 60, List.of()), Language.EN_US, Voice.VOICE_WOMAN);
+
+        // When
+        var result = geminiRecipeChatService.chat(session, "What now?");
+
+        // Then
+        assertEquals("Boil the pierogi.", result.content());
+        assertNull(result.metadata().cachedTokens());
+        verify(contextCache).invalidate("Test instruction: " + Language.EN_US.getName() + " Pierogi");
+    }
+
+    @Test
+    @DisplayName("Test if a chat failing with the cached context for another reason is passed on and keeps the cached context")
+    void whenCachedContextCallRateLimited_thenThrowWithoutInvalidating() {
+        // Given
+        when(mapper.mapFrom(any(MessageDto.class))).thenAnswer(invocation -> new MessageMapper().mapFrom(invocation.getArgument(0)));
+        when(contextCache.lookup(anyString())).thenReturn(Optional.of("cachedContents/chat-1"));
+        when(cachedChatClient.prompt()
+                .messages(anyList())
+                .options(any())
+                .call()
+                .chatResponse()
+        ).thenThrow(new RuntimeException("Failed to generate content",
+                new ClientException(429, "RESOURCE_EXHAUSTED", "Resource has been exhausted")));
+        var session = geminiRecipeChatService.openSession(
+                "session-1", new RecipeSchemaDto("Pierogi", List.of(), 60, List.of()), Language.EN_US, Voice.VOICE_WOMAN);
+
+        // When & Then
+        assertThrows(RuntimeException.class, () -> geminiRecipeChatService.chat(session, "What now?"));
+        verify(contextCache, never()).invalidate(anyString());
+        verify(chatClient, never()).prompt();
+        assertEquals(0, session.size());
+    }
+
+    @Test
+    @DisplayName("Test if a stream rejected with the cached context is streamed in full and a server error is passed on")
+    void whenCachedContextStreamFails_thenFallBackOnlyWhenRejected() {
+        // Given
+        when(mapper.mapFrom(any(MessageDto.class))).thenAnswer(invocation -> new MessageMapper().mapFrom(invocation.getArgument(0)));
+        when(contextCache.lookup(anyString())).thenReturn(Optional.of("cachedContents/chat-1"));
+        when(cachedChatClient.prompt()
+                .messages(anyList())
+                .options(any())
+                .stream()
+                .chatResponse()
+        ).thenReturn(
+                Flux.error(new RuntimeException("Failed to generate content",
+                        new ClientException(400, "INVALID_ARGUMENT", "Cached content is expired"))),
+                Flux.error(new RuntimeException("Failed to generate content",
+                        new ServerException(503, "UNAVAILABLE", "The model is overloaded"))));
+        when(chatClient.prompt()
+                .messages(anyList())
+                .stream()
+                .chatResponse()
+        ).thenReturn(Flux.just(new ChatResponse(List.of(new Generation(AssistantMessage.builder().content("Boil the pierogi.").build())))));
+        var session = geminiRecipeChatService.openSession(
+                "session-1", new RecipeSchemaDto("Pierogi", List.of(), 60, List.of()), Language.EN_US, Voice.VOICE_WOMAN);
+
+        // When
+        var rejected = geminiRecipeChatService.stream(session, "What now?");
+        var unavailable = geminiRecipeChatService.stream(session, "And then?");
+
+        // Then
+        StepVerifier.create(rejected.map(ChatAgentResponseDto::content))
+                .expectNext("Boil the pierogi.")
+                .verifyComplete();
+        StepVerifier.create(unavailable)
+                .expectErrorMessage("Failed to generate content")
+                .verify();
+        verify(contextCache, times(1)).invalidate("Test instruction: " + Language.EN_US.getName() + " Pierogi");
+        assertEquals(2, session.size());
+    }
+
+    @Test
+    @DisplayName("Test if the steps relevant to the question are sent before it and not kept in the session history")
+    void whenStepsDeferred_thenSendRelevantStepsBeforeQuestion() {
+        // Given
+        when(mapper.mapFrom(any(MessageDto.class))).thenAnswer(invocation -> new MessageMapper().mapFrom(invocation.getArgument(0)));
+        var context = new RecipeContext("Recipe: Bigos", List.of("1. Soak the mushrooms.", "2. Fry the sausage."), 100);
+        when(recipeContextService.context(any(RecipeSchemaDto.class))).thenReturn(context);
+        when(recipeContextService.relevantSteps(context, "How long do I fry the sausage?", null))
+                .thenReturn(Optional.of("Recipe steps relevant to the next question:\n2. Fry the sausage."));
+        when(chatClient.prompt()
+                .messages(anyList())
+                .call()
+                .chatResponse()
+        ).thenReturn(new ChatResponse(
+                List.of(new Generation(AssistantMessage.builder().content("Five minutes.").build())),
+                ChatResponseMetadata.builder().model("gemini-pro").usage(new DefaultUsage(100, 5)).build()));
+        var session = geminiRecipeChatService.openSession(
+                "session-1", new RecipeSchemaDto("Bigos", List.of(), 120, List.of()), Language.EN_US, Voice.VOICE_WOMAN);
+
+        // When
+        geminiRecipeChatService.chat(session, "How long do I fry the sausage?");
+
+        // Then
+        var conversation = ArgumentCaptor.forClass(List.class);
+        verify(chatClient.prompt(), atLeastOnce()).messages(conversation.capture());
+        List<Message> sent = conversation.getAllValues().getLast();
+        assertEquals(3, sent.size());
+        assertEquals("Test instruction: " + Language.EN_US.getName() + " Recipe: Bigos", sent.getFirst().getText());
+        assertTrue(sent.get(1).getText().endsWith("2. Fry the sausage."));
+        assertEquals("How long do I fry the sausage?", sent.getLast().getText());
+        assertEquals(2, session.history().size());
+    }
+}
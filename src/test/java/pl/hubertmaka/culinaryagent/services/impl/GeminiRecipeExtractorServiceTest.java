@@ -7,6 +7,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Answers;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.UserMessage;
@@ -14,20 +15,28 @@ import org.springframework.ai.chat.metadata.ChatResponseMetadata;
 import org.springframework.ai.chat.metadata.Usage;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.model.Generation;
+import pl.hubertmaka.culinaryagent.caches.RecipeExtractionCache;
+import pl.hubertmaka.culinaryagent.caches.SimilarImageIndex;
 import pl.hubertmaka.culinaryagent.mappers.impl.RecipeSchemaMapper;
 import pl.hubertmaka.culinaryagent.domain.dtos.RecipeDataRequestDto;
 import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaDto;
 import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaResponseDto;
+import pl.hubertmaka.culinaryagent.domain.enums.ExtractionPath;
 import pl.hubertmaka.culinaryagent.domain.enums.FileExtension;
 import pl.hubertmaka.culinaryagent.domain.enums.Language;
 import pl.hubertmaka.culinaryagent.domain.enums.RecipeSource;
+import pl.hubertmaka.culinaryagent.domain.models.ImageUpload;
 import pl.hubertmaka.culinaryagent.exceptions.RecipeExtractionException;
 import pl.hubertmaka.culinaryagent.exceptions.UnsupportedSchemaException;
 import pl.hubertmaka.culinaryagent.strategies.impl.ImageRecipeInputStrategy;
 import pl.hubertmaka.culinaryagent.strategies.impl.TextRecipeInputStrategy;
 import pl.hubertmaka.culinaryagent.strategies.impl.UrlRecipeInputStrategy;
 
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -60,7 +69,11 @@ class GeminiRecipeExtractorServiceTest {
                 chatClient,
                 "Test extractor personality",
                 mapper,
-                List.of(imageRecipeInputStrategy, textRecipeInputStrategy, urlRecipeInputStrategy)
+                List.of(imageRecipeInputStrategy, textRecipeInputStrategy, urlRecipeInputStrategy),
+                new RecipeExtractionCache(true, 100, Duration.ofMinutes(5), new SimpleMeterRegistry()),
+                new SimilarImageIndex(true, 6, 100, Duration.ofMinutes(5), new SimpleMeterRegistry()),
+                "test-prompt-fingerprint",
+                "gemini-pro"
         );
     }
 
@@ -117,6 +130,7 @@ class GeminiRecipeExtractorServiceTest {
         when(mapper.mapFrom("{\"content\":\"Pasta\"}")).thenReturn(expectedSchema);
 
         when(chatClient.prompt()
+                .user(any(Consumer.class))
                 .messages(any(UserMessage.class))
                 .call()
                 .chatResponse()
@@ -162,6 +176,7 @@ class GeminiRecipeExtractorServiceTest {
         when(mapper.mapFrom("{}")).thenReturn(expectedSchema);
 
         when(chatClient.prompt()
+                .user(any(Consumer.class))
                 .messages(any(UserMessage.class))
                 .call()
                 .chatResponse()
@@ -202,6 +217,7 @@ class GeminiRecipeExtractorServiceTest {
         when(mapper.mapFrom("{}")).thenReturn(expectedSchema);
 
         when(chatClient.prompt()
+                .user(any(Consumer.class))
                 .messages(any(UserMessage.class))
                 .call()
                 .chatResponse()
@@ -241,6 +257,7 @@ class GeminiRecipeExtractorServiceTest {
         when(textRecipeInputStrategy.createMessage(request)).thenReturn(userMessage);
 
         when(chatClient.prompt()
+                .user(any(Consumer.class))
                 .messages(any(UserMessage.class))
                 .call()
                 .chatResponse()
@@ -275,6 +292,7 @@ class GeminiRecipeExtractorServiceTest {
         when(mapper.mapFrom("{}")).thenReturn(null);
 
         when(chatClient.prompt()
+                .user(any(Consumer.class))
                 .messages(any(UserMessage.class))
                 .call()
                 .chatResponse()
@@ -283,4 +301,129 @@ class GeminiRecipeExtractorServiceTest {
         // When & Then
         assertThrows(RecipeExtractionException.class, () -> geminiRecipeExtractorService.extract(request));
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Test if extract serves a repeated extraction of the same normalized content from the cache")
+    void whenExtractSameContentTwice_thenCallAgentOnce() {
+        // Given
+        var request = new RecipeDataRequestDto("Boil pasta.", RecipeSource.TEXT, FileExtension.JPEG, Language.EN_US);
+        var expectedSchema = new RecipeSchemaDto("Pasta", List.of(), 20, List.of());
+        stubSuccessfulTextExtraction(request, expectedSchema);
+
+        // When
+        var first = geminiRecipeExtractorService.extract(request);
+        var second = geminiRecipeExtractorService.extract(request);
+
+        // Then
+        assertSame(first, second);
+        verify(textRecipeInputStrategy, times(1)).createMessage(request);
+    }
+
+    @Test
+    @DisplayName("Test if extract does not share cached results between languages")
+    void whenExtractSameContentInOtherLanguage_thenCallAgentAgain() {
+        // Given
+        var englishRequest = new RecipeDataRequestDto("Boil pasta.", RecipeSource.TEXT, FileExtension.JPEG, Language.EN_US);
+        var polishRequest = new RecipeDataRequestDto("Boil pasta.", RecipeSource.TEXT, FileExtension.JPEG, Language.PL);
+        var expectedSchema = new RecipeSchemaDto("Pasta", List.of(), 20, List.of());
+        stubSuccessfulTextExtraction(englishRequest, expectedSchema);
+        when(textRecipeInputStrategy.createMessage(polishRequest)).thenReturn(new UserMessage("Boil pasta."));
+
+        // When
+        geminiRecipeExtractorService.extract(englishRequest);
+        geminiRecipeExtractorService.extract(polishRequest);
+
+        // Then
+        verify(textRecipeInputStrategy, times(1)).createMessage(englishRequest);
+        verify(textRecipeInputStrategy, times(1)).createMessage(polishRequest);
+    }
+
+    @Test
+    @DisplayName("Test if extract returns a recipe read from structured data without calling the agent")
+    void whenStructuredDataAvailable_thenSkipAgent() {
+        // Given
+        var request = new RecipeDataRequestDto("https://example.com/pasta", RecipeSource.URL, null, Language.EN_US);
+        var structuredSchema = new RecipeSchemaDto("# Pasta", List.of(), 20, List.of());
+        when(urlRecipeInputStrategy.supports(RecipeSource.URL)).thenReturn(true);
+        when(urlRecipeInputStrategy.normalizeContent(any())).thenReturn("https://example.com/pasta");
+        when(urlRecipeInputStrategy.extractStructured(request)).thenReturn(Optional.of(structuredSchema));
+
+        // When
+        var result = geminiRecipeExtractorService.extract(request);
+
+        // Then
+        assertSame(structuredSchema, result.recipeSchema());
+        assertEquals(ExtractionPath.STRUCTURED_DATA, result.extractionPath());
+        assertEquals(0, result.metadata().totalTokens());
+        verify(urlRecipeInputStrategy, never()).createMessage(any());
+        verifyNoInteractions(mapper);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    @DisplayName("Test if extractImage sends the uploaded image and caches the result under the hash of the image")
+    void whenExtractImageTwice_thenCallAgentOnce() {
+        // Given
+        var upload = new ImageUpload(Path.of("upload.png"), FileExtension.PNG, 3, "image-hash");
+        var expectedSchema = new RecipeSchemaDto("Pasta", List.of(), 20, List.of());
+        when(imageRecipeInputStrategy.supports(RecipeSource.IMAGE)).thenReturn(true);
+        when(imageRecipeInputStrategy.createUploadMessage(upload)).thenReturn(new UserMessage("Extract text from given image"));
+        var usage = mock(Usage.class);
+        var metadata = mock(ChatResponseMetadata.class);
+        when(metadata.getUsage()).thenReturn(usage);
+        when(metadata.getModel()).thenReturn("gemini-pro");
+        var message = mock(AssistantMessage.class);
+        when(message.getText()).thenReturn("{\"content\":\"Pasta\"}");
+        var generation = mock(Generation.class);
+        when(generation.getOutput()).thenReturn(message);
+        var chatResponse = mock(ChatResponse.class);
+        when(chatResponse.getResult()).thenReturn(generation);
+        when(chatResponse.getMetadata()).thenReturn(metadata);
+        when(mapper.mapFrom("{\"content\":\"Pasta\"}")).thenReturn(expectedSchema);
+        when(chatClient.prompt()
+                .user(any(Consumer.class))
+                .messages(any(UserMessage.class))
+                .call()
+                .chatResponse()
+        ).thenReturn(chatResponse);
+
+        // When
+        var first = geminiRecipeExtractorService.extractImage(upload, Language.EN_US);
+        var second = geminiRecipeExtractorService.extractImage(upload, Language.EN_US);
+
+        // Then
+        assertSame(expectedSchema, first.recipeSchema());
+        assertSame(first, second);
+        verify(imageRecipeInputStrategy, times(1)).createUploadMessage(upload);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubSuccessfulTextExtraction(RecipeDataRequestDto request, RecipeSchemaDto schema) {
+        when(textRecipeInputStrategy.supports(RecipeSource.TEXT)).thenReturn(true);
+        when(textRecipeInputStrategy.normalizeContent(any())).thenReturn("Boil pasta.");
+        when(textRecipeInputStrategy.createMessage(request)).thenReturn(new UserMessage("Boil pasta."));
+
+        var usage = mock(Usage.class);
+        when(usage.getPromptTokens()).thenReturn(10);
+        when(usage.getCompletionTokens()).thenReturn(20);
+        when(usage.getTotalTokens()).thenReturn(30);
+        var metadata = mock(ChatResponseMetadata.class);
+        when(metadata.getUsage()).thenReturn(usage);
+        when(metadata.getModel()).thenReturn("gemini-pro");
+        var message = mock(AssistantMessage.class);
+        when(message.getText()).thenReturn("{\"content\":\"Pasta\"}");
+        var generation = mock(Generation.class);
+        when(generation.getOutput()).thenReturn(message);
+        var chatResponse = mock(ChatResponse.class);
+        when(chatResponse.getResult()).thenReturn(generation);
+        when(chatResponse.getMetadata()).thenReturn(metadata);
+        when(mapper.mapFrom("{\"content\":\"Pasta\"}")).thenReturn(schema);
+
+        when(chatClient.prompt()
+                .user(any(Consumer.class))
+                .messages(any(UserMessage.class))
+                .call()
+                .chatResponse()
+        ).thenReturn(chatResponse);
+    }
+}
@@ -0,0 +1,290 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import pl.hubertmaka.culinaryagent.domain.enums.FileExtension;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageIOPreprocessorServiceTest {
+
+    private static final int MAX_DIMENSION = 1536;
+    private static final float JPEG_QUALITY = 0.85f;
+    private static final int BODY_FONT_SIZE = 64;
+    private static final double UPLINK_BYTES_PER_SECOND = 10_000_000 / 8.0;
+
+    private SimpleMeterRegistry meterRegistry;
+    private ImageIOPreprocessorService preprocessorService;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        preprocessorService = createService(false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        preprocessorService.shutdown();
+    }
+
+    @Test
+    @DisplayName("Test if preprocess turns a JPEG upright according to its EXIF orientation")
+    void whenJpegHasExifOrientation_thenTurnItUpright() throws IOException {
+        // Given
+        var stored = new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB);
+        var graphics = stored.createGraphics();
+        graphics.setColor(Color.RED);
+        graphics.fillRect(0, 0, 200, 200);
+        graphics.setColor(Color.BLUE);
+        graphics.fillRect(200, 0, 200, 200);
+        graphics.dispose();
+        var jpeg = withExifOrientation(encodeJpeg(stored, 0.9f), 6);
+
+        // When
+        var processed = decode(preprocessorService.preprocess(new ByteArrayResource(jpeg), FileExtension.JPEG));
+
+        // Then
+        assertEquals(200, processed.getWidth());
+        assertEquals(400, processed.getHeight());
+        assertTrue(new Color(processed.getRGB(100, 50)).getRed() > 200);
+        assertTrue(new Color(processed.getRGB(100, 350)).getBlue() > 200);
+        assertEquals(1, meterRegistry.get("image.preprocessing.bytes").tag("stage", "processed").summary().count());
+    }
+
+    @Test
+    @DisplayName("Test if preprocess passes a small upright image through untouched")
+    void whenImageSmallAndUpright_thenReturnItUnchanged() throws IOException {
+        // Given
+        var image = new ByteArrayResource(encodeJpeg(new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB), 0.9f));
+
+        // When
+        var processed = preprocessorService.preprocess(image, FileExtension.JPEG);
+
+        // Then
+        assertSame(image, processed);
+    }
+
+    @Test
+    @DisplayName("Test if preprocess passes an image that cannot be decoded through untouched")
+    void whenImageCannotBeDecoded_thenReturnItUnchanged() {
+        // Given
+        var image = new ByteArrayResource(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        // When
+        var processed = preprocessorService.preprocess(image, FileExtension.JPEG);
+
+        // Then
+        assertSame(image, processed);
+    }
+
+    @Test
+    @DisplayName("Test if preprocess converts images to grayscale when enabled")
+    void whenGrayscaleEnabled_thenEncodeSingleChannelImage() throws IOException {
+        // Given
+        var grayscaleService = createService(true);
+        var colorful = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        var graphics = colorful.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.ORANGE, 64, 64, Color.GREEN));
+        graphics.fillRect(0, 0, 64, 64);
+        graphics.dispose();
+        var png = new ByteArrayOutputStream();
+        ImageIO.write(colorful, "png", png);
+
+        // When
+        var processed = decode(grayscaleService.preprocess(new ByteArrayResource(png.toByteArray()), FileExtension.PNG));
+        grayscaleService.shutdown();
+
+        // Then
+        assertEquals(64, processed.getWidth());
+        assertEquals(1, processed.getRaster().getNumBands());
+    }
+
+    @Test
+    @DisplayName("Test if preprocess shrinks the sample recipe photos while keeping their text legible and close to a reference downscale")
+    void whenSampleSetPreprocessed_thenPayloadShrinksAndTextStaysLegible() throws IOException {
+        // Given
+        record Sample(String name, FileExtension fileExtension, int width, int height, byte[] bytes) {}
+        var samples = new Sample[]{
+                new Sample("card-photo-1", FileExtension.JPEG, 4032, 3024,
+                        encodeJpeg(photograph(recipeCard(4032, 3024, 1.0), 1L), 0.95f)),
+                new Sample("card-photo-2", FileExtension.JPEG, 3024, 4032,
+                        encodeJpeg(photograph(recipeCard(3024, 4032, 1.0), 2L), 0.95f)),
+                new Sample("screenshot", FileExtension.PNG, 2880, 1800, encodePng(recipeCard(2880, 1800, 1.0)))
+        };
+        var report = new StringBuilder(String.format("%n%-14s %12s %12s %11s %9s %7s%n",
+                "sample", "bytes before", "bytes after", "size after", "upload s", "MAE"));
+        long totalBefore = 0;
+        long totalAfter = 0;
+
+        for (var sample : samples) {
+            // When
+            var processedResource = preprocessorService.preprocess(new ByteArrayResource(sample.bytes()), sample.fileExtension());
+            var processed = decode(processedResource);
+            double scale = (double) processed.getWidth() / sample.width();
+            double meanAbsoluteError = meanAbsoluteError(processed, recipeCard(processed.getWidth(), processed.getHeight(), scale));
+            long after = processedResource.contentLength();
+            totalBefore += sample.bytes().length;
+            totalAfter += after;
+            report.append(String.format("%-14s %12d %12d %11s %4.2f>%4.2f %7.2f%n",
+                    sample.name(), sample.bytes().length, after, processed.getWidth() + "x" + processed.getHeight(),
+                    sample.bytes().length / UPLINK_BYTES_PER_SECOND, after / UPLINK_BYTES_PER_SECOND, meanAbsoluteError));
+
+            // Then
+            assertEquals(MAX_DIMENSION, Math.max(processed.getWidth(), processed.getHeight()));
+            assertTrue(capHeight(BODY_FONT_SIZE) * scale >= 12, "body text too small after scaling: " + sample.name());
+            assertTrue(meanAbsoluteError < 8, "too far from the reference downscale: " + sample.name());
+        }
+        report.append(String.format("payload reduction: %.1f%%%n", 100.0 * (totalBefore - totalAfter) / totalBefore));
+
+        assertTrue(totalAfter <= totalBefore * 0.3, report.toString());
+    }
+
+    private ImageIOPreprocessorService createService(boolean grayscale) {
+        return new ImageIOPreprocessorService(true, MAX_DIMENSION, grayscale, JPEG_QUALITY, 2, 4, meterRegistry);
+    }
+
+    /**
+     * Draws a recipe card at the given scale of the full-size card, so the same card can be drawn at the size of a
+     * photo and directly at the size of a preprocessed image as the reference.
+     */
+    private static BufferedImage recipeCard(int width, int height, double scale) {
+        var image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        var graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        graphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+        graphics.scale(scale, scale);
+        int fullWidth = (int) Math.round(width / scale);
+        int fullHeight = (int) Math.round(height / scale);
+        graphics.setPaint(new GradientPaint(0, 0, new Color(246, 239, 222), fullWidth, fullHeight, new Color(214, 203, 182)));
+        graphics.fillRect(0, 0, fullWidth, fullHeight);
+        graphics.setColor(new Color(40, 32, 28));
+        graphics.setFont(new Font(Font.SERIF, Font.BOLD, BODY_FONT_SIZE * 2));
+        graphics.drawString("Grandma's Apple Pie", 160, 260);
+        graphics.setFont(new Font(Font.SERIF, Font.PLAIN, BODY_FONT_SIZE));
+        int y = 420;
+        for (int line = 0; y < fullHeight - 160; line++, y += BODY_FONT_SIZE * 3 / 2) {
+            graphics.drawString(line % 3 == 0
+                    ? (line + 1) + ". 250 g flour, 125 g cold butter, 2 tbsp sugar"
+                    : "Rub the butter into the flour, add 3 tbsp water, rest 30 min", 160, y);
+        }
+        graphics.dispose();
+        return image;
+    }
+
+    /**
+     * Adds the sensor noise of a phone photo to the image.
+     */
+    private static BufferedImage photograph(BufferedImage image, long seed) {
+        var random = new Random(seed);
+        int[] row = new int[image.getWidth()];
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, row.length, 1, row, 0, row.length);
+            for (int x = 0; x < row.length; x++) {
+                int noise = (int) Math.round(random.nextGaussian() * 6);
+                int r = clamp(((row[x] >> 16) & 0xFF) + noise);
+                int g = clamp(((row[x] >> 8) & 0xFF) + noise);
+                int b = clamp((row[x] & 0xFF) + noise);
+                row[x] = (r << 16) | (g << 8) | b;
+            }
+            image.setRGB(0, y, row.length, 1, row, 0, row.length);
+        }
+        return image;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    private static double capHeight(int fontSize) {
+        var font = new Font(Font.SERIF, Font.PLAIN, fontSize);
+        return font.createGlyphVector(new FontRenderContext(null, true, true), "H").getVisualBounds().getHeight();
+    }
+
+    private static double meanAbsoluteError(BufferedImage actual, BufferedImage expected) {
+        long total = 0;
+        for (int y = 0; y < actual.getHeight(); y++) {
+            for (int x = 0; x < actual.getWidth(); x++) {
+                total += Math.abs(luminance(actual.getRGB(x, y)) - luminance(expected.getRGB(x, y)));
+            }
+        }
+        return (double) total / ((long) actual.getWidth() * actual.getHeight());
+    }
+
+    private static int luminance(int rgb) {
+        return (299 * ((rgb >> 16) & 0xFF) + 587 * ((rgb >> 8) & 0xFF) + 114 * (rgb & 0xFF)) / 1000;
+    }
+
+    private static BufferedImage decode(Resource image) throws IOException {
+        try (var input = image.getInputStream()) {
+            return ImageIO.read(input);
+        }
+    }
+
+    private static byte[] encodePng(BufferedImage image) throws IOException {
+        var output = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", output);
+        return output.toByteArray();
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        var output = new ByteArrayOutputStream();
+        try (var imageOutput = new MemoryCacheImageOutputStream(output)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(imageOutput);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Inserts an EXIF APP1 segment holding only the orientation tag right after the JFIF APP0 segment, as cameras do.
+     */
+    private static byte[] withExifOrientation(byte[] jpeg, int orientation) {
+        var tiff = ByteBuffer.allocate(26)
+                .put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8)
+                .putShort((short) 1)
+                .putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0)
+                .putInt(0)
+                .array();
+        var segment = ByteBuffer.allocate(4 + 6 + tiff.length)
+                .put((byte) 0xFF).put((byte) 0xE1).putShort((short) (2 + 6 + tiff.length))
+                .put("Exif\0\0".getBytes()).put(tiff)
+                .array();
+        int app0End = 4 + (((jpeg[4] & 0xFF) << 8) | (jpeg[5] & 0xFF));
+        var output = new ByteArrayOutputStream();
+        output.write(jpeg, 0, app0End);
+        output.write(segment, 0, segment.length);
+        output.write(jpeg, app0End, jpeg.length - app0End);
+        assertDoesNotThrow(() -> ImageIO.read(new ByteArrayInputStream(output.toByteArray())));
+        return output.toByteArray();
+    }
+}
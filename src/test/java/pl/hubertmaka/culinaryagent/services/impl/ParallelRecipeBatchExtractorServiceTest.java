@@ -0,0 +1,132 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import pl.hubertmaka.culinaryagent.domain.dtos.BatchExtractionRequestDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.BatchExtractionResultDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.MetadataDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeDataRequestDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaResponseDto;
+import pl.hubertmaka.culinaryagent.domain.enums.Language;
+import pl.hubertmaka.culinaryagent.domain.enums.RecipeSource;
+import pl.hubertmaka.culinaryagent.exceptions.RecipeExtractionException;
+import pl.hubertmaka.culinaryagent.services.RecipeExtractorService;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ParallelRecipeBatchExtractorServiceTest {
+
+    @Mock
+    private RecipeExtractorService recipeExtractorService;
+
+    private final RecipeSchemaResponseDto response = new RecipeSchemaResponseDto(
+        new RecipeSchemaDto("Pasta", List.of(), 20, List.of()),
+        new MetadataDto(10, 20, 30, "gemini-pro")
+    );
+
+    @Test
+    @DisplayName("Test if every recipe of the batch is extracted and tagged with its index")
+    void whenExtractBatch_thenEmitResultForEveryIndex() {
+        // Given
+        var service = new ParallelRecipeBatchExtractorService(recipeExtractorService, Schedulers.boundedElastic(), 4);
+        var request = new BatchExtractionRequestDto(List.of(recipe("first"), recipe("second"), recipe("third")));
+        when(recipeExtractorService.extract(any())).thenReturn(response);
+
+        // When
+        var results = service.extract(request).collectList().block();
+
+        // Then
+        assertNotNull(results);
+        assertEquals(List.of(0, 1, 2), results.stream().map(BatchExtractionResultDto::index).sorted().toList());
+        results.forEach(result -> {
+            assertSame(response, result.result());
+            assertNull(result.error());
+        });
+    }
+
+    @Test
+    @DisplayName("Test if a failed recipe is reported as an error without aborting the batch")
+    void whenOneRecipeFails_thenReportErrorAndContinue() {
+        // Given
+        var service = new ParallelRecipeBatchExtractorService(recipeExtractorService, Schedulers.immediate(), 4);
+        var failing = recipe("broken");
+        var request = new BatchExtractionRequestDto(List.of(recipe("first"), failing, recipe("third")));
+        when(recipeExtractorService.extract(any())).thenReturn(response);
+        when(recipeExtractorService.extract(failing)).thenThrow(new RecipeExtractionException("Failed to extract recipe"));
+
+        // When
+        var results = service.extract(request).collectList().block();
+
+        // Then
+        assertNotNull(results);
+        assertEquals(3, results.size());
+        var error = results.stream().filter(result -> result.index() == 1).findFirst().orElseThrow();
+        assertNull(error.result());
+        assertEquals(422, error.error().status());
+        assertEquals("Failed to extract recipe", error.error().message());
+        assertEquals(2, results.stream().filter(result -> result.result() != null).count());
+    }
+
+    @Test
+    @DisplayName("Test if unexpected failures do not leak their message to the client")
+    void whenUnexpectedFailure_thenReturnGenericError() {
+        // Given
+        var service = new ParallelRecipeBatchExtractorService(recipeExtractorService, Schedulers.immediate(), 1);
+        var request = new BatchExtractionRequestDto(List.of(recipe("first")));
+        when(recipeExtractorService.extract(any())).thenThrow(new IllegalStateException("internal detail"));
+
+        // When
+        var result = service.extract(request).blockFirst();
+
+        // Then
+        assertNotNull(result);
+        assertEquals(500, result.error().status());
+        assertFalse(result.error().message().contains("internal detail"));
+    }
+
+    @Test
+    @DisplayName("Test if no more than the configured number of extractions run at the same time")
+    void whenExtractBatch_thenRespectConcurrencyLimit() {
+        // Given
+        var service = new ParallelRecipeBatchExtractorService(recipeExtractorService, Schedulers.boundedElastic(), 3);
+        var request = new BatchExtractionRequestDto(IntStream.range(0, 12).mapToObj(i -> recipe("recipe " + i)).toList());
+        var inFlight = new AtomicInteger();
+        var peak = new AtomicInteger();
+        var allRunning = new CyclicBarrier(3);
+        when(recipeExtractorService.extract(any())).thenAnswer(invocation -> {
+            peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            allRunning.await(5, TimeUnit.SECONDS);
+            inFlight.decrementAndGet();
+            return response;
+        });
+
+        // When
+        var results = service.extract(request).collectList().block();
+
+        // Then
+        assertNotNull(results);
+        assertEquals(12, results.size());
+        assertEquals(3, peak.get());
+        assertTrue(results.stream().allMatch(result -> result.error() == null));
+        assertEquals(11, results.stream().max(Comparator.comparingInt(BatchExtractionResultDto::index)).orElseThrow().index());
+    }
+
+    private static RecipeDataRequestDto recipe(String content) {
+        return new RecipeDataRequestDto(content, RecipeSource.TEXT, null, Language.EN_US);
+    }
+}
@@ -0,0 +1,275 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.ai.chat.messages.UserMessage;
+import pl.hubertmaka.culinaryagent.domain.dtos.ChatAgentResponseDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.MetadataDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeChatRequestDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeChatResponseChunkDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaDto;
+import pl.hubertmaka.culinaryagent.domain.enums.AudioFormat;
+import pl.hubertmaka.culinaryagent.domain.enums.Language;
+import pl.hubertmaka.culinaryagent.domain.enums.StreamEvent;
+import pl.hubertmaka.culinaryagent.domain.enums.Voice;
+import pl.hubertmaka.culinaryagent.domain.models.ChatSession;
+import pl.hubertmaka.culinaryagent.domain.models.RecipeContext;
+import pl.hubertmaka.culinaryagent.exceptions.RecipeChatException;
+import pl.hubertmaka.culinaryagent.services.RecipeChatService;
+import pl.hubertmaka.culinaryagent.services.TextToSpeechService;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PipelinedRecipeChatStreamServiceTest {
+
+    @Mock
+    private RecipeChatService recipeChatService;
+
+    @Mock
+    private TextToSpeechService textToSpeechService;
+
+    private final RecipeChatRequestDto request = new RecipeChatRequestDto(
+        new RecipeSchemaDto("Pasta", List.of(), 20, List.of()), List.of(), Voice.VOICE_WOMAN, Language.EN_US, null
+    );
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(textToSpeechService.stream(ArgumentMatchers.<Flux<String>>any(), any(), any())).thenCallRealMethod();
+    }
+
+    @Test
+    @DisplayName("Test if pipelined stream synthesizes every sentence in order and ends with metadata events")
+    void whenStreamPipelined_thenEmitOrderedAudioAndMetadata() {
+        // Given
+        var service = new PipelinedRecipeChatStreamService(recipeChatService, textToSpeechService, true, 0, new SimpleMeterRegistry());
+        var metadata = new MetadataDto(10, 20, 30, "gemini-pro");
+        when(recipeChatService.stream(request)).thenReturn(Flux.just(
+            new ChatAgentResponseDto("Boil the water. ", null),
+            new ChatAgentResponseDto("Add pasta.", metadata)
+        ));
+        when(textToSpeechService.stream("Boil the water.", Voice.VOICE_WOMAN, AudioFormat.MP3_22050_32))
+            .thenReturn(Flux.just(new RecipeChatResponseChunkDto(new byte[]{1}, null)));
+        when(textToSpeechService.stream("Add pasta.", Voice.VOICE_WOMAN, AudioFormat.MP3_22050_32))
+            .thenReturn(Flux.just(new RecipeChatResponseChunkDto(new byte[]{2}, null)));
+        when(textToSpeechService.getModel()).thenReturn("eleven_flash_v2_5");
+
+        // When
+        var result = service.stream(request, AudioFormat.MP3_22050_32)
+            .filter(event -> !StreamEvent.TEXT_DELTA.getEvent().equals(event.event()));
+
+        // Then
+        StepVerifier.create(result)
+            .assertNext(event -> {
+                assertEquals(StreamEvent.AUDIO.getEvent(), event.event());
+                assertArrayEquals(new byte[]{1}, event.data().audioChunk());
+            })
+            .assertNext(event -> assertArrayEquals(new byte[]{2}, event.data().audioChunk()))
+            .assertNext(event -> {
+                assertEquals(StreamEvent.AGENT_COMPLETION.getEvent(), event.event());
+                assertEquals("Boil the water. Add pasta.", event.data().agentResponse().content());
+                assertEquals(metadata, event.data().agentResponse().metadata());
+            })
+            .assertNext(event -> assertEquals("eleven_flash_v2_5", event.data().agentResponse().metadata().model()))
+            .verifyComplete();
+        verify(recipeChatService, never()).chat(any());
+    }
+
+    @Test
+    @DisplayName("Test if pipelined stream fails with RecipeChatException when no metadata was reported")
+    void whenStreamPipelinedWithoutMetadata_thenThrowRecipeChatException() {
+        // Given
+        var service = new PipelinedRecipeChatStreamService(recipeChatService, textToSpeechService, true, 0, new SimpleMeterRegistry());
+        when(recipeChatService.stream(request)).thenReturn(Flux.just(new ChatAgentResponseDto("Hello.", null)));
+        when(textToSpeechService.stream(anyString(), eq(Voice.VOICE_WOMAN), eq(AudioFormat.MP3_22050_32))).thenReturn(Flux.empty());
+
+        // When
+        var result = service.stream(request, AudioFormat.MP3_22050_32);
+
+        // Then
+        StepVerifier.create(result)
+            .assertNext(event -> assertEquals(StreamEvent.TEXT_DELTA.getEvent(), event.event()))
+            .verifyError(RecipeChatException.class);
+    }
+
+    @Test
+    @DisplayName("Test if sequential stream synthesizes the whole answer in a single call")
+    void whenStreamSequentially_thenSynthesizeWholeAnswer() {
+        // Given
+        var service = new PipelinedRecipeChatStreamService(recipeChatService, textToSpeechService, false, 0, new SimpleMeterRegistry());
+        var response = new ChatAgentResponseDto("Boil the water. Add pasta.", new MetadataDto(1, 2, 3, "gemini-pro"));
+        when(recipeChatService.chat(request)).thenReturn(response);
+        when(textToSpeechService.stream(response.content(), Voice.VOICE_WOMAN, AudioFormat.MP3_22050_32))
+            .thenReturn(Flux.just(new RecipeChatResponseChunkDto(new byte[]{1}, null)));
+        when(textToSpeechService.getModel()).thenReturn("eleven_flash_v2_5");
+
+        // When
+        var result = service.stream(request, AudioFormat.MP3_22050_32);
+
+        // Then
+        StepVerifier.create(result)
+            .assertNext(event -> {
+                assertEquals(StreamEvent.TEXT_DELTA.getEvent(), event.event());
+                assertEquals("Boil the water. Add pasta.", event.data().agentResponse().content());
+            })
+            .expectNextCount(3)
+            .verifyComplete();
+        verify(textToSpeechService, times(1)).stream(anyString(), any(), any());
+    }
+
+    @Test
+    @DisplayName("Test if streamAudio writes raw audio bytes in order and returns the agent response")
+    void whenStreamAudio_thenWriteRawBytesAndReturnAgentResponse() throws Exception {
+        // Given
+        var service = new PipelinedRecipeChatStreamService(recipeChatService, textToSpeechService, true, 0, new SimpleMeterRegistry());
+        var metadata = new MetadataDto(10, 20, 30, "gemini-pro");
+        when(recipeChatService.stream(request)).thenReturn(Flux.just(
+            new ChatAgentResponseDto("Boil the water. ", null),
+            new ChatAgentResponseDto("Add pasta.", metadata)
+        ));
+        when(textToSpeechService.stream("Boil the water.", Voice.VOICE_WOMAN, AudioFormat.MP3_22050_32))
+            .thenReturn(Flux.just(new RecipeChatResponseChunkDto(new byte[]{1, 2}, null)));
+        when(textToSpeechService.stream("Add pasta.", Voice.VOICE_WOMAN, AudioFormat.MP3_22050_32))
+            .thenReturn(Flux.just(new RecipeChatResponseChunkDto(new byte[]{3}, null)));
+        when(textToSpeechService.getModel()).thenReturn("eleven_flash_v2_5");
+        var outputStream = new ByteArrayOutputStream();
+
+        // When
+        var result = service.streamAudio(request, AudioFormat.MP3_22050_32, outputStream);
+
+        // Then
+        assertArrayEquals(new byte[]{1, 2, 3}, outputStream.toByteArray());
+        assertEquals("Boil the water. Add pasta.", result.content());
+        assertEquals(metadata, result.metadata());
+    }
+
+    @Test
+    @DisplayName("Test if binary audio transport is at least 25% smaller than base64 JSON server-sent events")
+    void whenStreamAudio_thenPayloadSmallerThanServerSentEvents() throws Exception {
+        // Given
+        var service = new PipelinedRecipeChatStreamService(recipeChatService, textToSpeechService, true, 0, new SimpleMeterRegistry());
+        var random = new Random(42);
+        var chunks = new RecipeChatResponseChunkDto[64];
+        for (int i = 0; i < chunks.length; i++) {
+            var audio = new byte[4096];
+            random.nextBytes(audio);
+            chunks[i] = new RecipeChatResponseChunkDto(audio, null);
+        }
+        when(recipeChatService.stream(request)).thenReturn(Flux.just(
+            new ChatAgentResponseDto("Boil the water.", new MetadataDto(1, 2, 3, "gemini-pro"))
+        ));
+        when(textToSpeechService.stream("Boil the water.", Voice.VOICE_WOMAN, AudioFormat.MP3_22050_32)).thenReturn(Flux.just(chunks));
+        when(textToSpeechService.getModel()).thenReturn("eleven_flash_v2_5");
+        var objectMapper = new ObjectMapper();
+        long sseBytes = 0;
+        for (var chunk : chunks) {
+            sseBytes += ("event:audio\ndata:" + objectMapper.writeValueAsString(chunk) + "\n\n").length();
+        }
+        var outputStream = new ByteArrayOutputStream();
+
+        // When
+        service.streamAudio(request, AudioFormat.MP3_22050_32, outputStream);
+
+        // Then
+        assertEquals(64 * 4096, outputStream.size());
+        assertTrue(outputStream.size() <= sseBytes * 0.75,
+            "binary=" + outputStream.size() + " bytes, sse=" + sseBytes + " bytes");
+    }
+
+    @Test
+    @DisplayName("Test if session stream answers only the new message in the voice of the session")
+    void whenStreamSession_thenAnswerNewMessageInSessionVoice() {
+        // Given
+        var service = new PipelinedRecipeChatStreamService(recipeChatService, textToSpeechService, true, 0, new SimpleMeterRegistry());
+        var session = new ChatSession("session-1", Language.EN_US, Voice.VOICE_MAN, new UserMessage("instruction"),
+                new RecipeContext("Pasta", List.of(), 0));
+        when(recipeChatService.stream(session, "What next?")).thenReturn(Flux.just(
+            new ChatAgentResponseDto("Add pasta.", new MetadataDto(1, 2, 3, "gemini-pro"))
+        ));
+        when(textToSpeechService.stream("Add pasta.", Voice.VOICE_MAN, AudioFormat.MP3_22050_32))
+            .thenReturn(Flux.just(new RecipeChatResponseChunkDto(new byte[]{1}, null)));
+        when(textToSpeechService.getModel()).thenReturn("eleven_flash_v2_5");
+
+        // When
+        var result = service.stream(session, "What next?", AudioFormat.MP3_22050_32);
+
+        // Then
+        StepVerifier.create(result)
+            .assertNext(event -> assertEquals("Add pasta.", event.data().agentResponse().content()))
+            .assertNext(event -> assertArrayEquals(new byte[]{1}, event.data().audioChunk()))
+            .expectNextCount(2)
+            .verifyComplete();
+        verify(recipeChatService, never()).stream(any(RecipeChatRequestDto.class));
+    }
+
+    @Test
+    @DisplayName("Test if stream speaks the answer in the requested audio format and records its audio metrics by format")
+    void whenStreamInAudioFormat_thenRecordAudioMetricsOfFormat() {
+        // Given
+        var meterRegistry = new SimpleMeterRegistry();
+        var service = new PipelinedRecipeChatStreamService(recipeChatService, textToSpeechService, false, 0, meterRegistry);
+        when(recipeChatService.chat(request)).thenReturn(new ChatAgentResponseDto("Boil the water.", new MetadataDto(1, 2, 3, "gemini-pro")));
+        when(textToSpeechService.stream("Boil the water.", Voice.VOICE_WOMAN, AudioFormat.OPUS_48000_32)).thenReturn(Flux.just(
+            new RecipeChatResponseChunkDto(new byte[]{1, 2}, null),
+            new RecipeChatResponseChunkDto(new byte[]{3, 4, 5}, null)
+        ));
+        when(textToSpeechService.getModel()).thenReturn("eleven_flash_v2_5");
+
+        // When
+        service.stream(request, AudioFormat.OPUS_48000_32).blockLast();
+
+        // Then
+        assertEquals(1, meterRegistry.get("tts.audio.first.byte").tag("format", "OPUS_48000_32").timer().count());
+        var size = meterRegistry.get("tts.audio.size").tag("format", "OPUS_48000_32").summary();
+        assertEquals(1, size.count());
+        assertEquals(5, size.totalAmount());
+        assertEquals(0, meterRegistry.get("tts.audio.size").tag("format", "MP3_22050_32").summary().count());
+    }
+
+    @Test
+    @DisplayName("Test if pipelined stream sends every text fragment as it arrives without waiting for its audio")
+    void whenStreamPipelined_thenSendTextDeltasBeforeAudio() {
+        // Given
+        var service = new PipelinedRecipeChatStreamService(recipeChatService, textToSpeechService, true, 0, new SimpleMeterRegistry());
+        when(recipeChatService.stream(request)).thenReturn(Flux.just(
+            new ChatAgentResponseDto("Boil ", null),
+            new ChatAgentResponseDto("the water. ", null),
+            new ChatAgentResponseDto("", null),
+            new ChatAgentResponseDto("Add pasta.", new MetadataDto(10, 20, 30, "gemini-pro"))
+        ));
+        when(textToSpeechService.stream(anyString(), eq(Voice.VOICE_WOMAN), eq(AudioFormat.MP3_22050_32))).thenReturn(Flux.never());
+
+        // When
+        var result = service.stream(request, AudioFormat.MP3_22050_32);
+
+        // Then
+        StepVerifier.create(result)
+            .assertNext(event -> {
+                assertEquals(StreamEvent.TEXT_DELTA.getEvent(), event.event());
+                assertNull(event.data().audioChunk());
+                assertEquals("Boil ", event.data().agentResponse().content());
+                assertNull(event.data().agentResponse().metadata());
+            })
+            .assertNext(event -> assertEquals("the water. ", event.data().agentResponse().content()))
+            .assertNext(event -> assertEquals("Add pasta.", event.data().agentResponse().content()))
+            .expectNoEvent(Duration.ofMillis(100))
+            .thenCancel()
+            .verify();
+    }
+}
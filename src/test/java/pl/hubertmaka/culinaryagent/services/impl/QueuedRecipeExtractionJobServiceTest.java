@@ -0,0 +1,160 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import pl.hubertmaka.culinaryagent.domain.dtos.MetadataDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeDataRequestDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaDto;
+import pl.hubertmaka.culinaryagent.domain.dtos.RecipeSchemaResponseDto;
+import pl.hubertmaka.culinaryagent.domain.enums.JobStatus;
+import pl.hubertmaka.culinaryagent.domain.enums.Language;
+import pl.hubertmaka.culinaryagent.domain.enums.RecipeSource;
+import pl.hubertmaka.culinaryagent.exceptions.CapacityExceededException;
+import pl.hubertmaka.culinaryagent.exceptions.JobNotFoundException;
+import pl.hubertmaka.culinaryagent.exceptions.RecipeExtractionException;
+import pl.hubertmaka.culinaryagent.services.RecipeExtractorService;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class QueuedRecipeExtractionJobServiceTest {
+
+    @Mock
+    private RecipeExtractorService recipeExtractorService;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private QueuedRecipeExtractionJobService service;
+
+    private final RecipeDataRequestDto request = new RecipeDataRequestDto("2 eggs", RecipeSource.TEXT, null, Language.EN_US);
+
+    private final RecipeSchemaResponseDto response = new RecipeSchemaResponseDto(
+        new RecipeSchemaDto("Omelette", List.of(), 5, List.of()),
+        new MetadataDto(10, 20, 30, "gemini-pro")
+    );
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Test if a submitted job is queued immediately and returns the extracted recipe once finished")
+    void whenSubmit_thenReturnJobIdAndLaterResult() {
+        // Given
+        service = new QueuedRecipeExtractionJobService(recipeExtractorService, 1, 10, Duration.ofMinutes(1), meterRegistry);
+        when(recipeExtractorService.extract(request)).thenReturn(response);
+
+        // When
+        var submitted = service.submit(request);
+        var completed = service.awaitCompletion(submitted.jobId()).block(Duration.ofSeconds(5));
+
+        // Then
+        assertNotNull(submitted.jobId());
+        assertNotNull(completed);
+        assertEquals(JobStatus.SUCCEEDED, completed.status());
+        assertSame(response, completed.result());
+        assertEquals(completed, service.get(submitted.jobId()));
+        assertEquals(1, meterRegistry.get("extraction.jobs.queue.wait").timer().count());
+    }
+
+    @Test
+    @DisplayName("Test if a failed extraction is reported as a failed job with an error")
+    void whenExtractionFails_thenJobFailedWithError() {
+        // Given
+        service = new QueuedRecipeExtractionJobService(recipeExtractorService, 1, 10, Duration.ofMinutes(1), meterRegistry);
+        when(recipeExtractorService.extract(request)).thenThrow(new RecipeExtractionException("Failed to extract recipe"));
+
+        // When
+        var submitted = service.submit(request);
+
+        // Then
+        StepVerifier.create(service.awaitCompletion(submitted.jobId()))
+            .assertNext(job -> {
+                assertEquals(JobStatus.FAILED, job.status());
+                assertNull(job.result());
+                assertEquals(422, job.error().status());
+            })
+            .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Test if a job is rejected with CapacityExceededException when the queue is full")
+    void whenQueueFull_thenThrowCapacityExceededException() throws Exception {
+        // Given
+        service = new QueuedRecipeExtractionJobService(recipeExtractorService, 1, 1, Duration.ofMinutes(1), meterRegistry);
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        when(recipeExtractorService.extract(any())).thenAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return response;
+        });
+        var running = service.submit(request);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        var queued = service.submit(request);
+
+        // When
+        assertThrows(CapacityExceededException.class, () -> service.submit(request));
+
+        // Then
+        assertEquals(JobStatus.RUNNING, service.get(running.jobId()).status());
+        assertEquals(JobStatus.QUEUED, service.get(queued.jobId()).status());
+        assertEquals(1.0, meterRegistry.get("extraction.jobs.queue.depth").gauge().value());
+        assertEquals(1.0, meterRegistry.get("extraction.jobs.rejected").counter().count());
+        release.countDown();
+        assertEquals(JobStatus.SUCCEEDED, service.awaitCompletion(queued.jobId()).block(Duration.ofSeconds(5)).status());
+    }
+
+    @Test
+    @DisplayName("Test if a finished job is no longer available after the retention period")
+    void whenRetentionElapsed_thenThrowJobNotFoundException() {
+        // Given
+        var time = new AtomicLong();
+        service = new QueuedRecipeExtractionJobService(recipeExtractorService, 1, 10, Duration.ofMinutes(1), meterRegistry, time::get);
+        when(recipeExtractorService.extract(request)).thenReturn(response);
+        var submitted = service.submit(request);
+        service.awaitCompletion(submitted.jobId()).block(Duration.ofSeconds(5));
+        time.addAndGet(Duration.ofSeconds(59).toNanos());
+        assertEquals(JobStatus.SUCCEEDED, service.get(submitted.jobId()).status());
+
+        // When
+        time.addAndGet(Duration.ofSeconds(2).toNanos());
+
+        // Then
+        assertThrows(JobNotFoundException.class, () -> service.get(submitted.jobId()));
+    }
+
+    @Test
+    @DisplayName("Test if requesting an unknown job throws JobNotFoundException")
+    void whenGetUnknownJob_thenThrowJobNotFoundException() {
+        // Given
+        service = new QueuedRecipeExtractionJobService(recipeExtractorService, 1, 10, Duration.ofMinutes(1), meterRegistry);
+
+        // Then
+        assertThrows(JobNotFoundException.class, () -> service.get("unknown"));
+        assertThrows(JobNotFoundException.class, () -> service.awaitCompletion("unknown"));
+    }
+}
@@ -0,0 +1,189 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.RestClient;
+import pl.hubertmaka.culinaryagent.exceptions.RecipeExtractionException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingWebPageFetcherServiceTest {
+
+    private HttpServer server;
+    private SimpleMeterRegistry meterRegistry;
+    private StreamingWebPageFetcherService fetcherService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.start();
+        meterRegistry = new SimpleMeterRegistry();
+        fetcherService = new StreamingWebPageFetcherService(RestClient.create(), DataSize.ofKilobytes(4), meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    @DisplayName("Test if fetch decodes the page with the charset declared in its meta tag")
+    void whenMetaDeclaresCharset_thenDecodePageWithIt() {
+        // Given
+        var html = "<html><head><meta charset=\"ISO-8859-2\"></head><body><p>Składniki: mąka, jajka</p></body></html>";
+        serve("/pierogi", "text/html", html.getBytes(Charset.forName("ISO-8859-2")), 200);
+
+        // When
+        var document = fetcherService.fetch(url("/pierogi"), null, null).document();
+
+        // Then
+        assertEquals("Składniki: mąka, jajka", document.body().text());
+    }
+
+    @Test
+    @DisplayName("Test if fetch prefers the charset of the Content-Type header")
+    void whenHeaderDeclaresCharset_thenDecodePageWithIt() {
+        // Given
+        var html = "<html><body><p>Crème brûlée</p></body></html>";
+        serve("/creme", "text/html; charset=windows-1252", html.getBytes(Charset.forName("windows-1252")), 200);
+
+        // When
+        var document = fetcherService.fetch(url("/creme"), null, null).document();
+
+        // Then
+        assertEquals("Crème brûlée", document.body().text());
+    }
+
+    @Test
+    @DisplayName("Test if fetch prunes scripts, styles and data URIs but keeps JSON-LD structured data")
+    void whenPageHasInlineBlobs_thenPruneThem() {
+        // Given
+        var html = """
+                <html><head><style>body{color:red}</style>
+                <script>var state = {"huge": "blob"};</script>
+                <script type="application/ld+json">{"@type": "Recipe"}</script></head>
+                <body><img src="data:image/png;base64,iVBORw0KGgo=" alt="Pasta"><svg><path d="M0 0"/></svg><p>Pasta</p></body></html>
+                """;
+        serve("/pasta", "text/html; charset=utf-8", html.getBytes(StandardCharsets.UTF_8), 200);
+
+        // When
+        var document = fetcherService.fetch(url("/pasta"), null, null).document();
+
+        // Then
+        assertEquals(1, document.select("script").size());
+        assertEquals("application/ld+json", document.selectFirst("script").attr("type"));
+        assertTrue(document.select("style, svg").isEmpty());
+        assertFalse(document.selectFirst("img").hasAttr("src"));
+        assertEquals("Pasta", document.selectFirst("img").attr("alt"));
+    }
+
+    @Test
+    @DisplayName("Test if fetch stops reading at the maximum page size and counts the truncated page")
+    void whenPageExceedsMaximumSize_thenTruncateIt() {
+        // Given
+        var html = "<html><body><p>Start of the recipe</p>" + "<p>filler paragraph</p>".repeat(1000) + "<p>End</p></body></html>";
+        serve("/huge", "text/html; charset=utf-8", html.getBytes(StandardCharsets.UTF_8), 200);
+
+        // When
+        var document = fetcherService.fetch(url("/huge"), null, null).document();
+
+        // Then
+        assertTrue(document.body().text().startsWith("Start of the recipe"));
+        assertFalse(document.body().text().endsWith("End"));
+        assertEquals(1.0, meterRegistry.get("web.page.fetch.truncated").counter().count());
+        assertEquals(4096.0, meterRegistry.get("web.page.fetch.size").summary().max());
+        assertEquals(0.0, meterRegistry.get("web.page.fetch.in-flight.bytes").gauge().value());
+    }
+
+    @Test
+    @DisplayName("Test if fetch throws RecipeExtractionException when the server responds with an error")
+    void whenServerRespondsWithError_thenThrowRecipeExtractionException() {
+        // Given
+        serve("/missing", "text/html", "Not found".getBytes(StandardCharsets.UTF_8), 404);
+
+        // When & Then
+        var exception = assertThrows(RecipeExtractionException.class, () -> fetcherService.fetch(url("/missing"), null, null));
+        assertTrue(exception.getMessage().contains("404"));
+    }
+
+    @Test
+    @DisplayName("Test if fetch sends the validators of the cached copy and reports a 304 response as not modified")
+    void whenPageNotModified_thenReturnNotModifiedWithoutBody() {
+        // Given
+        var requestHeaders = new AtomicReference<Headers>();
+        server.createContext("/cached", exchange -> {
+            requestHeaders.set(exchange.getRequestHeaders());
+            exchange.getResponseHeaders().add("Cache-Control", "max-age=600");
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+        });
+
+        // When
+        var page = fetcherService.fetch(url("/cached"), "\"v1\"", "Wed, 21 Oct 2026 07:28:00 GMT");
+
+        // Then
+        assertTrue(page.notModified());
+        assertEquals("\"v1\"", requestHeaders.get().getFirst("If-None-Match"));
+        assertEquals("Wed, 21 Oct 2026 07:28:00 GMT", requestHeaders.get().getFirst("If-Modified-Since"));
+        assertEquals(Duration.ofMinutes(10), page.freshFor());
+        assertEquals(0, page.bytes());
+    }
+
+    @Test
+    @DisplayName("Test if fetch returns the validators of the page and its freshness from max-age minus Age")
+    void whenPageHasCachingHeaders_thenReturnValidatorsAndFreshness() {
+        // Given
+        var body = "<html><body><p>Pasta</p></body></html>".getBytes(StandardCharsets.UTF_8);
+        server.createContext("/fresh", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+            exchange.getResponseHeaders().add("Cache-Control", "public, max-age=300");
+            exchange.getResponseHeaders().add("Age", "60");
+            exchange.getResponseHeaders().add("ETag", "\"abc\"");
+            exchange.getResponseHeaders().add("Last-Modified", "Wed, 21 Oct 2026 07:28:00 GMT");
+            exchange.sendResponseHeaders(200, body.length);
+            try (var responseBody = exchange.getResponseBody()) {
+                responseBody.write(body);
+            }
+        });
+
+        // When
+        var page = fetcherService.fetch(url("/fresh"), null, null);
+
+        // Then
+        assertFalse(page.notModified());
+        assertEquals("\"abc\"", page.etag());
+        assertEquals("Wed, 21 Oct 2026 07:28:00 GMT", page.lastModified());
+        assertEquals(Duration.ofMinutes(4), page.freshFor());
+        assertTrue(page.storable());
+        assertEquals(body.length, page.bytes());
+    }
+
+    private void serve(String path, String contentType, byte[] body, int status) {
+        server.createContext(path, exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", contentType);
+            exchange.sendResponseHeaders(status, body.length);
+            try (var responseBody = exchange.getResponseBody()) {
+                responseBody.write(body);
+            } catch (IOException e) {
+                // The client stops reading at the maximum page size.
+            }
+        });
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+}
@@ -0,0 +1,174 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import pl.hubertmaka.culinaryagent.domain.models.ConversationHistory;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SummarizingConversationHistoryServiceTest {
+
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    private ChatClient summarizer;
+
+    private SimpleMeterRegistry meterRegistry;
+    private SummarizingConversationHistoryService historyService;
+    private final Message instruction = new UserMessage("Cook pierogi in English.");
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        historyService = new SummarizingConversationHistoryService(
+                summarizer, Schedulers.immediate(), true, 50, 4, 100, Duration.ofMinutes(30), meterRegistry);
+    }
+
+    @Test
+    @DisplayName("Test if window sends a history within the budget verbatim without summarizing it")
+    void whenHistoryWithinBudget_thenSendVerbatim() {
+        // Given
+        var history = history(2);
+
+        // When
+        var window = historyService.window(instruction, ConversationHistory.of(history));
+
+        // Then
+        assertEquals(3, window.messages().size());
+        assertSame(instruction, window.messages().getFirst());
+        assertEquals(28, window.historyTokens());
+        assertEquals(window.historyTokens(), window.sentHistoryTokens());
+        verifyNoInteractions(summarizer);
+    }
+
+    @Test
+    @DisplayName("Test if window sends older turns verbatim until their summary is ready and then sends the summary")
+    void whenHistoryOverBudget_thenSendSummaryOnceReady() {
+        // Given
+        when(summarizer.prompt().user(anyString()).call().content()).thenReturn("Dough is resting.");
+        var history = history(8);
+
+        // When
+        var first = historyService.window(instruction, ConversationHistory.of(history));
+        var second = historyService.window(instruction, ConversationHistory.of(history));
+
+        // Then
+        assertEquals(9, first.messages().size());
+        assertEquals(first.historyTokens(), first.sentHistoryTokens());
+        assertEquals(6, second.messages().size());
+        assertEquals("Summary of the earlier conversation:\nDough is resting.", second.messages().get(1).getText());
+        assertEquals(history.get(4).getText(), second.messages().get(2).getText());
+        assertEquals(112, second.historyTokens());
+        assertTrue(second.sentHistoryTokens() < second.historyTokens());
+        assertEquals(1.0, meterRegistry.get("chat.history.summaries").tag("result", "success").counter().count());
+    }
+
+    @Test
+    @DisplayName("Test if window folds further turns into the previous summary instead of summarizing the whole history again")
+    void whenHistoryGrows_thenRollSummary() {
+        // Given
+        when(summarizer.prompt().user(anyString()).call().content()).thenReturn("First summary.", "Second summary.");
+        var history = history(12);
+        historyService.window(instruction, ConversationHistory.of(history.subList(0, 8)));
+
+        // When
+        historyService.window(instruction, ConversationHistory.of(history));
+        var window = historyService.window(instruction, ConversationHistory.of(history));
+
+        // Then
+        var prompts = ArgumentCaptor.forClass(String.class);
+        verify(summarizer.prompt(), atLeastOnce()).user(prompts.capture());
+        String rolled = prompts.getAllValues().getLast();
+        assertTrue(rolled.startsWith("Previous summary:\nFirst summary."));
+        assertFalse(rolled.contains(history.get(3).getText()));
+        assertTrue(rolled.contains(history.get(4).getText()));
+        assertEquals("Summary of the earlier conversation:\nSecond summary.", window.messages().get(1).getText());
+        assertEquals(history.get(8).getText(), window.messages().get(2).getText());
+        assertEquals(2.0, meterRegistry.get("chat.history.summaries").tag("result", "success").counter().count());
+    }
+
+    @Test
+    @DisplayName("Test if window reuses the summaries of a history grown by appends as for a history built at once")
+    void whenHistoryGrowsByAppends_thenWindowMatchesHistoryBuiltAtOnce() {
+        // Given
+        when(summarizer.prompt().user(anyString()).call().content()).thenReturn("First summary.", "Second summary.");
+        var messages = history(12);
+        var history = ConversationHistory.of(messages.subList(0, 8));
+        historyService.window(instruction, history);
+        messages.subList(8, 12).forEach(history::append);
+
+        // When
+        historyService.window(instruction, history);
+        var grown = historyService.window(instruction, history);
+        var builtAtOnce = historyService.window(instruction, ConversationHistory.of(messages));
+
+        // Then
+        assertEquals("Summary of the earlier conversation:\nSecond summary.", grown.messages().get(1).getText());
+        assertEquals(builtAtOnce.messages().size(), grown.messages().size());
+        assertEquals(builtAtOnce.messages().get(1).getText(), grown.messages().get(1).getText());
+        assertEquals(builtAtOnce.historyTokens(), grown.historyTokens());
+        assertEquals(builtAtOnce.sentHistoryTokens(), grown.sentHistoryTokens());
+        assertEquals(2.0, meterRegistry.get("chat.history.summaries").tag("result", "success").counter().count());
+    }
+
+    @Test
+    @DisplayName("Test if window keeps sending the history verbatim when summarizing fails and retries on the next turn")
+    void whenSummaryFails_thenSendVerbatimAndRetry() {
+        // Given
+        when(summarizer.prompt().user(anyString()).call().content())
+                .thenThrow(new IllegalStateException("Model unavailable"))
+                .thenReturn("Dough is resting.");
+        var history = history(8);
+
+        // When
+        var first = historyService.window(instruction, ConversationHistory.of(history));
+        var second = historyService.window(instruction, ConversationHistory.of(history));
+        var third = historyService.window(instruction, ConversationHistory.of(history));
+
+        // Then
+        assertEquals(9, first.messages().size());
+        assertEquals(9, second.messages().size());
+        assertEquals(6, third.messages().size());
+        assertEquals(1.0, meterRegistry.get("chat.history.summaries").tag("result", "failure").counter().count());
+        assertEquals(1.0, meterRegistry.get("chat.history.summaries").tag("result", "success").counter().count());
+    }
+
+    @Test
+    @DisplayName("Test if the service rejects a fold size that would split a turn")
+    void whenFoldSizeIsOdd_thenThrowIllegalArgumentException() {
+        // When & Then
+        assertThrows(IllegalArgumentException.class, () -> new SummarizingConversationHistoryService(
+                summarizer, Schedulers.immediate(), true, 50, 3, 100, Duration.ofMinutes(30), meterRegistry));
+    }
+
+    /**
+     * Builds a conversation of alternating user and assistant messages of 40 characters, 14 estimated tokens each.
+     */
+    private static List<Message> history(int size) {
+        List<Message> history = new ArrayList<>(size);
+        for (int index = 0; index < size; index++) {
+            String text = String.format("Message number %02d about folding pierogi", index);
+            history.add(index % 2 == 0
+                    ? new UserMessage(text)
+                    : AssistantMessage.builder().content(text).build());
+        }
+        return history;
+    }
+}
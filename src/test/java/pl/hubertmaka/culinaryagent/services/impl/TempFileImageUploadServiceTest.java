@@ -0,0 +1,87 @@
+package pl.hubertmaka.culinaryagent.services.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import pl.hubertmaka.culinaryagent.domain.enums.FileExtension;
+import pl.hubertmaka.culinaryagent.exceptions.CapacityExceededException;
+import pl.hubertmaka.culinaryagent.utils.HashUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TempFileImageUploadServiceTest {
+
+    @TempDir
+    private Path directory;
+    private SimpleMeterRegistry meterRegistry;
+    private TempFileImageUploadService uploadService;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        uploadService = new TempFileImageUploadService(
+                directory.toString(), DataSize.ofKilobytes(64), DataSize.ofKilobytes(100), meterRegistry);
+    }
+
+    @Test
+    @DisplayName("Test if withUpload spools the image to a hashed temporary file and deletes it afterwards")
+    void whenUpload_thenSpoolToHashedTemporaryFileAndDeleteIt() {
+        // Given
+        var image = new byte[50_000];
+        image[0] = (byte) 0xFF;
+
+        // When
+        var upload = uploadService.withUpload(new ByteArrayInputStream(image), FileExtension.JPEG, image.length, spooled -> {
+            assertDoesNotThrow(() -> assertArrayEquals(image, Files.readAllBytes(spooled.file())));
+            assertTrue(meterRegistry.get("image.upload.memory.reserved").gauge().value() >= image.length);
+            return spooled;
+        });
+
+        // Then
+        assertEquals(image.length, upload.size());
+        assertEquals(HexFormat.of().formatHex(HashUtils.newSha256Digest().digest(image)), upload.sha256());
+        assertTrue(upload.file().toString().endsWith(".jpeg"));
+        assertFalse(Files.exists(upload.file()));
+        assertEquals(0.0, meterRegistry.get("image.upload.memory.reserved").gauge().value());
+    }
+
+    @Test
+    @DisplayName("Test if withUpload rejects an image that does not fit the remaining memory budget")
+    void whenMemoryBudgetExhausted_thenRejectUpload() {
+        // Given
+        var image = new byte[60_000];
+
+        // When & Then
+        uploadService.withUpload(new ByteArrayInputStream(image), FileExtension.PNG, image.length, first -> {
+            assertThrows(CapacityExceededException.class, () -> uploadService.withUpload(
+                    new ByteArrayInputStream(image), FileExtension.PNG, image.length, second -> second));
+            return first;
+        });
+        assertEquals(1.0, meterRegistry.get("image.upload.rejected").counter().count());
+        assertNotNull(uploadService.withUpload(new ByteArrayInputStream(image), FileExtension.PNG, image.length, upload -> upload));
+    }
+
+    @Test
+    @DisplayName("Test if withUpload stops reading an image of unknown size once it exceeds the maximum size")
+    void whenImageExceedsMaximumSize_thenThrowMaxUploadSizeExceeded() throws Exception {
+        // Given
+        var image = new byte[70_000];
+
+        // When & Then
+        assertThrows(MaxUploadSizeExceededException.class, () -> uploadService.withUpload(
+                new ByteArrayInputStream(image), FileExtension.PNG, -1, upload -> upload));
+        try (var files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+        assertEquals(0.0, meterRegistry.get("image.upload.memory.reserved").gauge().value());
+    }
+}
@@ -3,21 +3,29 @@ package pl.hubertmaka.culinaryagent.strategies.impl;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.MimeTypeUtils;
 import pl.hubertmaka.culinaryagent.domain.dtos.RecipeDataRequestDto;
 import pl.hubertmaka.culinaryagent.domain.enums.FileExtension;
 import pl.hubertmaka.culinaryagent.domain.enums.Language;
 import pl.hubertmaka.culinaryagent.domain.enums.RecipeSource;
+import pl.hubertmaka.culinaryagent.domain.models.ImageUpload;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Base64;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class ImageRecipeInputStrategyTest {
+    @TempDir
+    private Path directory;
     private ImageRecipeInputStrategy imageRecipeInputStrategy;
 
     @BeforeEach
     void setUp() {
-        imageRecipeInputStrategy = new ImageRecipeInputStrategy();
+        imageRecipeInputStrategy = new ImageRecipeInputStrategy((image, fileExtension) -> image);
     }
 
     @Test
@@ -111,4 +119,38 @@ class ImageRecipeInputStrategyTest {
         assertNotNull(userMessage.getMedia());
         assertFalse(userMessage.getMedia().isEmpty());
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Test if ImageRecipeInputStrategy normalizes content to the hash of the image bytes with or without the data URI prefix")
+    void whenNormalizeContent_thenHashDecodedImageBytes() {
+        // Given
+        var withPrefix = new RecipeDataRequestDto("data:image/png;base64,aGVs\nbG8=", RecipeSource.IMAGE, FileExtension.PNG, Language.EN_US);
+        var withoutPrefix = new RecipeDataRequestDto("aGVsbG8=", RecipeSource.IMAGE, FileExtension.PNG, Language.EN_US);
+
+        // When
+        var first = imageRecipeInputStrategy.normalizeContent(withPrefix);
+        var second = imageRecipeInputStrategy.normalizeContent(withoutPrefix);
+
+        // Then
+        assertEquals("2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824", first);
+        assertEquals(first, second);
+    }
+
+    @Test
+    @DisplayName("Test if ImageRecipeInputStrategy creates a UserMessage from an uploaded image file")
+    void whenCreateMessageFromUpload_thenReturnUserMessageWithImageFromFile() throws IOException {
+        // Given
+        byte[] imageBytes = "test image data".getBytes();
+        Path file = Files.write(directory.resolve("upload.png"), imageBytes);
+        var upload = new ImageUpload(file, FileExtension.PNG, imageBytes.length, "hash");
+
+        // When
+        var userMessage = imageRecipeInputStrategy.createUploadMessage(upload);
+
+        // Then
+        assertEquals("Extract text from given image", userMessage.getText());
+        assertEquals(1, userMessage.getMedia().size());
+        assertEquals(MimeTypeUtils.IMAGE_PNG, userMessage.getMedia().getFirst().getMimeType());
+        assertArrayEquals(imageBytes, userMessage.getMedia().getFirst().getDataAsByteArray());
+    }
+}
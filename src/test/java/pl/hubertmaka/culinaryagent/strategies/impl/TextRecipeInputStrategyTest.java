@@ -102,4 +102,17 @@ class TextRecipeInputStrategyTest {
         assertEquals("Test recipe content", userMessage.getText());
         assertTrue(userMessage.getMedia().isEmpty());
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Test if TextRecipeInputStrategy normalizes content by collapsing whitespace")
+    public void whenNormalizeContent_thenCollapseWhitespace() {
+        // Given
+        var recipeData = new RecipeDataRequestDto("  Boil\n\n pasta \t for ten minutes.  ", RecipeSource.TEXT, null, Language.EN_US);
+
+        // When
+        var result = textRecipeInputStrategy.normalizeContent(recipeData);
+
+        // Then
+        assertEquals("Boil pasta for ten minutes.", result);
+    }
+}
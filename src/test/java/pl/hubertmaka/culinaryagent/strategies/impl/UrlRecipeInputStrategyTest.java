@@ -3,24 +3,26 @@ package pl.hubertmaka.culinaryagent.strategies.impl;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.Answers;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.web.reactive.function.client.WebClient;
 import pl.hubertmaka.culinaryagent.domain.dtos.RecipeDataRequestDto;
 import pl.hubertmaka.culinaryagent.domain.enums.Language;
 import pl.hubertmaka.culinaryagent.domain.enums.RecipeSource;
-import reactor.core.publisher.Mono;
+import pl.hubertmaka.culinaryagent.domain.models.WebPageContent;
+import pl.hubertmaka.culinaryagent.services.WebPageContentService;
+import pl.hubertmaka.culinaryagent.utils.HashUtils;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class UrlRecipeInputStrategyTest {
-    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
-    private WebClient webClient;
+    @Mock
+    private WebPageContentService webPageContentService;
     @InjectMocks
     private UrlRecipeInputStrategy urlRecipeInputStrategy;
 
@@ -76,8 +78,7 @@ class UrlRecipeInputStrategyTest {
         var url = "https://example.com/recipe";
         var recipeData = new RecipeDataRequestDto(url, RecipeSource.URL, null, Language.EN_US);
         var expectedContent = "Delicious Pasta Ingredients: pasta, tomato sauce, cheese";
-        var htmlContent = "<html><head><title>Test Recipe</title></head><body><h1>Delicious Pasta</h1><p>Ingredients: pasta, tomato sauce, cheese</p></body></html>";
-        when(webClient.get().uri(anyString()).retrieve().bodyToMono(String.class)).thenReturn(Mono.just(htmlContent));
+        when(webPageContentService.load(anyString())).thenReturn(new WebPageContent(expectedContent, ""));
 
         // When
         var userMessage = urlRecipeInputStrategy.createMessage(recipeData);
@@ -94,8 +95,7 @@ class UrlRecipeInputStrategyTest {
         var url = "https://example.com/empty-recipe";
         var recipeData = new RecipeDataRequestDto(url, RecipeSource.URL, null, Language.EN_US);
         var expectedContent = "";
-        var htmlContent = "<html><head><title>Empty Recipe</title></head><body></body></html>";
-        when(webClient.get().uri(url).retrieve().bodyToMono(String.class)).thenReturn(Mono.just(htmlContent));
+        when(webPageContentService.load(url)).thenReturn(new WebPageContent(expectedContent, ""));
 
         // When
         var userMessage = urlRecipeInputStrategy.createMessage(recipeData);
@@ -104,4 +104,39 @@ class UrlRecipeInputStrategyTest {
         assertNotNull(userMessage);
         assertEquals(expectedContent, userMessage.getText());
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Test if UrlRecipeInputStrategy addresses the page by its content and loads it from the canonical URL once")
+    void whenNormalizeContent_thenReturnHashOfPageContent() {
+        // Given
+        var recipeData = new RecipeDataRequestDto(" HTTPS://Example.COM/Recipes/Pasta?id=1#comments ", RecipeSource.URL, null, Language.EN_US);
+        when(webPageContentService.load("https://example.com/Recipes/Pasta?id=1"))
+                .thenReturn(new WebPageContent("Boil the pasta.", "<html></html>"));
+
+        // When
+        var result = urlRecipeInputStrategy.normalizeContent(recipeData);
+        var userMessage = urlRecipeInputStrategy.createMessage(recipeData);
+
+        // Then
+        assertEquals(HashUtils.sha256Hex("Boil the pasta.", "<html></html>"), result);
+        assertEquals("Boil the pasta.", userMessage.getText());
+        verify(webPageContentService, times(1)).load(anyString());
+    }
+
+    @Test
+    @DisplayName("Test if UrlRecipeInputStrategy addresses pages with different content differently")
+    void whenPageContentDiffers_thenReturnDifferentKeys() {
+        // Given
+        var first = new RecipeDataRequestDto("https://example.com/pasta", RecipeSource.URL, null, Language.EN_US);
+        var second = new RecipeDataRequestDto("https://example.com/pizza", RecipeSource.URL, null, Language.EN_US);
+        when(webPageContentService.load("https://example.com/pasta")).thenReturn(new WebPageContent("Boil the pasta.", ""));
+        when(webPageContentService.load("https://example.com/pizza")).thenReturn(new WebPageContent("Bake the pizza.", ""));
+
+        // When
+        var firstKey = urlRecipeInputStrategy.normalizeContent(first);
+        var secondKey = urlRecipeInputStrategy.normalizeContent(second);
+
+        // Then
+        assertNotEquals(firstKey, secondKey);
+    }
+}
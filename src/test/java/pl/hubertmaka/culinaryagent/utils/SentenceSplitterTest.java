@@ -0,0 +1,70 @@
+package pl.hubertmaka.culinaryagent.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SentenceSplitterTest {
+
+    @Test
+    @DisplayName("Test if split emits sentences as soon as their boundary arrives in the stream")
+    void whenSplitStream_thenEmitCompleteSentences() {
+        // Given
+        var fragments = Flux.just("Heat the pan", ". Add the oil and", " wait a minute! Then add", " the onion.");
+
+        // When
+        var result = SentenceSplitter.split(fragments, 0);
+
+        // Then
+        StepVerifier.create(result)
+            .expectNext("Heat the pan.")
+            .expectNext("Add the oil and wait a minute!")
+            .expectNext("Then add the onion.")
+            .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Test if split merges sentences shorter than the minimum length with the following ones")
+    void whenSplitStreamWithMinLength_thenMergeShortSentences() {
+        // Given
+        var fragments = Flux.just("Yes. ", "Stir the sauce slowly. ", "Done.");
+
+        // When
+        var result = SentenceSplitter.split(fragments, 10);
+
+        // Then
+        StepVerifier.create(result)
+            .expectNext("Yes. Stir the sauce slowly.")
+            .expectNext("Done.")
+            .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Test if split does not cut on punctuation without following whitespace")
+    void whenSplitTextWithInnerPunctuation_thenKeepSentenceWhole() {
+        // Given
+        var text = "Use 1.5 litres of water... then boil it.";
+
+        // When
+        var result = SentenceSplitter.split(text, 0);
+
+        // Then
+        assertEquals(List.of("Use 1.5 litres of water...", "then boil it."), result);
+    }
+
+    @Test
+    @DisplayName("Test if split returns nothing for an empty stream")
+    void whenSplitEmptyStream_thenComplete() {
+        // When
+        var result = SentenceSplitter.split(Flux.just("", "  "), 0);
+
+        // Then
+        StepVerifier.create(result)
+            .verifyComplete();
+    }
+}
@@ -0,0 +1,195 @@
+package pl.hubertmaka.culinaryagent.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    private Counter sharedCalls;
+
+    private SingleFlight<String, String> singleFlight;
+
+    private CountDownLatch started;
+
+    private Semaphore shares;
+
+    @BeforeEach
+    void setUp() {
+        started = new CountDownLatch(1);
+        shares = new Semaphore(0);
+        var counter = Counter.builder("shared").register(new SimpleMeterRegistry());
+        sharedCalls = new Counter() {
+            @Override
+            public void increment(double amount) {
+                counter.increment(amount);
+                shares.release();
+            }
+
+            @Override
+            public double count() {
+                return counter.count();
+            }
+
+            @Override
+            public Meter.Id getId() {
+                return counter.getId();
+            }
+        };
+        singleFlight = new SingleFlight<>(sharedCalls);
+    }
+
+    @Test
+    @DisplayName("Test if concurrent calls with the same key run the loader once and share its result")
+    void whenConcurrentCallsWithSameKey_thenRunLoaderOnce() throws Exception {
+        // Given
+        var loads = new AtomicInteger();
+        var release = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(8);
+
+        // When
+        Future<String> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+            loads.incrementAndGet();
+            started.countDown();
+            await(release);
+            return "result";
+        }));
+        waitUntilInFlight();
+        var followers = new ArrayList<Future<String>>();
+        for (int i = 0; i < 7; i++) {
+            followers.add(executor.submit(() -> singleFlight.execute("key", () -> {
+                loads.incrementAndGet();
+                return "other";
+            })));
+        }
+        waitUntilShared(7);
+        release.countDown();
+
+        // Then
+        assertEquals("result", leader.get(5, TimeUnit.SECONDS));
+        for (var follower : followers) {
+            assertEquals("result", follower.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        assertEquals(7.0, sharedCalls.count());
+        assertEquals(0, singleFlight.inFlightCount());
+        shutdown(executor);
+    }
+
+    @Test
+    @DisplayName("Test if the failure of the loader is rethrown unwrapped to every waiting caller")
+    void whenLoaderFails_thenPropagateFailureToFollowers() throws Exception {
+        // Given
+        var release = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(2);
+        var failure = new IllegalStateException("boom");
+
+        // When
+        Future<String> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+            started.countDown();
+            await(release);
+            throw failure;
+        }));
+        waitUntilInFlight();
+        Future<String> follower = executor.submit(() -> singleFlight.execute("key", () -> "other"));
+        waitUntilShared(1);
+        release.countDown();
+
+        // Then
+        var leaderError = assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+        var followerError = assertThrows(ExecutionException.class, () -> follower.get(5, TimeUnit.SECONDS));
+        assertSame(failure, leaderError.getCause());
+        assertSame(failure, followerError.getCause());
+        assertEquals("fresh", singleFlight.execute("key", () -> "fresh"));
+        shutdown(executor);
+    }
+
+    @Test
+    @DisplayName("Test if an interrupted follower stops waiting without cancelling the in-flight call")
+    void whenFollowerInterrupted_thenThrowCancellationAndKeepLeaderRunning() throws Exception {
+        // Given
+        var release = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(2);
+        var followerError = new AtomicReference<Throwable>();
+        var followerInterrupted = new AtomicReference<Boolean>();
+
+        // When
+        Future<String> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+            started.countDown();
+            await(release);
+            return "result";
+        }));
+        waitUntilInFlight();
+        var follower = new Thread(() -> {
+            try {
+                singleFlight.execute("key", () -> "other");
+            } catch (Throwable e) {
+                followerError.set(e);
+                followerInterrupted.set(Thread.currentThread().isInterrupted());
+            }
+        });
+        follower.start();
+        waitUntilShared(1);
+        follower.interrupt();
+        follower.join(5000);
+        release.countDown();
+
+        // Then
+        assertInstanceOf(CancellationException.class, followerError.get());
+        assertTrue(followerInterrupted.get());
+        assertEquals("result", leader.get(5, TimeUnit.SECONDS));
+        shutdown(executor);
+    }
+
+    @Test
+    @DisplayName("Test if calls with different keys are not coalesced")
+    void whenCallsWithDifferentKeys_thenRunEachLoader() {
+        // When
+        var first = singleFlight.execute("first", () -> "a");
+        var second = singleFlight.execute("second", () -> "b");
+
+        // Then
+        assertEquals("a", first);
+        assertEquals("b", second);
+        assertEquals(0.0, sharedCalls.count());
+    }
+
+    private void waitUntilInFlight() throws InterruptedException {
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(1, singleFlight.inFlightCount());
+    }
+
+    private void waitUntilShared(int calls) throws InterruptedException {
+        assertTrue(shares.tryAcquire(calls, 5, TimeUnit.SECONDS));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void shutdown(ExecutorService executor) throws InterruptedException {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}